@@ -0,0 +1,147 @@
+package com.jackmeng;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The shared parts of the lock-free byte rings: a power of two sized buffer, either on
+ * the heap or direct (off-heap), indexed with a mask, and the head and tail counters.
+ * <p>
+ * The counters only ever grow, the position in the buffer is {@code counter&mask}. They
+ * are kept in one {@code long[]} far enough apart that the producer's counters and the
+ * consumer's counters never share a cache line (an array is laid out in order, unlike
+ * fields, which the JVM is free to pack together). Next to each counter sits the side's
+ * last look at the other side's counter, so the other side's line is only read when the
+ * cached value says the ring is full or empty.
+ * <p>
+ * Multi byte values are in native order.
+ *
+ * @author Jack Meng
+ * @see SpscByteRing
+ * @see MpscByteRing
+ */
+public abstract sealed class ByteRing
+	permits SpscByteRing, MpscByteRing
+{
+	// written by the producer(s)
+	static final int TAIL=8;
+	static final int HEAD_CACHE=9;
+	// written by the consumer, 16 longs (128 bytes) away
+	static final int HEAD=24;
+	static final int TAIL_CACHE=25;
+	private static final int COUNTERS=40;
+	static final VarHandle COUNTER=MethodHandles.arrayElementVarHandle(long[].class);
+	final ByteBuffer buffer;
+	final int capacity;
+	final int mask;
+	final long[] counters;
+	
+	ByteRing(int capacity,boolean direct)
+	{
+		if(capacity<=0||capacity>1<<30)
+			throw new IllegalArgumentException("The capacity must be in (0,2^30]");
+		this.capacity=Math.max(
+			16,
+			Integer.highestOneBit(capacity-1)<<1
+		);
+		this.mask    =this.capacity-1;
+		this.buffer  =(direct
+					   ?ByteBuffer.allocateDirect(this.capacity)
+					   :ByteBuffer.allocate(this.capacity)).order(ByteOrder.nativeOrder());
+		this.counters=new long[COUNTERS];
+	}
+	
+	/**
+	 * @return How many bytes the ring holds, the requested capacity rounded up to a power
+	 * of two (at least 16)
+	 */
+	public final int capacity()
+	{
+		return capacity;
+	}
+	
+	/**
+	 * @return Whether the bytes are kept off-heap
+	 */
+	public final boolean isDirect()
+	{
+		return buffer.isDirect();
+	}
+	
+	/**
+	 * @return How many bytes are taken up right now. From any thread but the consumer this
+	 * is only an estimate.
+	 */
+	public final int size()
+	{
+		long h=(long)COUNTER.getAcquire(
+			counters,
+			HEAD
+		);
+		long t=(long)COUNTER.getAcquire(
+			counters,
+			TAIL
+		);
+		return (int)Math.max(
+			0L,
+			Math.min(
+				capacity,
+				t-h
+			)
+		);
+	}
+	
+	/**
+	 * @return Whether nothing is waiting to be read
+	 */
+	public final boolean isEmpty()
+	{
+		return size()==0;
+	}
+	
+	/**
+	 * @return How many bytes can be written right now. From any thread but a producer this
+	 * is only an estimate.
+	 */
+	public final int free()
+	{
+		return capacity-size();
+	}
+	
+	/**
+	 * Writes an int that may wrap around the end of the buffer
+	 */
+	final void putIntWrapped(int at,int v)
+	{
+		if(at<=capacity-4)
+		{
+			buffer.putInt(
+				at,
+				v
+			);
+			return;
+		}
+		boolean little=buffer.order()==ByteOrder.LITTLE_ENDIAN;
+		for(int i=0;i<4;i++)
+			buffer.put(
+				(at+i)&mask,
+				(byte)(v>>>((little?i:3-i)<<3))
+			);
+	}
+	
+	/**
+	 * Reads an int that may wrap around the end of the buffer
+	 */
+	final int getIntWrapped(int at)
+	{
+		if(at<=capacity-4)
+			return buffer.getInt(at);
+		boolean little=buffer.order()==ByteOrder.LITTLE_ENDIAN;
+		int v=0;
+		for(int i=0;i<4;i++)
+			v|=(buffer.get((at+i)&mask)&0xFF)<<((little?i:3-i)<<3);
+		return v;
+	}
+}
@@ -2,6 +2,10 @@ package com.jackmeng;
 
 import java.nio.ByteBuffer;
 
+/**
+ * A fixed size byte ring that is not thread safe. Use {@link SpscByteRing} or
+ * {@link MpscByteRing} to hand bytes between threads.
+ */
 public class CircularBuffer
 {
 	private final byte[] buffer;
@@ -113,29 +117,14 @@ public class CircularBuffer
 	
 	public int peek(byte[] data,int i,int len)
 	{
-		if(sz==0)
-		{
-			return 0;
-		}
 		int read=Math.min(len,sz);
-		int offset=offset();
-		int f1=start;
-		int f1_sz=buffer.length-start;
-		if(f1_sz>sz)
-			f1_sz=sz;
-		if(f1_sz>=read)
-			f1_sz=read;
-		System.arraycopy(data,f1,data,i,f1_sz);
-		read-=f1_sz;
-		if(read==0)
-			return f1_sz;
-		int f2=offset<=start?0:sz;
-		int f2_sz=buffer.length-f1_sz;
-		if(f2_sz>=read)
-			f2_sz=read;
-		System.arraycopy(data,f2,data,i+f1_sz,f2_sz);
-		read-=f2_sz;
-		return len-read;
+		if(read<=0)
+			return 0;
+		int f1_sz=Math.min(read,buffer.length-start);
+		System.arraycopy(buffer,start,data,i,f1_sz);
+		if(read>f1_sz)
+			System.arraycopy(buffer,0,data,i+f1_sz,read-f1_sz);
+		return read;
 	}
 	
 	public int pop(byte[] bytes,int i,int len)
@@ -164,8 +153,16 @@ public class CircularBuffer
 		start=calc_offset(start,overflow,buffer.length);
 	}
 	
+	/**
+	 * @param n The write offset, see {@link #offset()}
+	 *
+	 * @return How many bytes can be written at the offset before wrapping or running into
+	 * the unread bytes
+	 */
 	public int free(int n)
 	{
-		return start>=n?sz>0?n-start:buffer.length-n:buffer.length-n;
+		if(sz==buffer.length)
+			return 0;
+		return n>=start?buffer.length-n:start-n;
 	}
 }
@@ -70,7 +70,7 @@ public class Complex
 	{
 		return new Complex(
 			this.real()*Complex.real()-this.imaginary()*Complex.imaginary(),
-			this.real()*this.imaginary()-Complex.real()*Complex.imaginary()
+			this.real()*Complex.imaginary()+this.imaginary()*Complex.real()
 		);
 	}
 	
@@ -104,7 +104,7 @@ public class Complex
 	{
 		return new Complex(
 			real/(real*real+imaginary*imaginary),
-			imaginary/(real*real+imaginary*imaginary)
+			-imaginary/(real*real+imaginary*imaginary)
 		);
 	}
 	
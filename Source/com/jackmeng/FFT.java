@@ -0,0 +1,564 @@
+package com.jackmeng;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A fast Fourier transform plan for one power of two size that works in place on
+ * interleaved arrays ({@code re,im,re,im,...}) of doubles or floats.
+ * <p>
+ * Plans hold the twiddle factors and the bit reversal table of their size, computed once,
+ * and never change after that, so {@link #of(int)} hands out one shared plan per size and
+ * a plan can be used from any number of threads. Transforming does not allocate.
+ * <p>
+ * The transform is the iterative decimation in time kind: the input is put in bit
+ * reversed order and then the butterflies are done from the smallest span up. Two spans
+ * are done in each pass over the data (radix 2<sup>2</sup>), which halves the passes of
+ * plain radix 2, with a single radix 2 pass first when there is an odd amount of spans.
+ * <p>
+ * The forward transform is not scaled and the inverse is scaled by {@code 1/n}, so one
+ * after the other gives back the input. The real transforms take {@code n} real samples
+ * and work on them as {@code n/2} complex points, giving {@code n/2+1} bins packed into
+ * the same {@code n} slots: {@code [0]} is the DC bin, {@code [1]} the Nyquist bin (both
+ * are purely real) and bin {@code k} is at {@code [2k],[2k+1]} for {@code 0<k<n/2}.
+ *
+ * @author Jack Meng
+ */
+public final class FFT
+{
+	private static final ConcurrentHashMap<Integer,FFT> plans=new ConcurrentHashMap<>();
+	private final int n;
+	private final int log;
+	// W_n^k=cos[k]-i*sin[k] for k<n/2
+	private final double[] cos;
+	private final double[] sin;
+	private final float[] cosF;
+	private final float[] sinF;
+	// i and rev[i] swap places, only filled in where i<rev[i]
+	private final int[] rev;
+	// the plan of n/2 the real transforms run on, made when first needed
+	private volatile FFT half;
+	
+	private FFT(int n)
+	{
+		this.n  =n;
+		this.log=Integer.numberOfTrailingZeros(n);
+		int h=n>>>1;
+		cos =new double[h];
+		sin =new double[h];
+		cosF=new float[h];
+		sinF=new float[h];
+		for(int k=0;k<h;k++)
+		{
+			double a=2D*Math.PI*k/n;
+			cos[k] =Math.cos(a);
+			sin[k] =Math.sin(a);
+			cosF[k]=(float)cos[k];
+			sinF[k]=(float)sin[k];
+		}
+		int pairs=0;
+		for(int i=0;i<n;i++)
+			if(i<reverse(i))
+				pairs++;
+		rev=new int[pairs<<1];
+		for(int i=0, p=0;i<n;i++)
+		{
+			int r=reverse(i);
+			if(i<r)
+			{
+				rev[p++]=i;
+				rev[p++]=r;
+			}
+		}
+	}
+	
+	/**
+	 * Gets the plan of a size, making it the first time that size is asked for.
+	 *
+	 * @param n The amount of points, a power of two
+	 *
+	 * @return The plan
+	 */
+	public static FFT of(int n)
+	{
+		if(n<=0||(n&(n-1))!=0)
+			throw new IllegalArgumentException("The size must be a power of 2, got "+n);
+		return plans.computeIfAbsent(
+			n,
+			FFT::new
+		);
+	}
+	
+	/**
+	 * @return How many points this plan transforms
+	 */
+	public int size()
+	{
+		return n;
+	}
+	
+	/**
+	 * Forward transform of {@code n} complex points.
+	 *
+	 * @param data The interleaved points, {@code 2n} values from {@code at}
+	 * @param at Where the first point starts
+	 */
+	public void forward(double[] data,int at)
+	{
+		check(
+			data.length,
+			at,
+			n<<1
+		);
+		transform(
+			data,
+			at,
+			1D
+		);
+	}
+	
+	/**
+	 * Inverse transform of {@code n} complex points, scaled by {@code 1/n}.
+	 *
+	 * @param data The interleaved points, {@code 2n} values from {@code at}
+	 * @param at Where the first point starts
+	 */
+	public void inverse(double[] data,int at)
+	{
+		check(
+			data.length,
+			at,
+			n<<1
+		);
+		transform(
+			data,
+			at,
+			-1D
+		);
+		double s=1D/n;
+		for(int i=at, end=at+(n<<1);i<end;i++)
+			data[i]*=s;
+	}
+	
+	/**
+	 * @see #forward(double[],int)
+	 */
+	public void forward(float[] data,int at)
+	{
+		check(
+			data.length,
+			at,
+			n<<1
+		);
+		transform(
+			data,
+			at,
+			1F
+		);
+	}
+	
+	/**
+	 * @see #inverse(double[],int)
+	 */
+	public void inverse(float[] data,int at)
+	{
+		check(
+			data.length,
+			at,
+			n<<1
+		);
+		transform(
+			data,
+			at,
+			-1F
+		);
+		float s=1F/n;
+		for(int i=at, end=at+(n<<1);i<end;i++)
+			data[i]*=s;
+	}
+	
+	/**
+	 * Forward transform of {@code n} real samples into the packed half spectrum (see the
+	 * class docs). Needs {@code n>=2}.
+	 *
+	 * @param data The samples, {@code n} values from {@code at}
+	 * @param at Where the first sample is
+	 */
+	public void realForward(double[] data,int at)
+	{
+		checkReal(
+			data.length,
+			at
+		);
+		half().transform(
+			data,
+			at,
+			1D
+		);
+		int m=n>>>1;
+		double re0=data[at];
+		double im0=data[at+1];
+		data[at]  =re0+im0;
+		data[at+1]=re0-im0;
+		for(int k=1;k<=m>>>1;k++)
+		{
+			int i=at+(k<<1);
+			int j=at+((m-k)<<1);
+			double a=data[i];
+			double b=data[i+1];
+			double c=data[j];
+			double d=data[j+1];
+			// the spectra of the even and the odd samples
+			double er=(a+c)*0.5D;
+			double ei=(b-d)*0.5D;
+			double or=(b+d)*0.5D;
+			double oi=(c-a)*0.5D;
+			// times W_n^k
+			double wr=cos[k]*or+sin[k]*oi;
+			double wi=cos[k]*oi-sin[k]*or;
+			data[i]  =er+wr;
+			data[i+1]=ei+wi;
+			if(i!=j)
+			{
+				data[j]  =er-wr;
+				data[j+1]=wi-ei;
+			}
+		}
+	}
+	
+	/**
+	 * Inverse of {@link #realForward(double[],int)}, scaled by {@code 1/n}.
+	 *
+	 * @param data The packed half spectrum, {@code n} values from {@code at}
+	 * @param at Where it starts
+	 */
+	public void realInverse(double[] data,int at)
+	{
+		checkReal(
+			data.length,
+			at
+		);
+		int m=n>>>1;
+		double x0=data[at];
+		double xm=data[at+1];
+		data[at]  =(x0+xm)*0.5D;
+		data[at+1]=(x0-xm)*0.5D;
+		for(int k=1;k<=m>>>1;k++)
+		{
+			int i=at+(k<<1);
+			int j=at+((m-k)<<1);
+			double a=data[i];
+			double b=data[i+1];
+			double c=data[j];
+			double d=data[j+1];
+			double er=(a+c)*0.5D;
+			double ei=(b-d)*0.5D;
+			double dr=(a-c)*0.5D;
+			double di=(b+d)*0.5D;
+			// divided by W_n^k
+			double or=cos[k]*dr-sin[k]*di;
+			double oi=cos[k]*di+sin[k]*dr;
+			data[i]  =er-oi;
+			data[i+1]=ei+or;
+			if(i!=j)
+			{
+				data[j]  =er+oi;
+				data[j+1]=or-ei;
+			}
+		}
+		FFT p=half();
+		p.transform(
+			data,
+			at,
+			-1D
+		);
+		double s=1D/m;
+		for(int i=at, end=at+n;i<end;i++)
+			data[i]*=s;
+	}
+	
+	/**
+	 * @see #realForward(double[],int)
+	 */
+	public void realForward(float[] data,int at)
+	{
+		checkReal(
+			data.length,
+			at
+		);
+		half().transform(
+			data,
+			at,
+			1F
+		);
+		int m=n>>>1;
+		float re0=data[at];
+		float im0=data[at+1];
+		data[at]  =re0+im0;
+		data[at+1]=re0-im0;
+		for(int k=1;k<=m>>>1;k++)
+		{
+			int i=at+(k<<1);
+			int j=at+((m-k)<<1);
+			float a=data[i];
+			float b=data[i+1];
+			float c=data[j];
+			float d=data[j+1];
+			float er=(a+c)*0.5F;
+			float ei=(b-d)*0.5F;
+			float or=(b+d)*0.5F;
+			float oi=(c-a)*0.5F;
+			float wr=cosF[k]*or+sinF[k]*oi;
+			float wi=cosF[k]*oi-sinF[k]*or;
+			data[i]  =er+wr;
+			data[i+1]=ei+wi;
+			if(i!=j)
+			{
+				data[j]  =er-wr;
+				data[j+1]=wi-ei;
+			}
+		}
+	}
+	
+	/**
+	 * @see #realInverse(double[],int)
+	 */
+	public void realInverse(float[] data,int at)
+	{
+		checkReal(
+			data.length,
+			at
+		);
+		int m=n>>>1;
+		float x0=data[at];
+		float xm=data[at+1];
+		data[at]  =(x0+xm)*0.5F;
+		data[at+1]=(x0-xm)*0.5F;
+		for(int k=1;k<=m>>>1;k++)
+		{
+			int i=at+(k<<1);
+			int j=at+((m-k)<<1);
+			float a=data[i];
+			float b=data[i+1];
+			float c=data[j];
+			float d=data[j+1];
+			float er=(a+c)*0.5F;
+			float ei=(b-d)*0.5F;
+			float dr=(a-c)*0.5F;
+			float di=(b+d)*0.5F;
+			float or=cosF[k]*dr-sinF[k]*di;
+			float oi=cosF[k]*di+sinF[k]*dr;
+			data[i]  =er-oi;
+			data[i+1]=ei+or;
+			if(i!=j)
+			{
+				data[j]  =er+oi;
+				data[j+1]=or-ei;
+			}
+		}
+		half().transform(
+			data,
+			at,
+			-1F
+		);
+		float s=1F/m;
+		for(int i=at, end=at+n;i<end;i++)
+			data[i]*=s;
+	}
+	
+	@Override public String toString()
+	{
+		return "FFT["+n+"]";
+	}
+	
+	private FFT half()
+	{
+		FFT h=half;
+		if(h==null)
+			half=h=of(n>>>1);
+		return h;
+	}
+	
+	private int reverse(int i)
+	{
+		return log==0?0:Integer.reverse(i)>>>(32-log);
+	}
+	
+	/**
+	 * The unscaled transform, {@code sign} is 1 for forward and -1 for inverse (which
+	 * conjugates the twiddles)
+	 */
+	private void transform(double[] x,int at,double sign)
+	{
+		for(int p=0;p<rev.length;p+=2)
+		{
+			int i=at+(rev[p]<<1);
+			int j=at+(rev[p+1]<<1);
+			double t=x[i];
+			x[i]=x[j];
+			x[j]=t;
+			t     =x[i+1];
+			x[i+1]=x[j+1];
+			x[j+1]=t;
+		}
+		int span=1;
+		if((log&1)==1)
+		{
+			// a lone radix 2 pass, its twiddle is always 1
+			for(int i=at, end=at+(n<<1);i<end;i+=4)
+			{
+				double ar=x[i];
+				double ai=x[i+1];
+				double br=x[i+2];
+				double bi=x[i+3];
+				x[i]  =ar+br;
+				x[i+1]=ai+bi;
+				x[i+2]=ar-br;
+				x[i+3]=ai-bi;
+			}
+			span=2;
+		}
+		for(;span<n;span<<=2)
+		{
+			// spans q and 2q in one go over blocks of 4q points
+			int q=span;
+			int stride1=n/(q<<1);
+			int stride2=stride1>>>1;
+			for(int s=0;s<n;s+=q<<2)
+				for(int j=0;j<q;j++)
+				{
+					double w1r=cos[j*stride1];
+					double w1i=-sign*sin[j*stride1];
+					double w2r=cos[j*stride2];
+					double w2i=-sign*sin[j*stride2];
+					int i0=at+((s+j)<<1);
+					int i1=i0+(q<<1);
+					int i2=i1+(q<<1);
+					int i3=i2+(q<<1);
+					// first span: (0,1) and (2,3) with W_2q^j
+					double tr=x[i1]*w1r-x[i1+1]*w1i;
+					double ti=x[i1]*w1i+x[i1+1]*w1r;
+					double a0r=x[i0]+tr;
+					double a0i=x[i0+1]+ti;
+					double a1r=x[i0]-tr;
+					double a1i=x[i0+1]-ti;
+					tr=x[i3]*w1r-x[i3+1]*w1i;
+					ti=x[i3]*w1i+x[i3+1]*w1r;
+					double a2r=x[i2]+tr;
+					double a2i=x[i2+1]+ti;
+					double a3r=x[i2]-tr;
+					double a3i=x[i2+1]-ti;
+					// second span: (0,2) with W_4q^j and (1,3) with W_4q^(j+q), which is
+					// W_4q^j turned a quarter (-i forward, +i inverse)
+					tr=a2r*w2r-a2i*w2i;
+					ti=a2r*w2i+a2i*w2r;
+					x[i0]  =a0r+tr;
+					x[i0+1]=a0i+ti;
+					x[i2]  =a0r-tr;
+					x[i2+1]=a0i-ti;
+					double ur=a3r*w2r-a3i*w2i;
+					double ui=a3r*w2i+a3i*w2r;
+					tr=sign*ui;
+					ti=-sign*ur;
+					x[i1]  =a1r+tr;
+					x[i1+1]=a1i+ti;
+					x[i3]  =a1r-tr;
+					x[i3+1]=a1i-ti;
+				}
+		}
+	}
+	
+	/**
+	 * @see #transform(double[],int,double)
+	 */
+	private void transform(float[] x,int at,float sign)
+	{
+		for(int p=0;p<rev.length;p+=2)
+		{
+			int i=at+(rev[p]<<1);
+			int j=at+(rev[p+1]<<1);
+			float t=x[i];
+			x[i]=x[j];
+			x[j]=t;
+			t     =x[i+1];
+			x[i+1]=x[j+1];
+			x[j+1]=t;
+		}
+		int span=1;
+		if((log&1)==1)
+		{
+			for(int i=at, end=at+(n<<1);i<end;i+=4)
+			{
+				float ar=x[i];
+				float ai=x[i+1];
+				float br=x[i+2];
+				float bi=x[i+3];
+				x[i]  =ar+br;
+				x[i+1]=ai+bi;
+				x[i+2]=ar-br;
+				x[i+3]=ai-bi;
+			}
+			span=2;
+		}
+		for(;span<n;span<<=2)
+		{
+			int q=span;
+			int stride1=n/(q<<1);
+			int stride2=stride1>>>1;
+			for(int s=0;s<n;s+=q<<2)
+				for(int j=0;j<q;j++)
+				{
+					float w1r=cosF[j*stride1];
+					float w1i=-sign*sinF[j*stride1];
+					float w2r=cosF[j*stride2];
+					float w2i=-sign*sinF[j*stride2];
+					int i0=at+((s+j)<<1);
+					int i1=i0+(q<<1);
+					int i2=i1+(q<<1);
+					int i3=i2+(q<<1);
+					float tr=x[i1]*w1r-x[i1+1]*w1i;
+					float ti=x[i1]*w1i+x[i1+1]*w1r;
+					float a0r=x[i0]+tr;
+					float a0i=x[i0+1]+ti;
+					float a1r=x[i0]-tr;
+					float a1i=x[i0+1]-ti;
+					tr=x[i3]*w1r-x[i3+1]*w1i;
+					ti=x[i3]*w1i+x[i3+1]*w1r;
+					float a2r=x[i2]+tr;
+					float a2i=x[i2+1]+ti;
+					float a3r=x[i2]-tr;
+					float a3i=x[i2+1]-ti;
+					tr=a2r*w2r-a2i*w2i;
+					ti=a2r*w2i+a2i*w2r;
+					x[i0]  =a0r+tr;
+					x[i0+1]=a0i+ti;
+					x[i2]  =a0r-tr;
+					x[i2+1]=a0i-ti;
+					float ur=a3r*w2r-a3i*w2i;
+					float ui=a3r*w2i+a3i*w2r;
+					tr=sign*ui;
+					ti=-sign*ur;
+					x[i1]  =a1r+tr;
+					x[i1+1]=a1i+ti;
+					x[i3]  =a1r-tr;
+					x[i3+1]=a1i-ti;
+				}
+		}
+	}
+	
+	private void checkReal(int length,int at)
+	{
+		if(n<2)
+			throw new IllegalArgumentException("The real transforms need at least 2 samples");
+		check(
+			length,
+			at,
+			n
+		);
+	}
+	
+	private static void check(int length,int at,int values)
+	{
+		if(at<0||at+values>length)
+			throw new IndexOutOfBoundsException(values+" values from "+at+" do not fit in "+length);
+	}
+}
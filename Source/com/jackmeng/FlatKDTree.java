@@ -0,0 +1,742 @@
+package com.jackmeng;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A KD-tree over points with any number of float coordinates, kept in flat arrays
+ * instead of a node per point.
+ * <p>
+ * The points are copied into one {@code float[]} and reordered so that the tree is
+ * implicit: the node of the range {@code [lo,hi)} is the point at {@code (lo+hi)>>>1},
+ * its left subtree is {@code [lo,mid)} and its right subtree {@code [mid+1,hi)}. Each
+ * range is split on the axis along which it is most spread out, found with
+ * nth-element partitioning, so building is {@code O(n log n)}. Ranges of at most
+ * {@link #LEAF_SIZE} points are not split any further and are scanned instead, which is
+ * faster than walking a few more levels. Distances are compared squared.
+ * <p>
+ * Large trees are built in parallel on the fork-join pool, as the two halves of a range
+ * are independent once it has been partitioned.
+ * <p>
+ * The tree never changes after it is built and can be shared between threads. Queries go
+ * through a {@link Searcher}, which holds the scratch space and is meant to be reused by
+ * one thread. Besides the nearest point there are k-nearest, radius and box queries, all
+ * of which write into arrays supplied by the caller.
+ *
+ * @author Jack Meng
+ */
+public final class FlatKDTree
+{
+	/**
+	 * Ranges with this many points or less are leaves
+	 */
+	public static final int LEAF_SIZE=8;
+	// ranges larger than this are built as fork-join tasks
+	private static final int PARALLEL_BUILD=1<<14;
+	private final int dims;
+	private final int size;
+	// the coordinates of the point in slot i are [i*dims,(i+1)*dims)
+	private final float[] coords;
+	// the index the point in slot i was given at
+	private final int[] ids;
+	// the split axis of the node in slot i
+	private final byte[] axes;
+	private final int depth;
+	
+	/**
+	 * @param points The coordinates of the points one after the other, copied
+	 * @param dims How many coordinates a point has
+	 */
+	public FlatKDTree(float[] points,int dims)
+	{
+		this(
+			points,
+			0,
+			points.length/Math.max(
+				dims,
+				1
+			),
+			dims
+		);
+	}
+	
+	/**
+	 * @param points The coordinates of the points one after the other, copied
+	 * @param at Where the first point starts
+	 * @param count How many points
+	 * @param dims How many coordinates a point has
+	 */
+	public FlatKDTree(float[] points,int at,int count,int dims)
+	{
+		if(dims<=0||dims>Byte.MAX_VALUE)
+			throw new IllegalArgumentException("Dimensions must be in [1,127]: "+dims);
+		if(count<0||at<0||at+count*dims>points.length)
+			throw new IllegalArgumentException("Not enough coordinates for "+count+" points");
+		this.dims=dims;
+		this.size=count;
+		this.coords=new float[count*dims];
+		this.ids=new int[count];
+		this.axes=new byte[count];
+		System.arraycopy(
+			points,
+			at,
+			coords,
+			0,
+			coords.length
+		);
+		for(int i=0;i<count;i++)
+			ids[i]=i;
+		this.depth=32-Integer.numberOfLeadingZeros(count);
+		if(count>PARALLEL_BUILD)
+			ForkJoinPool
+				.commonPool()
+				.invoke(new BuildTask(
+					0,
+					count
+				));
+		else
+			build(
+				0,
+				count
+			);
+	}
+	
+	public int size()
+	{
+		return size;
+	}
+	
+	public int dims()
+	{
+		return dims;
+	}
+	
+	/**
+	 * @return A new searcher over this tree
+	 */
+	public Searcher searcher()
+	{
+		return new Searcher();
+	}
+	
+	private void build(int lo,int hi)
+	{
+		while(hi-lo>LEAF_SIZE)
+		{
+			int mid=split(
+				lo,
+				hi
+			);
+			build(
+				lo,
+				mid
+			);
+			lo=mid+1;
+		}
+	}
+	
+	/**
+	 * Makes the middle of the range its node
+	 *
+	 * @return The slot of the node
+	 */
+	private int split(int lo,int hi)
+	{
+		int axis=widestAxis(
+			lo,
+			hi
+		);
+		int mid=(lo+hi)>>>1;
+		select(
+			lo,
+			hi,
+			mid,
+			axis
+		);
+		axes[mid]=(byte)axis;
+		return mid;
+	}
+	
+	private final class BuildTask
+		extends RecursiveAction
+	{
+		private static final long serialVersionUID=1L;
+		private final int lo;
+		private final int hi;
+		
+		BuildTask(int lo,int hi)
+		{
+			this.lo=lo;
+			this.hi=hi;
+		}
+		
+		@Override protected void compute()
+		{
+			if(hi-lo<=PARALLEL_BUILD)
+			{
+				build(
+					lo,
+					hi
+				);
+				return;
+			}
+			int mid=split(
+				lo,
+				hi
+			);
+			invokeAll(
+				new BuildTask(
+					lo,
+					mid
+				),
+				new BuildTask(
+					mid+1,
+					hi
+				)
+			);
+		}
+	}
+	
+	private int widestAxis(int lo,int hi)
+	{
+		int best=0;
+		float bestSpread=-1F;
+		for(int d=0;d<dims;d++)
+		{
+			float min=Float.POSITIVE_INFINITY;
+			float max=Float.NEGATIVE_INFINITY;
+			for(int i=lo;i<hi;i++)
+			{
+				float v=coords[i*dims+d];
+				if(v<min)
+					min=v;
+				if(v>max)
+					max=v;
+			}
+			if(max-min>bestSpread)
+			{
+				bestSpread=max-min;
+				best      =d;
+			}
+		}
+		return best;
+	}
+	
+	/**
+	 * Quickselect: reorders {@code [lo,hi)} so that the slot {@code k} holds the point that
+	 * would be there if the range was sorted on the axis, with nothing greater before it
+	 * and nothing smaller after it. Partitions three ways so runs of equal coordinates do
+	 * not make it quadratic.
+	 */
+	private void select(int lo,int hi,int k,int axis)
+	{
+		hi--;
+		while(hi>lo)
+		{
+			float a=key(
+				lo,
+				axis
+			);
+			float b=key(
+				(lo+hi)>>>1,
+				axis
+			);
+			float c=key(
+				hi,
+				axis
+			);
+			// median of three
+			float pivot=Math.max(
+				Math.min(
+					a,
+					b
+				),
+				Math.min(
+					Math.max(
+						a,
+						b
+					),
+					c
+				)
+			);
+			int lt=lo;
+			int gt=hi;
+			int i=lo;
+			while(i<=gt)
+			{
+				float v=key(
+					i,
+					axis
+				);
+				if(v<pivot)
+					swap(
+						lt++,
+						i++
+					);
+				else if(v>pivot)
+					swap(
+						i,
+						gt--
+					);
+				else
+					i++;
+			}
+			if(k<lt)
+				hi=lt-1;
+			else if(k>gt)
+				lo=gt+1;
+			else
+				return;
+		}
+	}
+	
+	private float key(int slot,int axis)
+	{
+		return coords[slot*dims+axis];
+	}
+	
+	private void swap(int a,int b)
+	{
+		if(a==b)
+			return;
+		int t=ids[a];
+		ids[a]=ids[b];
+		ids[b]=t;
+		int pa=a*dims;
+		int pb=b*dims;
+		for(int d=0;d<dims;d++)
+		{
+			float f=coords[pa+d];
+			coords[pa+d]=coords[pb+d];
+			coords[pb+d]=f;
+		}
+	}
+	
+	private float distanceSquared(float[] q,int qAt,int slot)
+	{
+		float sum=0F;
+		int p=slot*dims;
+		for(int d=0;d<dims;d++)
+		{
+			float diff=q[qAt+d]-coords[p+d];
+			sum+=diff*diff;
+		}
+		return sum;
+	}
+	
+	/**
+	 * Runs queries against the tree without allocating. Not thread safe, give each thread
+	 * its own.
+	 */
+	public final class Searcher
+	{
+		// pending ranges as lo, hi and the squared distance to their splitting plane
+		private final int[] stackRange;
+		private final float[] stackBound;
+		private float lastDistanceSquared;
+		
+		private Searcher()
+		{
+			stackRange=new int[2*(depth+2)];
+			stackBound=new float[depth+2];
+		}
+		
+		/**
+		 * Finds the point closest to a query point.
+		 *
+		 * @param q Holds the query point
+		 * @param qAt Where the query point starts in q
+		 *
+		 * @return The index of the closest point or -1 if the tree is empty
+		 */
+		public int nearest(float[] q,int qAt)
+		{
+			float best=Float.POSITIVE_INFINITY;
+			int bestSlot=-1;
+			int sp=0;
+			stackRange[0]=0;
+			stackRange[1]=size;
+			stackBound[0]=0F;
+			sp++;
+			while(sp>0)
+			{
+				sp--;
+				int lo=stackRange[2*sp];
+				int hi=stackRange[2*sp+1];
+				if(lo>=hi||stackBound[sp]>=best)
+					continue;
+				if(hi-lo<=LEAF_SIZE)
+				{
+					for(int i=lo;i<hi;i++)
+					{
+						float d=distanceSquared(
+							q,
+							qAt,
+							i
+						);
+						if(d<best)
+						{
+							best    =d;
+							bestSlot=i;
+						}
+					}
+					continue;
+				}
+				int mid=(lo+hi)>>>1;
+				float d=distanceSquared(
+					q,
+					qAt,
+					mid
+				);
+				if(d<best)
+				{
+					best    =d;
+					bestSlot=mid;
+				}
+				float diff=q[qAt+axes[mid]]-coords[mid*dims+axes[mid]];
+				float plane=diff*diff;
+				// the far side goes under the near side so the near side is searched first
+				if(plane<best)
+				{
+					stackRange[2*sp]  =diff<0F?mid+1:lo;
+					stackRange[2*sp+1]=diff<0F?hi:mid;
+					stackBound[sp]    =plane;
+					sp++;
+				}
+				stackRange[2*sp]  =diff<0F?lo:mid+1;
+				stackRange[2*sp+1]=diff<0F?mid:hi;
+				stackBound[sp]    =0F;
+				sp++;
+			}
+			lastDistanceSquared=best;
+			return bestSlot<0?-1:ids[bestSlot];
+		}
+		
+		/**
+		 * Finds the {@code k} points closest to a query point, closest first.
+		 *
+		 * @param q Holds the query point
+		 * @param qAt Where the query point starts in q
+		 * @param k How many points to find
+		 * @param outIds Where the indices of the points go, at least {@code k} long
+		 * @param outDistances Where the squared distances go, at least {@code k} long
+		 *
+		 * @return How many points were found, less than {@code k} only if the tree has
+		 * fewer points
+		 */
+		public int nearest(float[] q,int qAt,int k,int[] outIds,float[] outDistances)
+		{
+			if(k<0||outIds.length<k||outDistances.length<k)
+				throw new IllegalArgumentException("The output arrays must hold k="+k+" results");
+			if(k==0)
+				return 0;
+			// outDistances[0,found) is a max heap until the very end
+			int found=0;
+			int sp=0;
+			stackRange[0]=0;
+			stackRange[1]=size;
+			stackBound[0]=0F;
+			sp++;
+			while(sp>0)
+			{
+				sp--;
+				int lo=stackRange[2*sp];
+				int hi=stackRange[2*sp+1];
+				if(lo>=hi||found==k&&stackBound[sp]>=outDistances[0])
+					continue;
+				if(hi-lo<=LEAF_SIZE)
+				{
+					for(int i=lo;i<hi;i++)
+						found=offer(
+							q,
+							qAt,
+							i,
+							k,
+							found,
+							outIds,
+							outDistances
+						);
+					continue;
+				}
+				int mid=(lo+hi)>>>1;
+				found=offer(
+					q,
+					qAt,
+					mid,
+					k,
+					found,
+					outIds,
+					outDistances
+				);
+				float diff=q[qAt+axes[mid]]-coords[mid*dims+axes[mid]];
+				float plane=diff*diff;
+				if(found<k||plane<outDistances[0])
+				{
+					stackRange[2*sp]  =diff<0F?mid+1:lo;
+					stackRange[2*sp+1]=diff<0F?hi:mid;
+					stackBound[sp]    =plane;
+					sp++;
+				}
+				stackRange[2*sp]  =diff<0F?lo:mid+1;
+				stackRange[2*sp+1]=diff<0F?mid:hi;
+				stackBound[sp]    =0F;
+				sp++;
+			}
+			// heap sort, the largest goes to the end each round
+			for(int n=found-1;n>0;n--)
+			{
+				swapResult(
+					outIds,
+					outDistances,
+					0,
+					n
+				);
+				siftDown(
+					outIds,
+					outDistances,
+					0,
+					n
+				);
+			}
+			for(int i=0;i<found;i++)
+				outIds[i]=ids[outIds[i]];
+			lastDistanceSquared=found==0?Float.POSITIVE_INFINITY:outDistances[0];
+			return found;
+		}
+		
+		/**
+		 * Finds every point within a distance of a query point, in no particular order.
+		 *
+		 * @param q Holds the query point
+		 * @param qAt Where the query point starts in q
+		 * @param radius The distance, inclusive
+		 * @param out Where the indices of the points go, results that do not fit are only
+		 * counted
+		 *
+		 * @return How many points there are within the distance, which can be more than
+		 * {@code out.length}
+		 */
+		public int withinRadius(float[] q,int qAt,float radius,int[] out)
+		{
+			float r2=radius*radius;
+			int found=0;
+			int sp=0;
+			stackRange[0]=0;
+			stackRange[1]=size;
+			stackBound[0]=0F;
+			sp++;
+			while(sp>0)
+			{
+				sp--;
+				int lo=stackRange[2*sp];
+				int hi=stackRange[2*sp+1];
+				if(lo>=hi||stackBound[sp]>r2)
+					continue;
+				if(hi-lo<=LEAF_SIZE)
+				{
+					for(int i=lo;i<hi;i++)
+						if(distanceSquared(
+							q,
+							qAt,
+							i
+						)<=r2)
+						{
+							if(found<out.length)
+								out[found]=ids[i];
+							found++;
+						}
+					continue;
+				}
+				int mid=(lo+hi)>>>1;
+				if(distanceSquared(
+					q,
+					qAt,
+					mid
+				)<=r2)
+				{
+					if(found<out.length)
+						out[found]=ids[mid];
+					found++;
+				}
+				float diff=q[qAt+axes[mid]]-coords[mid*dims+axes[mid]];
+				stackRange[2*sp]  =diff<0F?mid+1:lo;
+				stackRange[2*sp+1]=diff<0F?hi:mid;
+				stackBound[sp]    =diff*diff;
+				sp++;
+				stackRange[2*sp]  =diff<0F?lo:mid+1;
+				stackRange[2*sp+1]=diff<0F?mid:hi;
+				stackBound[sp]    =0F;
+				sp++;
+			}
+			return found;
+		}
+		
+		/**
+		 * Finds every point inside an axis aligned box, in no particular order.
+		 *
+		 * @param min Holds the smallest corner of the box, inclusive
+		 * @param minAt Where the smallest corner starts in min
+		 * @param max Holds the largest corner of the box, inclusive
+		 * @param maxAt Where the largest corner starts in max
+		 * @param out Where the indices of the points go, results that do not fit are only
+		 * counted
+		 *
+		 * @return How many points there are inside the box, which can be more than
+		 * {@code out.length}
+		 */
+		public int withinBox(float[] min,int minAt,float[] max,int maxAt,int[] out)
+		{
+			int found=0;
+			int sp=0;
+			stackRange[0]=0;
+			stackRange[1]=size;
+			sp++;
+			while(sp>0)
+			{
+				sp--;
+				int lo=stackRange[2*sp];
+				int hi=stackRange[2*sp+1];
+				if(lo>=hi)
+					continue;
+				if(hi-lo<=LEAF_SIZE)
+				{
+					for(int i=lo;i<hi;i++)
+						if(inside(
+							min,
+							minAt,
+							max,
+							maxAt,
+							i
+						))
+						{
+							if(found<out.length)
+								out[found]=ids[i];
+							found++;
+						}
+					continue;
+				}
+				int mid=(lo+hi)>>>1;
+				if(inside(
+					min,
+					minAt,
+					max,
+					maxAt,
+					mid
+				))
+				{
+					if(found<out.length)
+						out[found]=ids[mid];
+					found++;
+				}
+				int axis=axes[mid];
+				float key=coords[mid*dims+axis];
+				if(min[minAt+axis]<=key)
+				{
+					stackRange[2*sp]  =lo;
+					stackRange[2*sp+1]=mid;
+					sp++;
+				}
+				if(max[maxAt+axis]>=key)
+				{
+					stackRange[2*sp]  =mid+1;
+					stackRange[2*sp+1]=hi;
+					sp++;
+				}
+			}
+			return found;
+		}
+		
+		private boolean inside(float[] min,int minAt,float[] max,int maxAt,int slot)
+		{
+			int p=slot*dims;
+			for(int d=0;d<dims;d++)
+			{
+				float v=coords[p+d];
+				if(v<min[minAt+d]||v>max[maxAt+d])
+					return false;
+			}
+			return true;
+		}
+		
+		/**
+		 * Adds a slot to the k-nearest max heap if it is closer than the farthest so far
+		 *
+		 * @return The new size of the heap
+		 */
+		private int offer(float[] q,int qAt,int slot,int k,int found,int[] heapIds,float[] heap)
+		{
+			float d=distanceSquared(
+				q,
+				qAt,
+				slot
+			);
+			if(found<k)
+			{
+				// sift up
+				int i=found;
+				while(i>0)
+				{
+					int parent=(i-1)>>>1;
+					if(heap[parent]>=d)
+						break;
+					heap[i]   =heap[parent];
+					heapIds[i]=heapIds[parent];
+					i         =parent;
+				}
+				heap[i]   =d;
+				heapIds[i]=slot;
+				return found+1;
+			}
+			if(d<heap[0])
+			{
+				heap[0]   =d;
+				heapIds[0]=slot;
+				siftDown(
+					heapIds,
+					heap,
+					0,
+					found
+				);
+			}
+			return found;
+		}
+		
+		private void siftDown(int[] heapIds,float[] heap,int i,int n)
+		{
+			while(true)
+			{
+				int l=2*i+1;
+				if(l>=n)
+					return;
+				int c=l+1<n&&heap[l+1]>heap[l]?l+1:l;
+				if(heap[i]>=heap[c])
+					return;
+				swapResult(
+					heapIds,
+					heap,
+					i,
+					c
+				);
+				i=c;
+			}
+		}
+		
+		private void swapResult(int[] heapIds,float[] heap,int a,int b)
+		{
+			float d=heap[a];
+			heap[a]=heap[b];
+			heap[b]=d;
+			int t=heapIds[a];
+			heapIds[a]=heapIds[b];
+			heapIds[b]=t;
+		}
+		
+		/**
+		 * @return The squared distance to the point found by the last query
+		 */
+		public float lastDistanceSquared()
+		{
+			return lastDistanceSquared;
+		}
+	}
+}
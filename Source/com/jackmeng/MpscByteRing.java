@@ -0,0 +1,393 @@
+package com.jackmeng;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * A lock-free ring of byte records for any number of producer threads and one consumer
+ * thread, such as voices each handing their rendered block to the mixer.
+ * <p>
+ * Unlike {@link SpscByteRing} this does not carry a stream: bytes from different
+ * producers would interleave. Each offer is a whole record that goes in completely or not
+ * at all, and the consumer takes records out one at a time. A producer claims room by
+ * moving the tail forward with a CAS, copies its bytes in, and then commits the record by
+ * writing its header with a release store. The consumer stops at the first record that
+ * is not committed yet, so a slow producer holds back the records claimed after it but
+ * never blocks anyone.
+ * <p>
+ * Records start on 8 byte boundaries with an 8 byte header (the length of the record
+ * including the header and padding, then the length of the payload). A record never
+ * wraps: if it does not fit before the end of the buffer, the rest of the buffer is
+ * claimed as padding first. The consumer zeroes what it has read, so a header that is
+ * still 0 means nothing has been committed there yet.
+ * <p>
+ * The offer methods can be called from any thread, the poll and drain methods only from
+ * the consumer thread. Nothing allocates.
+ *
+ * @author Jack Meng
+ * @see SpscByteRing
+ */
+public final class MpscByteRing
+	extends ByteRing
+{
+	/**
+	 * The bytes in front of every record
+	 */
+	public static final int HEADER=8;
+	private static final int ALIGN=8;
+	private static final VarHandle INT=MethodHandles.byteBufferViewVarHandle(
+		int[].class,
+		ByteOrder.nativeOrder()
+	);
+	// what handlers get to see, so they can't move the ring's own buffer around
+	private final ByteBuffer view;
+	
+	/**
+	 * @param capacity The least amount of bytes to hold, rounded up to a power of two
+	 */
+	public MpscByteRing(int capacity)
+	{
+		this(
+			capacity,
+			false
+		);
+	}
+	
+	/**
+	 * @param capacity The least amount of bytes to hold, rounded up to a power of two
+	 * @param direct Whether to keep the bytes off-heap
+	 */
+	public MpscByteRing(int capacity,boolean direct)
+	{
+		super(
+			capacity,
+			direct
+		);
+		this.view=buffer
+			.asReadOnlyBuffer()
+			.order(ByteOrder.nativeOrder());
+	}
+	
+	/**
+	 * @return The largest payload a single record can carry
+	 */
+	public int maxPayload()
+	{
+		return capacity-HEADER;
+	}
+	
+	/**
+	 * Offers the bytes as one record.
+	 *
+	 * @return Whether there was room for it
+	 */
+	public boolean offer(byte[] src,int off,int len)
+	{
+		if(off<0||len<0||off+len>src.length)
+			throw new IndexOutOfBoundsException("["+off+","+(off+len)+") out of "+src.length);
+		int at=claim(len);
+		if(at<0)
+			return false;
+		buffer.put(
+			at+HEADER,
+			src,
+			off,
+			len
+		);
+		commit(
+			at,
+			len
+		);
+		return true;
+	}
+	
+	/**
+	 * Offers the remaining bytes of the buffer as one record. Its position is moved past
+	 * them only if there was room.
+	 *
+	 * @return Whether there was room for it
+	 */
+	public boolean offer(ByteBuffer src)
+	{
+		int len=src.remaining();
+		int at=claim(len);
+		if(at<0)
+			return false;
+		buffer.put(
+			at+HEADER,
+			src,
+			src.position(),
+			len
+		);
+		src.position(src.position()+len);
+		commit(
+			at,
+			len
+		);
+		return true;
+	}
+	
+	/**
+	 * Offers the floats as one record, 4 native order bytes each.
+	 *
+	 * @return Whether there was room for it
+	 */
+	public boolean offerFloats(float[] src,int off,int len)
+	{
+		if(off<0||len<0||off+len>src.length)
+			throw new IndexOutOfBoundsException("["+off+","+(off+len)+") out of "+src.length);
+		if(len>maxPayload()>>>2)
+			return false;
+		int at=claim(len<<2);
+		if(at<0)
+			return false;
+		for(int i=0;i<len;i++)
+			buffer.putFloat(
+				at+HEADER+(i<<2),
+				src[off+i]
+			);
+		commit(
+			at,
+			len<<2
+		);
+		return true;
+	}
+	
+	/**
+	 * Takes the next record out.
+	 *
+	 * @param dst Where its payload goes
+	 * @param off Where in {@code dst}
+	 *
+	 * @return The length of the payload or -1 if there is no committed record
+	 *
+	 * @throws IndexOutOfBoundsException If the payload does not fit, in which case the
+	 * record stays in the ring
+	 */
+	public int poll(byte[] dst,int off)
+	{
+		int at=next();
+		if(at<0)
+			return -1;
+		int len=buffer.getInt(at+4);
+		if(off<0||off+len>dst.length)
+			throw new IndexOutOfBoundsException("A record of "+len+" bytes does not fit at "+off);
+		buffer.get(
+			at+HEADER,
+			dst,
+			off,
+			len
+		);
+		release(at);
+		return len;
+	}
+	
+	/**
+	 * Takes the next record out as floats.
+	 *
+	 * @param dst Where its payload goes
+	 * @param off Where in {@code dst}
+	 *
+	 * @return How many floats the payload held or -1 if there is no committed record
+	 *
+	 * @throws IndexOutOfBoundsException If the payload does not fit, in which case the
+	 * record stays in the ring
+	 */
+	public int pollFloats(float[] dst,int off)
+	{
+		int at=next();
+		if(at<0)
+			return -1;
+		int n=buffer.getInt(at+4)>>>2;
+		if(off<0||off+n>dst.length)
+			throw new IndexOutOfBoundsException("A record of "+n+" floats does not fit at "+off);
+		for(int i=0;i<n;i++)
+			dst[off+i]=buffer.getFloat(at+HEADER+(i<<2));
+		release(at);
+		return n;
+	}
+	
+	/**
+	 * Hands committed records to the handler in place, without copying them out.
+	 *
+	 * @param handler Gets each record
+	 * @param limit The most records to take out
+	 *
+	 * @return How many records were taken out
+	 */
+	public int drain(RecordHandler handler,int limit)
+	{
+		int n=0;
+		while(n<limit)
+		{
+			int at=next();
+			if(at<0)
+				break;
+			try
+			{
+				handler.onRecord(
+					view,
+					at+HEADER,
+					buffer.getInt(at+4)
+				);
+			}finally
+			{
+				release(at);
+			}
+			n++;
+		}
+		return n;
+	}
+	
+	/**
+	 * Gets the records taken out by {@link #drain(RecordHandler,int)}
+	 *
+	 * @author Jack Meng
+	 */
+	@FunctionalInterface public interface RecordHandler
+	{
+		/**
+		 * @param ring A read-only view of the ring, only valid during this call
+		 * @param at Where the payload starts in {@code ring}
+		 * @param length How many bytes the payload is
+		 */
+		void onRecord(ByteBuffer ring,int at,int length);
+	}
+	
+	private static int recordLength(int payload)
+	{
+		return (HEADER+payload+ALIGN-1)&-ALIGN;
+	}
+	
+	/**
+	 * Moves the tail past a record of that payload, padding out the end of the buffer
+	 * first if it would not fit there.
+	 *
+	 * @return Where the record starts or -1 if there is no room
+	 */
+	private int claim(int payload)
+	{
+		if(payload>maxPayload())
+			return -1;
+		int need=recordLength(payload);
+		while(true)
+		{
+			long t=(long)COUNTER.getVolatile(
+				counters,
+				TAIL
+			);
+			// the cached head is only ever a head some producer read with an acquire and then
+			// published with a release, so reading it with an acquire carries over that the
+			// consumer was done with (and had zeroed) everything before it
+			long h=(long)COUNTER.getAcquire(
+				counters,
+				HEAD_CACHE
+			);
+			int at=(int)t&mask;
+			int toEnd=capacity-at;
+			int want=need<=toEnd?need:toEnd;
+			if(capacity-(t-h)<want)
+			{
+				h=(long)COUNTER.getAcquire(
+					counters,
+					HEAD
+				);
+				COUNTER.setRelease(
+					counters,
+					HEAD_CACHE,
+					h
+				);
+				if(capacity-(t-h)<want)
+					return -1;
+			}
+			if(!COUNTER.compareAndSet(
+				counters,
+				TAIL,
+				t,
+				t+want
+			))
+				continue;
+			if(want==need)
+				return at;
+			// the record does not fit before the end, so skip it and go again from 0
+			INT.setRelease(
+				buffer,
+				at,
+				-toEnd
+			);
+		}
+	}
+	
+	private void commit(int at,int payload)
+	{
+		buffer.putInt(
+			at+4,
+			payload
+		);
+		INT.setRelease(
+			buffer,
+			at,
+			recordLength(payload)
+		);
+	}
+	
+	/**
+	 * Finds the next committed record, stepping over padding.
+	 *
+	 * @return Where it starts or -1 if there is none
+	 */
+	private int next()
+	{
+		while(true)
+		{
+			long h=counters[HEAD];
+			int at=(int)h&mask;
+			int length=(int)INT.getAcquire(
+				buffer,
+				at
+			);
+			if(length==0)
+				return -1;
+			if(length>0)
+				return at;
+			buffer.putInt(
+				at,
+				0
+			);
+			COUNTER.setRelease(
+				counters,
+				HEAD,
+				h-length
+			);
+		}
+	}
+	
+	/**
+	 * Zeroes the record at the head and moves the head past it
+	 */
+	private void release(int at)
+	{
+		int length=buffer.getInt(at);
+		if(buffer.hasArray())
+			Arrays.fill(
+				buffer.array(),
+				buffer.arrayOffset()+at,
+				buffer.arrayOffset()+at+length,
+				(byte)0
+			);
+		else
+			for(int i=0;i<length;i+=8)
+				buffer.putLong(
+					at+i,
+					0L
+				);
+		COUNTER.setRelease(
+			counters,
+			HEAD,
+			counters[HEAD]+length
+		);
+	}
+}
@@ -1,30 +1,35 @@
 package com.jackmeng;
-public final class NaiveFFT
+
+/**
+ * @deprecated Allocates a {@link Complex} per point, use {@link FFT} on interleaved arrays
+ */
+@Deprecated public final class NaiveFFT
 {
 	private NaiveFFT(){}
 	
 	public static Complex[] cooleyTukey(Complex[] x)
 	{
 		int n=x.length;
-		if(n==1)
-			return new Complex[]{x[0]};
-		if(n%2!=0)
+		if(n==0||(n&(n-1))!=0)
 			throw new IllegalArgumentException("n is not a power of 2");
-		Complex[] even=new Complex[n/2];
-		for(int i=0;i<n/2;i++)
-			even[i]=x[2*i];
-		Complex[] q=cooleyTukey(even);
-		for(int i=0;i<n/2;i++)
-			even[i]=x[2*i+1];
-		Complex[] r=cooleyTukey(even);
-		Complex[] y=new Complex[n];
-		for(int k=0;k<n/2;k++)
+		double[] data=new double[n<<1];
+		for(int i=0;i<n;i++)
 		{
-			double kth=-2*k*Math.PI/n;
-			Complex wk=new Complex(Math.cos(kth),Math.sin(kth));
-			y[k]    =q[k].plus(wk.times(r[k]));
-			y[k+n/2]=q[k].minus(wk.times(r[k]));
+			data[i<<1]    =x[i].real();
+			data[(i<<1)+1]=x[i].imaginary();
 		}
+		FFT
+			.of(n)
+			.forward(
+				data,
+				0
+			);
+		Complex[] y=new Complex[n];
+		for(int i=0;i<n;i++)
+			y[i]=new Complex(
+				data[i<<1],
+				data[(i<<1)+1]
+			);
 		return y;
 	}
 }
@@ -0,0 +1,389 @@
+package com.jackmeng;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A lock-free byte ring for exactly one producer thread and one consumer thread, such as
+ * a mixer handing samples to the thread that feeds the audio device.
+ * <p>
+ * Nothing blocks and nothing allocates: a write copies as much as fits and says how much
+ * that was, a read copies as much as is there. Each side publishes its counter with a
+ * release store and reads the other's with an acquire load, and only when its cached
+ * copy says the ring is full (or empty).
+ * <p>
+ * The write methods may only be called from the producer thread, and the read,
+ * {@code peek} and {@code skip} methods only from the consumer thread.
+ *
+ * @author Jack Meng
+ * @see MpscByteRing
+ */
+public final class SpscByteRing
+	extends ByteRing
+{
+	/**
+	 * @param capacity The least amount of bytes to hold, rounded up to a power of two
+	 */
+	public SpscByteRing(int capacity)
+	{
+		this(
+			capacity,
+			false
+		);
+	}
+	
+	/**
+	 * @param capacity The least amount of bytes to hold, rounded up to a power of two
+	 * @param direct Whether to keep the bytes off-heap
+	 */
+	public SpscByteRing(int capacity,boolean direct)
+	{
+		super(
+			capacity,
+			direct
+		);
+	}
+	
+	/**
+	 * Writes as many of the bytes as fit.
+	 *
+	 * @return How many bytes were written
+	 */
+	public int write(byte[] src,int off,int len)
+	{
+		checkRange(
+			src.length,
+			off,
+			len
+		);
+		long t=counters[TAIL];
+		int n=Math.min(
+			len,
+			writable(
+				t,
+				len
+			)
+		);
+		if(n==0)
+			return 0;
+		int at=(int)t&mask;
+		int first=Math.min(
+			n,
+			capacity-at
+		);
+		buffer.put(
+			at,
+			src,
+			off,
+			first
+		);
+		if(n>first)
+			buffer.put(
+				0,
+				src,
+				off+first,
+				n-first
+			);
+		publishTail(t+n);
+		return n;
+	}
+	
+	/**
+	 * Writes as many of the remaining bytes of the buffer as fit, moving its position past
+	 * them.
+	 *
+	 * @return How many bytes were written
+	 */
+	public int write(ByteBuffer src)
+	{
+		long t=counters[TAIL];
+		int n=Math.min(
+			src.remaining(),
+			writable(
+				t,
+				src.remaining()
+			)
+		);
+		if(n==0)
+			return 0;
+		int at=(int)t&mask;
+		int first=Math.min(
+			n,
+			capacity-at
+		);
+		int pos=src.position();
+		buffer.put(
+			at,
+			src,
+			pos,
+			first
+		);
+		if(n>first)
+			buffer.put(
+				0,
+				src,
+				pos+first,
+				n-first
+			);
+		src.position(pos+n);
+		publishTail(t+n);
+		return n;
+	}
+	
+	/**
+	 * Writes as many whole floats as fit, 4 native order bytes each.
+	 *
+	 * @return How many floats were written
+	 */
+	public int writeFloats(float[] src,int off,int len)
+	{
+		checkRange(
+			src.length,
+			off,
+			len
+		);
+		long t=counters[TAIL];
+		int n=Math.min(
+			len,
+			writable(
+				t,
+				Math.min(
+					len,
+					capacity>>>2
+				)<<2
+			)>>>2
+		);
+		if(n==0)
+			return 0;
+		int at=(int)t&mask;
+		for(int i=0;i<n;i++, at=(at+4)&mask)
+		{
+			if(at<=capacity-4)
+				buffer.putFloat(
+					at,
+					src[off+i]
+				);
+			else
+				putIntWrapped(
+					at,
+					Float.floatToRawIntBits(src[off+i])
+				);
+		}
+		publishTail(t+((long)n<<2));
+		return n;
+	}
+	
+	/**
+	 * Reads up to {@code len} bytes.
+	 *
+	 * @return How many bytes were read
+	 */
+	public int read(byte[] dst,int off,int len)
+	{
+		int n=peek(
+			dst,
+			off,
+			len
+		);
+		if(n>0)
+			publishHead(counters[HEAD]+n);
+		return n;
+	}
+	
+	/**
+	 * Reads as many bytes as there are, up to the remaining space of the buffer, moving its
+	 * position past them.
+	 *
+	 * @return How many bytes were read
+	 */
+	public int read(ByteBuffer dst)
+	{
+		long h=counters[HEAD];
+		int n=Math.min(
+			dst.remaining(),
+			readable(
+				h,
+				dst.remaining()
+			)
+		);
+		if(n==0)
+			return 0;
+		int at=(int)h&mask;
+		int first=Math.min(
+			n,
+			capacity-at
+		);
+		int pos=dst.position();
+		dst.put(
+			pos,
+			buffer,
+			at,
+			first
+		);
+		if(n>first)
+			dst.put(
+				pos+first,
+				buffer,
+				0,
+				n-first
+			);
+		dst.position(pos+n);
+		publishHead(h+n);
+		return n;
+	}
+	
+	/**
+	 * Reads up to {@code len} whole floats.
+	 *
+	 * @return How many floats were read
+	 */
+	public int readFloats(float[] dst,int off,int len)
+	{
+		checkRange(
+			dst.length,
+			off,
+			len
+		);
+		long h=counters[HEAD];
+		int n=Math.min(
+			len,
+			readable(
+				h,
+				Math.min(
+					len,
+					capacity>>>2
+				)<<2
+			)>>>2
+		);
+		if(n==0)
+			return 0;
+		int at=(int)h&mask;
+		for(int i=0;i<n;i++, at=(at+4)&mask)
+			dst[off+i]=at<=capacity-4
+					   ?buffer.getFloat(at)
+					   :Float.intBitsToFloat(getIntWrapped(at));
+		publishHead(h+((long)n<<2));
+		return n;
+	}
+	
+	/**
+	 * Copies up to {@code len} bytes without taking them out of the ring.
+	 *
+	 * @return How many bytes were copied
+	 */
+	public int peek(byte[] dst,int off,int len)
+	{
+		checkRange(
+			dst.length,
+			off,
+			len
+		);
+		long h=counters[HEAD];
+		int n=Math.min(
+			len,
+			readable(
+				h,
+				len
+			)
+		);
+		if(n==0)
+			return 0;
+		int at=(int)h&mask;
+		int first=Math.min(
+			n,
+			capacity-at
+		);
+		buffer.get(
+			at,
+			dst,
+			off,
+			first
+		);
+		if(n>first)
+			buffer.get(
+				0,
+				dst,
+				off+first,
+				n-first
+			);
+		return n;
+	}
+	
+	/**
+	 * Drops up to {@code len} bytes.
+	 *
+	 * @return How many bytes were dropped
+	 */
+	public int skip(int len)
+	{
+		long h=counters[HEAD];
+		int n=Math.min(
+			Math.max(
+				len,
+				0
+			),
+			readable(
+				h,
+				len
+			)
+		);
+		if(n>0)
+			publishHead(h+n);
+		return n;
+	}
+	
+	/**
+	 * How much room there is past the tail, only looking at the consumer's counter if the
+	 * cached copy says there is not enough
+	 */
+	private int writable(long t,int want)
+	{
+		int room=capacity-(int)(t-counters[HEAD_CACHE]);
+		if(room<want)
+		{
+			counters[HEAD_CACHE]=(long)COUNTER.getAcquire(
+				counters,
+				HEAD
+			);
+			room                =capacity-(int)(t-counters[HEAD_CACHE]);
+		}
+		return room;
+	}
+	
+	private int readable(long h,int want)
+	{
+		int there=(int)(counters[TAIL_CACHE]-h);
+		if(there<want)
+		{
+			counters[TAIL_CACHE]=(long)COUNTER.getAcquire(
+				counters,
+				TAIL
+			);
+			there               =(int)(counters[TAIL_CACHE]-h);
+		}
+		return there;
+	}
+	
+	private void publishTail(long t)
+	{
+		COUNTER.setRelease(
+			counters,
+			TAIL,
+			t
+		);
+	}
+	
+	private void publishHead(long h)
+	{
+		COUNTER.setRelease(
+			counters,
+			HEAD,
+			h
+		);
+	}
+	
+	private static void checkRange(int length,int off,int len)
+	{
+		if(off<0||len<0||off+len>length)
+			throw new IndexOutOfBoundsException("["+off+","+(off+len)+") out of "+length);
+	}
+}
@@ -0,0 +1,394 @@
+package com.jackmeng;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A short-time Fourier transform over a continuous stream of samples, such as the mix
+ * of a music player feeding a spectrum visualizer.
+ * <p>
+ * Samples are pushed in (or pulled out of a {@link SpscByteRing} of floats) and kept in
+ * a ring of the last {@code size} samples. Every {@code hop} samples, once the first
+ * {@code size} have come in, the last {@code size} samples are windowed, transformed
+ * with the real {@link FFT} of that size and turned into {@code size/2+1} magnitudes,
+ * which are handed to the {@link FrameConsumer}. The overlap between frames is
+ * {@code size-hop}.
+ * <p>
+ * The magnitudes are scaled by {@code 2/sum(window)}, so a sine that fills a bin shows
+ * up at about its amplitude whatever the window. All buffers are made up front and reused,
+ * so nothing is allocated per frame, and the array handed to the consumer is overwritten
+ * by the next frame.
+ * <p>
+ * Not thread safe: push or pull from one thread at a time.
+ *
+ * @author Jack Meng
+ */
+public final class StreamingSTFT
+{
+	private final int size;
+	private final int hop;
+	private final Window window;
+	private final FrameConsumer consumer;
+	private final FFT fft;
+	private final float[] coefficients;
+	private final float scale;
+	// the last size samples, the oldest at (written)&(size-1)
+	private final float[] history;
+	private final float[] frame;
+	private final float[] magnitudes;
+	// what pull reads the ring into
+	private final float[] scratch;
+	private long written;
+	// samples since the last frame
+	private int pending;
+	private long frames;
+	
+	/**
+	 * @param size How many samples each frame looks at, a power of two (at least 2)
+	 * @param hop How many samples apart frames are, in {@code [1,size]}
+	 * @param window What the samples are weighted with
+	 * @param consumer Gets the magnitudes of each frame
+	 */
+	public StreamingSTFT(int size,int hop,Window window,FrameConsumer consumer)
+	{
+		if(size<2||(size&(size-1))!=0)
+			throw new IllegalArgumentException("The size must be a power of 2 of at least 2, got "+size);
+		if(hop<1||hop>size)
+			throw new IllegalArgumentException("The hop must be in [1,"+size+"], got "+hop);
+		this.size        =size;
+		this.hop         =hop;
+		this.window      =window;
+		this.consumer    =consumer;
+		this.fft         =FFT.of(size);
+		this.coefficients=window.cached(size);
+		float sum=0F;
+		for(float c: coefficients)
+			sum+=c;
+		this.scale     =2F/sum;
+		this.history   =new float[size];
+		this.frame     =new float[size];
+		this.magnitudes=new float[(size>>>1)+1];
+		this.scratch   =new float[Math.min(
+			hop,
+			1024
+		)];
+	}
+	
+	/**
+	 * @return How many samples each frame looks at
+	 */
+	public int size()
+	{
+		return size;
+	}
+	
+	/**
+	 * @return How many samples apart frames are
+	 */
+	public int hop()
+	{
+		return hop;
+	}
+	
+	/**
+	 * @return How many samples consecutive frames share
+	 */
+	public int overlap()
+	{
+		return size-hop;
+	}
+	
+	/**
+	 * @return How many magnitudes each frame has
+	 */
+	public int bins()
+	{
+		return magnitudes.length;
+	}
+	
+	/**
+	 * @return The window the samples are weighted with
+	 */
+	public Window window()
+	{
+		return window;
+	}
+	
+	/**
+	 * @return How many frames have been made since this was made or reset
+	 */
+	public long frames()
+	{
+		return frames;
+	}
+	
+	/**
+	 * @param bin A bin index
+	 * @param sampleRate The sample rate of the stream in Hz
+	 *
+	 * @return The frequency at the center of the bin in Hz
+	 */
+	public float frequencyOf(int bin,float sampleRate)
+	{
+		return bin*sampleRate/size;
+	}
+	
+	/**
+	 * Adds samples to the stream, making a frame every time a hop's worth is in.
+	 *
+	 * @return How many frames were made
+	 */
+	public int push(float[] samples,int off,int len)
+	{
+		if(off<0||len<0||off+len>samples.length)
+			throw new IndexOutOfBoundsException("["+off+","+(off+len)+") out of "+samples.length);
+		int made=0;
+		int mask=size-1;
+		while(len>0)
+		{
+			// up to the next frame, or everything if it does not get there
+			int want=written<size
+					 ?(int)(size-written)
+					 :hop-pending;
+			int n=Math.min(
+				len,
+				want
+			);
+			int at=(int)written&mask;
+			int first=Math.min(
+				n,
+				size-at
+			);
+			System.arraycopy(
+				samples,
+				off,
+				history,
+				at,
+				first
+			);
+			if(n>first)
+				System.arraycopy(
+					samples,
+					off+first,
+					history,
+					0,
+					n-first
+				);
+			written+=n;
+			off+=n;
+			len-=n;
+			if(written<size)
+				continue;
+			pending+=n;
+			if(written==size||pending>=hop)
+			{
+				emit();
+				pending=0;
+				made++;
+			}
+		}
+		return made;
+	}
+	
+	/**
+	 * Reads every float there is in a ring (as written by
+	 * {@link SpscByteRing#writeFloats(float[],int,int)}) into the stream. Must be called
+	 * from the ring's consumer thread.
+	 *
+	 * @return How many frames were made
+	 */
+	public int pull(SpscByteRing ring)
+	{
+		return pull(
+			ring,
+			Integer.MAX_VALUE
+		);
+	}
+	
+	/**
+	 * Like {@link #pull(SpscByteRing)}, but stops reading once {@code maxFrames} frames
+	 * were made, leaving the rest of the samples in the ring. This bounds the work of a
+	 * call when the reader has fallen behind.
+	 *
+	 * @return How many frames were made
+	 */
+	public int pull(SpscByteRing ring,int maxFrames)
+	{
+		int made=0;
+		while(made<maxFrames)
+		{
+			// never read past the next frame so the limit is exact
+			int want=Math.min(
+				scratch.length,
+				written<size
+				?(int)(size-written)
+				:hop-pending
+			);
+			int got=ring.readFloats(
+				scratch,
+				0,
+				want
+			);
+			if(got==0)
+				break;
+			made+=push(
+				scratch,
+				0,
+				got
+			);
+		}
+		return made;
+	}
+	
+	/**
+	 * Forgets every sample, the next frame is made once {@code size} new samples are in.
+	 */
+	public void reset()
+	{
+		written=0L;
+		pending=0;
+		frames =0L;
+	}
+	
+	/**
+	 * Turns magnitudes into decibels relative to 1, in place.
+	 *
+	 * @param magnitudes The magnitudes
+	 * @param n How many
+	 * @param floor The lowest decibel value, which silence maps to
+	 */
+	public static void toDecibels(float[] magnitudes,int n,float floor)
+	{
+		float min=(float)Math.pow(
+			10D,
+			floor/20D
+		);
+		for(int i=0;i<n;i++)
+			magnitudes[i]=magnitudes[i]<=min
+						  ?floor
+						  :20F*(float)Math.log10(magnitudes[i]);
+	}
+	
+	/**
+	 * Gets the magnitudes of each frame
+	 *
+	 * @author Jack Meng
+	 */
+	@FunctionalInterface public interface FrameConsumer
+	{
+		/**
+		 * @param magnitudes The magnitudes from DC up to the Nyquist frequency, only valid
+		 * during this call
+		 * @param bins How many magnitudes there are
+		 * @param frame The index of this frame, counting from 0
+		 */
+		void onFrame(float[] magnitudes,int bins,long frame);
+	}
+	
+	/**
+	 * The windows frames can be weighted with. They are periodic (meant for spectra, not
+	 * filter design) and their coefficients are computed once per size.
+	 *
+	 * @author Jack Meng
+	 */
+	public enum Window
+	{
+		/**
+		 * No weighting at all, the sharpest peaks but the most leakage
+		 */
+		RECTANGULAR(
+			1D,
+			0D,
+			0D
+		),
+		/**
+		 * A good default for music
+		 */
+		HANN(
+			0.5D,
+			0.5D,
+			0D
+		),
+		/**
+		 * Like Hann, but with lower nearby side lobes that fall off slower
+		 */
+		HAMMING(
+			0.54D,
+			0.46D,
+			0D
+		),
+		/**
+		 * Wider peaks but far less leakage, for when quiet bins next to loud ones matter
+		 */
+		BLACKMAN(
+			0.42D,
+			0.5D,
+			0.08D
+		);
+		private static final ConcurrentHashMap<Long,float[]> cache=new ConcurrentHashMap<>();
+		private final double a0;
+		private final double a1;
+		private final double a2;
+		
+		Window(double a0,double a1,double a2)
+		{
+			this.a0=a0;
+			this.a1=a1;
+			this.a2=a2;
+		}
+		
+		/**
+		 * @param n How many coefficients
+		 *
+		 * @return A copy of the coefficients for that many samples
+		 */
+		public float[] coefficients(int n)
+		{
+			return cached(n).clone();
+		}
+		
+		private float[] cached(int n)
+		{
+			if(n<=0)
+				throw new IllegalArgumentException("The length must be >0");
+			return cache.computeIfAbsent(
+				(long)ordinal()<<32|n,
+				k->{
+					float[] w=new float[n];
+					for(int i=0;i<n;i++)
+					{
+						double t=2D*Math.PI*i/n;
+						w[i]=(float)(a0-a1*Math.cos(t)+a2*Math.cos(2D*t));
+					}
+					return w;
+				}
+			);
+		}
+	}
+	
+	private void emit()
+	{
+		int mask=size-1;
+		// the oldest sample sits where the next one will be written
+		int start=(int)written&mask;
+		for(int i=0;i<size;i++)
+			frame[i]=history[(start+i)&mask]*coefficients[i];
+		fft.realForward(
+			frame,
+			0
+		);
+		int half=size>>>1;
+		magnitudes[0]   =Math.abs(frame[0])*scale*0.5F;
+		magnitudes[half]=Math.abs(frame[1])*scale*0.5F;
+		for(int k=1;k<half;k++)
+		{
+			float re=frame[k<<1];
+			float im=frame[(k<<1)+1];
+			magnitudes[k]=(float)Math.sqrt(re*re+im*im)*scale;
+		}
+		consumer.onFrame(
+			magnitudes,
+			magnitudes.length,
+			frames++
+		);
+	}
+}
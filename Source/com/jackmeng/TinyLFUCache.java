@@ -0,0 +1,954 @@
+package com.jackmeng;
+
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongBiFunction;
+
+/**
+ * A thread safe cache bounded by the total weight of its entries that decides what to
+ * keep with W-TinyLFU instead of plain LRU.
+ * <p>
+ * New entries go into a small LRU window (1% of the weight). What falls out of the window
+ * is a candidate for the main area, which is a segmented LRU made of a probation segment
+ * and a protected segment (80% of the main area) that entries move up into when they are
+ * used again. When the cache is too heavy, the candidate is only let in over the victim
+ * (the least recently used entry in probation) if it has been asked for more often. How
+ * often keys are asked for is estimated with a count-min sketch of 4-bit counters that
+ * are halved every so often so old popularity fades. This keeps one-off scans from
+ * flushing out the entries that are used all the time, which plain LRU does not.
+ * <p>
+ * Reads do not lock. The entries live in a {@link ConcurrentHashMap} and a read only
+ * records the entry it found into one of a few lossy ring buffers (picked by the thread),
+ * which are drained into the policy by whichever thread gets the policy lock next. Writes
+ * take the lock. Loading through {@link #computeIfAbsent(Object,Function)} is done
+ * outside the lock and only once per key, other threads asking for the same key wait for
+ * that load.
+ * <p>
+ * Entries can also expire a set time after they were last read or written. Expired entries
+ * are never returned and are dropped as the cache is maintained or on {@link #cleanUp()}.
+ * {@code null} keys and values are not allowed.
+ *
+ * @param <K> The key type
+ * @param <V> The value type
+ *
+ * @author Jack Meng
+ */
+public final class TinyLFUCache<K,V>
+{
+	private static final byte WINDOW=0;
+	private static final byte PROBATION=1;
+	private static final byte PROTECTED=2;
+	// slots in each read buffer, a drain is tried every DRAIN_EVERY reads into one
+	private static final int READ_BUFFER=32;
+	private static final int DRAIN_EVERY=16;
+	private final ConcurrentHashMap<K,Node<K,V>> data;
+	private final ConcurrentHashMap<K,CompletableFuture<V>> loading;
+	private final ToLongBiFunction<? super K,? super V> weigher;
+	private final long expireAfterAccess;
+	private final long expireAfterWrite;
+	private final LongSupplier ticker;
+	private final ReentrantLock lock;
+	private final AtomicReferenceArray<Node<K,V>>[] readBuffers;
+	private final AtomicInteger[] readCounts;
+	// everything below is only touched while holding the lock
+	private final Queue<K,V> window;
+	private final Queue<K,V> probation;
+	private final Queue<K,V> protect;
+	private final FrequencySketch sketch;
+	private long maximum;
+	private long windowMaximum;
+	private long protectedMaximum;
+	private final LongAdder hits;
+	private final LongAdder misses;
+	private final LongAdder loads;
+	private final LongAdder loadFailures;
+	private final LongAdder loadTime;
+	private final LongAdder evictions;
+	private final LongAdder evictionWeight;
+	
+	private TinyLFUCache(Builder<K,V> b)
+	{
+		this.data             =new ConcurrentHashMap<>(b.initialCapacity);
+		this.loading          =new ConcurrentHashMap<>();
+		this.weigher          =b.weigher;
+		this.expireAfterAccess=b.expireAfterAccess;
+		this.expireAfterWrite =b.expireAfterWrite;
+		this.ticker           =b.ticker;
+		this.lock             =new ReentrantLock();
+		int stripes=Integer.highestOneBit(Math.min(
+			16,
+			Runtime
+				.getRuntime()
+				.availableProcessors()
+		)*2-1);
+		this.readBuffers =readBuffers(stripes);
+		this.readCounts  =new AtomicInteger[stripes];
+		for(int i=0;i<stripes;i++)
+		{
+			readBuffers[i]=new AtomicReferenceArray<>(READ_BUFFER);
+			readCounts[i] =new AtomicInteger();
+		}
+		this.window      =new Queue<>();
+		this.probation   =new Queue<>();
+		this.protect     =new Queue<>();
+		this.sketch      =new FrequencySketch(b.initialCapacity);
+		this.hits        =new LongAdder();
+		this.misses      =new LongAdder();
+		this.loads       =new LongAdder();
+		this.loadFailures=new LongAdder();
+		this.loadTime    =new LongAdder();
+		this.evictions   =new LongAdder();
+		this.evictionWeight=new LongAdder();
+		resize(b.maximum);
+	}
+	
+	@SuppressWarnings("unchecked") private static <E> AtomicReferenceArray<E>[] readBuffers(int stripes)
+	{
+		return (AtomicReferenceArray<E>[])new AtomicReferenceArray<?>[stripes];
+	}
+	
+	/**
+	 * @return A builder for a cache that holds up to 1024 entries
+	 */
+	public static <K,V> Builder<K,V> make()
+	{
+		return new Builder<>();
+	}
+	
+	/**
+	 * Looks a key up without loading it.
+	 *
+	 * @param key The key
+	 *
+	 * @return The value or {@code null} if it is not cached (or has expired)
+	 */
+	public V getIfPresent(K key)
+	{
+		V v=lookup(key);
+		if(v==null)
+			misses.increment();
+		else
+			hits.increment();
+		return v;
+	}
+	
+	/**
+	 * Gets the value of a key, loading and caching it if it is not cached. The loader is
+	 * run on the calling thread without holding any lock, and if several threads ask for a
+	 * key that is not cached at once, only one of them loads it while the rest wait for
+	 * that value. A loader that returns {@code null} caches nothing and {@code null} is
+	 * returned. Whatever the loader throws is thrown to every thread waiting on it
+	 * (wrapped in a {@link CompletionException} for the waiting ones).
+	 *
+	 * @param key The key
+	 * @param loader Makes the value of a key
+	 *
+	 * @return The value, possibly {@code null}
+	 */
+	public V computeIfAbsent(K key,Function<? super K,? extends V> loader)
+	{
+		V v=lookup(key);
+		if(v!=null)
+		{
+			hits.increment();
+			return v;
+		}
+		misses.increment();
+		CompletableFuture<V> mine=new CompletableFuture<>();
+		CompletableFuture<V> other=loading.putIfAbsent(
+			key,
+			mine
+		);
+		if(other!=null)
+			return other.join();
+		try
+		{
+			// someone might have finished loading it between the lookup and here
+			v=lookup(key);
+			if(v==null)
+			{
+				long start=ticker.getAsLong();
+				try
+				{
+					v=loader.apply(key);
+				}catch(RuntimeException|Error e)
+				{
+					loadFailures.increment();
+					throw e;
+				}finally
+				{
+					loadTime.add(ticker.getAsLong()-start);
+				}
+				loads.increment();
+				if(v!=null)
+					put(
+						key,
+						v
+					);
+			}
+			mine.complete(v);
+			return v;
+		}catch(RuntimeException|Error e)
+		{
+			mine.completeExceptionally(e);
+			throw e;
+		}finally
+		{
+			loading.remove(
+				key,
+				mine
+			);
+		}
+	}
+	
+	/**
+	 * Caches a value, replacing whatever the key had.
+	 *
+	 * @param key The key
+	 * @param value The value
+	 */
+	public void put(K key,V value)
+	{
+		if(key==null||value==null)
+			throw new NullPointerException();
+		long w=weigher.applyAsLong(
+			key,
+			value
+		);
+		if(w<0L)
+			throw new IllegalArgumentException("Negative weight "+w+" for "+key);
+		Node<K,V> node=new Node<>(
+			key,
+			value,
+			w,
+			ticker.getAsLong()
+		);
+		lock.lock();
+		try
+		{
+			drainReads();
+			Node<K,V> old=data.put(
+				key,
+				node
+			);
+			if(old!=null)
+				unlink(old);
+			sketch.ensureCapacity(data.size());
+			sketch.increment(key.hashCode());
+			node.queue=WINDOW;
+			window.linkLast(node);
+			evict();
+		}finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Drops a key.
+	 *
+	 * @param key The key
+	 *
+	 * @return The value it had or {@code null}
+	 */
+	public V remove(K key)
+	{
+		lock.lock();
+		try
+		{
+			drainReads();
+			Node<K,V> node=data.remove(key);
+			if(node==null)
+				return null;
+			unlink(node);
+			return node.value;
+		}finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Drops every entry. The counters are kept.
+	 */
+	public void clear()
+	{
+		lock.lock();
+		try
+		{
+			drainReads();
+			for(Node<K,V> n: data.values())
+				unlink(n);
+			data.clear();
+		}finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Applies pending reads, drops every expired entry and evicts down to the maximum
+	 * weight. This happens on its own as the cache is used, calling it is only needed to
+	 * get rid of expired entries in a cache that is not being used.
+	 */
+	public void cleanUp()
+	{
+		lock.lock();
+		try
+		{
+			drainReads();
+			if(expireAfterAccess>0L||expireAfterWrite>0L)
+			{
+				long now=ticker.getAsLong();
+				ArrayList<Node<K,V>> dead=new ArrayList<>();
+				for(Node<K,V> n: data.values())
+					if(expired(
+						n,
+						now
+					))
+						dead.add(n);
+				for(Node<K,V> n: dead)
+					evict(n);
+			}
+			evict();
+		}finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Changes the maximum weight, evicting right away if the cache is now too heavy.
+	 *
+	 * @param maximum The maximum total weight (>0)
+	 */
+	public void setMaximumWeight(long maximum)
+	{
+		lock.lock();
+		try
+		{
+			resize(maximum);
+			drainReads();
+			evict();
+		}finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * @return The maximum total weight
+	 */
+	public long maximumWeight()
+	{
+		lock.lock();
+		try
+		{
+			return maximum;
+		}finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * @return The total weight of what is cached
+	 */
+	public long weight()
+	{
+		lock.lock();
+		try
+		{
+			return window.weight+probation.weight+protect.weight;
+		}finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * @return How many entries there are, including expired ones that were not dropped yet
+	 */
+	public int size()
+	{
+		return data.size();
+	}
+	
+	/**
+	 * @return A snapshot of the counters
+	 */
+	public CacheStats stats()
+	{
+		return new CacheStats(
+			hits.sum(),
+			misses.sum(),
+			loads.sum(),
+			loadFailures.sum(),
+			loadTime.sum(),
+			evictions.sum(),
+			evictionWeight.sum()
+		);
+	}
+	
+	@Override public String toString()
+	{
+		return "TinyLFUCache[size="+size()+",stats="+stats()+"]";
+	}
+	
+	/**
+	 * A snapshot of the counters of a cache.
+	 *
+	 * @param hits How many lookups were found in the cache
+	 * @param misses How many lookups were not
+	 * @param loads How many values were loaded successfully
+	 * @param loadFailures How many loads threw
+	 * @param loadTime The total time spent loading in the cache's ticker units (nanoseconds
+	 * by default)
+	 * @param evictions How many entries were evicted to make room or because they expired
+	 * @param evictionWeight The total weight of the evicted entries
+	 */
+	public record CacheStats(
+		long hits,long misses,long loads,long loadFailures,long loadTime,long evictions,
+		long evictionWeight
+	)
+	{
+		/**
+		 * @return hits/(hits+misses) or 0 if nothing was looked up yet
+		 */
+		public double hitRate()
+		{
+			return hits+misses==0L?0D:(double)hits/(hits+misses);
+		}
+		
+		/**
+		 * @return The average time a load took or 0 if nothing was loaded yet
+		 */
+		public double averageLoadPenalty()
+		{
+			long n=loads+loadFailures;
+			return n==0L?0D:(double)loadTime/n;
+		}
+	}
+	
+	/**
+	 * Configures a {@link TinyLFUCache}. By default it holds up to 1024 entries that never
+	 * expire.
+	 *
+	 * @param <K> The key type
+	 * @param <V> The value type
+	 */
+	public static final class Builder<K,V>
+	{
+		private long maximum=1024L;
+		private ToLongBiFunction<? super K,? super V> weigher=(k,v)->1L;
+		private long expireAfterAccess;
+		private long expireAfterWrite;
+		private int initialCapacity=16;
+		private LongSupplier ticker=System::nanoTime;
+		
+		private Builder(){}
+		
+		/**
+		 * Bounds the amount of entries, every entry weighs 1.
+		 *
+		 * @param entries The maximum amount of entries (>0)
+		 *
+		 * @return this
+		 */
+		public Builder<K,V> withMaximumSize(long entries)
+		{
+			this.weigher=(k,v)->1L;
+			return withMaximumWeight(entries);
+		}
+		
+		/**
+		 * Bounds the total weight of the entries. Use together with
+		 * {@link #withWeigher(ToLongBiFunction)}.
+		 *
+		 * @param weight The maximum total weight (>0)
+		 *
+		 * @return this
+		 */
+		public Builder<K,V> withMaximumWeight(long weight)
+		{
+			if(weight<=0L)
+				throw new IllegalArgumentException("The maximum weight must be >0");
+			this.maximum=weight;
+			return this;
+		}
+		
+		/**
+		 * @param weigher How much an entry weighs, computed once when it is put (>=0)
+		 *
+		 * @return this
+		 */
+		public Builder<K,V> withWeigher(ToLongBiFunction<? super K,? super V> weigher)
+		{
+			this.weigher=weigher;
+			return this;
+		}
+		
+		/**
+		 * @param nanos How long after it was last read or written an entry expires, 0 for
+		 * never
+		 *
+		 * @return this
+		 */
+		public Builder<K,V> withExpireAfterAccess(long nanos)
+		{
+			if(nanos<0L)
+				throw new IllegalArgumentException("The expiry must be >=0");
+			this.expireAfterAccess=nanos;
+			return this;
+		}
+		
+		/**
+		 * @param nanos How long after it was written an entry expires, 0 for never
+		 *
+		 * @return this
+		 */
+		public Builder<K,V> withExpireAfterWrite(long nanos)
+		{
+			if(nanos<0L)
+				throw new IllegalArgumentException("The expiry must be >=0");
+			this.expireAfterWrite=nanos;
+			return this;
+		}
+		
+		/**
+		 * @param entries Roughly how many entries are expected, used to size the table and
+		 * the frequency sketch up front
+		 *
+		 * @return this
+		 */
+		public Builder<K,V> withInitialCapacity(int entries)
+		{
+			if(entries<0)
+				throw new IllegalArgumentException("The initial capacity must be >=0");
+			this.initialCapacity=entries;
+			return this;
+		}
+		
+		/**
+		 * @param ticker Where the time in nanoseconds comes from, mostly for tests
+		 *
+		 * @return this
+		 */
+		public Builder<K,V> withTicker(LongSupplier ticker)
+		{
+			this.ticker=ticker;
+			return this;
+		}
+		
+		/**
+		 * @return The cache
+		 */
+		public TinyLFUCache<K,V> build()
+		{
+			return new TinyLFUCache<>(this);
+		}
+	}
+	
+	private V lookup(K key)
+	{
+		Node<K,V> node=data.get(key);
+		if(node==null)
+			return null;
+		if(expireAfterAccess>0L||expireAfterWrite>0L)
+		{
+			long now=ticker.getAsLong();
+			if(expired(
+				node,
+				now
+			))
+			{
+				expire(node);
+				return null;
+			}
+			node.accessTime=now;
+		}
+		recordRead(node);
+		return node.value;
+	}
+	
+	private boolean expired(Node<K,V> node,long now)
+	{
+		return expireAfterAccess>0L&&now-node.accessTime>=expireAfterAccess
+			   ||expireAfterWrite>0L&&now-node.writeTime>=expireAfterWrite;
+	}
+	
+	private void expire(Node<K,V> node)
+	{
+		lock.lock();
+		try
+		{
+			if(data.get(node.key)==node)
+				evict(node);
+		}finally
+		{
+			lock.unlock();
+		}
+	}
+	
+	private void recordRead(Node<K,V> node)
+	{
+		int stripe=(int)Thread
+						 .currentThread()
+						 .getId()&(readBuffers.length-1);
+		int n=readCounts[stripe].getAndIncrement();
+		// lossy, a slot that is overwritten before being drained just loses that read
+		readBuffers[stripe].lazySet(
+			n&(READ_BUFFER-1),
+			node
+		);
+		if((n&(DRAIN_EVERY-1))==DRAIN_EVERY-1&&lock.tryLock())
+		{
+			try
+			{
+				drainReads();
+				expireHeads();
+			}finally
+			{
+				lock.unlock();
+			}
+		}
+	}
+	
+	private void drainReads()
+	{
+		for(AtomicReferenceArray<Node<K,V>> buffer: readBuffers)
+			for(int i=0;i<READ_BUFFER;i++)
+			{
+				Node<K,V> n=buffer.get(i);
+				if(n!=null)
+				{
+					buffer.lazySet(
+						i,
+						null
+					);
+					onAccess(n);
+				}
+			}
+	}
+	
+	private void onAccess(Node<K,V> node)
+	{
+		if(node.queue<0)
+			return; // removed since it was read
+		sketch.increment(node.key.hashCode());
+		switch(node.queue)
+		{
+			case WINDOW -> window.moveToEnd(node);
+			case PROBATION ->
+			{
+				probation.unlink(node);
+				node.queue=PROTECTED;
+				protect.linkLast(node);
+				while(protect.weight>protectedMaximum&&protect.head!=node)
+				{
+					Node<K,V> demoted=protect.head;
+					protect.unlink(demoted);
+					demoted.queue=PROBATION;
+					probation.linkLast(demoted);
+				}
+			}
+			default -> protect.moveToEnd(node);
+		}
+	}
+	
+	/**
+	 * Drops expired entries from the front of each queue. The queues are roughly in access
+	 * order, so this finds most of them without looking at every entry.
+	 */
+	private void expireHeads()
+	{
+		if(expireAfterAccess==0L&&expireAfterWrite==0L)
+			return;
+		long now=ticker.getAsLong();
+		expireHead(
+			window,
+			now
+		);
+		expireHead(
+			probation,
+			now
+		);
+		expireHead(
+			protect,
+			now
+		);
+	}
+	
+	private void expireHead(Queue<K,V> q,long now)
+	{
+		while(q.head!=null&&expired(
+			q.head,
+			now
+		))
+			evict(q.head);
+	}
+	
+	private void evict()
+	{
+		// whatever overflows the window becomes a candidate at the back of probation
+		Node<K,V> candidate=null;
+		while(window.weight>windowMaximum&&window.head!=null)
+		{
+			Node<K,V> n=window.head;
+			window.unlink(n);
+			n.queue=PROBATION;
+			probation.linkLast(n);
+			if(candidate==null)
+				candidate=n;
+		}
+		while(window.weight+probation.weight+protect.weight>maximum)
+		{
+			Node<K,V> victim=probation.head;
+			if(victim==null)
+			{
+				// nothing on probation, take the oldest of whatever is left
+				evict(protect.head!=null?protect.head:window.head);
+				continue;
+			}
+			Node<K,V> loser;
+			if(candidate==null||candidate==victim)
+				loser=victim;
+			else if(candidate.weight>maximum)
+				loser=candidate;
+			else
+				loser=sketch.frequency(candidate.key.hashCode())>sketch.frequency(victim.key.hashCode())
+					  ?victim
+					  :candidate;
+			if(loser==candidate)
+				candidate=candidate.next;
+			evict(loser);
+		}
+	}
+	
+	private void evict(Node<K,V> node)
+	{
+		evictions.increment();
+		evictionWeight.add(node.weight);
+		data.remove(
+			node.key,
+			node
+		);
+		unlink(node);
+	}
+	
+	private void unlink(Node<K,V> node)
+	{
+		switch(node.queue)
+		{
+			case WINDOW -> window.unlink(node);
+			case PROBATION -> probation.unlink(node);
+			case PROTECTED -> protect.unlink(node);
+			default ->
+			{
+			}
+		}
+		node.queue=-1;
+	}
+	
+	private void resize(long maximum)
+	{
+		if(maximum<=0L)
+			throw new IllegalArgumentException("The maximum weight must be >0");
+		this.maximum         =maximum;
+		this.windowMaximum   =Math.max(
+			1L,
+			maximum/100L
+		);
+		this.protectedMaximum=(long)((maximum-windowMaximum)*0.8D);
+	}
+	
+	private static final class Node<K,V>
+	{
+		final K key;
+		final V value;
+		final long weight;
+		final long writeTime;
+		volatile long accessTime;
+		// which queue it is in, -1 once it is out of the cache (guarded by the lock)
+		byte queue;
+		Node<K,V> prev;
+		Node<K,V> next;
+		
+		Node(K key,V value,long weight,long now)
+		{
+			this.key       =key;
+			this.value     =value;
+			this.weight    =weight;
+			this.writeTime =now;
+			this.accessTime=now;
+		}
+	}
+	
+	/**
+	 * An intrusive doubly linked list of nodes, least recently used at the head
+	 */
+	private static final class Queue<K,V>
+	{
+		Node<K,V> head;
+		Node<K,V> tail;
+		long weight;
+		
+		void linkLast(Node<K,V> n)
+		{
+			n.prev=tail;
+			n.next=null;
+			if(tail==null)
+				head=n;
+			else
+				tail.next=n;
+			tail=n;
+			weight+=n.weight;
+		}
+		
+		void unlink(Node<K,V> n)
+		{
+			if(n.prev==null)
+				head=n.next;
+			else
+				n.prev.next=n.next;
+			if(n.next==null)
+				tail=n.prev;
+			else
+				n.next.prev=n.prev;
+			n.prev=null;
+			n.next=null;
+			weight-=n.weight;
+		}
+		
+		void moveToEnd(Node<K,V> n)
+		{
+			if(tail!=n)
+			{
+				unlink(n);
+				linkLast(n);
+			}
+		}
+	}
+	
+	/**
+	 * A count-min sketch of 4-bit counters, 16 to a long. Each key bumps one counter in
+	 * each of 4 longs and its frequency is the smallest of them. Once there have been 10
+	 * times as many bumps as the sketch is wide, every counter is halved.
+	 */
+	private static final class FrequencySketch
+	{
+		private static final long[] SEEDS={
+			0xC3A5C85C97CB3127L,
+			0xB492B66FBE98F273L,
+			0x9AE16A3B2F90404FL,
+			0xCBF29CE484222325L
+		};
+		private long[] table;
+		private int mask;
+		private int additions;
+		private int sampleSize;
+		
+		FrequencySketch(int entries)
+		{
+			ensureCapacity(Math.max(
+				entries,
+				16
+			));
+		}
+		
+		/**
+		 * Widens the sketch for that many entries, which forgets everything counted so far
+		 */
+		void ensureCapacity(int entries)
+		{
+			int want=Integer.highestOneBit(Math.max(
+				Math.min(
+					entries,
+					1<<26
+				)-1,
+				1
+			))<<1;
+			if(table!=null&&table.length>=want)
+				return;
+			table     =new long[want];
+			mask      =want-1;
+			additions =0;
+			sampleSize=10*want;
+		}
+		
+		int frequency(int hash)
+		{
+			int h=spread(hash);
+			int min=15;
+			for(int i=0;i<4;i++)
+				min=Math.min(
+					min,
+					(int)(table[index(
+						h,
+						i
+					)]>>>offset(
+						h,
+						i
+					))&15
+				);
+			return min;
+		}
+		
+		void increment(int hash)
+		{
+			int h=spread(hash);
+			boolean added=false;
+			for(int i=0;i<4;i++)
+			{
+				int at=index(
+					h,
+					i
+				);
+				int shift=offset(
+					h,
+					i
+				);
+				if((table[at]>>>shift&15L)!=15L)
+				{
+					table[at]+=1L<<shift;
+					added=true;
+				}
+			}
+			if(added&&++additions>=sampleSize)
+				age();
+		}
+		
+		private void age()
+		{
+			for(int i=0;i<table.length;i++)
+				table[i]=table[i]>>>1&0x7777777777777777L;
+			additions>>>=1;
+		}
+		
+		private int index(int h,int i)
+		{
+			long x=(h+SEEDS[i])*SEEDS[i];
+			return (int)(x+(x>>>32))&mask;
+		}
+		
+		private static int offset(int h,int i)
+		{
+			return (h>>>(i<<3)&15)<<2;
+		}
+		
+		private static int spread(int x)
+		{
+			x=(x>>>16^x)*0x45D9F3B;
+			x=(x>>>16^x)*0x45D9F3B;
+			return x>>>16^x;
+		}
+	}
+}
@@ -1,14 +1,20 @@
 package pkg.exoad.poprock.core;
 
+import com.jackmeng.TinyLFUCache;
+
 import javax.imageio.ImageIO;
 import javax.swing.*;
 import pkg.exoad.poprock.core.annotations.ServiceClass;
+import pkg.exoad.poprock.core.debug.DebugService;
 
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
-import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 
 /**
  * AssetsService - Naive class for loading things from a baked-in assets folder that is
@@ -23,6 +29,19 @@ import java.util.WeakHashMap;
  * <em>There are plans to migrate to using {@link java.util.Optional}'s to
  * allow for better catching of nonexistent assets, but that just introduces overhead as
  * 99.9% of the time, the asset should be there.</em>
+ * <p>
+ * <h3>Caching</h3>
+ * Everything that is fetched is kept in a cache that is bounded by the decoded size of
+ * the assets (for images, that is how many bytes the pixels take up) and not by how many
+ * assets there are. When the cache goes over {@link #setCacheCapacity(long)}, assets are
+ * evicted by how recently and how often they are used (see {@link TinyLFUCache}), so a
+ * screen full of one-off images does not push out the icons that are on every screen.
+ * Lookups do not lock and an asset is only ever loaded once at a time. See
+ * {@link #getCacheStats()} for how well the cache is doing.
+ * <p>
+ * Images that are known to be needed soon can be decoded ahead of time in parallel using
+ * {@link #prefetch(String...)}, which is much better than decoding them one by one on the
+ * EDT when a screen is first shown.
  *
  * @author Jack Meng
  */
@@ -34,18 +53,66 @@ public final class AssetsService
 	 * this be touched.
 	 */
 	public static String ASSETS_OFFSET="";
-	// A very basic cache system for objects loaded from the assets folder, we use a weakhashmap so the gc can take care of making something expire
-	private static final WeakHashMap<String,Object> cache;
+	/**
+	 * The default capacity of the cache in bytes (64 MiB)
+	 */
+	public static final long DEFAULT_CACHE_CAPACITY=64L*1024L*1024L;
+	// weighted by the decoded size of the assets so large textures can't hog the heap
+	private static final TinyLFUCache<AssetKey,Object> cache;
 	
 	static
 	{
 		// init the cache map
-		cache=new WeakHashMap<>();
+		cache=TinyLFUCache
+			.<AssetKey,Object>make()
+			.withMaximumWeight(DEFAULT_CACHE_CAPACITY)
+			.withWeigher((k,v)->weigh(v))
+			.withInitialCapacity(64)
+			.build();
 	}
 	
 	private AssetsService()
 	{}
 	
+	/**
+	 * Sets the maximum amount of bytes the cache can hold. If the cache is currently
+	 * holding more than that, it is trimmed right away.
+	 *
+	 * @param bytes The capacity in bytes (>0)
+	 */
+	public static void setCacheCapacity(long bytes)
+	{
+		DebugService.panicOn(
+			bytes<=0,
+			"The cache capacity must be >0"
+		);
+		cache.setMaximumWeight(bytes);
+	}
+	
+	/**
+	 * @return A snapshot of the cache's counters
+	 */
+	public static AssetCacheStats getCacheStats()
+	{
+		TinyLFUCache.CacheStats stats=cache.stats();
+		return new AssetCacheStats(
+			stats.hits(),
+			stats.misses(),
+			stats.evictions(),
+			cache.size(),
+			cache.weight(),
+			cache.maximumWeight()
+		);
+	}
+	
+	/**
+	 * Removes everything from the cache. This does not reset the counters.
+	 */
+	public static void clearCache()
+	{
+		cache.clear();
+	}
+	
 	/**
 	 * Fetches an ImageIcon object from the baked in folder. This is usually used directly
 	 * with an UI object directly and requires no additional processing by the program.
@@ -65,32 +132,25 @@ public final class AssetsService
 	 */
 	public static ImageIcon fetchImageIcon(String path)
 	{
-		path=ASSETS_OFFSET+path;
-		if(cache
-			   .containsKey(path)&&cache
-			   .get(path) instanceof ImageIcon)
-			return (ImageIcon)cache
-				.get(path);
-		ImageIcon res;
-		try
-		{
-			res=new ImageIcon(
-				Objects
-					.requireNonNull(
-						AssetsService.class
-							.getResource(path)
-					)
-			);
-		}catch(NullPointerException e)
-		{
-			res=new ImageIcon(path);
-		}
-		cache
-			.put(
-				path,
-				res
-			);
-		return res;
+		return fetch(
+			ASSETS_OFFSET+path,
+			ImageIcon.class,
+			x->{
+				try
+				{
+					return new ImageIcon(
+						Objects
+							.requireNonNull(
+								AssetsService.class
+									.getResource(x)
+							)
+					);
+				}catch(NullPointerException e)
+				{
+					return new ImageIcon(x);
+				}
+			}
+		);
 	}
 	
 	/**
@@ -98,6 +158,9 @@ public final class AssetsService
 	 * this function is called when we want to modify the image after, such as scaling,
 	 * filtering, etc..
 	 * <p>
+	 * If the image is currently being decoded by {@link #prefetch(String...)}, this waits
+	 * for that instead of decoding it again.
+	 * <p>
 	 * <strong>Example Usage</strong>
 	 * <p>
 	 * <blockquote><pre>
@@ -110,16 +173,83 @@ public final class AssetsService
 	 */
 	public static BufferedImage fetchBufferedImage(String path)
 	{
-		path=ASSETS_OFFSET+path;
-		if(cache
-			   .containsKey(path)&&cache
-			   .get(path) instanceof BufferedImage)
-			return (BufferedImage)cache
-				.get(path);
-		BufferedImage res;
+		return fetch(
+			ASSETS_OFFSET+path,
+			BufferedImage.class,
+			AssetsService::decodeImage
+		);
+	}
+	
+	/**
+	 * Decodes the supplied images in parallel on {@link AsyncService.Tier#IO} and places
+	 * them in the cache. Images that are already cached complete right away.
+	 * <p>
+	 * <strong>Example Usage</strong>
+	 * <p>
+	 * <blockquote><pre>
+	 * AssetsService.prefetch("assets/icons/home_64x64.png","assets/icons/close_64x64.png");
+	 * </pre></blockquote>
+	 *
+	 * @param paths The internal baked-in paths to search from
+	 *
+	 * @return The futures of each of the images in the same order as the paths (a future
+	 * can hold {@code null} just like {@link #fetchBufferedImage(String)})
+	 */
+	public static List<CompletableFuture<BufferedImage>> prefetch(String... paths)
+	{
+		assert paths!=null;
+		ArrayList<CompletableFuture<BufferedImage>> r=new ArrayList<>(paths.length);
+		for(String p: paths)
+		{
+			String path=ASSETS_OFFSET+p;
+			BufferedImage cached=(BufferedImage)cache.getIfPresent(new AssetKey(
+				path,
+				BufferedImage.class
+			));
+			// a fetch of the same image while this is decoding waits on it in the cache
+			r.add(cached!=null
+				  ?CompletableFuture.completedFuture(cached)
+				  :AsyncService.supplyAsync(
+					  AsyncService.Tier.IO,
+					  ()->fetch(
+						  path,
+						  BufferedImage.class,
+						  AssetsService::decodeImage
+					  )
+				  ));
+		}
+		return r;
+	}
+	
+	public static File fetchFile(String path)
+	{
+		return fetch(
+			ASSETS_OFFSET+path,
+			File.class,
+			x->{
+				try
+				{
+					return new File(
+						Objects
+							.requireNonNull(
+								AssetsService.class
+									.getResource(x)
+							)
+							.getFile()
+					);
+				}catch(NullPointerException e)
+				{
+					return new File(x);
+				}
+			}
+		);
+	}
+	
+	private static BufferedImage decodeImage(String path)
+	{
 		try
 		{
-			res=ImageIO
+			return ImageIO
 				.read(
 					Objects
 						.requireNonNull(
@@ -127,53 +257,85 @@ public final class AssetsService
 								.getResource(path)
 						)
 				);
-		}catch(IOException e)
+		}catch(IOException|NullPointerException e)
 		{
 			try
 			{
-				res=ImageIO
+				return ImageIO
 					.read(new File(path));
 			}catch(IOException e1)
 			{
 				return null; // uh oh, this is bad
 			}
 		}
-		cache
-			.put(
+	}
+	
+	/**
+	 * Looks up the cache and falls back to the loader on a miss. The loading is done
+	 * outside of the cache's lock so other threads are not stuck waiting on a decode, and
+	 * threads that want the same asset wait on that one load.
+	 */
+	private static <T> T fetch(String path,Class<T> type,Function<String,T> loader)
+	{
+		return type.cast(cache.computeIfAbsent(
+			new AssetKey(
 				path,
-				res
-			);
-		return res;
+				type
+			),
+			k->loader.apply(path)
+		));
 	}
 	
-	public static File fetchFile(String path)
+	/**
+	 * Estimates how many bytes an asset takes up once loaded.
+	 *
+	 * @param asset The asset
+	 *
+	 * @return The weight in bytes (always >0)
+	 */
+	static long weigh(Object asset)
 	{
-		path=ASSETS_OFFSET+path;
-		if(cache
-			   .containsKey(path)&&cache
-			   .get(path) instanceof File)
-			return (File)cache
-				.get(path);
-		File res;
-		try
-		{
-			res=new File(
-				Objects
-					.requireNonNull(
-						AssetsService.class
-							.getResource(path)
-					)
-					.getFile()
+		if(asset instanceof BufferedImage img)
+			return Math.max(
+				1L,
+				(long)img.getWidth()*img.getHeight()*Math.max(
+					1,
+					img
+						.getColorModel()
+						.getPixelSize()/8
+				)
 			);
-		}catch(NullPointerException e)
+		if(asset instanceof ImageIcon icon)
+			return Math.max(
+				1L,
+				(long)icon.getIconWidth()*icon.getIconHeight()*4L
+			);
+		return 64L; // files and the like, just the object itself
+	}
+	
+	/**
+	 * A snapshot of the counters of the asset cache.
+	 *
+	 * @param hits How many lookups were found in the cache
+	 * @param misses How many lookups had to load the asset
+	 * @param evictions How many assets were evicted to make room
+	 * @param size How many assets are in the cache
+	 * @param weight How many bytes the cached assets take up
+	 * @param capacity How many bytes the cache can hold
+	 */
+	public record AssetCacheStats(
+		long hits,long misses,long evictions,int size,long weight,long capacity
+	)
+	{
+		/**
+		 * @return hits/(hits+misses) or 0 if nothing was looked up yet
+		 */
+		public double hitRate()
 		{
-			res=new File(path);
+			return hits+misses==0L?0D:(double)hits/(hits+misses);
 		}
-		cache
-			.put(
-				path,
-				res
-			);
-		return res;
 	}
-}
+	
+	private record AssetKey(String path,Class<?> type)
+	{}
+}
\ No newline at end of file
@@ -1,76 +1,426 @@
 package pkg.exoad.poprock.core;
 
 import pkg.exoad.poprock.core.annotations.ServiceClass;
+import pkg.exoad.poprock.core.debug.DebugService;
 
 import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 
 /**
  * AsyncService - A utility class providing some basic asynchronous
  * functionalities.
+ * <p>
+ * Work is split up into {@link Tier}s so that callers pick what kind of work they are
+ * submitting instead of spawning raw threads:
+ * <ul>
+ *     <li>{@link Tier#IO} - blocking work such as loading assets or reading
+ *     archives. Uses a virtual thread per task when the runtime has them, otherwise
+ *     an unbounded pool of cached daemon threads.</li>
+ *     <li>{@link Tier#COMPUTE} - CPU bound work. A bounded pool with one thread
+ *     per core and a bounded queue; when the queue is full, the submitting thread
+ *     runs the task itself.</li>
+ *     <li>{@link Tier#PERIODIC} - routine tasks that run periodically. Backed by a
+ *     {@link ScheduledThreadPoolExecutor} so one slow task does not hold up all of the
+ *     others.</li>
+ * </ul>
+ * Every tier keeps track of how many tasks are queued, running and completed along with
+ * how long tasks waited before they ran. See {@link #metrics(Tier)}.
  *
  * @author Jack Meng
  */
 @ServiceClass(requiresArming=false)
 public final class AsyncService
 {
+	/**
+	 * How many tasks can be waiting for the {@link Tier#COMPUTE} tier per core before
+	 * submitting threads have to run the tasks themselves.
+	 */
+	public static final int COMPUTE_QUEUE_PER_CORE=64;
+	private static final TierExecutor IO;
+	private static final TierExecutor COMPUTE;
+	private static final TierExecutor PERIODIC;
+	
+	static
+	{
+		int cores=Runtime
+			.getRuntime()
+			.availableProcessors();
+		IO      =new TierExecutor(
+			Tier.IO,
+			makeIoExecutor()
+		);
+		COMPUTE =new TierExecutor(
+			Tier.COMPUTE,
+			new ThreadPoolExecutor(
+				cores,
+				cores,
+				30L,
+				TimeUnit.SECONDS,
+				new ArrayBlockingQueue<>(cores*COMPUTE_QUEUE_PER_CORE),
+				daemonThreads("compute"),
+				new ThreadPoolExecutor.CallerRunsPolicy()
+			)
+		);
+		ScheduledThreadPoolExecutor scheduler=new ScheduledThreadPoolExecutor(
+			Math.max(
+				2,
+				cores/4
+			),
+			daemonThreads("periodic")
+		);
+		scheduler.setRemoveOnCancelPolicy(true);
+		PERIODIC=new TierExecutor(
+			Tier.PERIODIC,
+			scheduler
+		);
+	}
+	
+	/**
+	 * SCHEDULER is the executor behind {@link Tier#PERIODIC}. Tasks scheduled directly on
+	 * it are not counted by {@link #metrics(Tier)}, so prefer
+	 * {@link #runPeriodicTask(long,long,Runnable)} for periodic ones.
+	 */
+	public static final ScheduledExecutorService SCHEDULER=(ScheduledExecutorService)PERIODIC.executor;
+	/**
+	 * WORKER1 delegates all of the routine tasks that either run as daemons or
+	 * periodically.
+	 *
+	 * @see java.util.Timer
+	 * @deprecated Only kept for callers that schedule {@link java.util.TimerTask}s on it,
+	 * nothing in Poprock uses it anymore. Use {@link #SCHEDULER} or
+	 * {@link #runPeriodicTask(long,long,Runnable)} instead.
+	 */
+	@Deprecated public static final Timer WORKER1=new Timer("pkg.exoad-Poprock-worker#1");
+	/**
+	 * WORKER2 is the executor behind {@link Tier#COMPUTE}. Tasks submitted directly to
+	 * it are not counted by {@link #metrics(Tier)}, so prefer
+	 * {@link #supplyAsync(Tier,Supplier)}.
+	 */
+	public static final ExecutorService WORKER2=COMPUTE.executor;
+	
 	private AsyncService()
 	{
 	}
 	
 	/**
-	 * Invokes a task on a new {@link java.lang.Thread} object and runs it
-	 * concurrently immediately (or when the JVM is ready)
+	 * Picks a virtual thread per task executor if the runtime supports it (Java 21+),
+	 * otherwise falls back to cached daemon threads.
+	 */
+	private static ExecutorService makeIoExecutor()
+	{
+		try
+		{
+			return (ExecutorService)Executors.class
+				.getMethod("newVirtualThreadPerTaskExecutor")
+				.invoke(null);
+		}catch(ReflectiveOperationException e)
+		{
+			return Executors.newCachedThreadPool(daemonThreads("io"));
+		}
+	}
+	
+	private static ThreadFactory daemonThreads(String tier)
+	{
+		AtomicInteger count=new AtomicInteger();
+		return r->{
+			Thread t=new Thread(
+				r,
+				"pkg.exoad-Poprock-"+tier+"#"+count.incrementAndGet()
+			);
+			t.setDaemon(true);
+			return t;
+		};
+	}
+	
+	private static TierExecutor of(Tier tier)
+	{
+		return switch(tier)
+		{
+			case IO -> IO;
+			case COMPUTE -> COMPUTE;
+			case PERIODIC -> PERIODIC;
+		};
+	}
+	
+	/**
+	 * Runs a task concurrently immediately (or when the JVM is ready) on the
+	 * {@link Tier#IO} tier. Like every tier, it runs on a daemon thread, so it does not
+	 * keep the JVM alive on its own.
 	 *
 	 * @param runnable The task
 	 */
 	public static void runAsync(Runnable runnable)
 	{
-		new Thread(runnable)
-			.start();
+		runAsync(
+			Tier.IO,
+			runnable
+		);
 	}
 	
 	/**
-	 * WORKER1 delegates all of the routine tasks that either run as daemons or
-	 * periodically.
+	 * Runs a task on the supplied tier.
 	 *
-	 * @see java.util.Timer
+	 * @param tier Where to run the task
+	 * @param runnable The task
+	 *
+	 * @return A future that completes when the task is done
 	 */
-	public static final Timer WORKER1;
+	public static CompletableFuture<Void> runAsync(Tier tier,Runnable runnable)
+	{
+		DebugService.panicOn(
+			runnable==null,
+			"Cannot run a null task"
+		);
+		return CompletableFuture.runAsync(
+			of(tier).track(runnable),
+			of(tier).executor
+		);
+	}
 	
-	static
+	/**
+	 * Computes a value on the supplied tier.
+	 *
+	 * @param tier Where to run the task
+	 * @param supplier The task
+	 * @param <T> The produced type
+	 *
+	 * @return A future holding the computed value
+	 */
+	public static <T> CompletableFuture<T> supplyAsync(Tier tier,Supplier<T> supplier)
 	{
-		WORKER1=new Timer(
-			"pkg.exoad-Poprock-worker#1"
+		DebugService.panicOn(
+			supplier==null,
+			"Cannot run a null task"
+		);
+		TierExecutor t=of(tier);
+		long submitted=t.submitted();
+		return CompletableFuture.supplyAsync(
+			()->{
+				t.started(submitted);
+				try
+				{
+					return supplier.get();
+				}finally
+				{
+					t.completed();
+				}
+			},
+			t.executor
 		);
 	}
 	
-	public static void runPeriodicTask(
+	/**
+	 * Runs a task periodically on the {@link Tier#PERIODIC} tier. The waiting time
+	 * reported by {@link #metrics(Tier)} for this tier is how late a run started compared
+	 * to when it was supposed to.
+	 *
+	 * @param period Time between each run in milliseconds
+	 * @param initialDelay Time before the first run in milliseconds
+	 * @param task The task
+	 *
+	 * @return The future that can be used to cancel the task
+	 */
+	public static ScheduledFuture<?> runPeriodicTask(
 		long period,long initialDelay,
 		Runnable task
 	)
 	{
-		WORKER1.scheduleAtFixedRate(new TimerTask()
+		DebugService.panicOn(
+			task==null,
+			"Cannot run a null task"
+		);
+		DebugService.panicOn(
+			period<=0,
+			"Period must be greater than 0 (period>0)"
+		);
+		long periodNanos=TimeUnit.MILLISECONDS.toNanos(period);
+		long[] due={System.nanoTime()+TimeUnit.MILLISECONDS.toNanos(initialDelay)};
+		return SCHEDULER.scheduleAtFixedRate(
+			()->{
+				PERIODIC.submitted();
+				PERIODIC.started(due[0]); // only ever touched by one thread at a time
+				due[0]+=periodNanos;
+				try
+				{
+					task.run();
+				}finally
+				{
+					PERIODIC.completed();
+				}
+			},
+			initialDelay,
+			period,
+			TimeUnit.MILLISECONDS
+		);
+	}
+	
+	/**
+	 * @param tier The tier to look at
+	 *
+	 * @return A snapshot of the tier's counters
+	 */
+	public static TierMetrics metrics(Tier tier)
+	{
+		return of(tier).metrics();
+	}
+	
+	/**
+	 * The different kinds of work that can be handed to this service.
+	 *
+	 * @author Jack Meng
+	 */
+	public enum Tier
+	{
+		/**
+		 * Blocking work, such as I/O
+		 */
+		IO("io"),
+		/**
+		 * CPU bound work
+		 */
+		COMPUTE("compute"),
+		/**
+		 * Routine, periodic work
+		 */
+		PERIODIC("periodic");
+		
+		public final String tierName;
+		
+		Tier(String tierName)
 		{
-			@Override public void run()
-			{
-				task.run();
-			}
-		},initialDelay,period);
+			this.tierName=tierName;
+		}
 	}
 	
 	/**
-	 * WORKER2 delegates all of the other options for a
-	 * {@link java.util.concurrent.ForkJoinPool} for a workstealing thread
-	 * pool.
+	 * A snapshot of the counters of a single {@link Tier}.
+	 *
+	 * @param name The name of the tier
+	 * @param queued How many tasks are waiting to be run
+	 * @param active How many tasks are running right now
+	 * @param completed How many tasks have finished
+	 * @param meanWaitNanos The average time a task waited before running
+	 * @param maxWaitNanos The longest a task has waited before running
 	 */
-	public static final ExecutorService WORKER2;
+	public record TierMetrics(
+		String name,long queued,long active,long completed,long meanWaitNanos,
+		long maxWaitNanos
+	)
+	{
+		@Override public String toString()
+		{
+			return String.format(
+				"TierMetrics@%s{queued=%d, active=%d, completed=%d, meanWait=%d ns, maxWait=%d ns}",
+				name,
+				queued,
+				active,
+				completed,
+				meanWaitNanos,
+				maxWaitNanos
+			);
+		}
+	}
 	
-	static
+	/**
+	 * An executor along with the bookkeeping for its metrics.
+	 *
+	 * @author Jack Meng
+	 */
+	private static final class TierExecutor
 	{
-		WORKER2=Executors
-			.newWorkStealingPool();
+		final Tier tier;
+		final ExecutorService executor;
+		private final LongAdder submitted;
+		private final LongAdder started;
+		private final LongAdder completed;
+		private final LongAdder waitNanos;
+		private final LongAccumulator maxWaitNanos;
+		
+		TierExecutor(Tier tier,ExecutorService executor)
+		{
+			this.tier    =tier;
+			this.executor=executor;
+			submitted    =new LongAdder();
+			started      =new LongAdder();
+			completed    =new LongAdder();
+			waitNanos    =new LongAdder();
+			maxWaitNanos =new LongAccumulator(
+				Math::max,
+				0L
+			);
+		}
+		
+		/**
+		 * @return the time stamp of when the task was submitted
+		 */
+		long submitted()
+		{
+			submitted.increment();
+			return System.nanoTime();
+		}
+		
+		void started(long submittedAt)
+		{
+			long wait=Math.max(
+				0L,
+				System.nanoTime()-submittedAt
+			);
+			started.increment();
+			waitNanos.add(wait);
+			maxWaitNanos.accumulate(wait);
+		}
+		
+		void completed()
+		{
+			completed.increment();
+		}
+		
+		Runnable track(Runnable r)
+		{
+			long at=submitted();
+			return ()->{
+				started(at);
+				try
+				{
+					r.run();
+				}finally
+				{
+					completed();
+				}
+			};
+		}
+		
+		TierMetrics metrics()
+		{
+			long s=started.sum();
+			long c=completed.sum();
+			return new TierMetrics(
+				tier.tierName,
+				Math.max(
+					0L,
+					submitted.sum()-s
+				),
+				Math.max(
+					0L,
+					s-c
+				),
+				c,
+				s==0L?0L:waitNanos.sum()/s,
+				maxWaitNanos.get()
+			);
+		}
 	}
 }
@@ -6,10 +6,19 @@ import pkg.exoad.poprock.core.annotations.VolatileImpl;
 import pkg.exoad.poprock.core.debug.DebugService;
 import pkg.exoad.poprock.core.debug.DebuggableMixin;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
 
 /**
  * <h2>EventPool</h2> - <strong>The main global event registry for Poprock
@@ -49,6 +58,22 @@ import java.util.Optional;
  * {@code FooEventPayload} has not been registered to the EventPool by someone
  * {@link #registerEventPool(int)}
  * <p>
+ * <h3>Hot paths should hold onto a handle</h3>
+ * Looking up a pool by its id and then a payload by its class every time is wasteful for
+ * something that runs every frame. Instead, resolve an {@link EventHandle} once using
+ * {@link EventPool#handleOf(Class)} and keep it around. Listeners attached with
+ * {@link EventPool#attachPayloadListener(Class,Consumer)} are also given the dispatched
+ * payload directly, so they never have to look it up again.
+ *
+ * <blockquote><pre>
+ * EventPoolService.EventHandle&lt;FooEventPayload&gt; foo=EventPoolService
+ * .getPool(1)
+ * .handleOf(FooEventPayload.class);
+ * foo.attach(payload -> System.out.println(payload));
+ * foo.dispatch(new FooEventPayload());
+ * </pre></blockquote>
+ * </p>
+ * <p>
  * <h3>Event Pools are finalized</h3>
  * Once a event pool is registered using {@link #registerEventPool(int)}, there is no
  * going back... <em>Unless you use something quirky reflection manipulation (which highly
@@ -59,7 +84,7 @@ import java.util.Optional;
 @ServiceClass(requiresArming=false)
 public final class EventPoolService
 {
-	private static final HashMap<Integer,EventPool> OBJECTS=new HashMap<>();
+	private static final ConcurrentHashMap<Integer,EventPool> OBJECTS=new ConcurrentHashMap<>();
 	
 	private EventPoolService()
 	{
@@ -80,8 +105,7 @@ public final class EventPoolService
 	{
 		return Optional
 			.of(
-				getPool(id).payloads
-					.keySet()
+				getPool(id).registeredPayloads()
 			);
 	}
 	
@@ -97,14 +121,14 @@ public final class EventPoolService
 	 */
 	public static EventPool getPool(int id)
 	{
+		EventPool pool=OBJECTS
+			.get(id);
 		DebugService
 			.panicOn(
-				!OBJECTS
-					.containsKey(id),
-				"Failed to locate pool "+id+" because it already exists in the pool!"
+				pool==null,
+				"Failed to locate pool "+id+" because it does not exist in the pool!"
 			);
-		return OBJECTS
-			.get(id);
+		return pool;
 	}
 	
 	/**
@@ -124,14 +148,12 @@ public final class EventPoolService
 		DebugService
 			.panicOn(
 				OBJECTS
-					.containsKey(id),
+					.putIfAbsent(
+						id,
+						new EventPool(id)
+					)!=null,
 				"Failed to register event "+id+" because it already exists in the pool!"
 			);
-		OBJECTS
-			.put(
-				id,
-				new EventPool()
-			);
 		return id;
 	}
 	
@@ -149,20 +171,90 @@ public final class EventPoolService
 	{
 	}
 	
+	/**
+	 * <h2>EventPool</h2>
+	 * A single pool of payload types along with their listeners.
+	 * <p>
+	 * Internally, every payload class is given a dense integer slot (shared by all of
+	 * the pools) that indexes into a copy-on-write table of {@link EventSlot}s. This
+	 * means that a dispatch is just a couple of array loads, a volatile write of the
+	 * payload and a plain loop over the listeners; there is no hashing, no locking and
+	 * nothing allocated. Registering payloads and attaching listeners is where all of
+	 * the copying happens, which is fine as that is done rarely compared to
+	 * dispatching.
+	 * </p>
+	 * <p>
+	 * <strong>All of the methods here can be called from any
+	 * thread.</strong> By default, listeners are run on the thread that
+	 * dispatched the event in the order they were attached. A pool can also opt into
+	 * asynchronous delivery using {@link #withAsyncDelivery(AsyncDeliveryPolicy,int)},
+	 * in which case listeners are run in batches on the pool's own dispatcher thread.
+	 * </p>
+	 *
+	 * @author Jack Meng
+	 */
 	public static final class EventPool
 		implements
 		DebuggableMixin
 	
 	{
+		/**
+		 * Hands out the dense slot index for a payload class. The index is global so the
+		 * same payload class will always land in the same slot no matter the pool.
+		 */
+		private static final AtomicInteger SLOT_COUNTER=new AtomicInteger();
+		private static final ClassValue<Integer> SLOT_INDEX=new ClassValue<>()
+		{
+			@Override protected Integer computeValue(Class<?> type)
+			{
+				return SLOT_COUNTER.getAndIncrement();
+			}
+		};
+		private static final EventSlot[] NO_SLOTS=new EventSlot[0];
+		
+		// Index: dense slot of the payload class, Value: the listeners and the payload
+		// (null if not registered to this pool)
+		private volatile EventSlot[] slots=NO_SLOTS;
+		private final int id;
+		// null when delivering synchronously
+		private volatile AsyncDelivery async;
+		
+		EventPool(int id)
+		{
+			this.id=id;
+		}
+		
+		/**
+		 * Resolves the slot of a payload type in this pool.
+		 *
+		 * @param id identifier of the payload
+		 *
+		 * @return the slot or {@code null} if the payload was never registered here
+		 */
+		private EventSlot slotOf(Class<? extends EventPayload> id)
+		{
+			int i=SLOT_INDEX.get(id);
+			EventSlot[] s=slots;
+			return i<s.length?s[i]:null;
+		}
 		
-		// Key: Identifier, Value: Pair of Stack of Listeners and the payload
-		private final HashMap</*id of the event*/Class<? extends EventPayload/*must
-		extend
-		marker interface*/>,Pair</*all the listeners*/ArrayList<Runnable>,/*the
-				currently held result of this payload*/Object>> payloads=new HashMap<>();
+		/**
+		 * Same as {@link #slotOf(Class)}, but panics if the payload type does not exist.
+		 * The message is only built on failure so the hot path stays allocation free.
+		 */
+		private EventSlot requireSlot(Class<? extends EventPayload> id,String action)
+		{
+			EventSlot slot=slotOf(id);
+			if(slot==null)
+				THROW_NOW(action+" failed: No such event exists with the given id: "+id
+					.getCanonicalName());
+			return slot;
+		}
 		
 		/**
-		 * Subscribe to an event payload type
+		 * Subscribe to an event payload type. This is just an adapter over
+		 * {@link #attachPayloadListener(Class,Consumer)} for listeners that do not care
+		 * about the payload itself.
 		 *
 		 * @param id identifier of the payload type
 		 * @param r The listener lambda (function)
@@ -172,16 +264,64 @@ public final class EventPoolService
 		)
 		{
 			THROW_NOW_IF(
-				!payloads
-					.containsKey(id),
-				"Listener Attach failed: No such event exists with the given id: "+id
-					.getCanonicalName()
+				r==null,
+				"Listener Attach failed: Listener cannot be null"
+			);
+			requireSlot(
+				id,
+				"Listener Attach"
+			).attach(x->r.run());
+		}
+		
+		/**
+		 * Subscribe to an event payload type with a listener that is handed the dispatched
+		 * payload, so there is no need to call {@link #getPayload(Class)} inside of it.
+		 *
+		 * @param <T> payload type
+		 * @param id identifier of the payload type
+		 * @param listener The listener that receives the payload
+		 */
+		@VolatileImpl(reason="The suggested listener ID does not exist") public <T extends EventPayload> void attachPayloadListener(
+			Class<T> id,Consumer<? super T> listener
+		)
+		{
+			THROW_NOW_IF(
+				listener==null,
+				"Listener Attach failed: Listener cannot be null"
+			);
+			requireSlot(
+				id,
+				"Listener Attach"
+			).attach(listener);
+		}
+		
+		/**
+		 * Resolves a payload type of this pool into a handle that can be cached by the
+		 * caller. Reading, dispatching and attaching through the handle skips both the
+		 * pool and the payload lookups.
+		 * <p>
+		 * <em>The handle stays bound to the current registration, so if the payload
+		 * type is registered again using {@link #registerEvent(Class,Object)}, a new handle
+		 * has to be resolved.</em>
+		 * </p>
+		 *
+		 * @param <T> payload type
+		 * @param id identifier of the payload
+		 *
+		 * @return the handle
+		 */
+		@VolatileImpl(reason="Suggested ID does not exist!") public <T extends EventPayload> EventHandle<T> handleOf(
+			Class<T> id
+		)
+		{
+			return new EventHandle<>(
+				this,
+				requireSlot(
+					id,
+					"Handle resolve"
+				),
+				id
 			);
-			// check performed by DebugService, no need to assure additional tcs
-			payloads
-				.get(id)
-				.first()
-				.add(r);
 		}
 		
 		/**
@@ -190,18 +330,24 @@ public final class EventPoolService
 		 * @param id identifier of the payload
 		 * @param payload initial value (usually null)
 		 */
-		public void registerEvent(
+		public synchronized void registerEvent(
 			Class<? extends EventPayload> id,Object payload
 		)
 		{
-			payloads
-				.put(
-					id,
-					new Pair<>(
-						new ArrayList<>(),
-						payload
-					)
-				);
+			int i=SLOT_INDEX.get(id);
+			EventSlot[] s=slots;
+			EventSlot[] next=Arrays.copyOf(
+				s,
+				Math.max(
+					s.length,
+					i+1
+				)
+			);
+			next[i]=new EventSlot(
+				id,
+				payload
+			);
+			slots=next; // publish
 		}
 		
 		/**
@@ -217,18 +363,12 @@ public final class EventPoolService
 			Class<T> id
 		)
 		{
-			THROW_NOW_IF(
-				!payloads
-					.containsKey(id),
-				"Payload fetch failed: No such event exists with the given id: "+id
-					.getCanonicalName()
-			);
-			// check assured by DebugService
 			return id
 				.cast(
-					payloads
-						.get(id)
-						.second()
+					requireSlot(
+						id,
+						"Payload fetch"
+					).payload
 				);
 		}
 		
@@ -240,31 +380,34 @@ public final class EventPoolService
 		 * @param <T> identifier type
 		 * @param id identifier of the payload
 		 */
-		@NotVirtual public synchronized <T extends EventPayload> void ping(
+		@NotVirtual public <T extends EventPayload> void ping(
 			Class<T> id
 		)      // should be called sparingly please!!
 		{
-			THROW_NOW_IF(
-				!payloads
-					.containsKey(id),
-				"Payload fetch failed: No such event exists with the given "+
-				"id: "+id
-					.getCanonicalName()
+			EventSlot slot=requireSlot(
+				id,
+				"Payload fetch"
 			);
-			payloads
-				.get(id)
-				.first()
-				.parallelStream()
-				.forEachOrdered(Runnable::run);
+			slot.fire(slot.payload);
 		}
 		
 		@NotVirtual public <T extends EventPayload> boolean isRegisteredPayloadID(
 			Class<T> id
 		)
 		{
-			// simply invoke for the map's contains key on its registry
-			return payloads
-				.containsKey(id);
+			return slotOf(id)!=null;
+		}
+		
+		/**
+		 * @return all of the payload types registered to this pool
+		 */
+		Collection<Class<? extends EventPayload>> registeredPayloads()
+		{
+			ArrayList<Class<? extends EventPayload>> r=new ArrayList<>();
+			for(EventSlot slot: slots)
+				if(slot!=null)
+					r.add(slot.type);
+			return r;
 		}
 		
 		public <T extends EventPayload> void dispatchEvent(
@@ -275,21 +418,632 @@ public final class EventPoolService
 				payload==null,
 				"Dispatch failed: Payload cannot be null"
 			);
+			dispatchTo(
+				requireSlot(
+					id,
+					"Dispatch"
+				),
+				payload
+			);
+		}
+		
+		private void dispatchTo(EventSlot slot,Object payload)
+		{
+			AsyncDelivery a=async;
+			if(a!=null)
+				a.offer(
+					slot,
+					payload
+				);
+			else
+			{
+				slot.payload=payload;
+				slot.fire(payload);
+			}
+		}
+		
+		/**
+		 * Switches this pool over to asynchronous delivery. Dispatches from then on are
+		 * put into a bounded queue and are delivered in batches by a dedicated daemon
+		 * thread. The way the queue behaves is decided by the policy:
+		 * <ul>
+		 *     <li>{@link AsyncDeliveryPolicy#LATEST_WINS} folds multiple dispatches
+		 *     of the same payload type into one, so each listener only sees the latest
+		 *     value per drain</li>
+		 *     <li>{@link AsyncDeliveryPolicy#KEEP_ALL} delivers every payload and
+		 *     makes the dispatching thread wait when the queue is full</li>
+		 *     <li>{@link AsyncDeliveryPolicy#DROP_ON_FULL} delivers every payload
+		 *     unless the queue is full, in which case the payload is dropped</li>
+		 * </ul>
+		 * <p>
+		 * In this mode, {@link #getPayload(Class)} returns the last <em>delivered</em>
+		 * payload. Calling this again replaces the current mode after draining whatever
+		 * is left in the queue.
+		 * </p>
+		 *
+		 * @param policy how the queue handles bursts
+		 * @param capacity the size of the queue (rounded up to a power of 2)
+		 *
+		 * @return this
+		 *
+		 * @see #getAsyncDeliveryStats()
+		 */
+		@VolatileImpl(reason="Capacity must be greater than 0") public synchronized EventPool withAsyncDelivery(
+			AsyncDeliveryPolicy policy,int capacity
+		)
+		{
 			THROW_NOW_IF(
-				!payloads
-					.containsKey(id),
-				"Dispatch failed: No such event exists with the given id: "+id
-					.getCanonicalName()
+				policy==null,
+				"Async delivery failed: Policy cannot be null"
 			);
-			// we dont need another check, if the debuggable_mixin can handle the error correctly
-			payloads
-				.get(id)
-				.second(payload);
-			payloads
-				.get(id)
-				.first()
-				.parallelStream()
-				.forEachOrdered(Runnable::run);
+			THROW_NOW_IF(
+				capacity<=0,
+				"Async delivery failed: Capacity must be >0"
+			);
+			withSyncDelivery();
+			async=new AsyncDelivery(
+				"pkg.exoad-Poprock-eventpool#"+id,
+				policy,
+				capacity
+			);
+			return this;
+		}
+		
+		/**
+		 * Switches this pool back to synchronous delivery (the default). Anything still
+		 * in the queue is delivered before this function returns. Dispatches that race
+		 * with the switch are not lost: they are delivered on the dispatching thread once
+		 * the queue has been drained.
+		 *
+		 * @return this
+		 */
+		public synchronized EventPool withSyncDelivery()
+		{
+			AsyncDelivery a=async;
+			if(a!=null)
+			{
+				// drained before it is unpublished, so a synchronous dispatch can not get
+				// ahead of what is still queued
+				a.shutdown();
+				async=null;
+			}
+			return this;
+		}
+		
+		/**
+		 * @return true if this pool is delivering asynchronously
+		 */
+		public boolean isAsyncDelivery()
+		{
+			return async!=null;
+		}
+		
+		/**
+		 * Returns the counters of the current asynchronous delivery mode. If the pool is
+		 * delivering synchronously, all of the counters are 0.
+		 *
+		 * @return the snapshot of the counters
+		 */
+		public AsyncDeliveryStats getAsyncDeliveryStats()
+		{
+			AsyncDelivery a=async;
+			return a==null?new AsyncDeliveryStats(
+				0L,
+				0L,
+				0L,
+				0L,
+				0L,
+				0L
+			):a.stats();
+		}
+	}
+	
+	/**
+	 * A resolved payload type of an {@link EventPool} that is meant to be cached by
+	 * whoever is using it on a hot path (for example inside of
+	 * {@code paintComponent}).
+	 *
+	 * @param <T> payload type
+	 *
+	 * @author Jack Meng
+	 * @see EventPool#handleOf(Class)
+	 */
+	public static final class EventHandle<T extends EventPayload>
+	{
+		private final EventPool pool;
+		private final EventSlot slot;
+		private final Class<T> type;
+		
+		private EventHandle(EventPool pool,EventSlot slot,Class<T> type)
+		{
+			this.pool=pool;
+			this.slot=slot;
+			this.type=type;
+		}
+		
+		/**
+		 * @return the currently cached value of this payload (can be null)
+		 */
+		@SuppressWarnings("unchecked") public T get()
+		{
+			// every write into the slot is already checked against T
+			return (T)slot.payload;
+		}
+		
+		/**
+		 * @param payload the payload to dispatch
+		 *
+		 * @see EventPool#dispatchEvent(Class,EventPayload)
+		 */
+		public void dispatch(T payload)
+		{
+			// a plain check, panicOn locks the DebugService on every call
+			if(payload==null)
+				DebugService.panicNow("Dispatch failed: Payload cannot be null");
+			pool.dispatchTo(
+				slot,
+				payload
+			);
+		}
+		
+		/**
+		 * @param listener The listener that receives the payload
+		 *
+		 * @see EventPool#attachPayloadListener(Class,Consumer)
+		 */
+		public void attach(Consumer<? super T> listener)
+		{
+			if(listener==null)
+				DebugService.panicNow("Listener Attach failed: Listener cannot be null");
+			slot.attach(listener);
+		}
+		
+		/**
+		 * @return the payload type this handle was resolved for
+		 */
+		public Class<T> type()
+		{
+			return type;
+		}
+	}
+	
+	/**
+	 * How an {@link EventPool} in asynchronous delivery mode handles bursts of
+	 * dispatches.
+	 *
+	 * @author Jack Meng
+	 * @see EventPool#withAsyncDelivery(AsyncDeliveryPolicy,int)
+	 */
+	public enum AsyncDeliveryPolicy
+	{
+		/**
+		 * Dispatches of the same payload type that have not been delivered yet are folded
+		 * into one. This is what most UI listeners that just repaint want.
+		 */
+		LATEST_WINS,
+		/**
+		 * Every payload is delivered. If the queue is full, the dispatching thread waits
+		 * for room.
+		 */
+		KEEP_ALL,
+		/**
+		 * Every payload is delivered unless the queue is full, then it is dropped.
+		 */
+		DROP_ON_FULL
+	}
+	
+	/**
+	 * A snapshot of the counters for an {@link EventPool} that is delivering
+	 * asynchronously.
+	 *
+	 * @param dispatched how many payloads were dispatched
+	 * @param delivered how many payloads were delivered to the listeners
+	 * @param coalesced how many payloads were folded into a later one
+	 * @param dropped how many payloads were dropped because the queue was full
+	 * @param backPressured how many dispatches had to wait for room in the queue
+	 * @param batches how many times the queue was drained
+	 */
+	public record AsyncDeliveryStats(
+		long dispatched,long delivered,long coalesced,long dropped,long backPressured,
+		long batches
+	)
+	{}
+	
+	/**
+	 * The asynchronous delivery mode of a single {@link EventPool}. It holds a bounded
+	 * multi-producer single-consumer ring (based on per-cell sequence numbers) and the
+	 * dispatcher thread that drains it.
+	 *
+	 * @author Jack Meng
+	 */
+	private static final class AsyncDelivery
+		implements Runnable
+	{
+		private final AsyncDeliveryPolicy policy;
+		private final int mask;
+		private final EventSlot[] queuedSlots;
+		private final Object[] queuedPayloads;
+		private final AtomicLongArray sequences;
+		private final AtomicLong tail;
+		private long head; // only touched by the dispatcher thread
+		private final Thread worker;
+		// dispatching threads that saw running and may still be putting into the ring
+		private final AtomicInteger producers;
+		private volatile boolean running;
+		private volatile boolean sleeping;
+		// the thread that drains the ring for the last time, and whether it is done
+		private volatile Thread finisher;
+		private volatile boolean drained;
+		private final LongAdder dispatched;
+		private final LongAdder delivered;
+		private final LongAdder coalesced;
+		private final LongAdder dropped;
+		private final LongAdder backPressured;
+		private final LongAdder batches;
+		
+		AsyncDelivery(String name,AsyncDeliveryPolicy policy,int capacity)
+		{
+			int size=Integer.highestOneBit(Math.max(
+				2,
+				capacity
+			)-1)<<1;
+			this.policy   =policy;
+			mask          =size-1;
+			queuedSlots   =new EventSlot[size];
+			queuedPayloads=new Object[size];
+			sequences     =new AtomicLongArray(size);
+			for(int i=0;i<size;i++)
+				sequences.set(
+					i,
+					i
+				);
+			tail         =new AtomicLong();
+			dispatched   =new LongAdder();
+			delivered    =new LongAdder();
+			coalesced    =new LongAdder();
+			dropped      =new LongAdder();
+			backPressured=new LongAdder();
+			batches      =new LongAdder();
+			producers    =new AtomicInteger();
+			running      =true;
+			worker       =new Thread(
+				this,
+				name
+			);
+			worker.setDaemon(true);
+			worker.start();
+		}
+		
+		void offer(EventSlot slot,Object payload)
+		{
+			dispatched.increment();
+			Thread current=Thread.currentThread();
+			if(current==worker||current==finisher)
+			{
+				// a listener dispatching into its own pool, waiting here would never end
+				deliver(
+					slot,
+					payload
+				);
+				return;
+			}
+			// shutdown waits for every producer that got in to leave before its last drain,
+			// so nothing is put into the ring after it
+			producers.incrementAndGet();
+			boolean attempted=false;
+			boolean handedOff=false;
+			try
+			{
+				if(running)
+				{
+					attempted=true;
+					handedOff=enqueue(
+						slot,
+						payload
+					);
+				}
+			}finally
+			{
+				producers.decrementAndGet();
+			}
+			if(!handedOff)
+			{
+				// shut down under our feet, deliver here once what was queued before is out
+				while(!drained)
+					LockSupport.parkNanos(1_000L);
+				if(attempted&&policy==AsyncDeliveryPolicy.LATEST_WINS)
+					payload=slot.pending;
+				deliver(
+					slot,
+					payload
+				);
+			}
+		}
+		
+		/**
+		 * @return false if the ring was shut down before the payload could be put into it
+		 */
+		private boolean enqueue(EventSlot slot,Object payload)
+		{
+			if(policy==AsyncDeliveryPolicy.LATEST_WINS)
+			{
+				slot.pending=payload;
+				if(!slot.markQueued())
+				{
+					coalesced.increment();
+					return true;
+				}
+			}
+			// the latest value is read from the slot when delivered
+			Object queued=policy==AsyncDeliveryPolicy.LATEST_WINS?null:payload;
+			if(!tryEnqueue(
+				slot,
+				queued
+			))
+			{
+				if(policy==AsyncDeliveryPolicy.DROP_ON_FULL)
+				{
+					dropped.increment();
+					return true;
+				}
+				backPressured.increment();
+				boolean enqueued;
+				do
+				{
+					wake();
+					LockSupport.parkNanos(1_000L);
+				}
+				while(!(enqueued=tryEnqueue(
+					slot,
+					queued
+				))&&running);
+				if(!enqueued)
+				{
+					// shut down while waiting, nobody is left to drain it
+					if(policy==AsyncDeliveryPolicy.LATEST_WINS)
+						slot.clearQueued();
+					return false;
+				}
+			}
+			wake();
+			return true;
+		}
+		
+		private boolean tryEnqueue(EventSlot slot,Object payload)
+		{
+			long t;
+			int i;
+			for(;;)
+			{
+				t=tail.get();
+				i=(int)(t&mask);
+				long d=sequences.get(i)-t;
+				if(d==0L)
+				{
+					if(tail.compareAndSet(
+						t,
+						t+1
+					))
+						break;
+				}
+				else if(d<0L)
+					return false; // full
+			}
+			queuedSlots[i]   =slot;
+			queuedPayloads[i]=payload;
+			sequences.set(
+				i,
+				t+1
+			); // publish
+			return true;
+		}
+		
+		private boolean isEmpty()
+		{
+			return sequences.get((int)(head&mask))!=head+1;
+		}
+		
+		private void wake()
+		{
+			if(sleeping)
+				LockSupport.unpark(worker);
+		}
+		
+		/**
+		 * Drains everything that is currently in the queue.
+		 *
+		 * @return how many entries were drained
+		 */
+		private int drain()
+		{
+			int n=0;
+			while(!isEmpty())
+			{
+				int i=(int)(head&mask);
+				EventSlot slot=queuedSlots[i];
+				Object payload=queuedPayloads[i];
+				queuedSlots[i]   =null;
+				queuedPayloads[i]=null;
+				sequences.set(
+					i,
+					head+mask+1
+				);
+				head++;
+				if(policy==AsyncDeliveryPolicy.LATEST_WINS)
+				{
+					// clear the mark first, anything dispatched after this gets queued again
+					slot.clearQueued();
+					payload=slot.pending;
+				}
+				deliver(
+					slot,
+					payload
+				);
+				n++;
+			}
+			if(n>0)
+				batches.increment();
+			return n;
+		}
+		
+		private void deliver(EventSlot slot,Object payload)
+		{
+			slot.payload=payload;
+			try
+			{
+				slot.fire(payload);
+			}catch(RuntimeException e)
+			{
+				DebugService.log(
+					DebugService.LogLevel.WARN,
+					"A listener of "+slot.type.getCanonicalName()+" threw "+e+" on "+worker.getName()
+				);
+			}
+			delivered.increment();
+		}
+		
+		@Override public void run()
+		{
+			while(running)
+			{
+				if(drain()==0)
+				{
+					sleeping=true;
+					if(running&&isEmpty())
+						LockSupport.park(this);
+					sleeping=false;
+				}
+			}
+		}
+		
+		void shutdown()
+		{
+			finisher=Thread.currentThread();
+			running =false;
+			LockSupport.unpark(worker);
+			try
+			{
+				worker.join();
+			}catch(InterruptedException e)
+			{
+				Thread
+					.currentThread()
+					.interrupt();
+			}
+			while(producers.get()!=0)
+				LockSupport.parkNanos(1_000L);
+			drain(); // whatever was left behind
+			drained=true;
+		}
+		
+		AsyncDeliveryStats stats()
+		{
+			return new AsyncDeliveryStats(
+				dispatched.sum(),
+				delivered.sum(),
+				coalesced.sum(),
+				dropped.sum(),
+				backPressured.sum(),
+				batches.sum()
+			);
+		}
+	}
+	
+	/**
+	 * A single payload type's entry within an {@link EventPool}. The payload is
+	 * published through a volatile field and the listeners are kept in a copy-on-write
+	 * array that is swapped using a CAS.
+	 *
+	 * @author Jack Meng
+	 */
+	private static final class EventSlot
+	{
+		private static final Consumer<?>[] NO_LISTENERS=new Consumer<?>[0];
+		private static final VarHandle LISTENERS;
+		private static final VarHandle QUEUED;
+		
+		static
+		{
+			try
+			{
+				LISTENERS=MethodHandles
+					.lookup()
+					.findVarHandle(
+						EventSlot.class,
+						"listeners",
+						Consumer[].class
+					);
+				QUEUED=MethodHandles
+					.lookup()
+					.findVarHandle(
+						EventSlot.class,
+						"queued",
+						boolean.class
+					);
+			}catch(ReflectiveOperationException e)
+			{
+				throw new ExceptionInInitializerError(e);
+			}
+		}
+		
+		final Class<? extends EventPayload> type;
+		volatile Object payload;
+		// only used by AsyncDeliveryPolicy.LATEST_WINS
+		volatile Object pending;
+		private volatile boolean queued;
+		private volatile Consumer<?>[] listeners=NO_LISTENERS;
+		
+		EventSlot(Class<? extends EventPayload> type,Object payload)
+		{
+			this.type   =type;
+			this.payload=payload;
+		}
+		
+		void attach(Consumer<?> r)
+		{
+			Consumer<?>[] prev, next;
+			do
+			{
+				prev=listeners;
+				next=Arrays.copyOf(
+					prev,
+					prev.length+1
+				);
+				next[prev.length]=r;
+			}
+			while(!LISTENERS.compareAndSet(
+				this,
+				prev,
+				next
+			));
+		}
+		
+		/**
+		 * @return true if this slot was not already waiting in the queue
+		 */
+		boolean markQueued()
+		{
+			return QUEUED.compareAndSet(
+				this,
+				false,
+				true
+			);
+		}
+		
+		void clearQueued()
+		{
+			queued=false;
+		}
+		
+		/**
+		 * Runs all of the listeners with the supplied payload, which is passed along
+		 * rather than re-read so a concurrent dispatch cannot swap it out midway.
+		 */
+		@SuppressWarnings("unchecked") void fire(Object p)
+		{
+			// snapshot, listeners attached during this run will only see the next one
+			for(Consumer<?> r: listeners)
+				((Consumer<Object>)r).accept(p);
 		}
 	}
 }
@@ -1,8 +1,10 @@
 package pkg.exoad.poprock.core;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.lang.ref.WeakReference;
-import java.util.HashMap;
-import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
 
 /**
  * <h2>Shared Object Pooling</h2>
@@ -10,18 +12,18 @@ import java.util.UUID;
  * operations, such as modifying a non-final variable inside a lambda.
  * <p>
  * However, the main quirk of a Shared Object is that all allocated SharedObjects are
- * placed inside a pool. Similar to Java's String pool, if multiple objects have the same
- * value, only one instance of it will exist in that pool, and one pointer. This method is
- * not meant to save on memory, nor does it even achieve such a goal; instead, it is
- * focused on making sure multiple instances of an object that can hold the same value
- * don't exist at the same time. For example, in concurrency, Shared objects will help to
- * maintain atomicity and mitigate race conditions.
+ * placed inside a pool, where each one is known by its own id. Ids are handed out from a
+ * counter, so no two Shared objects ever share one, and a Shared object is dropped from
+ * the pool once it has been collected. See {@link #poolGauge()}.
  * <p>
- * The Shared Class itself does not hold the true value of the object, instead a singular
- * ID or numerical pointer to the value in the pool. Furthermore, the usage of this class
- * is very very simple and acts just like a normal Wrapper class that just exists to get
- * rid of the "modification of non-final variable in a lambda" error thrown by Java. Just
- * look at {@link #setValue(Object)} and {@link #getValue()} they can't be anymore easier!
+ * The value itself sits in a weakly held slot of the Shared object. Reading it is a
+ * single acquire load of the slot and no lookup, and changing it is a release store or
+ * a compare-and-set of the slot, so a Shared object can be handed between the UI and
+ * worker threads and read and written from all of them as often as needed. Furthermore,
+ * the usage of this class is very very simple and acts just like a normal Wrapper class
+ * that just exists to get rid of the "modification of non-final variable in a lambda"
+ * error thrown by Java. Just look at {@link #setValue(Object)} and {@link #getValue()}
+ * they can't be anymore easier!
  * <em>All the internal complexity are hidden away</em>
  * <p>
  * <strong>Example Usage</strong>
@@ -37,7 +39,28 @@ import java.util.UUID;
  */
 public class Shared<T>
 {
-	static HashMap<Long,WeakReference<Object>> OBJECTS=new HashMap<>();
+	// every Shared object that is still alive, by id
+	static final WeakPool<Shared<?>> OBJECTS=new WeakPool<>("Shared");
+	private static final AtomicLong IDS=new AtomicLong();
+	private static final WeakReference<Object> EMPTY=new WeakReference<>(null);
+	private static final VarHandle SLOT;
+	
+	static
+	{
+		try
+		{
+			SLOT=MethodHandles
+				.lookup()
+				.findVarHandle(
+					Shared.class,
+					"slot",
+					WeakReference.class
+				);
+		}catch(ReflectiveOperationException e)
+		{
+			throw new ExceptionInInitializerError(e);
+		}
+	}
 	
 	/**
 	 * Creator function used to return a new shared object handler.
@@ -52,12 +75,34 @@ public class Shared<T>
 		return new Shared<>(value);
 	}
 	
-	private static <T> WeakReference<T> weakOf(T obj)
+	/**
+	 * @return How big the pool of shared objects is right now
+	 */
+	public static WeakPool.Gauge poolGauge()
+	{
+		return OBJECTS.gauge();
+	}
+	
+	/**
+	 * Looks up a Shared object by its id.
+	 *
+	 * @param id The id from {@link #id()}
+	 *
+	 * @return The Shared object or null if it has been collected or expired
+	 */
+	public static Shared<?> byId(long id)
+	{
+		return OBJECTS.get(id);
+	}
+	
+	@SuppressWarnings("unchecked") private static <T> WeakReference<T> weakOf(T obj)
 	{
-		return new WeakReference<>(obj);
+		return obj==null?(WeakReference<T>)EMPTY:new WeakReference<>(obj);
 	}
 	
-	private long id;
+	private final long id;
+	// only ever accessed through SLOT
+	@SuppressWarnings("unused") private volatile WeakReference<T> slot;
 	
 	/**
 	 * Creates a new Shared Object pool with default initializations, mainly hooking up
@@ -67,24 +112,24 @@ public class Shared<T>
 	 */
 	private Shared(T e)
 	{
-		UUID uuid=UUID
-			.fromString(
-				(e
-					 .getClass()
-					 .hashCode()*31+e
-					 .hashCode())+e
-					.getClass()
-					.getCanonicalName()
-			);
-		id=(uuid
-				.getLeastSignificantBits()&uuid
-				.getMostSignificantBits())&0xFF;
-		OBJECTS
-			.put(
-				id,
-				Shared
-					.weakOf(e)
-			);
+		id=IDS.incrementAndGet();
+		SLOT.setRelease(
+			this,
+			weakOf(e)
+		);
+		OBJECTS.put(
+			id,
+			this
+		);
+	}
+	
+	/**
+	 * @return The id of this Shared object in the pool, unique for the life of the
+	 * program
+	 */
+	public long id()
+	{
+		return id;
 	}
 	
 	/**
@@ -94,19 +139,89 @@ public class Shared<T>
 	 */
 	public void setValue(T e)
 	{
-		OBJECTS
-			.put(
-				id,
-				Shared
-					.weakOf(e)
-			);
+		SLOT.setRelease(
+			this,
+			weakOf(e)
+		);
+	}
+	
+	/**
+	 * Modifies the current value pointed to only if it is still the expected one
+	 * (compared by identity).
+	 *
+	 * @param expect The value that should be pointed to now
+	 * @param update The value to point to
+	 *
+	 * @return Whether the value was changed
+	 */
+	@SuppressWarnings("unchecked") public boolean compareAndSet(T expect,T update)
+	{
+		WeakReference<T> fresh=null;
+		while(true)
+		{
+			WeakReference<T> current=(WeakReference<T>)SLOT.getAcquire(this);
+			if(current.get()!=expect)
+				return false;
+			if(fresh==null)
+				fresh=weakOf(update);
+			if(SLOT.compareAndSet(
+				this,
+				current,
+				fresh
+			))
+				return true;
+		}
+	}
+	
+	/**
+	 * Modifies the current value pointed to
+	 *
+	 * @param e value pointed to
+	 *
+	 * @return The value that was pointed to before (can be null)
+	 */
+	@SuppressWarnings("unchecked") public T getAndSet(T e)
+	{
+		return ((WeakReference<T>)SLOT.getAndSet(
+			this,
+			weakOf(e)
+		)).get();
+	}
+	
+	/**
+	 * Atomically replaces the current value with what the function makes of it. The
+	 * function can be called more than once when other threads change the value at the
+	 * same time, so it should not have side effects.
+	 *
+	 * @param fn Makes the new value from the current one
+	 *
+	 * @return The new value
+	 */
+	@SuppressWarnings("unchecked") public T updateAndGet(UnaryOperator<T> fn)
+	{
+		while(true)
+		{
+			WeakReference<T> current=(WeakReference<T>)SLOT.getAcquire(this);
+			T next=fn.apply(current.get());
+			if(SLOT.compareAndSet(
+				this,
+				current,
+				weakOf(next)
+			))
+				return next;
+		}
 	}
 	
-	public synchronized void expirePoolReserve()
+	/**
+	 * Removes this Shared object from the pool and forgets its value
+	 */
+	public void expirePoolReserve()
 	{
-		OBJECTS
-			.remove(id);
-		id=0;
+		OBJECTS.remove(id);
+		SLOT.setRelease(
+			this,
+			EMPTY
+		);
 	}
 	
 	/**
@@ -119,23 +234,19 @@ public class Shared<T>
 		"unchecked"
 	) public T getValue()
 	{
-		return (T)OBJECTS
-			.get(id)
-			.get();
+		return ((WeakReference<T>)SLOT.getAcquire(this)).get();
 	}
 	
+	/**
+	 * @return Whether both values are there and equal, each value is read once
+	 */
 	public static <V extends Shared<?>> boolean computeEquality(
 		V a,V b
 	)
 	{
-		return a
-				   .getValue()!=null&&b
-										  .getValue()!=null&&a
-				   .getValue()
-				   .equals(
-					   b
-						   .getValue()
-				   );
+		Object x=a.getValue();
+		Object y=b.getValue();
+		return x!=null&&y!=null&&x.equals(y);
 	}
 	
 	@Override public boolean equals(Object r)
@@ -143,4 +254,13 @@ public class Shared<T>
 		return r instanceof Shared<?> r1&&Shared
 			.computeEquality(this,r1);
 	}
+	
+	/**
+	 * @return The hash of the current value, 0 if there is none
+	 */
+	@Override public int hashCode()
+	{
+		T v=getValue();
+		return v==null?0:v.hashCode();
+	}
 }
@@ -3,6 +3,8 @@ import pkg.exoad.poprock.core.annotations.ServiceClass;
 import pkg.exoad.poprock.core.debug.DebugService;
 import pkg.exoad.poprock.core.debug.DiagnosticsMode;
 
+import java.io.IOException;
+import java.util.Map;
 import java.util.Optional;
 import java.util.TreeMap;
 @ServiceClass(requiresArming=false)
@@ -10,6 +12,10 @@ public final class SharedServices
 {
 	private SharedServices(){}
 	
+	/**
+	 * What the keys of these properties start with in a {@link SnapshotStore}
+	 */
+	public static final String SNAPSHOT_PREFIX="shared_services/";
 	private static final /*preserve ordering*/ TreeMap<String,Object> properties;
 	
 	static
@@ -90,4 +96,54 @@ public final class SharedServices
 		// erasure, but
 		// it should work 99% of the time
 	}
+	
+	/**
+	 * Writes every property into the store under {@link #SNAPSHOT_PREFIX}. Properties that
+	 * did not change since the last snapshot are not written again.
+	 *
+	 * @param store The store
+	 *
+	 * @throws IOException If the store could not be written
+	 */
+	public static void snapshotTo(SnapshotStore store)
+		throws IOException
+	{
+		TreeMap<String,Object> r=new TreeMap<>();
+		for(Map.Entry<String,Object> e: properties.entrySet())
+			r.put(
+				SNAPSHOT_PREFIX+e.getKey(),
+				e.getValue()
+			);
+		store.putAll(r);
+	}
+	
+	/**
+	 * Sets every property that has a value in the store to that value, going through
+	 * {@link #set(String,Object)} so a value of the wrong type is ignored. Only the
+	 * properties that exist here are looked up, but each of them is decoded right away, so
+	 * this costs about as much as the properties that are registered.
+	 *
+	 * @param store The store
+	 *
+	 * @return How many properties were found in the store
+	 */
+	public static int restoreFrom(SnapshotStore store)
+	{
+		int n=0;
+		for(String r: properties
+			.keySet()
+			.toArray(new String[0]))
+		{
+			Object value=store.get(SNAPSHOT_PREFIX+r);
+			if(value!=null)
+			{
+				set(
+					r,
+					value
+				);
+				n++;
+			}
+		}
+		return n;
+	}
 }
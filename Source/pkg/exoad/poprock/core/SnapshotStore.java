@@ -0,0 +1,1202 @@
+package pkg.exoad.poprock.core;
+
+import pkg.exoad.poprock.core.debug.DebugService;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.zip.CRC32;
+
+/**
+ * A persistent store of named values, meant for the state of registries and
+ * {@link SharedServices} so that it does not have to be rebuilt from code and
+ * ".properties" files on every start.
+ * <p>
+ * Opening a store maps its file and reads the header; nothing is decoded until a key is
+ * asked for, and then only that key's value (which is kept for later). The cost of
+ * starting up therefore does not grow with how many values the file holds. Changes are
+ * appended to the end of the file, so writing one value does not rewrite the others,
+ * and {@link #compact()} folds those changes back into the indexed part every now and
+ * then (see {@link #compactIfNeeded()} and {@link #scheduleCompaction(long)}).
+ * <p>
+ * A compaction never writes over the file that is mapped. It writes the next generation
+ * of the file next to it ({@code store.1}, {@code store.2}, ... for a store at
+ * {@code store}) and switches to that, and opening a store picks the newest generation.
+ * Older generations are deleted once they are no longer used; where the platform does
+ * not allow deleting a file that is still mapped they are deleted the next time the
+ * store is opened.
+ * <p>
+ * <h3>Layout</h3>
+ * Everything is big endian. The header is {@link #HEADER_SIZE} bytes:
+ * <pre>
+ * 0   int  magic ("PRSS")
+ * 4   int  {@link #VERSION}
+ * 8   int  indexed key count
+ * 12  int  flags (0)
+ * 16  long where the log starts
+ * 24  long when the file was last compacted, in epoch milliseconds
+ * </pre>
+ * Followed by the key index of fixed width {@link #INDEX_RECORD_SIZE} byte records
+ * ({@code hash, keyOffset, keyLength, valueOffset, valueLength, type} as ints) sorted by
+ * the {@link String#hashCode()} of the key and then its UTF-8 bytes, so a key is found
+ * with a binary search right in the mapped file. Then the keys and values the index
+ * points into.
+ * <p>
+ * The log runs from there to the end of the file. Each record is
+ * {@code int length, int crc32, byte kind, byte type, int keyLength, key, value}, where
+ * the length and the CRC cover everything after the CRC. A record that was cut off or
+ * does not match its CRC (a crash in the middle of writing it) ends the log and is
+ * dropped when the store is opened.
+ * <p>
+ * Values can be null, booleans, ints, longs, floats, doubles, strings, byte arrays,
+ * enum constants and anything else that is {@link Serializable}.
+ * <p>
+ * Reads are safe from any thread, writes are serialized.
+ *
+ * @author Jack Meng
+ */
+public final class SnapshotStore
+	implements IDisposable
+{
+	public static final int MAGIC=0x50525353;
+	/**
+	 * Bumped whenever the layout changes
+	 */
+	public static final int VERSION=1;
+	public static final int HEADER_SIZE=32;
+	public static final int INDEX_RECORD_SIZE=24;
+	/**
+	 * The log is never compacted while it is smaller than this
+	 */
+	public static final long MIN_COMPACT_BYTES=64L<<10;
+	private static final int LOG_RECORD_HEADER=8;
+	private static final int LOG_RECORD_FIELDS=6;
+	private static final byte PUT=1;
+	private static final byte REMOVE=2;
+	private static final byte T_NULL=0;
+	private static final byte T_BOOLEAN=1;
+	private static final byte T_INT=2;
+	private static final byte T_LONG=3;
+	private static final byte T_FLOAT=4;
+	private static final byte T_DOUBLE=5;
+	private static final byte T_STRING=6;
+	private static final byte T_BYTES=7;
+	private static final byte T_ENUM=8;
+	private static final byte T_SERIALIZED=9;
+	private static final byte T_REMOVED=-1;
+	// what the materialized values use for null and for keys that are not there
+	private static final Object NULL=new Object();
+	private static final Object ABSENT=new Object();
+	private final Path path;
+	// decoded values (and misses) by key, kept until the key is written again
+	private final ConcurrentHashMap<String,Object> materialized;
+	private volatile State state;
+	private FileChannel channel;
+	private long generation;
+	private long end;
+	private boolean disposed;
+	
+	private SnapshotStore(Path path,FileChannel channel,long generation,State state,long end)
+	{
+		this.path        =path;
+		this.channel     =channel;
+		this.generation  =generation;
+		this.state       =state;
+		this.end         =end;
+		this.materialized=new ConcurrentHashMap<>();
+	}
+	
+	/**
+	 * Opens the store at the path, making an empty one if there is no file there yet.
+	 *
+	 * @param path Where the store is kept
+	 *
+	 * @return The store, which keeps the file open until it is disposed
+	 *
+	 * @throws IOException If the file can not be read or is not a store of this version
+	 */
+	public static SnapshotStore open(Path path)
+		throws IOException
+	{
+		long generation=latestGeneration(path);
+		FileChannel ch=FileChannel.open(
+			fileOf(
+				path,
+				generation
+			),
+			StandardOpenOption.CREATE,
+			StandardOpenOption.READ,
+			StandardOpenOption.WRITE
+		);
+		try
+		{
+			if(ch.size()==0L)
+			{
+				ByteBuffer header=header(
+					0,
+					HEADER_SIZE
+				);
+				while(header.hasRemaining())
+					ch.write(header);
+				ch.force(true);
+			}
+			if(ch.size()<HEADER_SIZE)
+				throw new IOException(path+" is too short to be a snapshot store");
+			ByteBuffer header=read(
+				ch,
+				0L,
+				HEADER_SIZE
+			);
+			if(header.getInt(0)!=MAGIC)
+				throw new IOException(path+" is not a snapshot store");
+			if(header.getInt(4)!=VERSION)
+				throw new IOException(path+" is a snapshot store of version "+header.getInt(4)+", expected "+VERSION);
+			int count=header.getInt(8);
+			long logStart=header.getLong(16);
+			if(logStart<HEADER_SIZE+(long)count*INDEX_RECORD_SIZE||logStart>ch.size())
+				throw new IOException(path+" has a corrupt header");
+			State s=new State(
+				ch.map(
+					FileChannel.MapMode.READ_ONLY,
+					0L,
+					logStart
+				),
+				count,
+				logStart
+			);
+			long end=replay(
+				ch,
+				s
+			);
+			SnapshotStore r=new SnapshotStore(
+				path,
+				ch,
+				generation,
+				s,
+				end
+			);
+			r.discardGenerationsBefore(generation);
+			return r;
+		}catch(IOException|RuntimeException e)
+		{
+			ch.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * @return Where the store is kept, the file that is in use can be a later generation
+	 * of it
+	 */
+	public Path path()
+	{
+		return path;
+	}
+	
+	/**
+	 * @return Whether the key has a value, which can be null
+	 */
+	public boolean contains(String key)
+	{
+		return materialize(key)!=ABSENT;
+	}
+	
+	/**
+	 * @return The value of the key, or null if it has none (or its value is null). Byte
+	 * arrays are copied for each call, while serialized objects are decoded once and
+	 * shared by every caller, so they should not be changed.
+	 */
+	public Object get(String key)
+	{
+		Object v=materialize(key);
+		return v==ABSENT||v==NULL?null:copyOf(v);
+	}
+	
+	/**
+	 * @param key The key
+	 * @param fallback What to return if the key has no value
+	 * @param <T> The type of the value
+	 *
+	 * @return The value of the key (which can be null) or the fallback
+	 */
+	@SuppressWarnings("unchecked") public <T> T get(String key,T fallback)
+	{
+		Object v=materialize(key);
+		return v==ABSENT
+			   ?fallback
+			   :v==NULL?null:(T)copyOf(v);
+	}
+	
+	/**
+	 * @return A copy of the value if it is a byte array, which callers could otherwise
+	 * change under every other reader of the key
+	 */
+	private static Object copyOf(Object v)
+	{
+		return v instanceof byte[] b?b.clone():v;
+	}
+	
+	/**
+	 * @return Every key that has a value, sorted
+	 */
+	public SortedSet<String> keys()
+	{
+		State s=state;
+		TreeSet<String> keys=new TreeSet<>();
+		for(int i=0;i<s.count;i++)
+		{
+			int at=HEADER_SIZE+i*INDEX_RECORD_SIZE;
+			keys.add(string(
+				s.image,
+				s.image.getInt(at+4),
+				s.image.getInt(at+8)
+			));
+		}
+		s.overlay.forEach((k,e)->{
+			if(e.type==T_REMOVED)
+				keys.remove(k);
+			else
+				keys.add(k);
+		});
+		return Collections.unmodifiableSortedSet(keys);
+	}
+	
+	/**
+	 * Sets the value of a key by appending it to the log. Nothing is written if the key
+	 * already has an equal value.
+	 *
+	 * @throws IOException If it could not be written
+	 */
+	public void put(String key,Object value)
+		throws IOException
+	{
+		putAll(Collections.singletonMap(
+			key,
+			value
+		));
+	}
+	
+	/**
+	 * Sets the values of many keys with a single write. Keys that already have an equal
+	 * value are skipped.
+	 *
+	 * @return How many keys were written
+	 *
+	 * @throws IOException If they could not be written, in which case none of them were
+	 */
+	public synchronized int putAll(Map<String,?> values)
+		throws IOException
+	{
+		assertOpen();
+		ArrayList<String> keys=new ArrayList<>(values.size());
+		ArrayList<Encoded> encoded=new ArrayList<>(values.size());
+		for(Map.Entry<String,?> e: values.entrySet())
+		{
+			// compared as bytes so a value that no longer decodes can still be replaced
+			Encoded now=encode(e.getValue());
+			Encoded before=encodedOf(e.getKey());
+			if(before!=null&&before.type==now.type&&Arrays.equals(
+				before.payload,
+				now.payload
+			))
+				continue;
+			keys.add(e.getKey());
+			encoded.add(now);
+		}
+		append(
+			PUT,
+			keys,
+			encoded
+		);
+		for(int i=0;i<keys.size();i++)
+		{
+			Encoded e=encoded.get(i);
+			// the caller can still change its array or object, so a copy is kept instead
+			Object v=e.type==T_BYTES||e.type==T_SERIALIZED
+					 ?decode(
+						 keys.get(i),
+						 e.type,
+						 ByteBuffer.wrap(e.payload)
+					 )
+					 :values.get(keys.get(i));
+			state.overlay.put(
+				keys.get(i),
+				e
+			);
+			materialized.put(
+				keys.get(i),
+				v==null?NULL:v
+			);
+		}
+		return keys.size();
+	}
+	
+	/**
+	 * Removes the value of a key by appending the removal to the log.
+	 *
+	 * @return Whether the key had a value
+	 *
+	 * @throws IOException If the removal could not be written
+	 */
+	public synchronized boolean remove(String key)
+		throws IOException
+	{
+		assertOpen();
+		if(encodedOf(key)==null)
+			return false;
+		Encoded removed=new Encoded(
+			T_REMOVED,
+			new byte[0]
+		);
+		append(
+			REMOVE,
+			Collections.singletonList(key),
+			Collections.singletonList(removed)
+		);
+		state.overlay.put(
+			key,
+			removed
+		);
+		materialized.put(
+			key,
+			ABSENT
+		);
+		return true;
+	}
+	
+	/**
+	 * @return How many bytes of changes are in the log
+	 */
+	public synchronized long logBytes()
+	{
+		return end-state.logStart;
+	}
+	
+	/**
+	 * @return Whether the log has grown big enough to be worth folding in, which is once
+	 * it is at least {@link #MIN_COMPACT_BYTES} and at least half as big as the indexed
+	 * part
+	 */
+	public synchronized boolean needsCompaction()
+	{
+		long log=logBytes();
+		return log>=MIN_COMPACT_BYTES&&log>=state.logStart/2;
+	}
+	
+	/**
+	 * Calls {@link #compact()} if {@link #needsCompaction()}.
+	 *
+	 * @return Whether it was compacted
+	 *
+	 * @throws IOException If the compacted file could not be written, in which case the
+	 * store is left as it was
+	 */
+	public synchronized boolean compactIfNeeded()
+		throws IOException
+	{
+		if(disposed||!needsCompaction())
+			return false;
+		compact();
+		return true;
+	}
+	
+	/**
+	 * Runs {@link #compactIfNeeded()} periodically on the {@link AsyncService.Tier#PERIODIC}
+	 * tier.
+	 *
+	 * @param periodMillis Time between each check in milliseconds
+	 *
+	 * @return The future that can be used to cancel it
+	 */
+	public ScheduledFuture<?> scheduleCompaction(long periodMillis)
+	{
+		return AsyncService.runPeriodicTask(
+			periodMillis,
+			periodMillis,
+			()->{
+				try
+				{
+					compactIfNeeded();
+				}catch(IOException e)
+				{
+					DebugService.log(
+						DebugService.LogLevel.WARN,
+						"Failed to compact the snapshot store "+path+": "+e
+					);
+				}
+			}
+		);
+	}
+	
+	/**
+	 * Rewrites the file with every current value in the index and an empty log. The new
+	 * file is the next generation of the store; it is written to a temporary file first
+	 * and then renamed, so a crash in the middle leaves the old generation in use. The
+	 * old generation is never written to or replaced while it is still mapped.
+	 *
+	 * @throws IOException If the compacted file could not be written, in which case the
+	 * store is left as it was
+	 */
+	public synchronized void compact()
+		throws IOException
+	{
+		assertOpen();
+		State s=state;
+		ArrayList<Compacted> live=new ArrayList<>(s.count+s.overlay.size());
+		for(int i=0;i<s.count;i++)
+		{
+			int at=HEADER_SIZE+i*INDEX_RECORD_SIZE;
+			byte[] key=new byte[s.image.getInt(at+8)];
+			s.image.get(
+				s.image.getInt(at+4),
+				key
+			);
+			String name=new String(
+				key,
+				StandardCharsets.UTF_8
+			);
+			if(s.overlay.containsKey(name))
+				continue;
+			byte[] value=new byte[s.image.getInt(at+16)];
+			s.image.get(
+				s.image.getInt(at+12),
+				value
+			);
+			byte type=(byte)s.image.getInt(at+20);
+			if(decodes(
+				name,
+				type,
+				value
+			))
+				live.add(new Compacted(
+					s.image.getInt(at),
+					key,
+					type,
+					value
+				));
+		}
+		s.overlay.forEach((k,e)->{
+			if(e.type!=T_REMOVED&&decodes(
+				k,
+				e.type,
+				e.payload
+			))
+				live.add(new Compacted(
+					k.hashCode(),
+					k.getBytes(StandardCharsets.UTF_8),
+					e.type,
+					e.payload
+				));
+		});
+		live.sort((a,b)->a.hash!=b.hash
+						 ?Integer.compare(a.hash,b.hash)
+						 :Arrays.compare(a.key,b.key));
+		long size=HEADER_SIZE+(long)live.size()*INDEX_RECORD_SIZE;
+		for(Compacted c: live)
+			size+=c.key.length+c.value.length;
+		DebugService.panicOn(
+			size>Integer.MAX_VALUE,
+			"The snapshot store "+path+" is too large to be compacted ("+size+" bytes)"
+		);
+		ByteBuffer buf=ByteBuffer.allocate((int)size);
+		buf.put(header(
+			live.size(),
+			size
+		));
+		int dataAt=HEADER_SIZE+live.size()*INDEX_RECORD_SIZE;
+		for(Compacted c: live)
+		{
+			buf
+				.putInt(c.hash)
+				.putInt(dataAt)
+				.putInt(c.key.length)
+				.putInt(dataAt+c.key.length)
+				.putInt(c.value.length)
+				.putInt(c.type);
+			dataAt+=c.key.length+c.value.length;
+		}
+		for(Compacted c: live)
+			buf
+				.put(c.key)
+				.put(c.value);
+		buf.clear();
+		long next=generation+1L;
+		Path target=fileOf(
+			path,
+			next
+		);
+		Path tmp=target.resolveSibling(target.getFileName()+".tmp");
+		try(FileChannel ch=FileChannel.open(
+			tmp,
+			StandardOpenOption.CREATE,
+			StandardOpenOption.WRITE,
+			StandardOpenOption.TRUNCATE_EXISTING
+		))
+		{
+			while(buf.hasRemaining())
+				ch.write(buf);
+			ch.force(true);
+		}
+		Files.move(
+			tmp,
+			target,
+			StandardCopyOption.REPLACE_EXISTING,
+			StandardCopyOption.ATOMIC_MOVE
+		);
+		FileChannel ch=FileChannel.open(
+			target,
+			StandardOpenOption.READ,
+			StandardOpenOption.WRITE
+		);
+		FileChannel old=channel;
+		channel   =ch;
+		generation=next;
+		end       =size;
+		state     =new State(
+			ch.map(
+				FileChannel.MapMode.READ_ONLY,
+				0L,
+				size
+			),
+			live.size(),
+			size
+		);
+		old.close();
+		discardGenerationsBefore(next);
+	}
+	
+	/**
+	 * Forces everything written so far out to the disk.
+	 *
+	 * @throws IOException If it could not be
+	 */
+	public synchronized void flush()
+		throws IOException
+	{
+		assertOpen();
+		channel.force(false);
+	}
+	
+	/**
+	 * Flushes and closes the file. The store can not be used after this.
+	 */
+	@Override public synchronized void dispose()
+	{
+		if(disposed)
+			return;
+		disposed=true;
+		try
+		{
+			channel.force(false);
+			channel.close();
+		}catch(IOException e)
+		{
+			DebugService.log(
+				DebugService.LogLevel.WARN,
+				"Failed to close the snapshot store "+path+": "+e
+			);
+		}
+	}
+	
+	private static Path fileOf(Path path,long generation)
+	{
+		return generation==0L?path:path.resolveSibling(path.getFileName()+"."+generation);
+	}
+	
+	/**
+	 * @return The generation of every file of the store next to the path
+	 */
+	private static List<Long> generationsOf(Path path)
+		throws IOException
+	{
+		ArrayList<Long> r=new ArrayList<>();
+		Path dir=path
+			.toAbsolutePath()
+			.getParent();
+		if(dir==null||!Files.isDirectory(dir))
+			return r;
+		String prefix=path.getFileName()+".";
+		try(DirectoryStream<Path> files=Files.newDirectoryStream(
+			dir,
+			x->x
+				.getFileName()
+				.toString()
+				.startsWith(prefix)
+		))
+		{
+			for(Path x: files)
+			{
+				String gen=x
+					.getFileName()
+					.toString()
+					.substring(prefix.length());
+				if(!gen.isEmpty()&&gen.length()<=18&&gen
+					.chars()
+					.allMatch(c->c>='0'&&c<='9'))
+					r.add(Long.parseLong(gen));
+			}
+		}
+		return r;
+	}
+	
+	private static long latestGeneration(Path path)
+		throws IOException
+	{
+		long r=0L;
+		for(long gen: generationsOf(path))
+			r=Math.max(
+				r,
+				gen
+			);
+		return r;
+	}
+	
+	/**
+	 * Deletes the files of older generations, leaving the ones that can not be deleted
+	 * yet for the next time the store is opened.
+	 */
+	private void discardGenerationsBefore(long current)
+	{
+		if(current==0L)
+			return;
+		try
+		{
+			ArrayList<Long> old=new ArrayList<>(generationsOf(path));
+			old.add(0L);
+			for(long gen: old)
+			{
+				if(gen>=current)
+					continue;
+				try
+				{
+					Files.deleteIfExists(fileOf(
+						path,
+						gen
+					));
+				}catch(IOException e)
+				{
+					DebugService.log(
+						DebugService.LogLevel.INFO,
+						"Could not delete generation "+gen+" of the snapshot store "+path+" yet: "+e
+					);
+				}
+			}
+		}catch(IOException e)
+		{
+			DebugService.log(
+				DebugService.LogLevel.WARN,
+				"Failed to list the old generations of the snapshot store "+path+": "+e
+			);
+		}
+	}
+	
+	private void assertOpen()
+	{
+		DebugService.panicOn(
+			disposed,
+			"The snapshot store "+path+" was already disposed"
+		);
+	}
+	
+	private static ByteBuffer header(int count,long logStart)
+	{
+		ByteBuffer b=ByteBuffer.allocate(HEADER_SIZE);
+		b
+			.putInt(MAGIC)
+			.putInt(VERSION)
+			.putInt(count)
+			.putInt(0)
+			.putLong(logStart)
+			.putLong(System.currentTimeMillis());
+		return b.flip();
+	}
+	
+	private static ByteBuffer read(FileChannel ch,long at,int length)
+		throws IOException
+	{
+		ByteBuffer b=ByteBuffer.allocate(length);
+		while(b.hasRemaining())
+			if(ch.read(
+				b,
+				at+b.position()
+			)<0)
+				throw new IOException("Unexpected end of the file at "+(at+b.position()));
+		return b;
+	}
+	
+	private static String string(ByteBuffer buf,int at,int len)
+	{
+		byte[] b=new byte[len];
+		buf.get(
+			at,
+			b
+		);
+		return new String(
+			b,
+			StandardCharsets.UTF_8
+		);
+	}
+	
+	/**
+	 * Reads the log into the overlay of the state, cutting off a broken record at the end.
+	 *
+	 * @return Where the log ends
+	 */
+	private static long replay(FileChannel ch,State s)
+		throws IOException
+	{
+		long length=ch.size()-s.logStart;
+		DebugService.panicOn(
+			length>Integer.MAX_VALUE,
+			"The log of a snapshot store is too large to be read ("+length+" bytes)"
+		);
+		ByteBuffer log=read(
+			ch,
+			s.logStart,
+			(int)length
+		);
+		int at=0;
+		CRC32 crc=new CRC32();
+		while(at+LOG_RECORD_HEADER<=length)
+		{
+			int len=log.getInt(at);
+			if(len<LOG_RECORD_FIELDS||len>length-at-LOG_RECORD_HEADER)
+				break;
+			int body=at+LOG_RECORD_HEADER;
+			crc.reset();
+			crc.update(log
+						   .slice(
+							   body,
+							   len
+						   ));
+			if((int)crc.getValue()!=log.getInt(at+4))
+				break;
+			byte kind=log.get(body);
+			byte type=log.get(body+1);
+			int keyLength=log.getInt(body+2);
+			if(keyLength<0||keyLength>len-LOG_RECORD_FIELDS)
+				break;
+			String key=string(
+				log,
+				body+LOG_RECORD_FIELDS,
+				keyLength
+			);
+			byte[] payload=new byte[len-LOG_RECORD_FIELDS-keyLength];
+			log.get(
+				body+LOG_RECORD_FIELDS+keyLength,
+				payload
+			);
+			s.overlay.put(
+				key,
+				kind==REMOVE
+				?new Encoded(
+					T_REMOVED,
+					payload
+				)
+				:new Encoded(
+					type,
+					payload
+				)
+			);
+			at=body+len;
+		}
+		if(at<length)
+		{
+			DebugService.log(
+				DebugService.LogLevel.WARN,
+				"Dropped "+(length-at)+" bytes of a broken record at the end of a snapshot store"
+			);
+			ch.truncate(s.logStart+at);
+		}
+		return s.logStart+at;
+	}
+	
+	private void append(byte kind,List<String> keys,List<Encoded> values)
+		throws IOException
+	{
+		if(keys.isEmpty())
+			return;
+		byte[][] names=new byte[keys.size()][];
+		int size=0;
+		for(int i=0;i<names.length;i++)
+		{
+			names[i]=keys
+				.get(i)
+				.getBytes(StandardCharsets.UTF_8);
+			size+=LOG_RECORD_HEADER+LOG_RECORD_FIELDS+names[i].length+values.get(i).payload.length;
+		}
+		ByteBuffer buf=ByteBuffer.allocate(size);
+		CRC32 crc=new CRC32();
+		for(int i=0;i<names.length;i++)
+		{
+			int at=buf.position();
+			int len=LOG_RECORD_FIELDS+names[i].length+values.get(i).payload.length;
+			buf
+				.putInt(len)
+				.putInt(0)
+				.put(kind)
+				.put(values.get(i).type)
+				.putInt(names[i].length)
+				.put(names[i])
+				.put(values.get(i).payload);
+			crc.reset();
+			crc.update(buf.slice(
+				at+LOG_RECORD_HEADER,
+				len
+			));
+			buf.putInt(
+				at+4,
+				(int)crc.getValue()
+			);
+		}
+		buf.flip();
+		long at=end;
+		try
+		{
+			while(buf.hasRemaining())
+				at+=channel.write(
+					buf,
+					at
+				);
+		}catch(IOException e)
+		{
+			// do not leave half a batch behind to be replayed
+			channel.truncate(end);
+			throw e;
+		}
+		end=at;
+	}
+	
+	/**
+	 * @return The latest bytes written for the key, or null if it has no value
+	 */
+	private Encoded encodedOf(String key)
+	{
+		State s=state;
+		Encoded e=s.overlay.get(key);
+		if(e!=null)
+			return e.type==T_REMOVED?null:e;
+		int at=find(
+			s,
+			key
+		);
+		if(at<0)
+			return null;
+		byte[] value=new byte[s.image.getInt(at+16)];
+		s.image.get(
+			s.image.getInt(at+12),
+			value
+		);
+		return new Encoded(
+			(byte)s.image.getInt(at+20),
+			value
+		);
+	}
+	
+	/**
+	 * @return Whether a value is still worth keeping when compacting. Only enum constants
+	 * and serialized objects can stop decoding, when their classes change.
+	 */
+	private static boolean decodes(String key,byte type,byte[] payload)
+	{
+		return type!=T_ENUM&&type!=T_SERIALIZED||decode(
+			key,
+			type,
+			ByteBuffer.wrap(payload)
+		)!=ABSENT;
+	}
+	
+	/**
+	 * @return The value of the key as it is kept in {@link #materialized}, decoding it
+	 * the first time it is asked for
+	 */
+	private Object materialize(String key)
+	{
+		Object v=materialized.get(key);
+		if(v!=null)
+			return v;
+		State s=state;
+		Encoded e=s.overlay.get(key);
+		if(e!=null)
+			v=e.type==T_REMOVED
+			  ?ABSENT
+			  :decode(
+				  key,
+				  e.type,
+				  ByteBuffer.wrap(e.payload)
+			  );
+		else
+		{
+			int at=find(
+				s,
+				key
+			);
+			v=at<0
+			  ?ABSENT
+			  :decode(
+				  key,
+				  (byte)s.image.getInt(at+20),
+				  s.image.slice(
+					  s.image.getInt(at+12),
+					  s.image.getInt(at+16)
+				  )
+			  );
+		}
+		// a write that got in first wins
+		Object raced=materialized.putIfAbsent(
+			key,
+			v
+		);
+		return raced!=null?raced:v;
+	}
+	
+	/**
+	 * @return Where the index record of the key is or -1 if it is not indexed
+	 */
+	private static int find(State s,String key)
+	{
+		int hash=key.hashCode();
+		int lo=0;
+		int hi=s.count-1;
+		while(lo<=hi)
+		{
+			int mid=(lo+hi)>>>1;
+			int h=s.image.getInt(HEADER_SIZE+mid*INDEX_RECORD_SIZE);
+			if(h<hash)
+				lo=mid+1;
+			else if(h>hash)
+				hi=mid-1;
+			else
+			{
+				// every key with this hash sits next to each other
+				while(mid>0&&s.image.getInt(HEADER_SIZE+(mid-1)*INDEX_RECORD_SIZE)==hash)
+					mid--;
+				ByteBuffer k=ByteBuffer.wrap(key.getBytes(StandardCharsets.UTF_8));
+				for(int i=mid;i<s.count;i++)
+				{
+					int at=HEADER_SIZE+i*INDEX_RECORD_SIZE;
+					if(s.image.getInt(at)!=hash)
+						break;
+					if(s.image
+						   .slice(
+							   s.image.getInt(at+4),
+							   s.image.getInt(at+8)
+						   )
+						   .equals(k))
+						return at;
+				}
+				return -1;
+			}
+		}
+		return -1;
+	}
+	
+	private static Encoded encode(Object v)
+		throws IOException
+	{
+		if(v==null)
+			return new Encoded(
+				T_NULL,
+				new byte[0]
+			);
+		if(v instanceof Boolean b)
+			return new Encoded(
+				T_BOOLEAN,
+				new byte[]{(byte)(b?1:0)}
+			);
+		if(v instanceof Integer i)
+			return new Encoded(
+				T_INT,
+				ByteBuffer
+					.allocate(4)
+					.putInt(i)
+					.array()
+			);
+		if(v instanceof Long l)
+			return new Encoded(
+				T_LONG,
+				ByteBuffer
+					.allocate(8)
+					.putLong(l)
+					.array()
+			);
+		if(v instanceof Float f)
+			return new Encoded(
+				T_FLOAT,
+				ByteBuffer
+					.allocate(4)
+					.putFloat(f)
+					.array()
+			);
+		if(v instanceof Double d)
+			return new Encoded(
+				T_DOUBLE,
+				ByteBuffer
+					.allocate(8)
+					.putDouble(d)
+					.array()
+			);
+		if(v instanceof String s)
+			return new Encoded(
+				T_STRING,
+				s.getBytes(StandardCharsets.UTF_8)
+			);
+		if(v instanceof byte[] b)
+			return new Encoded(
+				T_BYTES,
+				b.clone()
+			);
+		if(v instanceof Enum<?> e)
+			return new Encoded(
+				T_ENUM,
+				(e
+					 .getDeclaringClass()
+					 .getName()+"#"+e.name()).getBytes(StandardCharsets.UTF_8)
+			);
+		if(!(v instanceof Serializable))
+			throw new IOException("A "+v
+				.getClass()
+				.getCanonicalName()+" can not be kept in a snapshot store as it is not Serializable");
+		ByteArrayOutputStream bytes=new ByteArrayOutputStream();
+		try(ObjectOutputStream out=new ObjectOutputStream(bytes))
+		{
+			out.writeObject(v);
+		}
+		return new Encoded(
+			T_SERIALIZED,
+			bytes.toByteArray()
+		);
+	}
+	
+	/**
+	 * @return The value, or {@link #ABSENT} if it can not be decoded anymore (an enum
+	 * constant or a class that was renamed or removed since it was written), so that one
+	 * stale value does not make its key unusable
+	 */
+	@SuppressWarnings({
+		"unchecked",
+		"rawtypes"
+	}) private static Object decode(String key,byte type,ByteBuffer b)
+	{
+		try
+		{
+			return switch(type)
+			{
+				case T_NULL -> NULL;
+				case T_BOOLEAN -> b.get(0)!=0;
+				case T_INT -> b.getInt(0);
+				case T_LONG -> b.getLong(0);
+				case T_FLOAT -> b.getFloat(0);
+				case T_DOUBLE -> b.getDouble(0);
+				case T_STRING -> string(
+					b,
+					0,
+					b.limit()
+				);
+				case T_BYTES ->
+				{
+					byte[] r=new byte[b.limit()];
+					b.get(
+						0,
+						r
+					);
+					yield r;
+				}
+				case T_ENUM ->
+				{
+					String name=string(
+						b,
+						0,
+						b.limit()
+					);
+					int split=name.indexOf('#');
+					yield Enum.valueOf(
+						(Class)Class.forName(
+							name.substring(
+								0,
+								split
+							),
+							true,
+							SnapshotStore.class.getClassLoader()
+						),
+						name.substring(split+1)
+					);
+				}
+				case T_SERIALIZED ->
+				{
+					byte[] r=new byte[b.limit()];
+					b.get(
+						0,
+						r
+					);
+					try(ObjectInputStream in=new ObjectInputStream(new ByteArrayInputStream(r)))
+					{
+						yield in.readObject();
+					}
+				}
+				default -> throw new IOException("Unknown value type "+type);
+			};
+		}catch(IOException|ReflectiveOperationException|RuntimeException|LinkageError e)
+		{
+			DebugService.log(
+				DebugService.LogLevel.WARN,
+				"The value of "+key+" in a snapshot store can not be decoded anymore and is ignored: "+e
+			);
+			return ABSENT;
+		}
+	}
+	
+	/**
+	 * A value as it is written: its type and its bytes
+	 */
+	private record Encoded(byte type,byte[] payload)
+	{}
+	
+	/**
+	 * A live value on its way into a compacted file
+	 */
+	private record Compacted(int hash,byte[] key,byte type,byte[] value)
+	{}
+	
+	/**
+	 * The mapped indexed part of the file and the changes made since, swapped out as a
+	 * whole when the file is compacted
+	 */
+	private static final class State
+	{
+		final MappedByteBuffer image;
+		final int count;
+		final long logStart;
+		// key -> latest change in the log
+		final ConcurrentHashMap<String,Encoded> overlay;
+		
+		State(MappedByteBuffer image,int count,long logStart)
+		{
+			this.image   =image;
+			this.count   =count;
+			this.logStart=logStart;
+			this.overlay =new ConcurrentHashMap<>();
+		}
+	}
+}
@@ -0,0 +1,227 @@
+package pkg.exoad.poprock.core;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * A map of ids to weakly held values that forgets an id once its value has been
+ * collected.
+ * <p>
+ * A plain map of {@link WeakReference}s only ever grows: the references are cleared by
+ * the GC but stay in the map. Here every reference remembers its id and is registered
+ * with a {@link ReferenceQueue}, and every call first drains the queue and removes
+ * the ids it finds (only if the id still maps to that same reference, so a value put in
+ * since then is kept). The map therefore stays about as big as the number of values
+ * that are still alive. {@link #expunge()} does the same on demand, for example from a
+ * periodic task when the pool might sit untouched for a while.
+ * <p>
+ * Safe to use from any thread.
+ *
+ * @param <V> The type of the values
+ *
+ * @author Jack Meng
+ */
+public final class WeakPool<V>
+{
+	/**
+	 * About what one entry costs: the map node, the boxed id and the reference
+	 */
+	public static final int ENTRY_BYTES=96;
+	private final String name;
+	private final ConcurrentHashMap<Long,Slot<V>> slots;
+	private final ReferenceQueue<V> queue;
+	private final LongAdder expunged;
+	
+	/**
+	 * @param name What the pool is called in its {@link Gauge}
+	 */
+	public WeakPool(String name)
+	{
+		this.name    =name;
+		this.slots   =new ConcurrentHashMap<>();
+		this.queue   =new ReferenceQueue<>();
+		this.expunged=new LongAdder();
+	}
+	
+	/**
+	 * Maps the id to the value, replacing whatever it mapped to.
+	 *
+	 * @return The value that was mapped before or null
+	 */
+	public V put(long id,V value)
+	{
+		expunge();
+		Slot<V> old=slots.put(
+			id,
+			new Slot<>(
+				id,
+				value,
+				queue
+			)
+		);
+		return old==null?null:old.get();
+	}
+	
+	/**
+	 * Maps the id to the value only if it maps to nothing alive.
+	 *
+	 * @return The value that is alive under the id, which is the supplied one if it was
+	 * put in
+	 */
+	public V putIfAbsent(long id,V value)
+	{
+		expunge();
+		Slot<V> fresh=new Slot<>(
+			id,
+			value,
+			queue
+		);
+		while(true)
+		{
+			Slot<V> old=slots.putIfAbsent(
+				id,
+				fresh
+			);
+			if(old==null)
+				return value;
+			V alive=old.get();
+			if(alive!=null)
+				return alive;
+			// cleared but not expunged yet
+			if(slots.replace(
+				id,
+				old,
+				fresh
+			))
+				return value;
+		}
+	}
+	
+	/**
+	 * @return The value of the id or null if there is none or it has been collected
+	 */
+	public V get(long id)
+	{
+		expunge();
+		Slot<V> s=slots.get(id);
+		return s==null?null:s.get();
+	}
+	
+	/**
+	 * @return Whether the id maps to a value that is still alive
+	 */
+	public boolean contains(long id)
+	{
+		return get(id)!=null;
+	}
+	
+	/**
+	 * Forgets the id.
+	 *
+	 * @return The value it mapped to or null
+	 */
+	public V remove(long id)
+	{
+		expunge();
+		Slot<V> s=slots.remove(id);
+		return s==null?null:s.get();
+	}
+	
+	/**
+	 * Hands every value that is still alive to the consumer. The values are held strongly
+	 * only while the consumer looks at them.
+	 */
+	public void forEach(Consumer<? super V> action)
+	{
+		expunge();
+		for(Slot<V> s: slots.values())
+		{
+			V v=s.get();
+			if(v!=null)
+				action.accept(v);
+		}
+	}
+	
+	/**
+	 * @return How many ids there are, counting values collected since the last expunge
+	 */
+	public int size()
+	{
+		expunge();
+		return slots.size();
+	}
+	
+	/**
+	 * Removes the ids of every value the GC has collected and queued so far.
+	 *
+	 * @return How many were removed
+	 */
+	@SuppressWarnings("unchecked") public int expunge()
+	{
+		int n=0;
+		Slot<V> s;
+		while((s=(Slot<V>)queue.poll())!=null)
+			if(slots.remove(
+				s.id,
+				s
+			))
+				n++;
+		if(n>0)
+			expunged.add(n);
+		return n;
+	}
+	
+	/**
+	 * @return The current numbers of this pool, after expunging
+	 */
+	public Gauge gauge()
+	{
+		expunge();
+		int entries=0;
+		int cleared=0;
+		for(Slot<V> s: slots.values())
+		{
+			entries++;
+			if(s.refersTo(null))
+				cleared++;
+		}
+		return new Gauge(
+			name,
+			entries,
+			cleared,
+			expunged.sum(),
+			(long)entries*ENTRY_BYTES
+		);
+	}
+	
+	/**
+	 * A snapshot of how big a {@link WeakPool} is.
+	 *
+	 * @param name What the pool is called
+	 * @param entries How many ids it holds
+	 * @param cleared How many of those have been collected but not queued by the GC yet
+	 * @param expunged How many ids were removed because their value was collected, ever
+	 * @param estimatedBytes About how much memory the entries take up, not counting the
+	 * values themselves
+	 */
+	public record Gauge(String name,int entries,int cleared,long expunged,long estimatedBytes)
+	{}
+	
+	private static final class Slot<V>
+		extends WeakReference<V>
+	{
+		final long id;
+		
+		Slot(long id,V value,ReferenceQueue<V> queue)
+		{
+			super(
+				value,
+				queue
+			);
+			this.id=id;
+		}
+	}
+}
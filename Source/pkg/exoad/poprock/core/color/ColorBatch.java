@@ -0,0 +1,725 @@
+package pkg.exoad.poprock.core.color;
+
+import pkg.exoad.poprock.core.debug.DebugService;
+
+/**
+ * Color math over many colors at once. Where {@link ColorSynthbase} takes a
+ * {@link java.awt.Color} or a {@code float[]} and returns new arrays for every color,
+ * everything here reads packed ARGB ints and writes into arrays supplied by the caller,
+ * so converting a whole palette or image in one call creates no garbage.
+ * <p>
+ * Converted colors are stored planar, the same way as
+ * {@link pkg.exoad.poprock.core.io.image.PixelOps}: a run of {@code n} colors is an alpha
+ * plane in {@code [0,255]} followed by one plane per component, each {@code stride}
+ * apart. So HSV needs {@code 4*stride} floats and CMYK needs {@code 5*stride}. Packing
+ * clamps and rounds every channel.
+ * <p>
+ * sRGB to linear goes through a 256 entry table instead of calling
+ * {@link Math#pow(double,double)} per channel, and linear to sRGB is a binary search of
+ * the same table.
+ *
+ * @author Jack Meng
+ */
+public final class ColorBatch
+{
+	private static final double[] LINEAR=new double[256];
+	private static final float[] LINEAR_F=new float[256];
+	// LINEAR_MID[i] is halfway between the linear values of codes i and i+1
+	private static final float[] LINEAR_MID=new float[255];
+	
+	static
+	{
+		for(int c=0;c<256;c++)
+		{
+			double v=c/255D;
+			LINEAR[c]  =v<=0.04045?v/12.92:Math.pow(
+				(v+0.055)/1.055,
+				2.4
+			);
+			LINEAR_F[c]=(float)LINEAR[c];
+		}
+		for(int c=0;c<255;c++)
+			LINEAR_MID[c]=(float)((LINEAR[c]+LINEAR[c+1])*0.5);
+	}
+	
+	private ColorBatch(){}
+	
+	/**
+	 * @param c An sRGB channel in {@code [0,255]}
+	 *
+	 * @return The channel in linear light, in {@code [0,1]}
+	 */
+	public static double linear(int c)
+	{
+		return LINEAR[c&0xFF];
+	}
+	
+	/**
+	 * @param linear A channel in linear light, in {@code [0,1]}
+	 *
+	 * @return The sRGB channel in {@code [0,255]} whose linear value is closest
+	 */
+	public static int srgb(float linear)
+	{
+		int lo=0;
+		int hi=255;
+		while(lo<hi)
+		{
+			int mid=(lo+hi)>>>1;
+			if(LINEAR_MID[mid]<linear)
+				lo=mid+1;
+			else
+				hi=mid;
+		}
+		return lo;
+	}
+	
+	private static int channel(float v)
+	{
+		return (int)(Math.min(
+			Math.max(
+				v,
+				0F
+			),
+			255F
+		)+0.5F);
+	}
+	
+	private static int pack(float a,float r,float g,float b)
+	{
+		return channel(a)<<24|channel(r)<<16|channel(g)<<8|channel(b);
+	}
+	
+	private static void checkPlanes(float[] planes,int at,int stride,int count,int n)
+	{
+		DebugService.panicOn(
+			n<0||stride<n,
+			"The stride ("+stride+") must be at least n ("+n+")"
+		);
+		DebugService.panicOn(
+			n>0&&at+(count-1)*stride+n>planes.length,
+			"Not enough room for "+count+" planes of "+n+" with a stride of "+stride
+		);
+	}
+	
+	/**
+	 * Converts ARGB to linear RGB planes (alpha, red, green, blue) with the channels in
+	 * {@code [0,1]}.
+	 *
+	 * @param src The colors
+	 * @param srcAt The first color
+	 * @param dst Where the planes go
+	 * @param dstAt Where the alpha plane starts
+	 * @param stride The distance between two planes
+	 * @param n How many colors
+	 */
+	public static void toLinear(int[] src,int srcAt,float[] dst,int dstAt,int stride,int n)
+	{
+		checkPlanes(
+			dst,
+			dstAt,
+			stride,
+			4,
+			n
+		);
+		for(int i=0;i<n;i++)
+		{
+			int p=src[srcAt+i];
+			dst[dstAt+i]         =p>>>24;
+			dst[dstAt+stride+i]  =LINEAR_F[(p>>>16)&0xFF];
+			dst[dstAt+2*stride+i]=LINEAR_F[(p>>>8)&0xFF];
+			dst[dstAt+3*stride+i]=LINEAR_F[p&0xFF];
+		}
+	}
+	
+	/**
+	 * The inverse of {@link #toLinear(int[],int,float[],int,int,int)}
+	 */
+	public static void fromLinear(float[] src,int srcAt,int stride,int[] dst,int dstAt,int n)
+	{
+		checkPlanes(
+			src,
+			srcAt,
+			stride,
+			4,
+			n
+		);
+		for(int i=0;i<n;i++)
+			dst[dstAt+i]=channel(src[srcAt+i])<<24
+						 |srgb(src[srcAt+stride+i])<<16
+						 |srgb(src[srcAt+2*stride+i])<<8
+						 |srgb(src[srcAt+3*stride+i]);
+	}
+	
+	/**
+	 * Converts ARGB to HSV planes (alpha, hue, saturation, value). The hue is in degrees
+	 * {@code [0,360)}, saturation and value are in {@code [0,1]}, the same as
+	 * {@link ColorSynthbase#rgbToHsv(float[])}.
+	 *
+	 * @param src The colors
+	 * @param srcAt The first color
+	 * @param dst Where the planes go
+	 * @param dstAt Where the alpha plane starts
+	 * @param stride The distance between two planes
+	 * @param n How many colors
+	 */
+	public static void toHsv(int[] src,int srcAt,float[] dst,int dstAt,int stride,int n)
+	{
+		checkPlanes(
+			dst,
+			dstAt,
+			stride,
+			4,
+			n
+		);
+		for(int i=0;i<n;i++)
+		{
+			int p=src[srcAt+i];
+			float r=((p>>>16)&0xFF)/255F;
+			float g=((p>>>8)&0xFF)/255F;
+			float b=(p&0xFF)/255F;
+			float max=Math.max(
+				r,
+				Math.max(
+					g,
+					b
+				)
+			);
+			float d=max-Math.min(
+				r,
+				Math.min(
+					g,
+					b
+				)
+			);
+			dst[dstAt+i]         =p>>>24;
+			dst[dstAt+stride+i]  =hue(
+				r,
+				g,
+				b,
+				max,
+				d
+			);
+			dst[dstAt+2*stride+i]=max==0F?0F:d/max;
+			dst[dstAt+3*stride+i]=max;
+		}
+	}
+	
+	/**
+	 * The inverse of {@link #toHsv(int[],int,float[],int,int,int)}
+	 */
+	public static void fromHsv(float[] src,int srcAt,int stride,int[] dst,int dstAt,int n)
+	{
+		checkPlanes(
+			src,
+			srcAt,
+			stride,
+			4,
+			n
+		);
+		for(int i=0;i<n;i++)
+		{
+			float v=src[srcAt+3*stride+i];
+			float c=v*src[srcAt+2*stride+i];
+			dst[dstAt+i]=fromChroma(
+				src[srcAt+i],
+				src[srcAt+stride+i],
+				c,
+				v-c
+			);
+		}
+	}
+	
+	/**
+	 * Converts ARGB to HSL planes (alpha, hue, saturation, lightness). The hue is in
+	 * degrees {@code [0,360)}, saturation and lightness are in {@code [0,1]}.
+	 * <p>
+	 * The saturation is the HSL one, {@link ColorSynthbase#rgbToHsl(float[])} returns the
+	 * HSV saturation instead.
+	 *
+	 * @param src The colors
+	 * @param srcAt The first color
+	 * @param dst Where the planes go
+	 * @param dstAt Where the alpha plane starts
+	 * @param stride The distance between two planes
+	 * @param n How many colors
+	 */
+	public static void toHsl(int[] src,int srcAt,float[] dst,int dstAt,int stride,int n)
+	{
+		checkPlanes(
+			dst,
+			dstAt,
+			stride,
+			4,
+			n
+		);
+		for(int i=0;i<n;i++)
+		{
+			int p=src[srcAt+i];
+			float r=((p>>>16)&0xFF)/255F;
+			float g=((p>>>8)&0xFF)/255F;
+			float b=(p&0xFF)/255F;
+			float max=Math.max(
+				r,
+				Math.max(
+					g,
+					b
+				)
+			);
+			float min=Math.min(
+				r,
+				Math.min(
+					g,
+					b
+				)
+			);
+			float d=max-min;
+			float l=(max+min)*0.5F;
+			dst[dstAt+i]         =p>>>24;
+			dst[dstAt+stride+i]  =hue(
+				r,
+				g,
+				b,
+				max,
+				d
+			);
+			dst[dstAt+2*stride+i]=d==0F?0F:d/(1F-Math.abs(2F*l-1F));
+			dst[dstAt+3*stride+i]=l;
+		}
+	}
+	
+	/**
+	 * The inverse of {@link #toHsl(int[],int,float[],int,int,int)}
+	 */
+	public static void fromHsl(float[] src,int srcAt,int stride,int[] dst,int dstAt,int n)
+	{
+		checkPlanes(
+			src,
+			srcAt,
+			stride,
+			4,
+			n
+		);
+		for(int i=0;i<n;i++)
+		{
+			float l=src[srcAt+3*stride+i];
+			float c=(1F-Math.abs(2F*l-1F))*src[srcAt+2*stride+i];
+			dst[dstAt+i]=fromChroma(
+				src[srcAt+i],
+				src[srcAt+stride+i],
+				c,
+				l-c*0.5F
+			);
+		}
+	}
+	
+	/**
+	 * Converts ARGB to CMYK planes (alpha, cyan, magenta, yellow, black) with the
+	 * components in {@code [0,1]}, the same as {@link ColorSynthbase#rgbToCmyk(float[])}
+	 * except that black comes out as {@code (0,0,0,1)} instead of {@code NaN}s.
+	 *
+	 * @param src The colors
+	 * @param srcAt The first color
+	 * @param dst Where the planes go
+	 * @param dstAt Where the alpha plane starts
+	 * @param stride The distance between two planes
+	 * @param n How many colors
+	 */
+	public static void toCmyk(int[] src,int srcAt,float[] dst,int dstAt,int stride,int n)
+	{
+		checkPlanes(
+			dst,
+			dstAt,
+			stride,
+			5,
+			n
+		);
+		for(int i=0;i<n;i++)
+		{
+			int p=src[srcAt+i];
+			float r=((p>>>16)&0xFF)/255F;
+			float g=((p>>>8)&0xFF)/255F;
+			float b=(p&0xFF)/255F;
+			float max=Math.max(
+				r,
+				Math.max(
+					g,
+					b
+				)
+			);
+			float inv=max==0F?0F:1F/max;
+			dst[dstAt+i]         =p>>>24;
+			dst[dstAt+stride+i]  =(max-r)*inv;
+			dst[dstAt+2*stride+i]=(max-g)*inv;
+			dst[dstAt+3*stride+i]=(max-b)*inv;
+			dst[dstAt+4*stride+i]=1F-max;
+		}
+	}
+	
+	/**
+	 * The inverse of {@link #toCmyk(int[],int,float[],int,int,int)}
+	 */
+	public static void fromCmyk(float[] src,int srcAt,int stride,int[] dst,int dstAt,int n)
+	{
+		checkPlanes(
+			src,
+			srcAt,
+			stride,
+			5,
+			n
+		);
+		for(int i=0;i<n;i++)
+		{
+			float w=255F*(1F-src[srcAt+4*stride+i]);
+			dst[dstAt+i]=pack(
+				src[srcAt+i],
+				w*(1F-src[srcAt+stride+i]),
+				w*(1F-src[srcAt+2*stride+i]),
+				w*(1F-src[srcAt+3*stride+i])
+			);
+		}
+	}
+	
+	/**
+	 * Converts ARGB to OKLab planes (alpha, lightness, a, b). OKLab is a perceptual space,
+	 * so euclidean distances in it match how different two colors look much better than
+	 * distances in RGB.
+	 *
+	 * @param src The colors
+	 * @param srcAt The first color
+	 * @param dst Where the planes go
+	 * @param dstAt Where the alpha plane starts
+	 * @param stride The distance between two planes
+	 * @param n How many colors
+	 */
+	public static void toOklab(int[] src,int srcAt,float[] dst,int dstAt,int stride,int n)
+	{
+		checkPlanes(
+			dst,
+			dstAt,
+			stride,
+			4,
+			n
+		);
+		for(int i=0;i<n;i++)
+		{
+			int p=src[srcAt+i];
+			dst[dstAt+i]=p>>>24;
+			oklab(
+				p,
+				dst,
+				dstAt+stride+i,
+				stride
+			);
+		}
+	}
+	
+	/**
+	 * The inverse of {@link #toOklab(int[],int,float[],int,int,int)}. Colors outside of
+	 * sRGB are clamped.
+	 */
+	public static void fromOklab(float[] src,int srcAt,int stride,int[] dst,int dstAt,int n)
+	{
+		checkPlanes(
+			src,
+			srcAt,
+			stride,
+			4,
+			n
+		);
+		for(int i=0;i<n;i++)
+			dst[dstAt+i]=channel(src[srcAt+i])<<24|fromOklab(
+				src[srcAt+stride+i],
+				src[srcAt+2*stride+i],
+				src[srcAt+3*stride+i]
+			);
+	}
+	
+	/**
+	 * Writes the OKLab coordinates of a color to {@code dst[dstAt]},
+	 * {@code dst[dstAt+step]} and {@code dst[dstAt+2*step]}. Alpha is ignored.
+	 *
+	 * @param argb The color
+	 * @param dst Where the coordinates go
+	 * @param dstAt Where the lightness goes
+	 * @param step The distance between two coordinates (1 for {@code {L,a,b}} triples)
+	 */
+	public static void oklab(int argb,float[] dst,int dstAt,int step)
+	{
+		double r=LINEAR[(argb>>>16)&0xFF];
+		double g=LINEAR[(argb>>>8)&0xFF];
+		double b=LINEAR[argb&0xFF];
+		double l=Math.cbrt(0.4122214708*r+0.5363325363*g+0.0514459929*b);
+		double m=Math.cbrt(0.2119034982*r+0.6806995451*g+0.1073969566*b);
+		double s=Math.cbrt(0.0883024619*r+0.2817188376*g+0.6299787005*b);
+		dst[dstAt]       =(float)(0.2104542553*l+0.7936177850*m-0.0040720468*s);
+		dst[dstAt+step]  =(float)(1.9779984951*l-2.4285922050*m+0.4505937099*s);
+		dst[dstAt+2*step]=(float)(0.0259040371*l+0.7827717662*m-0.8086757660*s);
+	}
+	
+	/**
+	 * @return The opaque sRGB color closest to the OKLab coordinates, with the alpha bits
+	 * left as 0
+	 */
+	public static int fromOklab(float lightness,float a,float b)
+	{
+		double l=lightness+0.3963377774*a+0.2158037573*b;
+		double m=lightness-0.1055613458*a-0.0638541728*b;
+		double s=lightness-0.0894841775*a-1.2914855480*b;
+		l=l*l*l;
+		m=m*m*m;
+		s=s*s*s;
+		return srgb((float)(4.0767416621*l-3.3077115913*m+0.2309699292*s))<<16
+			   |srgb((float)(-1.2684380046*l+2.6097574011*m-0.3413193965*s))<<8
+			   |srgb((float)(-0.0041960863*l-0.7034186147*m+1.7076147010*s));
+	}
+	
+	/**
+	 * Computes the relative luminance (WCAG, on linear channels) of ARGB colors, in
+	 * {@code [0,1]}.
+	 *
+	 * @param src The colors
+	 * @param srcAt The first color
+	 * @param dst Where the luminances go
+	 * @param dstAt The first luminance
+	 * @param n How many colors
+	 */
+	public static void relativeLuminance(int[] src,int srcAt,float[] dst,int dstAt,int n)
+	{
+		for(int i=0;i<n;i++)
+		{
+			int p=src[srcAt+i];
+			dst[dstAt+i]=0.2126F*LINEAR_F[(p>>>16)&0xFF]
+						 +0.7152F*LINEAR_F[(p>>>8)&0xFF]
+						 +0.0722F*LINEAR_F[p&0xFF];
+		}
+	}
+	
+	/**
+	 * Estimates the correlated color temperature of a color with McCamy's approximation
+	 * from its CIE 1931 chromaticity. {@link ColorSynthbase#color_temp(java.awt.Color)}
+	 * gives the same.
+	 *
+	 * @param argb The color
+	 *
+	 * @return The temperature in kelvin, or NaN for black which has no chromaticity
+	 */
+	public static double colorTemperature(int argb)
+	{
+		double r=LINEAR[(argb>>>16)&0xFF];
+		double g=LINEAR[(argb>>>8)&0xFF];
+		double b=LINEAR[argb&0xFF];
+		double x  =0.4124564*r+0.3575761*g+0.1804375*b;
+		double y  =0.2126729*r+0.7151522*g+0.0721750*b;
+		double z  =0.0193339*r+0.1191920*g+0.9503041*b;
+		double sum=x+y+z;
+		double n  =(x/sum-0.3320)/(0.1858-y/sum);
+		return ((449.0*n+3525.0)*n+6823.3)*n+5520.33;
+	}
+	
+	/**
+	 * {@link #colorTemperature(int)} for every color
+	 */
+	public static void colorTemperature(int[] src,int srcAt,double[] dst,int dstAt,int n)
+	{
+		for(int i=0;i<n;i++)
+			dst[dstAt+i]=colorTemperature(src[srcAt+i]);
+	}
+	
+	/**
+	 * Writes {@code n} tints of a color, the first being the color itself and each next one
+	 * a step closer to white, the same as {@link ColorSynthbase#tints(float[],int)}. Alpha
+	 * is kept.
+	 *
+	 * @param argb The color
+	 * @param dst Where the tints go
+	 * @param dstAt The first tint
+	 * @param n How many tints
+	 */
+	public static void tints(int argb,int[] dst,int dstAt,int n)
+	{
+		float r=(argb>>>16)&0xFF;
+		float g=(argb>>>8)&0xFF;
+		float b=argb&0xFF;
+		float rs=(255F-r)/(n-1);
+		float gs=(255F-g)/(n-1);
+		float bs=(255F-b)/(n-1);
+		int a=argb&0xFF000000;
+		for(int i=0;i<n;i++)
+		{
+			if(i>0)
+			{
+				r=clamp(r+rs);
+				g=clamp(g+gs);
+				b=clamp(b+bs);
+			}
+			dst[dstAt+i]=a|channel(r)<<16|channel(g)<<8|channel(b);
+		}
+	}
+	
+	/**
+	 * Writes {@code n} shades of a color, the first being the color itself and each next
+	 * one a step closer to black, the same as {@link ColorSynthbase#shades(float[],int)}.
+	 * Alpha is kept.
+	 *
+	 * @param argb The color
+	 * @param dst Where the shades go
+	 * @param dstAt The first shade
+	 * @param n How many shades
+	 */
+	public static void shades(int argb,int[] dst,int dstAt,int n)
+	{
+		float r=(argb>>>16)&0xFF;
+		float g=(argb>>>8)&0xFF;
+		float b=argb&0xFF;
+		float step=Math.max(
+			Math.max(
+				r,
+				g
+			),
+			b
+		)/(n-1);
+		int a=argb&0xFF000000;
+		for(int i=0;i<n;i++)
+		{
+			if(i>0)
+			{
+				r=clamp(r-step);
+				g=clamp(g-step);
+				b=clamp(b-step);
+			}
+			dst[dstAt+i]=a|channel(r)<<16|channel(g)<<8|channel(b);
+		}
+	}
+	
+	/**
+	 * Writes {@code n} tones of a color, the first being the color itself and each next
+	 * one mixed a step further toward white. Alpha is kept.
+	 * <p>
+	 * {@link ColorSynthbase#tones(float[],int)} mixes toward 1 instead of 255, which ends
+	 * near black, and gives NaNs for a single tone.
+	 *
+	 * @param argb The color
+	 * @param dst Where the tones go
+	 * @param dstAt The first tone
+	 * @param n How many tones
+	 */
+	public static void tones(int argb,int[] dst,int dstAt,int n)
+	{
+		float r=(argb>>>16)&0xFF;
+		float g=(argb>>>8)&0xFF;
+		float b=argb&0xFF;
+		float step=n>1?1F/(n-1):0F;
+		int a=argb&0xFF000000;
+		for(int i=0;i<n;i++)
+		{
+			float t=i*step;
+			dst[dstAt+i]=a
+						 |channel(r*(1-t)+255F*t)<<16
+						 |channel(g*(1-t)+255F*t)<<8
+						 |channel(b*(1-t)+255F*t);
+		}
+	}
+	
+	/**
+	 * Writes {@code n} colors going from a color to its complement, the same as
+	 * {@link ColorSynthbase#complementaries(float[],int)}. Alpha is kept.
+	 *
+	 * @param argb The color
+	 * @param dst Where the colors go
+	 * @param dstAt The first color
+	 * @param n How many colors
+	 */
+	public static void complementaries(int argb,int[] dst,int dstAt,int n)
+	{
+		float r=((argb>>>16)&0xFF)/255F;
+		float g=((argb>>>8)&0xFF)/255F;
+		float b=(argb&0xFF)/255F;
+		float cr=(r+0.5F)%1F;
+		float cg=(g+0.5F)%1F;
+		float cb=(b+0.5F)%1F;
+		int a=argb&0xFF000000;
+		for(int i=0;i<n;i++)
+		{
+			float t=(float)i/(n-1);
+			dst[dstAt+i]=a
+						 |channel((r+(cr-r)*t)*255F)<<16
+						 |channel((g+(cg-g)*t)*255F)<<8
+						 |channel((b+(cb-b)*t)*255F);
+		}
+	}
+	
+	private static float clamp(float v)
+	{
+		return Math.max(
+			0F,
+			Math.min(
+				v,
+				255F
+			)
+		);
+	}
+	
+	/**
+	 * The hue in degrees of a color whose channels are in {@code [0,1]}
+	 */
+	private static float hue(float r,float g,float b,float max,float d)
+	{
+		if(d==0F)
+			return 0F;
+		if(max==r)
+			return (60*((g-b)/d)+360)%360;
+		if(max==g)
+			return (60*((b-r)/d)+120)%360;
+		return (60*((r-g)/d)+240)%360;
+	}
+	
+	/**
+	 * Packs a color from its hue, chroma and the amount added to every channel
+	 */
+	private static int fromChroma(float a,float h,float c,float m)
+	{
+		float hp=(((h%360F)+360F)%360F)/60F;
+		float x=c*(1F-Math.abs(hp%2F-1F));
+		float r, g, b;
+		switch((int)hp)
+		{
+			case 0 -> {
+				r=c;
+				g=x;
+				b=0F;
+			}
+			case 1 -> {
+				r=x;
+				g=c;
+				b=0F;
+			}
+			case 2 -> {
+				r=0F;
+				g=c;
+				b=x;
+			}
+			case 3 -> {
+				r=0F;
+				g=x;
+				b=c;
+			}
+			case 4 -> {
+				r=x;
+				g=0F;
+				b=c;
+			}
+			default -> {
+				r=c;
+				g=0F;
+				b=x;
+			}
+		}
+		return pack(
+			a,
+			(r+m)*255F,
+			(g+m)*255F,
+			(b+m)*255F
+		);
+	}
+}
@@ -0,0 +1,289 @@
+package pkg.exoad.poprock.core.color;
+
+import pkg.exoad.poprock.core.annotations.ServiceClass;
+import pkg.exoad.poprock.core.debug.DebugService;
+import pkg.exoad.poprock.core.io.image.PixelAccess;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * GradientRasterService - Makes the saturation/value square of a color picker for a hue.
+ * It looks the same as {@link ColorSynthbase#cpick_gradient2(int,java.awt.Color)} (white
+ * to the hue from left to right, darkening to black from top to bottom, to within one
+ * level per channel), but the pixels are computed directly into the raster, row bands in
+ * parallel, instead of filling the image twice with {@link java.awt.GradientPaint}s.
+ * <p>
+ * Dragging a hue slider asks for the same few squares over and over, so the most recent
+ * ones are cached by their size and hue (hues are rounded to {@link #HUE_STEPS} steps
+ * around the wheel). When a square falls out of the cache its image goes into a pool and
+ * is drawn over for the next square of the same size, so no new images are made once the
+ * cache is warm. Squares are drawn outside of the cache's lock, so threads asking for
+ * different squares do not wait on each other.
+ * <p>
+ * <em>The images handed out are owned by this service.</em> Paint them right away and do
+ * not modify them or hold on to them, a later call may draw over an image once it has
+ * been evicted. Use {@link #render(int,float,int[],int)} to get the pixels into an array
+ * of your own instead.
+ *
+ * @author Jack Meng
+ */
+@ServiceClass(requiresArming=false)
+public final class GradientRasterService
+{
+	/**
+	 * How many hues around the color wheel are told apart (so 0.1 degrees)
+	 */
+	public static final int HUE_STEPS=3600;
+	/**
+	 * The default amount of squares that are cached
+	 */
+	public static final int DEFAULT_CACHE_CAPACITY=16;
+	// idle images kept around per size
+	private static final int MAX_POOLED=4;
+	private static final Object lock=new Object();
+	// keyed by size<<32|hue step, in access order
+	private static final LinkedHashMap<Long,BufferedImage> cache=new LinkedHashMap<>(
+		32,
+		0.75F,
+		true
+	);
+	private static final HashMap<Integer,ArrayDeque<BufferedImage>> pool=new HashMap<>();
+	private static int capacity=DEFAULT_CACHE_CAPACITY;
+	private static long hits;
+	private static long misses;
+	
+	private GradientRasterService(){}
+	
+	/**
+	 * Gets the saturation/value square for a hue, from the cache if it was made recently.
+	 *
+	 * @param size The width and height of the square
+	 * @param hue The hue in degrees
+	 *
+	 * @return The square as a {@link BufferedImage#TYPE_INT_RGB} image owned by this
+	 * service
+	 */
+	public static BufferedImage saturationValue(int size,float hue)
+	{
+		DebugService.panicOn(
+			size<=0,
+			"The size must be >0"
+		);
+		int step=hueStep(hue);
+		long key=(long)size<<32|step;
+		BufferedImage img;
+		synchronized(lock)
+		{
+			img=cache.get(key);
+			if(img!=null)
+			{
+				hits++;
+				return img;
+			}
+			misses++;
+			ArrayDeque<BufferedImage> idle=pool.get(size);
+			img=idle==null?null:idle.poll();
+		}
+		// drawn without the lock, nobody else can see an image taken out of the pool
+		if(img==null)
+			img=new BufferedImage(
+				size,
+				size,
+				BufferedImage.TYPE_INT_RGB
+			);
+		render(
+			size,
+			step*(360F/HUE_STEPS),
+			PixelAccess.direct(img),
+			0
+		);
+		synchronized(lock)
+		{
+			BufferedImage raced=cache.putIfAbsent(
+				key,
+				img
+			);
+			if(raced!=null)
+			{
+				// another thread drew the same square first
+				recycle(img);
+				return raced;
+			}
+			trim();
+			return img;
+		}
+	}
+	
+	/**
+	 * Computes the saturation/value square for a hue into an array. Nothing is cached.
+	 *
+	 * @param size The width and height of the square
+	 * @param hue The hue in degrees
+	 * @param dst Where the opaque RGB pixels go, row after row
+	 * @param dstAt The first pixel
+	 */
+	public static void render(int size,float hue,int[] dst,int dstAt)
+	{
+		DebugService.panicOn(
+			size<=0||dstAt<0||dstAt+size*size>dst.length,
+			"Not enough room for a "+size+"x"+size+" square"
+		);
+		float h=((hue%360F)+360F)%360F/60F;
+		float hr=hueChannel(
+			5,
+			h
+		);
+		float hg=hueChannel(
+			3,
+			h
+		);
+		float hb=hueChannel(
+			1,
+			h
+		);
+		// like the GradientPaints, which end at size, the last column and row stop one
+		// step short of the hue and of black
+		float last=size;
+		PixelAccess.forEachBand(
+			size,
+			(y0,y1)->{
+				for(int y=y0;y<y1;y++)
+				{
+					// v is the brightness of the row, s how far across to the hue
+					float v=(1F-y/last)*255F;
+					int row=dstAt+y*size;
+					for(int x=0;x<size;x++)
+					{
+						float s=x/last;
+						dst[row+x]=0xFF000000
+								   |(int)(v*(1F-s+s*hr)+0.5F)<<16
+								   |(int)(v*(1F-s+s*hg)+0.5F)<<8
+								   |(int)(v*(1F-s+s*hb)+0.5F);
+					}
+				}
+			}
+		);
+	}
+	
+	/**
+	 * Sets how many squares are cached, evicting the least recently used ones if there
+	 * are more than that.
+	 *
+	 * @param squares The capacity (>0)
+	 */
+	public static void setCacheCapacity(int squares)
+	{
+		DebugService.panicOn(
+			squares<=0,
+			"The cache capacity must be >0"
+		);
+		synchronized(lock)
+		{
+			capacity=squares;
+			trim();
+		}
+	}
+	
+	/**
+	 * Drops every cached and pooled image
+	 */
+	public static void clear()
+	{
+		synchronized(lock)
+		{
+			cache.clear();
+			pool.clear();
+		}
+	}
+	
+	/**
+	 * @return A snapshot of how the cache is doing
+	 */
+	public static GradientCacheStats getCacheStats()
+	{
+		synchronized(lock)
+		{
+			return new GradientCacheStats(
+				hits,
+				misses,
+				cache.size(),
+				capacity
+			);
+		}
+	}
+	
+	/**
+	 * A snapshot of the gradient cache
+	 *
+	 * @param hits How many squares came from the cache
+	 * @param misses How many squares had to be drawn
+	 * @param size How many squares are cached right now
+	 * @param capacity How many squares can be cached
+	 */
+	public record GradientCacheStats(long hits,long misses,int size,int capacity)
+	{
+		/**
+		 * @return The fraction of requests that were hits, 0 if there were none
+		 */
+		public double hitRate()
+		{
+			long total=hits+misses;
+			return total==0?0D:(double)hits/total;
+		}
+	}
+	
+	private static int hueStep(float hue)
+	{
+		float h=((hue%360F)+360F)%360F;
+		return Math.round(h*(HUE_STEPS/360F))%HUE_STEPS;
+	}
+	
+	/**
+	 * A channel of the fully saturated, full value color for a hue in sixths of the wheel
+	 * ({@code n} is 5 for red, 3 for green and 1 for blue)
+	 */
+	private static float hueChannel(int n,float h)
+	{
+		float k=(n+h)%6F;
+		return 1F-Math.max(
+			0F,
+			Math.min(
+				Math.min(
+					k,
+					4F-k
+				),
+				1F
+			)
+		);
+	}
+	
+	private static void trim()
+	{
+		Iterator<Map.Entry<Long,BufferedImage>> it=cache
+			.entrySet()
+			.iterator();
+		while(cache.size()>capacity&&it.hasNext())
+		{
+			BufferedImage img=it
+				.next()
+				.getValue();
+			it.remove();
+			recycle(img);
+		}
+	}
+	
+	private static void recycle(BufferedImage img)
+	{
+		ArrayDeque<BufferedImage> idle=pool.computeIfAbsent(
+			img.getWidth(),
+			k->new ArrayDeque<>()
+		);
+		if(idle.size()<MAX_POOLED)
+			idle.push(img);
+	}
+}
@@ -0,0 +1,259 @@
+package pkg.exoad.poprock.core.color;
+
+import com.jackmeng.FlatKDTree;
+import pkg.exoad.poprock.core.debug.DebugService;
+import pkg.exoad.poprock.core.io.image.PixelAccess;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * A fixed set of opaque colors, usually extracted from an image by
+ * {@link PaletteQuantizer}, that any color can be mapped to.
+ * <p>
+ * The colors are indexed by their OKLab coordinates in a {@link FlatKDTree}, so mapping a
+ * color finds the entry that looks closest to it rather than the closest in RGB. Mapping
+ * whole images is done in parallel chunks.
+ *
+ * @author Jack Meng
+ * @see PaletteQuantizer
+ */
+public final class Palette
+{
+	// how many pixels a single mapping task handles
+	private static final int CHUNK=16384;
+	// the size of the recently mapped colors table of a mapping task
+	private static final int MEMO_BITS=12;
+	private static final int MEMO=1<<MEMO_BITS;
+	private final int[] colors;
+	private final int[] populations;
+	private final FlatKDTree tree;
+	
+	Palette(int[] colors,int[] populations)
+	{
+		this.colors     =colors;
+		this.populations=populations;
+		float[] lab=new float[colors.length*3];
+		for(int i=0;i<colors.length;i++)
+			ColorBatch.oklab(
+				colors[i],
+				lab,
+				i*3,
+				1
+			);
+		this.tree=new FlatKDTree(
+			lab,
+			3
+		);
+	}
+	
+	/**
+	 * Makes a palette out of known colors. Their alpha is ignored.
+	 *
+	 * @param argb The colors
+	 *
+	 * @return The palette
+	 */
+	public static Palette of(int... argb)
+	{
+		int[] colors=new int[argb.length];
+		for(int i=0;i<argb.length;i++)
+			colors[i]=argb[i]|0xFF000000;
+		return new Palette(
+			colors,
+			new int[argb.length]
+		);
+	}
+	
+	/**
+	 * @return How many colors there are
+	 */
+	public int size()
+	{
+		return colors.length;
+	}
+	
+	/**
+	 * @return The opaque ARGB color at the index
+	 */
+	public int color(int i)
+	{
+		return colors[i];
+	}
+	
+	/**
+	 * @return How many of the quantized pixels ended up with the color at the index, 0 for
+	 * palettes made with {@link #of(int...)}
+	 */
+	public int population(int i)
+	{
+		return populations[i];
+	}
+	
+	/**
+	 * @return A copy of the colors, the most common first for extracted palettes
+	 */
+	public int[] colors()
+	{
+		return colors.clone();
+	}
+	
+	/**
+	 * Finds the entry closest to a color. To map many colors, use
+	 * {@link #map(int[],int,int[],int,int)}, which does not allocate per color.
+	 *
+	 * @param argb The color, its alpha is ignored
+	 *
+	 * @return The index of the closest entry or -1 if the palette is empty
+	 */
+	public int nearest(int argb)
+	{
+		float[] lab=new float[3];
+		ColorBatch.oklab(
+			argb,
+			lab,
+			0,
+			1
+		);
+		return tree
+			.searcher()
+			.nearest(
+				lab,
+				0
+			);
+	}
+	
+	/**
+	 * Replaces every color with the closest entry of this palette, keeping its alpha. The
+	 * source and destination can be the same array. An empty palette just copies.
+	 *
+	 * @param src The colors
+	 * @param srcAt The first color
+	 * @param dst Where the mapped colors go
+	 * @param dstAt The first mapped color
+	 * @param n How many colors
+	 */
+	public void map(int[] src,int srcAt,int[] dst,int dstAt,int n)
+	{
+		DebugService.panicOn(
+			n<0||srcAt+n>src.length||dstAt+n>dst.length,
+			"Not enough room for "+n+" colors"
+		);
+		if(colors.length==0)
+		{
+			System.arraycopy(
+				src,
+				srcAt,
+				dst,
+				dstAt,
+				n
+			);
+			return;
+		}
+		PixelAccess.forEachRange(
+			n,
+			CHUNK,
+			(from,to)->{
+				FlatKDTree.Searcher searcher=tree.searcher();
+				float[] lab=new float[3];
+				int[] keys=new int[MEMO];
+				int[] mapped=new int[MEMO];
+				// no color has bit 24 set, so this never matches before being filled in
+				Arrays.fill(
+					keys,
+					-1
+				);
+				for(int i=from;i<to;i++)
+				{
+					int p=src[srcAt+i];
+					int rgb=p&0xFFFFFF;
+					// images reuse colors a lot, so only search for ones not seen lately
+					int slot=(rgb*0x9E3779B1)>>>(32-MEMO_BITS);
+					if(keys[slot]!=rgb)
+					{
+						ColorBatch.oklab(
+							p,
+							lab,
+							0,
+							1
+						);
+						keys[slot]  =rgb;
+						mapped[slot]=colors[searcher.nearest(
+							lab,
+							0
+						)]&0xFFFFFF;
+					}
+					dst[dstAt+i]=p&0xFF000000|mapped[slot];
+				}
+			}
+		);
+	}
+	
+	/**
+	 * Maps every pixel of an image to this palette.
+	 *
+	 * @param img The image
+	 *
+	 * @return A new {@link BufferedImage#TYPE_INT_ARGB} image
+	 */
+	public BufferedImage map(BufferedImage img)
+	{
+		int w=img.getWidth();
+		int h=img.getHeight();
+		int[] px=img.getRGB(
+			0,
+			0,
+			w,
+			h,
+			null,
+			0,
+			w
+		);
+		BufferedImage out=new BufferedImage(
+			w,
+			h,
+			BufferedImage.TYPE_INT_ARGB
+		);
+		map(
+			px,
+			0,
+			PixelAccess.direct(out),
+			0,
+			px.length
+		);
+		return out;
+	}
+	
+	@Override public String toString()
+	{
+		StringBuilder sb=new StringBuilder("Palette[");
+		for(int i=0;i<colors.length;i++)
+		{
+			if(i>0)
+				sb.append(',');
+			sb
+				.append(String.format(
+					"#%06x",
+					colors[i]&0xFFFFFF
+				))
+				.append('x')
+				.append(populations[i]);
+		}
+		return sb
+			.append(']')
+			.toString();
+	}
+	
+	@Override public boolean equals(Object o)
+	{
+		return o instanceof Palette p&&Arrays.equals(
+			colors,
+			p.colors
+		);
+	}
+	
+	@Override public int hashCode()
+	{
+		return Arrays.hashCode(colors);
+	}
+}
@@ -0,0 +1,543 @@
+package pkg.exoad.poprock.core.color;
+
+import com.jackmeng.FlatKDTree;
+import pkg.exoad.poprock.core.debug.DebugService;
+import pkg.exoad.poprock.core.io.image.PixelAccess;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Extracts a {@link Palette} of the most representative colors of an image, for things
+ * like picking a theme from a wallpaper or album art.
+ * <p>
+ * The image is first reduced to a histogram of 15 bit colors, counted in parallel over
+ * chunks of the pixels, so the rest of the work depends on how many different colors
+ * there are and not on how large the image is. The histogram is then split with median
+ * cut in OKLab (always splitting the box with the largest error, along its most spread out
+ * axis) and, for {@link Method#K_MEANS}, the boxes are refined with a few rounds of
+ * weighted k-means. The nearest centroid lookups of k-means go through a
+ * {@link FlatKDTree}.
+ * <p>
+ * <strong>Example Usage</strong>
+ * <p>
+ * <blockquote><pre>
+ * Palette theme=PaletteQuantizer
+ *                .make()
+ *                .withColors(8)
+ *                .quantize(wallpaper);
+ * BufferedImage poster=theme.map(wallpaper);
+ * </pre></blockquote>
+ *
+ * @author Jack Meng
+ */
+public final class PaletteQuantizer
+{
+	/**
+	 * How the colors are picked
+	 */
+	public enum Method
+	{
+		/**
+		 * Median cut only, fast and stable
+		 */
+		MEDIAN_CUT,
+		/**
+		 * Median cut followed by k-means, the colors fit the image more closely
+		 */
+		K_MEANS
+	}
+	
+	// 5 bits per channel
+	private static final int BINS=1<<15;
+	// how many pixels a single histogram task handles, about as many as it has bins to merge
+	private static final int PIXEL_CHUNK=65536;
+	// how many bins a single assignment task handles, each of which is a tree search
+	private static final int BIN_CHUNK=1024;
+	private int colors;
+	private Method method;
+	private int iterations;
+	private int alphaThreshold;
+	
+	public static PaletteQuantizer make()
+	{
+		return new PaletteQuantizer();
+	}
+	
+	private PaletteQuantizer()
+	{
+		colors        =16;
+		method        =Method.K_MEANS;
+		iterations    =8;
+		alphaThreshold=128;
+	}
+	
+	/**
+	 * @param colors The most colors the palette can have, in {@code [1,256]}
+	 */
+	public PaletteQuantizer withColors(int colors)
+	{
+		DebugService.panicOn(
+			colors<1||colors>256,
+			"A palette can have 1 to 256 colors"
+		);
+		this.colors=colors;
+		return this;
+	}
+	
+	public PaletteQuantizer withMethod(Method method)
+	{
+		DebugService.panicOn(
+			method==null,
+			"The quantization method cannot be null"
+		);
+		this.method=method;
+		return this;
+	}
+	
+	/**
+	 * @param iterations The most rounds of k-means to run (it stops early once the colors
+	 * stop moving)
+	 */
+	public PaletteQuantizer withIterations(int iterations)
+	{
+		DebugService.panicOn(
+			iterations<0,
+			"Iterations must be >=0"
+		);
+		this.iterations=iterations;
+		return this;
+	}
+	
+	/**
+	 * @param alphaThreshold Pixels with an alpha below this are left out
+	 */
+	public PaletteQuantizer withAlphaThreshold(int alphaThreshold)
+	{
+		DebugService.panicOn(
+			alphaThreshold<0||alphaThreshold>255,
+			"The alpha threshold must be in [0,255]"
+		);
+		this.alphaThreshold=alphaThreshold;
+		return this;
+	}
+	
+	/**
+	 * @param img The image
+	 *
+	 * @return The palette of the image
+	 */
+	public Palette quantize(BufferedImage img)
+	{
+		int w=img.getWidth();
+		int h=img.getHeight();
+		int[] px=img.getType()==BufferedImage.TYPE_INT_ARGB?PixelAccess.direct(img):null;
+		if(px==null)
+			px=img.getRGB(
+				0,
+				0,
+				w,
+				h,
+				null,
+				0,
+				w
+			);
+		return quantize(
+			px,
+			0,
+			w*h
+		);
+	}
+	
+	/**
+	 * @param argb The colors
+	 * @param at The first color
+	 * @param n How many colors
+	 *
+	 * @return The palette of the colors
+	 */
+	public Palette quantize(int[] argb,int at,int n)
+	{
+		DebugService.panicOn(
+			n<0||at<0||at+n>argb.length,
+			"Not enough room for "+n+" colors"
+		);
+		int[] hist=histogram(
+			argb,
+			at,
+			n
+		);
+		int m=0;
+		for(int c: hist)
+			if(c>0)
+				m++;
+		int[] binColors=new int[m];
+		int[] weights=new int[m];
+		float[] lab=new float[m*3];
+		for(int bin=0, i=0;bin<BINS;bin++)
+			if(hist[bin]>0)
+			{
+				binColors[i]=expand(bin);
+				weights[i]  =hist[bin];
+				ColorBatch.oklab(
+					binColors[i],
+					lab,
+					i*3,
+					1
+				);
+				i++;
+			}
+		if(m<=colors)
+			return sorted(
+				binColors,
+				weights
+			);
+		float[] centroids=medianCut(
+			lab,
+			weights,
+			m
+		);
+		int k=centroids.length/3;
+		int[] populations=new int[k];
+		if(method==Method.K_MEANS)
+			for(int it=0;it<iterations;it++)
+				if(!refine(
+					lab,
+					weights,
+					m,
+					centroids,
+					k,
+					populations
+				))
+					break;
+		assign(
+			lab,
+			weights,
+			m,
+			centroids,
+			k,
+			null,
+			null,
+			populations
+		);
+		int[] out=new int[k];
+		for(int i=0;i<k;i++)
+			out[i]=0xFF000000|ColorBatch.fromOklab(
+				centroids[i*3],
+				centroids[i*3+1],
+				centroids[i*3+2]
+			);
+		return sorted(
+			out,
+			populations
+		);
+	}
+	
+	private int[] histogram(int[] argb,int at,int n)
+	{
+		int[] hist=new int[BINS];
+		PixelAccess.forEachRange(
+			n,
+			PIXEL_CHUNK,
+			(from,to)->{
+				int[] local=new int[BINS];
+				for(int i=from;i<to;i++)
+				{
+					int p=argb[at+i];
+					if(p>>>24>=alphaThreshold)
+						local[(p>>>9&0x7C00)|(p>>>6&0x3E0)|(p>>>3&0x1F)]++;
+				}
+				synchronized(hist)
+				{
+					for(int b=0;b<BINS;b++)
+						hist[b]+=local[b];
+				}
+			}
+		);
+		return hist;
+	}
+	
+	/**
+	 * @return The 15 bit color of a bin stretched back out to 24 bits
+	 */
+	private static int expand(int bin)
+	{
+		int r=bin>>>10&0x1F;
+		int g=bin>>>5&0x1F;
+		int b=bin&0x1F;
+		return 0xFF000000|(r<<3|r>>>2)<<16|(g<<3|g>>>2)<<8|(b<<3|b>>>2);
+	}
+	
+	/**
+	 * Splits the bins into at most {@link #colors} boxes.
+	 *
+	 * @return The weighted means of the boxes as {@code {L,a,b}} triples
+	 */
+	private float[] medianCut(float[] lab,int[] weights,int m)
+	{
+		int[] order=new int[m];
+		for(int i=0;i<m;i++)
+			order[i]=i;
+		int[] lo=new int[colors];
+		int[] hi=new int[colors];
+		double[] error=new double[colors];
+		long[] keys=new long[m];
+		int boxes=1;
+		hi[0]   =m;
+		error[0]=error(
+			lab,
+			weights,
+			order,
+			0,
+			m
+		);
+		while(boxes<colors)
+		{
+			int split=-1;
+			for(int b=0;b<boxes;b++)
+				if(hi[b]-lo[b]>1&&(split<0||error[b]>error[split]))
+					split=b;
+			if(split<0||error[split]<=0D)
+				break;
+			int from=lo[split];
+			int to=hi[split];
+			int axis=widestAxis(
+				lab,
+				weights,
+				order,
+				from,
+				to
+			);
+			// sort the box along the axis, the bin goes in the low bits to keep it a primitive sort
+			for(int i=from;i<to;i++)
+			{
+				int bits=Float.floatToIntBits(lab[order[i]*3+axis]);
+				bits^=(bits>>31)&0x7FFFFFFF;
+				keys[i]=(long)bits<<32|order[i];
+			}
+			Arrays.sort(
+				keys,
+				from,
+				to
+			);
+			long total=0L;
+			for(int i=from;i<to;i++)
+			{
+				order[i]=(int)keys[i];
+				total+=weights[order[i]];
+			}
+			int mid=from+1;
+			for(long acc=weights[order[from]];mid<to-1&&acc*2<total;mid++)
+				acc+=weights[order[mid]];
+			lo[boxes]   =mid;
+			hi[boxes]   =to;
+			hi[split]   =mid;
+			error[split]=error(
+				lab,
+				weights,
+				order,
+				from,
+				mid
+			);
+			error[boxes]=error(
+				lab,
+				weights,
+				order,
+				mid,
+				to
+			);
+			boxes++;
+		}
+		float[] centroids=new float[boxes*3];
+		for(int b=0;b<boxes;b++)
+		{
+			double w=0D, l=0D, a=0D, bb=0D;
+			for(int i=lo[b];i<hi[b];i++)
+			{
+				int p=order[i];
+				w+=weights[p];
+				l+=weights[p]*(double)lab[p*3];
+				a+=weights[p]*(double)lab[p*3+1];
+				bb+=weights[p]*(double)lab[p*3+2];
+			}
+			centroids[b*3]  =(float)(l/w);
+			centroids[b*3+1]=(float)(a/w);
+			centroids[b*3+2]=(float)(bb/w);
+		}
+		return centroids;
+	}
+	
+	/**
+	 * @return The weighted sum of squared distances of a box to its mean
+	 */
+	private static double error(float[] lab,int[] weights,int[] order,int from,int to)
+	{
+		double w=0D, sum=0D;
+		double[] s=new double[3];
+		for(int i=from;i<to;i++)
+		{
+			int p=order[i];
+			w+=weights[p];
+			for(int d=0;d<3;d++)
+			{
+				double v=lab[p*3+d];
+				s[d]+=weights[p]*v;
+				sum+=weights[p]*v*v;
+			}
+		}
+		return sum-(s[0]*s[0]+s[1]*s[1]+s[2]*s[2])/w;
+	}
+	
+	private static int widestAxis(float[] lab,int[] weights,int[] order,int from,int to)
+	{
+		int best=0;
+		double bestVariance=-1D;
+		for(int d=0;d<3;d++)
+		{
+			double w=0D, s=0D, sq=0D;
+			for(int i=from;i<to;i++)
+			{
+				int p=order[i];
+				double v=lab[p*3+d];
+				w+=weights[p];
+				s+=weights[p]*v;
+				sq+=weights[p]*v*v;
+			}
+			double variance=sq-s*s/w;
+			if(variance>bestVariance)
+			{
+				bestVariance=variance;
+				best        =d;
+			}
+		}
+		return best;
+	}
+	
+	/**
+	 * One round of k-means: moves every centroid to the weighted mean of the bins closest
+	 * to it. Centroids that get no bins stay where they are.
+	 *
+	 * @return Whether any centroid moved noticeably
+	 */
+	private static boolean refine(
+		float[] lab,int[] weights,int m,float[] centroids,int k,int[] populations
+	)
+	{
+		double[] sums=new double[k*3];
+		double[] mass=new double[k];
+		assign(
+			lab,
+			weights,
+			m,
+			centroids,
+			k,
+			sums,
+			mass,
+			populations
+		);
+		boolean moved=false;
+		for(int c=0;c<k;c++)
+		{
+			if(mass[c]==0D)
+				continue;
+			for(int d=0;d<3;d++)
+			{
+				float v=(float)(sums[c*3+d]/mass[c]);
+				if(Math.abs(v-centroids[c*3+d])>1e-4F)
+					moved=true;
+				centroids[c*3+d]=v;
+			}
+		}
+		return moved;
+	}
+	
+	/**
+	 * Finds the closest centroid of every bin in parallel, summing up the populations and,
+	 * if they are not {@code null}, the weighted coordinates and masses per centroid.
+	 */
+	private static void assign(
+		float[] lab,int[] weights,int m,float[] centroids,int k,double[] sums,
+		double[] mass,int[] populations
+	)
+	{
+		FlatKDTree tree=new FlatKDTree(
+			centroids,
+			0,
+			k,
+			3
+		);
+		Arrays.fill(
+			populations,
+			0
+		);
+		PixelAccess.forEachRange(
+			m,
+			BIN_CHUNK,
+			(from,to)->{
+				FlatKDTree.Searcher searcher=tree.searcher();
+				int[] pop=new int[k];
+				double[] s=sums==null?null:new double[k*3];
+				double[] w=mass==null?null:new double[k];
+				for(int i=from;i<to;i++)
+				{
+					int c=searcher.nearest(
+						lab,
+						i*3
+					);
+					pop[c]+=weights[i];
+					if(s!=null)
+					{
+						w[c]+=weights[i];
+						s[c*3]+=weights[i]*(double)lab[i*3];
+						s[c*3+1]+=weights[i]*(double)lab[i*3+1];
+						s[c*3+2]+=weights[i]*(double)lab[i*3+2];
+					}
+				}
+				synchronized(populations)
+				{
+					for(int c=0;c<k;c++)
+					{
+						populations[c]+=pop[c];
+						if(s!=null)
+						{
+							mass[c]+=w[c];
+							sums[c*3]+=s[c*3];
+							sums[c*3+1]+=s[c*3+1];
+							sums[c*3+2]+=s[c*3+2];
+						}
+					}
+				}
+			}
+		);
+	}
+	
+	/**
+	 * @return A palette of the colors with the most common first, leaving out colors no
+	 * pixel ended up with
+	 */
+	private static Palette sorted(int[] colors,int[] populations)
+	{
+		long[] keys=new long[colors.length];
+		int used=0;
+		for(int i=0;i<colors.length;i++)
+			if(populations[i]>0)
+				keys[used++]=(long)-populations[i]<<32|i;
+		Arrays.sort(
+			keys,
+			0,
+			used
+		);
+		int[] c=new int[used];
+		int[] p=new int[used];
+		for(int i=0;i<used;i++)
+		{
+			int at=(int)keys[i];
+			c[i]=colors[at];
+			p[i]=populations[at];
+		}
+		return new Palette(
+			c,
+			p
+		);
+	}
+}
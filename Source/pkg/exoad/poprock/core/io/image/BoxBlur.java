@@ -0,0 +1,320 @@
+package pkg.exoad.poprock.core.io.image;
+
+import pkg.exoad.poprock.core.debug.DebugService;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Box and Gaussian blurs whose cost does not depend on the radius. Each pass keeps a
+ * running sum of the window and only adds the pixel entering it and subtracts the pixel
+ * leaving it, so every pixel costs the same for a radius of 1 or 40. Compare this to
+ * {@link ConvolveMatrix} box kernels that cost {@code (2r+1)^2} per pixel.
+ * <p>
+ * A Gaussian blur is approximated with three box blurs of slightly different sizes, which
+ * is visually the same as a real Gaussian for UI work such as frosted glass panels.
+ * <p>
+ * Blurs are done in place. Rows are blurred in parallel, then columns (in blocks so that
+ * memory is still read row after row). All four channels are blurred as they are stored,
+ * so translucent images should be {@link BufferedImage#TYPE_INT_ARGB_PRE}.
+ *
+ * @author Jack Meng
+ * @see KernelService#boxBlur(BufferedImage,int)
+ * @see KernelService#gaussianBlur(BufferedImage,float)
+ */
+public final class BoxBlur
+{
+	private BoxBlur(){}
+	
+	/**
+	 * Box blurs an image in place.
+	 *
+	 * @param img The image
+	 * @param radiusX The horizontal radius (0 to skip)
+	 * @param radiusY The vertical radius (0 to skip)
+	 * @param mode How to sample outside of the image
+	 */
+	public static void blur(BufferedImage img,int radiusX,int radiusY,EdgeMode mode)
+	{
+		apply(
+			img,
+			new int[]{radiusX},
+			new int[]{radiusY},
+			mode
+		);
+	}
+	
+	/**
+	 * Approximates a Gaussian blur in place with three box blurs.
+	 *
+	 * @param img The image
+	 * @param sigma The standard deviation of the Gaussian in pixels
+	 * @param mode How to sample outside of the image
+	 */
+	public static void gaussian(BufferedImage img,float sigma,EdgeMode mode)
+	{
+		int[] radii=gaussianRadii(
+			sigma,
+			3
+		);
+		apply(
+			img,
+			radii,
+			radii,
+			mode
+		);
+	}
+	
+	/**
+	 * Box blurs packed ARGB pixels in place.
+	 *
+	 * @param pixels The pixels, row after row
+	 * @param width The width of the image
+	 * @param height The height of the image
+	 * @param radiusX The horizontal radius (0 to skip)
+	 * @param radiusY The vertical radius (0 to skip)
+	 * @param mode How to sample outside of the image
+	 */
+	public static void blur(int[] pixels,int width,int height,int radiusX,int radiusY,EdgeMode mode)
+	{
+		passes(
+			pixels,
+			width,
+			height,
+			new int[]{radiusX},
+			new int[]{radiusY},
+			mode
+		);
+	}
+	
+	/**
+	 * Approximates a Gaussian blur of packed ARGB pixels in place with three box blurs.
+	 *
+	 * @param pixels The pixels, row after row
+	 * @param width The width of the image
+	 * @param height The height of the image
+	 * @param sigma The standard deviation of the Gaussian in pixels
+	 * @param mode How to sample outside of the image
+	 */
+	public static void gaussian(int[] pixels,int width,int height,float sigma,EdgeMode mode)
+	{
+		int[] radii=gaussianRadii(
+			sigma,
+			3
+		);
+		passes(
+			pixels,
+			width,
+			height,
+			radii,
+			radii,
+			mode
+		);
+	}
+	
+	/**
+	 * Picks the radii of {@code n} box blurs that together come closest to a Gaussian of
+	 * the supplied standard deviation.
+	 *
+	 * @param sigma The standard deviation
+	 * @param n How many boxes
+	 *
+	 * @return The radii, smallest first
+	 */
+	public static int[] gaussianRadii(float sigma,int n)
+	{
+		DebugService.panicOn(
+			sigma<0F||n<=0,
+			"Sigma must be >=0 and n>0"
+		);
+		double ideal=Math.sqrt(12.0*sigma*sigma/n+1.0);
+		int lower=(int)Math.floor(ideal);
+		if(lower%2==0)
+			lower--;
+		int upper=lower+2;
+		long m=Math.round((12.0*sigma*sigma-n*lower*lower-4.0*n*lower-3.0*n)/(-4.0*lower-4.0));
+		int[] r=new int[n];
+		for(int i=0;i<n;i++)
+			r[i]=((i<m?lower:upper)-1)/2;
+		return r;
+	}
+	
+	private static void apply(BufferedImage img,int[] radiiX,int[] radiiY,EdgeMode mode)
+	{
+		int w=img.getWidth();
+		int h=img.getHeight();
+		int[] px=PixelAccess.direct(img);
+		if(px!=null)
+		{
+			passes(
+				px,
+				w,
+				h,
+				radiiX,
+				radiiY,
+				mode
+			);
+			return;
+		}
+		px=img.getRGB(
+			0,
+			0,
+			w,
+			h,
+			null,
+			0,
+			w
+		);
+		passes(
+			px,
+			w,
+			h,
+			radiiX,
+			radiiY,
+			mode
+		);
+		img.setRGB(
+			0,
+			0,
+			w,
+			h,
+			px,
+			0,
+			w
+		);
+	}
+	
+	private static void passes(int[] px,int w,int h,int[] radiiX,int[] radiiY,EdgeMode mode)
+	{
+		DebugService.panicOn(
+			px.length<w*h,
+			"There are fewer pixels ("+px.length+") than "+w+"x"+h
+		);
+		for(int r: radiiX)
+			DebugService.panicOn(
+				r<0,
+				"The radius must be >=0"
+			);
+		for(int r: radiiY)
+			DebugService.panicOn(
+				r<0,
+				"The radius must be >=0"
+			);
+		// every row goes through all of its horizontal passes while it is still in cache
+		PixelAccess.forEachBand(
+			h,
+			(y0,y1)->{
+				int[] line=new int[w];
+				for(int y=y0;y<y1;y++)
+					for(int r: radiiX)
+						if(r>0)
+						{
+							System.arraycopy(
+								px,
+								y*w,
+								line,
+								0,
+								w
+							);
+							slide(
+								line,
+								0,
+								1,
+								w,
+								px,
+								y*w,
+								1,
+								r,
+								mode
+							);
+						}
+			}
+		);
+		// columns in blocks, each block copied out so it can be written back in place
+		PixelAccess.forEachBand(
+			w,
+			(x0,x1)->{
+				int bw=x1-x0;
+				int[] block=new int[bw*h];
+				for(int r: radiiY)
+				{
+					if(r<=0)
+						continue;
+					for(int y=0;y<h;y++)
+						System.arraycopy(
+							px,
+							y*w+x0,
+							block,
+							y*bw,
+							bw
+						);
+					for(int x=0;x<bw;x++)
+						slide(
+							block,
+							x,
+							bw,
+							h,
+							px,
+							x0+x,
+							w,
+							r,
+							mode
+						);
+				}
+			}
+		);
+	}
+	
+	/**
+	 * Box blurs a single line with a running sum.
+	 *
+	 * @param src Where to read the line from
+	 * @param srcAt The first pixel of the line in src
+	 * @param srcStride The distance between two pixels of the line in src
+	 * @param n How long the line is
+	 * @param dst Where to write the line to
+	 * @param dstAt The first pixel of the line in dst
+	 * @param dstStride The distance between two pixels of the line in dst
+	 * @param r The radius
+	 * @param mode How to sample outside of the line
+	 */
+	private static void slide(
+		int[] src,int srcAt,int srcStride,int n,int[] dst,int dstAt,int dstStride,int r,
+		EdgeMode mode
+	)
+	{
+		int d=2*r+1;
+		// fixed point reciprocal, sum*inv>>>24 rounds sum/d to nearest
+		long inv=((1L<<24)+d/2)/d;
+		int a=0, rr=0, g=0, b=0;
+		for(int k=-r;k<=r;k++)
+		{
+			int p=src[srcAt+mode.resolve(
+				k,
+				n
+			)*srcStride];
+			a+=p>>>24;
+			rr+=(p>>16)&0xFF;
+			g+=(p>>8)&0xFF;
+			b+=p&0xFF;
+		}
+		for(int i=0;i<n;i++)
+		{
+			dst[dstAt+i*dstStride]=(int)((a*inv+(1L<<23))>>>24)<<24
+								   |(int)((rr*inv+(1L<<23))>>>24)<<16
+								   |(int)((g*inv+(1L<<23))>>>24)<<8
+								   |(int)((b*inv+(1L<<23))>>>24);
+			int in=src[srcAt+mode.resolve(
+				i+r+1,
+				n
+			)*srcStride];
+			int out=src[srcAt+mode.resolve(
+				i-r,
+				n
+			)*srcStride];
+			a+=(in>>>24)-(out>>>24);
+			rr+=((in>>16)&0xFF)-((out>>16)&0xFF);
+			g+=((in>>8)&0xFF)-((out>>8)&0xFF);
+			b+=(in&0xFF)-(out&0xFF);
+		}
+	}
+}
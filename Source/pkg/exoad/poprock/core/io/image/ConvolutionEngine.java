@@ -0,0 +1,505 @@
+package pkg.exoad.poprock.core.io.image;
+
+import pkg.exoad.poprock.core.debug.DebugService;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Convolves whole images at once, working on the packed int pixels directly instead of
+ * going through {@link BufferedImage#getRGB(int,int)} per sample.
+ * <p>
+ * Kernels of any size can be used and are applied with their anchor at
+ * {@code (width/2,height/2)}. Kernels that are separable (every Gaussian and box kernel
+ * is) are detected with {@link #separate(float[][])} and run as two 1-D passes, so a
+ * {@code k x k} kernel costs {@code 2k} instead of {@code k*k} per pixel.
+ * <p>
+ * All four channels are convolved as they are stored, so translucent images should be
+ * {@link BufferedImage#TYPE_INT_ARGB_PRE} to avoid dark fringes. Rows are split into
+ * bands that run on the fork-join pool and the per-pixel work goes through
+ * {@link PixelOps}, so it is vectorized when the Vector API is available.
+ *
+ * @author Jack Meng
+ * @see KernelService#convolve(BufferedImage,float[][],EdgeMode)
+ */
+public final class ConvolutionEngine
+{
+	/**
+	 * How far off a kernel can be from the product of its row and column (relative to the
+	 * largest weight) and still be run as separable.
+	 */
+	public static final float SEPARABLE_EPSILON=1e-5F;
+	/**
+	 * The most floats a worker keeps around between bands, larger scratch arrays are
+	 * dropped after the band that needed them
+	 */
+	public static final int MAX_RETAINED_SCRATCH=4<<20;
+	// the scratch arrays of each worker, reused by every band that runs on it
+	private static final ThreadLocal<Scratch> SCRATCH=ThreadLocal.withInitial(Scratch::new);
+	
+	private ConvolutionEngine(){}
+	
+	/**
+	 * Convolves an image into a new image of the same size. The new image has the same
+	 * type as the source if it is a packed int type, otherwise it is
+	 * {@link BufferedImage#TYPE_INT_ARGB}.
+	 *
+	 * @param src The image
+	 * @param kernel The kernel as {@code kernel[row][column]}
+	 * @param mode How to sample outside of the image
+	 *
+	 * @return The convolved image
+	 */
+	public static BufferedImage convolve(BufferedImage src,float[][] kernel,EdgeMode mode)
+	{
+		BufferedImage dst=new BufferedImage(
+			src.getWidth(),
+			src.getHeight(),
+			PixelAccess.isIntType(src)?src.getType():BufferedImage.TYPE_INT_ARGB
+		);
+		convolve(
+			src,
+			dst,
+			kernel,
+			mode
+		);
+		return dst;
+	}
+	
+	/**
+	 * Convolves an image into another image of the same size.
+	 *
+	 * @param src The image
+	 * @param dst Where to write to, cannot be the source
+	 * @param kernel The kernel as {@code kernel[row][column]}
+	 * @param mode How to sample outside of the image
+	 */
+	public static void convolve(BufferedImage src,BufferedImage dst,float[][] kernel,EdgeMode mode)
+	{
+		DebugService.panicOn(
+			src==dst,
+			"Cannot convolve an image into itself"
+		);
+		DebugService.panicOn(
+			src.getWidth()!=dst.getWidth()||src.getHeight()!=dst.getHeight(),
+			"The source and destination images must be the same size"
+		);
+		int w=src.getWidth();
+		int h=src.getHeight();
+		int[] in=PixelAccess.direct(src);
+		int[] out=PixelAccess.direct(dst);
+		if(in!=null&&out!=null&&src.getType()==dst.getType())
+		{
+			convolve(
+				in,
+				out,
+				w,
+				h,
+				kernel,
+				mode
+			);
+			return;
+		}
+		// go through the default ARGB color model when the raw pixels cannot be used as is
+		in =src.getRGB(
+			0,
+			0,
+			w,
+			h,
+			null,
+			0,
+			w
+		);
+		out=new int[w*h];
+		convolve(
+			in,
+			out,
+			w,
+			h,
+			kernel,
+			mode
+		);
+		dst.setRGB(
+			0,
+			0,
+			w,
+			h,
+			out,
+			0,
+			w
+		);
+	}
+	
+	/**
+	 * Convolves packed ARGB pixels.
+	 *
+	 * @param src The pixels, row after row
+	 * @param dst Where to write to, cannot be the source
+	 * @param width The width of the image
+	 * @param height The height of the image
+	 * @param kernel The kernel as {@code kernel[row][column]}
+	 * @param mode How to sample outside of the image
+	 */
+	public static void convolve(int[] src,int[] dst,int width,int height,float[][] kernel,EdgeMode mode)
+	{
+		DebugService.panicOn(
+			src==dst,
+			"Cannot convolve an image into itself"
+		);
+		DebugService.panicOn(
+			kernel.length==0||kernel[0].length==0,
+			"The kernel cannot be empty"
+		);
+		float[][] parts=separate(kernel);
+		if(parts!=null)
+			convolveSeparable(
+				src,
+				dst,
+				width,
+				height,
+				parts[1],
+				parts[0],
+				mode
+			);
+		else
+			convolveDense(
+				src,
+				dst,
+				width,
+				height,
+				kernel,
+				mode
+			);
+	}
+	
+	/**
+	 * Splits a kernel into a column and a row whose outer product is the kernel.
+	 *
+	 * @param kernel The kernel as {@code kernel[row][column]}
+	 *
+	 * @return {@code {column,row}} or {@code null} if the kernel is not separable
+	 */
+	public static float[][] separate(float[][] kernel)
+	{
+		int kh=kernel.length;
+		int kw=kernel[0].length;
+		int pr=0;
+		int pc=0;
+		float max=0F;
+		for(int i=0;i<kh;i++)
+		{
+			if(kernel[i].length!=kw)
+				return null;
+			for(int j=0;j<kw;j++)
+				if(Math.abs(kernel[i][j])>max)
+				{
+					max=Math.abs(kernel[i][j]);
+					pr =i;
+					pc =j;
+				}
+		}
+		if(max==0F)
+			return null;
+		float[] col=new float[kh];
+		float[] row=new float[kw];
+		for(int i=0;i<kh;i++)
+			col[i]=kernel[i][pc];
+		for(int j=0;j<kw;j++)
+			row[j]=kernel[pr][j]/kernel[pr][pc];
+		float tolerance=max*SEPARABLE_EPSILON;
+		for(int i=0;i<kh;i++)
+			for(int j=0;j<kw;j++)
+				if(Math.abs(kernel[i][j]-col[i]*row[j])>tolerance)
+					return null;
+		return new float[][]{
+			col,
+			row
+		};
+	}
+	
+	/**
+	 * Runs a separable kernel as a horizontal pass followed by a vertical pass.
+	 *
+	 * @param src The pixels, row after row
+	 * @param dst Where to write to, cannot be the source
+	 * @param width The width of the image
+	 * @param height The height of the image
+	 * @param row The horizontal part of the kernel
+	 * @param col The vertical part of the kernel
+	 * @param mode How to sample outside of the image
+	 */
+	public static void convolveSeparable(
+		int[] src,int[] dst,int width,int height,float[] row,float[] col,
+		EdgeMode mode
+	)
+	{
+		PixelOps ops=PixelOps.get();
+		int[] xs=columnMap(
+			width,
+			row.length,
+			mode
+		);
+		int kh=col.length;
+		int ay=kh/2;
+		int span=width*4;
+		PixelAccess.forEachBand(
+			height,
+			(y0,y1)->{
+				// horizontal pass over the band and the rows the vertical pass hangs over
+				int rows=y1-y0+kh-1;
+				Scratch scratch=SCRATCH.get();
+				float[] mid=scratch.mid(rows*span);
+				float[] line=scratch.line(xs.length*4);
+				for(int r=0;r<rows;r++)
+				{
+					unpack(
+						ops,
+						src,
+						mode.resolve(
+							y0-ay+r,
+							height
+						)*width,
+						xs,
+						row.length/2,
+						width,
+						line
+					);
+					accumulateRow(
+						ops,
+						line,
+						xs.length,
+						row,
+						mid,
+						r*span,
+						width
+					);
+				}
+				// vertical pass, the planes of a row are laid out the same in mid and acc
+				float[] acc=scratch.acc(span);
+				for(int y=y0;y<y1;y++)
+				{
+					Arrays.fill(
+						acc,
+						0,
+						span,
+						0F
+					);
+					int base=(y-y0)*span;
+					for(int k=0;k<kh;k++)
+						if(col[k]!=0F)
+							ops.mac(
+								mid,
+								base+k*span,
+								col[k],
+								acc,
+								0,
+								span
+							);
+					ops.pack(
+						acc,
+						0,
+						width,
+						dst,
+						y*width,
+						width
+					);
+				}
+			}
+		);
+	}
+	
+	private static void convolveDense(
+		int[] src,int[] dst,int width,int height,float[][] kernel,
+		EdgeMode mode
+	)
+	{
+		PixelOps ops=PixelOps.get();
+		int kh=kernel.length;
+		int ay=kh/2;
+		int kw=kernel[0].length;
+		int[] xs=columnMap(
+			width,
+			kw,
+			mode
+		);
+		PixelAccess.forEachBand(
+			height,
+			(y0,y1)->{
+				Scratch scratch=SCRATCH.get();
+				float[] line=scratch.line(xs.length*4);
+				float[] acc=scratch.acc(width*4);
+				for(int y=y0;y<y1;y++)
+				{
+					Arrays.fill(
+						acc,
+						0,
+						width*4,
+						0F
+					);
+					for(int ky=0;ky<kh;ky++)
+					{
+						unpack(
+							ops,
+							src,
+							mode.resolve(
+								y+ky-ay,
+								height
+							)*width,
+							xs,
+							kw/2,
+							width,
+							line
+						);
+						macRow(
+							ops,
+							line,
+							xs.length,
+							kernel[ky],
+							acc,
+							0,
+							width
+						);
+					}
+					ops.pack(
+						acc,
+						0,
+						width,
+						dst,
+						y*width,
+						width
+					);
+				}
+			}
+		);
+	}
+	
+	/**
+	 * @return for every column {@code x} of the padded line, which column of the image to
+	 * sample
+	 */
+	static int[] columnMap(int width,int kw,EdgeMode mode)
+	{
+		int ax=kw/2;
+		int[] xs=new int[width+kw-1];
+		for(int i=0;i<xs.length;i++)
+			xs[i]=mode.resolve(
+				i-ax,
+				width
+			);
+		return xs;
+	}
+	
+	/**
+	 * Unpacks a row with its padding into four planes that are {@code xs.length} apart.
+	 * The middle of the line is contiguous in the image, only the padding is looked up.
+	 */
+	static void unpack(PixelOps ops,int[] src,int rowOffset,int[] xs,int ax,int width,float[] line)
+	{
+		ops.unpack(
+			src,
+			rowOffset,
+			line,
+			ax,
+			xs.length,
+			width
+		);
+		for(int i=0;i<xs.length;i++)
+			if(i<ax||i>=ax+width)
+				ops.unpack(
+					src,
+					rowOffset+xs[i],
+					line,
+					i,
+					xs.length,
+					1
+				);
+	}
+	
+	/**
+	 * {@code out[x]=sum(line[x+k]*weights[k])} for every plane, written starting at
+	 * {@code at} with planes {@code width} apart.
+	 */
+	static void accumulateRow(
+		PixelOps ops,float[] line,int lineStride,float[] weights,float[] out,int at,
+		int width
+	)
+	{
+		Arrays.fill(
+			out,
+			at,
+			at+width*4,
+			0F
+		);
+		macRow(
+			ops,
+			line,
+			lineStride,
+			weights,
+			out,
+			at,
+			width
+		);
+	}
+	
+	/**
+	 * {@code out[x]+=sum(line[x+k]*weights[k])} for every plane
+	 */
+	static void macRow(
+		PixelOps ops,float[] line,int lineStride,float[] weights,float[] out,int at,
+		int width
+	)
+	{
+		for(int c=0;c<4;c++)
+			for(int k=0;k<weights.length;k++)
+				if(weights[k]!=0F)
+					ops.mac(
+						line,
+						c*lineStride+k,
+						weights[k],
+						out,
+						at+c*width,
+						width
+					);
+	}
+	
+	/**
+	 * The arrays one worker convolves a band with. They only ever grow, up to
+	 * {@link #MAX_RETAINED_SCRATCH}, so they can be longer than what was asked for.
+	 */
+	private static final class Scratch
+	{
+		private float[] mid=new float[0];
+		private float[] line=new float[0];
+		private float[] acc=new float[0];
+		
+		float[] mid(int length)
+		{
+			if(mid.length>=length)
+				return mid;
+			float[] r=new float[length];
+			if(length<=MAX_RETAINED_SCRATCH)
+				mid=r;
+			return r;
+		}
+		
+		float[] line(int length)
+		{
+			if(line.length>=length)
+				return line;
+			float[] r=new float[length];
+			if(length<=MAX_RETAINED_SCRATCH)
+				line=r;
+			return r;
+		}
+		
+		float[] acc(int length)
+		{
+			if(acc.length>=length)
+				return acc;
+			float[] r=new float[length];
+			if(length<=MAX_RETAINED_SCRATCH)
+				acc=r;
+			return r;
+		}
+	}
+}
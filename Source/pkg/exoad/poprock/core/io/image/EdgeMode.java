@@ -0,0 +1,56 @@
+package pkg.exoad.poprock.core.io.image;
+
+/**
+ * How pixels outside of an image are sampled when a kernel hangs over its edges.
+ *
+ * @author Jack Meng
+ */
+public enum EdgeMode
+{
+	/**
+	 * Repeats the edge pixel: {@code a a a | a b c | c c c}
+	 */
+	CLAMP,
+	/**
+	 * Tiles the image: {@code a b c | a b c | a b c}
+	 */
+	WRAP,
+	/**
+	 * Reflects about the edge pixel without repeating it: {@code c b | a b c | b a}
+	 */
+	MIRROR;
+	
+	/**
+	 * @param i The coordinate, possibly outside of the image
+	 * @param n The size of the image along that axis
+	 *
+	 * @return The coordinate inside of the image that should be sampled instead
+	 */
+	public int resolve(int i,int n)
+	{
+		if(i>=0&&i<n)
+			return i;
+		switch(this)
+		{
+			case WRAP ->
+			{
+				int r=i%n;
+				return r<0?r+n:r;
+			}
+			case MIRROR ->
+			{
+				if(n==1)
+					return 0;
+				int period=2*n-2;
+				int r=i%period;
+				if(r<0)
+					r+=period;
+				return r<n?r:period-r;
+			}
+			default ->
+			{
+				return i<0?0:n-1;
+			}
+		}
+	}
+}
@@ -1,4 +1,5 @@
 package pkg.exoad.poprock.core.io.image;
+import pkg.exoad.poprock.core.Pair;
 import pkg.exoad.poprock.core.annotations.ServiceClass;
 
 import java.awt.image.BufferedImage;
@@ -8,6 +9,109 @@ public final class KernelService
 {
 	private KernelService(){}
 	
+	/**
+	 * Convolves a whole image with a kernel of any size. Prefer this over calling
+	 * {@link #convolveBufferedImageAt(BufferedImage,float[][],int,int)} per pixel.
+	 *
+	 * @param image The image
+	 * @param kernel The kernel as {@code kernel[row][column]}, for example one of
+	 * {@link Kernels}
+	 * @param mode How to sample outside of the image
+	 *
+	 * @return The convolved image
+	 *
+	 * @see ConvolutionEngine
+	 */
+	public static BufferedImage convolve(BufferedImage image,float[][] kernel,EdgeMode mode)
+	{
+		return ConvolutionEngine.convolve(
+			image,
+			kernel,
+			mode
+		);
+	}
+	
+	/**
+	 * Same as {@link #convolve(BufferedImage,float[][],EdgeMode)}, but with a square kernel
+	 * as generated by {@link ConvolveMatrix}.
+	 *
+	 * @param image The image
+	 * @param matrix The size of the kernel and the kernel flattened row after row
+	 * @param mode How to sample outside of the image
+	 *
+	 * @return The convolved image
+	 */
+	public static BufferedImage convolve(BufferedImage image,Pair<Integer,float[]> matrix,EdgeMode mode)
+	{
+		return ConvolutionEngine.convolve(
+			image,
+			toMatrix2D(
+				matrix.second(),
+				matrix.first()
+			),
+			mode
+		);
+	}
+	
+	/**
+	 * Box blurs an image in place in constant time per pixel, no matter the radius.
+	 *
+	 * @param image The image
+	 * @param radius The radius of the box
+	 *
+	 * @see BoxBlur
+	 */
+	public static void boxBlur(BufferedImage image,int radius)
+	{
+		BoxBlur.blur(
+			image,
+			radius,
+			radius,
+			EdgeMode.CLAMP
+		);
+	}
+	
+	/**
+	 * Approximates a Gaussian blur in place in constant time per pixel, no matter the
+	 * sigma.
+	 *
+	 * @param image The image
+	 * @param sigma The standard deviation of the Gaussian in pixels
+	 *
+	 * @see BoxBlur
+	 */
+	public static void gaussianBlur(BufferedImage image,float sigma)
+	{
+		BoxBlur.gaussian(
+			image,
+			sigma,
+			EdgeMode.CLAMP
+		);
+	}
+	
+	/**
+	 * Unflattens a square kernel stored row after row.
+	 *
+	 * @param matrix The kernel
+	 * @param size The width and height of the kernel
+	 *
+	 * @return The kernel as {@code kernel[row][column]}
+	 */
+	public static float[][] toMatrix2D(float[] matrix,int size)
+	{
+		assert matrix.length==size*size;
+		float[][] r=new float[size][size];
+		for(int i=0;i<size;i++)
+			System.arraycopy(
+				matrix,
+				i*size,
+				r[i],
+				0,
+				size
+			);
+		return r;
+	}
+	
 	public static int convolveBufferedImageAt(
 		BufferedImage image,float[][] kernel,int x,int y
 	)
@@ -0,0 +1,142 @@
+package pkg.exoad.poprock.core.io.image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Shared plumbing for pixel loops: getting at the backing array of an image and splitting
+ * rows (or runs of pixels) up across the fork-join pool.
+ *
+ * @author Jack Meng
+ */
+public final class PixelAccess
+{
+	/**
+	 * How many rows a single fork-join task handles at most
+	 */
+	public static final int BAND_ROWS=64;
+	
+	private PixelAccess(){}
+	
+	/**
+	 * @return Whether the image is one of the packed int ARGB/RGB types
+	 */
+	public static boolean isIntType(BufferedImage img)
+	{
+		int t=img.getType();
+		return t==BufferedImage.TYPE_INT_ARGB||t==BufferedImage.TYPE_INT_ARGB_PRE||t==BufferedImage.TYPE_INT_RGB;
+	}
+	
+	/**
+	 * Hands out the backing array of the image if every pixel of the image is laid out
+	 * one after the other in it (so not a {@link BufferedImage#getSubimage} view).
+	 *
+	 * @return The backing array or {@code null} if the image cannot be accessed directly
+	 */
+	public static int[] direct(BufferedImage img)
+	{
+		if(!isIntType(img))
+			return null;
+		Raster r=img.getRaster();
+		if(!(r.getDataBuffer() instanceof DataBufferInt buf)||buf.getNumBanks()!=1||buf.getOffset()!=0)
+			return null;
+		if(r.getSampleModelTranslateX()!=0||r.getSampleModelTranslateY()!=0)
+			return null;
+		if(!(r.getSampleModel() instanceof SinglePixelPackedSampleModel sm)||sm.getScanlineStride()!=img.getWidth())
+			return null;
+		int[] data=buf.getData();
+		return data.length==img.getWidth()*img.getHeight()?data:null;
+	}
+	
+	/**
+	 * Runs the action over {@code [0,height)} in bands of at most {@link #BAND_ROWS} rows,
+	 * in parallel if there is more than one band. Returns once every band is done.
+	 */
+	public static void forEachBand(int height,BandAction action)
+	{
+		forEachRange(
+			height,
+			BAND_ROWS,
+			action
+		);
+	}
+	
+	/**
+	 * Runs the action over {@code [0,n)} in ranges of at most {@code grain} items, in
+	 * parallel if there is more than one range. Returns once every range is done.
+	 */
+	public static void forEachRange(int n,int grain,BandAction action)
+	{
+		if(n<=grain)
+			action.run(
+				0,
+				n
+			);
+		else
+			ForkJoinPool
+				.commonPool()
+				.invoke(new BandTask(
+					0,
+					n,
+					grain,
+					action
+				));
+	}
+	
+	/**
+	 * A piece of work over the rows {@code [from,to)}
+	 */
+	@FunctionalInterface public interface BandAction
+	{
+		void run(int from,int to);
+	}
+	
+	private static final class BandTask
+		extends RecursiveAction
+	{
+		private static final long serialVersionUID=1L;
+		private final int from;
+		private final int to;
+		private final int grain;
+		private final BandAction action;
+		
+		BandTask(int from,int to,int grain,BandAction action)
+		{
+			this.from  =from;
+			this.to    =to;
+			this.grain =grain;
+			this.action=action;
+		}
+		
+		@Override protected void compute()
+		{
+			if(to-from<=grain)
+			{
+				action.run(
+					from,
+					to
+				);
+				return;
+			}
+			int mid=from+(to-from)/2;
+			invokeAll(
+				new BandTask(
+					from,
+					mid,
+					grain,
+					action
+				),
+				new BandTask(
+					mid,
+					to,
+					grain,
+					action
+				)
+			);
+		}
+	}
+}
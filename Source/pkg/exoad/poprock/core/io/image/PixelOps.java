@@ -0,0 +1,122 @@
+package pkg.exoad.poprock.core.io.image;
+
+import pkg.exoad.poprock.core.debug.DebugService;
+
+/**
+ * The per-pixel loops shared by the image code (channel unpacking and packing, the
+ * multiply-accumulate of convolutions and premultiplying).
+ * <p>
+ * There are two implementations and one is picked once, the first time this class is
+ * used:
+ * <ul>
+ *     <li>A SIMD one built on the Vector API ({@code jdk.incubator.vector}). It is only
+ *     used when the JVM was started with {@code --add-modules jdk.incubator.vector}.</li>
+ *     <li>A plain scalar one that is always available.</li>
+ * </ul>
+ * Both produce exactly the same results. The SIMD one can be turned off with
+ * {@code -D}{@value #DISABLE_PROPERTY}{@code =true}.
+ * <p>
+ * Channels are handled planar: an unpacked run of {@code n} pixels is four planes of
+ * {@code n} floats (alpha, red, green then blue) that are {@code stride} apart.
+ *
+ * @author Jack Meng
+ */
+public abstract class PixelOps
+{
+	/**
+	 * Set this system property to {@code true} to always use the scalar implementation
+	 */
+	public static final String DISABLE_PROPERTY="pkg.exoad.poprock.simd.disable";
+	private static final PixelOps INSTANCE=pick();
+	
+	PixelOps(){}
+	
+	private static PixelOps pick()
+	{
+		if(!Boolean.getBoolean(DISABLE_PROPERTY)&&ModuleLayer
+			.boot()
+			.findModule("jdk.incubator.vector")
+			.isPresent())
+		{
+			try
+			{
+				return (PixelOps)Class
+					.forName("pkg.exoad.poprock.core.io.image.VectorPixelOps")
+					.getDeclaredConstructor()
+					.newInstance();
+			}catch(ReflectiveOperationException|LinkageError e)
+			{
+				DebugService.warn("Could not load the SIMD pixel operations, using scalar ones: "+e);
+			}
+		}
+		return ScalarPixelOps.SHARED;
+	}
+	
+	/**
+	 * @return The implementation that was picked at startup
+	 */
+	public static PixelOps get()
+	{
+		return INSTANCE;
+	}
+	
+	/**
+	 * @return The scalar implementation, regardless of what was picked
+	 */
+	public static PixelOps scalar()
+	{
+		return ScalarPixelOps.SHARED;
+	}
+	
+	/**
+	 * @return Whether SIMD is being used
+	 */
+	public static boolean isAccelerated()
+	{
+		return !(INSTANCE instanceof ScalarPixelOps);
+	}
+	
+	/**
+	 * @return A short description of the implementation
+	 */
+	public abstract String describe();
+	
+	/**
+	 * Unpacks ARGB pixels into four planes of floats in {@code [0,255]}.
+	 *
+	 * @param src The pixels
+	 * @param srcAt The first pixel
+	 * @param dst Where the planes go
+	 * @param dstAt Where the alpha plane starts, red is at {@code dstAt+stride} and so on
+	 * @param stride The distance between two planes
+	 * @param n How many pixels
+	 */
+	public abstract void unpack(int[] src,int srcAt,float[] dst,int dstAt,int stride,int n);
+	
+	/**
+	 * Clamps to {@code [0,255]}, rounds and packs four planes of floats into ARGB pixels.
+	 *
+	 * @param src The planes
+	 * @param srcAt Where the alpha plane starts
+	 * @param stride The distance between two planes
+	 * @param dst Where the pixels go
+	 * @param dstAt The first pixel
+	 * @param n How many pixels
+	 */
+	public abstract void pack(float[] src,int srcAt,int stride,int[] dst,int dstAt,int n);
+	
+	/**
+	 * {@code dst[dstAt+i]+=src[srcAt+i]*weight} for {@code i<n}
+	 */
+	public abstract void mac(float[] src,int srcAt,float weight,float[] dst,int dstAt,int n);
+	
+	/**
+	 * Converts ARGB pixels to premultiplied ARGB in place.
+	 */
+	public abstract void premultiply(int[] px,int at,int n);
+	
+	@Override public String toString()
+	{
+		return "PixelOps["+describe()+"]";
+	}
+}
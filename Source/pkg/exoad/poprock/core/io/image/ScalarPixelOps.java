@@ -0,0 +1,79 @@
+package pkg.exoad.poprock.core.io.image;
+
+/**
+ * The plain implementation of {@link PixelOps}. {@link VectorPixelOps} has to produce
+ * exactly what this does, so the order of the float operations here matters.
+ *
+ * @author Jack Meng
+ */
+final class ScalarPixelOps
+	extends PixelOps
+{
+	static final ScalarPixelOps SHARED=new ScalarPixelOps();
+	
+	@Override public String describe()
+	{
+		return "scalar";
+	}
+	
+	/**
+	 * Rounds {@code x/255} to nearest for {@code x} in {@code [0,255*255]} without
+	 * dividing.
+	 */
+	static int div255(int x)
+	{
+		x+=128;
+		return (x+(x>>>8))>>>8;
+	}
+	
+	static int toChannel(float v)
+	{
+		return (int)(Math.min(
+			Math.max(
+				v,
+				0F
+			),
+			255F
+		)+0.5F);
+	}
+	
+	@Override public void unpack(int[] src,int srcAt,float[] dst,int dstAt,int stride,int n)
+	{
+		for(int i=0;i<n;i++)
+		{
+			int p=src[srcAt+i];
+			dst[dstAt+i]         =p>>>24;
+			dst[dstAt+stride+i]  =(p>>>16)&0xFF;
+			dst[dstAt+2*stride+i]=(p>>>8)&0xFF;
+			dst[dstAt+3*stride+i]=p&0xFF;
+		}
+	}
+	
+	@Override public void pack(float[] src,int srcAt,int stride,int[] dst,int dstAt,int n)
+	{
+		for(int i=0;i<n;i++)
+			dst[dstAt+i]=toChannel(src[srcAt+i])<<24
+						 |toChannel(src[srcAt+stride+i])<<16
+						 |toChannel(src[srcAt+2*stride+i])<<8
+						 |toChannel(src[srcAt+3*stride+i]);
+	}
+	
+	@Override public void mac(float[] src,int srcAt,float weight,float[] dst,int dstAt,int n)
+	{
+		for(int i=0;i<n;i++)
+			dst[dstAt+i]+=src[srcAt+i]*weight;
+	}
+	
+	@Override public void premultiply(int[] px,int at,int n)
+	{
+		for(int i=at;i<at+n;i++)
+		{
+			int p=px[i];
+			int a=p>>>24;
+			px[i]=a<<24
+				  |div255(((p>>>16)&0xFF)*a)<<16
+				  |div255(((p>>>8)&0xFF)*a)<<8
+				  |div255((p&0xFF)*a);
+		}
+	}
+}
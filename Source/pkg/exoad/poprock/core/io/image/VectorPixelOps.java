@@ -0,0 +1,277 @@
+package pkg.exoad.poprock.core.io.image;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The SIMD implementation of {@link PixelOps}. This is the only class that touches
+ * {@code jdk.incubator.vector} and it is only ever loaded reflectively by
+ * {@link PixelOps} once it knows the module is there. Whatever does not fill a whole
+ * vector at the end of a run is handed to {@link ScalarPixelOps}.
+ *
+ * @author Jack Meng
+ */
+final class VectorPixelOps
+	extends PixelOps
+{
+	// ints and floats are both 32 bits, so both species have the same number of lanes
+	private static final VectorSpecies<Integer> I=IntVector.SPECIES_PREFERRED;
+	private static final VectorSpecies<Float> F=FloatVector.SPECIES_PREFERRED;
+	private static final ScalarPixelOps TAIL=ScalarPixelOps.SHARED;
+	private static final float MAGIC=0x1p23F;
+	private static final int MAGIC_BITS=Float.floatToRawIntBits(MAGIC);
+	
+	VectorPixelOps()
+	{
+		if(I.length()!=F.length())
+			throw new LinkageError("Mismatched vector species: "+I+" "+F);
+	}
+	
+	@Override public String describe()
+	{
+		return "simd("+I.vectorBitSize()+" bits, "+I.length()+" lanes)";
+	}
+	
+	private static FloatVector channel(IntVector p,int shift)
+	{
+		return (FloatVector)p
+			.lanewise(
+				VectorOperators.LSHR,
+				shift
+			)
+			.and(0xFF)
+			.convert(
+				VectorOperators.I2F,
+				0
+			);
+	}
+	
+	/**
+	 * {@code (int)x} for {@code x} in {@code [0,2^23)}. The lane conversion from float to
+	 * int is not intrinsified on JDK 17, so this goes through the bits instead: adding
+	 * {@code 2^23} leaves the rounded integer in the low bits of the mantissa, and one is
+	 * taken off wherever that rounded up.
+	 */
+	private static IntVector truncate(FloatVector x)
+	{
+		FloatVector y=x.add(MAGIC);
+		return y
+			.sub(
+				1F,
+				y
+					.sub(MAGIC)
+					.compare(
+						VectorOperators.GT,
+						x
+					)
+			)
+			.reinterpretAsInts()
+			.sub(MAGIC_BITS);
+	}
+	
+	private static IntVector toChannel(FloatVector v)
+	{
+		return truncate(v
+							.max(0F)
+							.min(255F)
+							.add(0.5F));
+	}
+	
+	private static IntVector div255(IntVector x)
+	{
+		x=x.add(128);
+		return x
+			.add(x.lanewise(
+				VectorOperators.LSHR,
+				8
+			))
+			.lanewise(
+				VectorOperators.LSHR,
+				8
+			);
+	}
+	
+	private static IntVector combine(IntVector a,IntVector r,IntVector g,IntVector b)
+	{
+		return a
+			.lanewise(
+				VectorOperators.LSHL,
+				24
+			)
+			.or(r.lanewise(
+				VectorOperators.LSHL,
+				16
+			))
+			.or(g.lanewise(
+				VectorOperators.LSHL,
+				8
+			))
+			.or(b);
+	}
+	
+	@Override public void unpack(int[] src,int srcAt,float[] dst,int dstAt,int stride,int n)
+	{
+		int i=0;
+		for(int bound=I.loopBound(n);i<bound;i+=I.length())
+		{
+			IntVector p=IntVector.fromArray(
+				I,
+				src,
+				srcAt+i
+			);
+			channel(
+				p,
+				24
+			).intoArray(
+				dst,
+				dstAt+i
+			);
+			channel(
+				p,
+				16
+			).intoArray(
+				dst,
+				dstAt+stride+i
+			);
+			channel(
+				p,
+				8
+			).intoArray(
+				dst,
+				dstAt+2*stride+i
+			);
+			channel(
+				p,
+				0
+			).intoArray(
+				dst,
+				dstAt+3*stride+i
+			);
+		}
+		TAIL.unpack(
+			src,
+			srcAt+i,
+			dst,
+			dstAt+i,
+			stride,
+			n-i
+		);
+	}
+	
+	@Override public void pack(float[] src,int srcAt,int stride,int[] dst,int dstAt,int n)
+	{
+		int i=0;
+		for(int bound=F.loopBound(n);i<bound;i+=F.length())
+			combine(
+				toChannel(FloatVector.fromArray(
+					F,
+					src,
+					srcAt+i
+				)),
+				toChannel(FloatVector.fromArray(
+					F,
+					src,
+					srcAt+stride+i
+				)),
+				toChannel(FloatVector.fromArray(
+					F,
+					src,
+					srcAt+2*stride+i
+				)),
+				toChannel(FloatVector.fromArray(
+					F,
+					src,
+					srcAt+3*stride+i
+				))
+			).intoArray(
+				dst,
+				dstAt+i
+			);
+		TAIL.pack(
+			src,
+			srcAt+i,
+			stride,
+			dst,
+			dstAt+i,
+			n-i
+		);
+	}
+	
+	@Override public void mac(float[] src,int srcAt,float weight,float[] dst,int dstAt,int n)
+	{
+		int i=0;
+		// not fma, the scalar path rounds after the multiply too
+		for(int bound=F.loopBound(n);i<bound;i+=F.length())
+			FloatVector
+				.fromArray(
+					F,
+					src,
+					srcAt+i
+				)
+				.mul(weight)
+				.add(FloatVector.fromArray(
+					F,
+					dst,
+					dstAt+i
+				))
+				.intoArray(
+					dst,
+					dstAt+i
+				);
+		TAIL.mac(
+			src,
+			srcAt+i,
+			weight,
+			dst,
+			dstAt+i,
+			n-i
+		);
+	}
+	
+	@Override public void premultiply(int[] px,int at,int n)
+	{
+		int i=0;
+		for(int bound=I.loopBound(n);i<bound;i+=I.length())
+		{
+			IntVector p=IntVector.fromArray(
+				I,
+				px,
+				at+i
+			);
+			IntVector a=p.lanewise(
+				VectorOperators.LSHR,
+				24
+			);
+			combine(
+				a,
+				div255(p
+						   .lanewise(
+							   VectorOperators.LSHR,
+							   16
+						   )
+						   .and(0xFF)
+						   .mul(a)),
+				div255(p
+						   .lanewise(
+							   VectorOperators.LSHR,
+							   8
+						   )
+						   .and(0xFF)
+						   .mul(a)),
+				div255(p
+						   .and(0xFF)
+						   .mul(a))
+			).intoArray(
+				px,
+				at+i
+			);
+		}
+		TAIL.premultiply(
+			px,
+			at+i,
+			n-i
+		);
+	}
+}
@@ -1,13 +1,19 @@
 package pkg.exoad.poprock.core.mixins;
 
-import pkg.exoad.poprock.core.Shared;
 import pkg.exoad.poprock.core.annotations.NotVirtual;
 
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 public interface NamedObjMixin
 {
-	final HashMap<NamedObjMixin,Shared<String>> OBJECTS=new HashMap<>();
+	/**
+	 * The names of all named objects. The objects are held weakly so that naming one does
+	 * not keep it alive, while the names themselves are held strongly for as long as their
+	 * object is.
+	 */
+	final Map<NamedObjMixin,String> OBJECTS=Collections.synchronizedMap(new WeakHashMap<>());
 	
 	@NotVirtual public default NamedObjMixin withObjectName(String newName)
 	{
@@ -17,25 +23,15 @@ public interface NamedObjMixin
 	
 	@NotVirtual public default void setObjectName(String newName)
 	{
-		if(!OBJECTS
-			.containsKey(this))
-			OBJECTS
-				.put(
-					this,
-					Shared
-						.of(newName)
-				);
-		else
-			OBJECTS
-				.get(this)
-				.setValue(newName);
+		OBJECTS.put(
+			this,
+			newName
+		);
 	}
 	
 	@NotVirtual public default String getObjectName()
 	{
-		return OBJECTS
-			.containsKey(this)?OBJECTS
-			.get(this)
-			.getValue():"";
+		String name=OBJECTS.get(this);
+		return name==null?"":name;
 	}
 }
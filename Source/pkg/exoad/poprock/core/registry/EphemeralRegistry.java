@@ -1,15 +1,19 @@
 package pkg.exoad.poprock.core.registry;
 import pkg.exoad.poprock.core.BasicService;
 import pkg.exoad.poprock.core.Pair;
+import pkg.exoad.poprock.core.SnapshotStore;
 import pkg.exoad.poprock.core.annotations.VolatileImpl;
 import pkg.exoad.poprock.core.debug.DebugService;
 import pkg.exoad.poprock.core.debug.DebuggableMixin;
 import pkg.exoad.poprock.core.mixins.NamedObjMixin;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 /**
  * <h2>Ephemeral Registry</h2>
@@ -34,6 +38,14 @@ import java.util.function.Consumer;
  * basic object equality. If the current entry's value is already equal to
  * </p>
  * </p>
+ * <h3>Threading</h3>
+ * <p>
+ * A registry can be read from any thread (render and worker threads included) while
+ * entries are being registered. Names are validated and lowercased once when they are
+ * registered; looking up a name that is already lowercase goes straight to the backing
+ * {@link ConcurrentHashMap}. For hot paths, resolve a {@link RegistryKey} with
+ * {@link #keyOf(String)} once and read through it, which is a single volatile load.
+ * </p>
  */
 public final class EphemeralRegistry
 	extends BaseRegistry
@@ -58,9 +70,10 @@ public final class EphemeralRegistry
 		"!"
 	};
 	/**
-	 * The internal representation of all of the properties
+	 * The internal representation of all of the properties, keyed by their normalized
+	 * names
 	 */
-	private final HashMap<String,RegistryEntry> leaves;
+	private final ConcurrentHashMap<String,RegistryEntry> leaves;
 	
 	/**
 	 * Initiates a new Ephemeral Registry by using just the rootName
@@ -88,7 +101,11 @@ public final class EphemeralRegistry
 			loadFactor<=0,
 			"The load factor for the entry must be "+">0!"
 		);
-		leaves=new HashMap<>(entries==null?0:entries.length,loadFactor);
+		leaves=new ConcurrentHashMap<>(
+			entries==null?16:entries.length,
+			loadFactor
+		);
+		setObjectName(rootName);
 		if(entries!=null)
 		{
 			for(Pair<String,RegistryEntry> m: entries)
@@ -167,24 +184,127 @@ public final class EphemeralRegistry
 	)
 	{
 		name=assertLeafNameFormat(name);
-		THROW_NOW_IF(leaves.containsKey(name),"The supplied leaf "+
-											  "key of "+name+"was "+
-											  "already found in the registry!");
-		leaves.put(name,entry);
+		if(leaves.putIfAbsent(
+			name,
+			entry
+		)!=null)
+			THROW_NOW("The supplied leaf key of "+name+" was already found in the registry!");
 	}
 	
 	@VolatileImpl(reason="The supplied leaf was not found.") @Override protected RegistryEntry acquireEntry(
 		String leafName
 	)
 	{
+		// every key was validated when it was registered, so a hit needs no checking
+		RegistryEntry r=leaves.get(leafName);
+		if(r!=null)
+			return r;
 		String name=assertLeafNameFormat(leafName);
-		THROW_NOW_IF(
-			!leaves.containsKey(name),
-			"The supplied leaf key of "+name+" was not found in this "+
-			"registry!"
+		r=leaves.get(name);
+		if(r==null)
+			THROW_NOW("The supplied leaf key of "+name+" was not found in this registry!");
+		return r;
+	}
+	
+	/**
+	 * Resolves a name to a handle that reads the entry without looking it up again.
+	 *
+	 * @param name The name of the leaf
+	 *
+	 * @return The handle
+	 */
+	@VolatileImpl(reason="The supplied leaf was not found.") public RegistryKey keyOf(
+		String name
+	)
+	{
+		RegistryEntry r=acquireEntry(name);
+		return new RegistryKey(
+			this,
+			leaves.containsKey(name)?name:assertLeafNameFormat(name),
+			r
 		);
-		return leaves
-			.get(name);
+	}
+	
+	/**
+	 * Reads the value of an entry through a handle, a single volatile load.
+	 *
+	 * @param key A handle from {@link #keyOf(String)} of this registry
+	 *
+	 * @return The current value
+	 */
+	@VolatileImpl(reason="The key belongs to another registry.") public Object acquireEntryValue(
+		RegistryKey key
+	)
+	{
+		if(key.registry()!=this)
+			THROW_NOW("The key "+key+" does not belong to this registry!");
+		return key.entry.currentValue;
+	}
+	
+	/**
+	 * @param name The name of a leaf
+	 *
+	 * @return Whether a leaf of that name is registered, which a name that could never be
+	 * registered (null or with a character that is not allowed) is not
+	 */
+	public boolean hasEntry(String name)
+	{
+		if(name==null)
+			return false;
+		return leaves.containsKey(name)||!BasicService.strContains(
+			name,
+			NOT_ALLOWED_SEQUENCES
+		)&&leaves.containsKey(name.toLowerCase());
+	}
+	
+	/**
+	 * Writes the current value of every leaf into the store, under
+	 * {@code namespace+"/"+name}. Values that did not change since the last snapshot are
+	 * not written again.
+	 *
+	 * @param store The store
+	 * @param namespace What to put in front of the names of the leaves
+	 *
+	 * @throws IOException If the store could not be written
+	 */
+	public void snapshotTo(SnapshotStore store,String namespace)
+		throws IOException
+	{
+		HashMap<String,Object> r=new HashMap<>();
+		leaves.forEach((k,v)->r.put(
+			namespace+"/"+k,
+			v.currentValue
+		));
+		store.putAll(r);
+	}
+	
+	/**
+	 * Sets every leaf that has a value in the store (see
+	 * {@link #snapshotTo(SnapshotStore,String)}) to that value, through
+	 * {@link RegistryEntry#setCurrentValue(Object)} so the checks of the entries still
+	 * apply. Only the leaves registered here are looked up, but each of them is decoded
+	 * right away rather than on first access.
+	 *
+	 * @param store The store
+	 * @param namespace What was put in front of the names of the leaves
+	 *
+	 * @return How many leaves were found in the store
+	 */
+	public int restoreFrom(SnapshotStore store,String namespace)
+	{
+		int n=0;
+		for(Map.Entry<String,RegistryEntry> e: leaves.entrySet())
+		{
+			String key=namespace+"/"+e.getKey();
+			if(store.contains(key))
+			{
+				e
+					.getValue()
+					.setCurrentValue(store.get(key));
+				n++;
+			}
+		}
+		return n;
 	}
 	
 	@Override public Optional<Collection<Class<? extends RegistryEntry>>> inferTyping()
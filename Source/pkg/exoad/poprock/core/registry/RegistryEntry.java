@@ -11,7 +11,8 @@ import java.util.Optional;
 public abstract class RegistryEntry
 	implements Serializable
 {
-	protected Object currentValue;
+	// volatile so a value set on one thread is seen by every reader right away
+	protected volatile Object currentValue;
 	
 	/**
 	 * Most likely should be overriden as the default implement just returns
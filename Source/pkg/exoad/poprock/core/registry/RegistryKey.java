@@ -0,0 +1,54 @@
+package pkg.exoad.poprock.core.registry;
+/**
+ * A resolved handle to an entry of an {@link EphemeralRegistry}, made with
+ * {@link EphemeralRegistry#keyOf(String)}.
+ * <p>
+ * Looking an entry up by its name means normalizing the name and hashing it every time.
+ * A key has already done that and holds on to the entry itself, so reading the value
+ * through a key is just a single volatile load. Code that reads the same property over and
+ * over (painting, worker loops) should resolve a key once and keep it.
+ *
+ * @author Jack Meng
+ */
+public final class RegistryKey
+{
+	private final BaseRegistry registry;
+	private final String name;
+	final RegistryEntry entry;
+	
+	RegistryKey(BaseRegistry registry,String name,RegistryEntry entry)
+	{
+		this.registry=registry;
+		this.name    =name;
+		this.entry   =entry;
+	}
+	
+	/**
+	 * @return The registry the entry is in
+	 */
+	public BaseRegistry registry()
+	{
+		return registry;
+	}
+	
+	/**
+	 * @return The normalized name of the entry
+	 */
+	public String name()
+	{
+		return name;
+	}
+	
+	/**
+	 * @return The current value of the entry
+	 */
+	public Object value()
+	{
+		return entry.currentValue;
+	}
+	
+	@Override public String toString()
+	{
+		return "RegistryKey["+name+"]";
+	}
+}
@@ -1,6 +1,9 @@
 package pkg.exoad.poprock.core.registry;
 
+import pkg.exoad.poprock.core.AsyncService;
 import pkg.exoad.poprock.core.EventPoolService;
+import pkg.exoad.poprock.core.IDisposable;
+import pkg.exoad.poprock.core.SnapshotStore;
 import pkg.exoad.poprock.core.Services;
 import pkg.exoad.poprock.core.annotations.ServiceClass;
 import pkg.exoad.poprock.core.annotations.VolatileImpl;
@@ -8,7 +11,21 @@ import pkg.exoad.poprock.core.debug.DebugService;
 import pkg.exoad.poprock.core.debug.DebuggableMixin;
 import pkg.exoad.poprock.core.mixins.NamedObjMixin;
 
+import javax.swing.SwingUtilities;
+
+import java.io.IOException;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * <h2>Regsitry Services</h2>
@@ -26,9 +43,10 @@ public final class RegistryServices
 	 * Represents the entirety of the ephemeral registries stored in cache. (Singleton
 	 * pattern)
 	 */
-	private static final HashMap<Integer,EphemeralRegistry> OBJECTS=new HashMap<>();
-	private static final HashMap<Integer,BroadcastingRegistry> OBJECTS1=
-		new HashMap<>();
+	private static final ConcurrentHashMap<Integer,EphemeralRegistry> OBJECTS=
+		new ConcurrentHashMap<>();
+	private static final ConcurrentHashMap<Integer,BroadcastingRegistry> OBJECTS1=
+		new ConcurrentHashMap<>();
 	private static boolean armed=false;
 	
 	private RegistryServices()
@@ -68,17 +86,16 @@ public final class RegistryServices
 	)
 	{
 		DebugService.panicOn(
-			OBJECTS.containsKey(id),
+			OBJECTS.putIfAbsent(
+				id,
+				new EphemeralRegistry(
+					config.rootName(),
+					config.loadFactor(),
+					config.entries()
+				)
+			)!=null,
 			"Failed to register a new registry with id: "+id+" because it already exists!"
 		);
-		OBJECTS.put(
-			id,
-			new EphemeralRegistry(
-				config.rootName(),
-				config.loadFactor(),
-				config.entries()
-			)
-		);
 	}
 	
 	/**
@@ -95,17 +112,597 @@ public final class RegistryServices
 		int id
 	)
 	{
-		DebugService.panicOn(!OBJECTS.containsKey(id),"Failed to find a "+
-													  "registry with "+id);
-		return OBJECTS.get(id);
+		EphemeralRegistry r=OBJECTS.get(id);
+		if(r==null)
+			DebugService.panicNow("Failed to find a registry with "+id);
+		return r;
 	}
 	
-	// TODO: Finish impl
+	/**
+	 * Registers a registry as "Broadcasting", which tells its subscribers when its entries
+	 * change instead of making them poll.
+	 * <p>
+	 * If this function panics, it is 99% a source issue.
+	 *
+	 * @param id The id alloted to this registry in the cache pool. THIS MUST BE UNIQUE OR
+	 * ELSE THIS FUNCTION PANICKS!!
+	 * @param config The configuration of the entries, see
+	 * {@link EphemeralRegistry#makeConfig(String)}
+	 * @param tickMillis How long changes are gathered before they are sent out, or 0 to only
+	 * send them out on {@link BroadcastingRegistry#flush()}
+	 * @param delivery Where subscribers are called by default, such as
+	 * {@link BroadcastingRegistry#SYNCHRONOUS} or {@link BroadcastingRegistry#EDT}
+	 *
+	 * @see BroadcastingRegistry
+	 */
+	@VolatileImpl(reason="Supplied id already exists") public static void registerBroadcastingRegistry(
+		int id,EphemeralRegistry.EphemeralRegistryConfig config,long tickMillis,
+		Executor delivery
+	)
+	{
+		DebugService.panicOn(
+			tickMillis<0L,
+			"The tick of a broadcasting registry must be >=0, got "+tickMillis
+		);
+		DebugService.panicOn(
+			delivery==null,
+			"The delivery of a broadcasting registry cannot be null"
+		);
+		DebugService.panicOn(
+			OBJECTS1.putIfAbsent(
+				id,
+				new BroadcastingRegistry(
+					new EphemeralRegistry(
+						config.rootName(),
+						config.loadFactor(),
+						config.entries()
+					),
+					tickMillis,
+					delivery
+				)
+			)!=null,
+			"Failed to register a new registry with id: "+id+" because it already exists!"
+		);
+	}
+	
+	/**
+	 * Same as {@link #registerBroadcastingRegistry(int,EphemeralRegistry.EphemeralRegistryConfig,long,Executor)}
+	 * with a tick of {@link BroadcastingRegistry#DEFAULT_TICK_MILLIS} and subscribers called
+	 * synchronously on the thread that sends the changes out, which is a
+	 * {@link AsyncService.Tier#COMPUTE} thread for ticked flushes.
+	 */
+	@VolatileImpl(reason="Supplied id already exists") public static void registerBroadcastingRegistry(
+		int id,EphemeralRegistry.EphemeralRegistryConfig config
+	)
+	{
+		registerBroadcastingRegistry(
+			id,
+			config,
+			BroadcastingRegistry.DEFAULT_TICK_MILLIS,
+			BroadcastingRegistry.SYNCHRONOUS
+		);
+	}
+	
+	/**
+	 * Acquires the broadcasting registry found from the pool.
+	 *
+	 * @param id The id of the registry to look for
+	 *
+	 * @return The broadcasting registry that was found under the supplied ID
+	 */
+	@VolatileImpl(reason="Supplied id does not exist") public static BroadcastingRegistry getBroadcasting(
+		int id
+	)
+	{
+		BroadcastingRegistry r=OBJECTS1.get(id);
+		if(r==null)
+			DebugService.panicNow("Failed to find a registry with "+id);
+		return r;
+	}
+	
+	/**
+	 * <h2>Broadcasting Registry</h2>
+	 * A property store that tells whoever is interested when its entries change, so that
+	 * nothing has to poll {@link EphemeralRegistry#acquireEntryValue(String)} on a timer
+	 * to find out.
+	 * <p>
+	 * The entries themselves live in an {@link EphemeralRegistry}, with the same naming
+	 * rules and the same cheap reads (see {@link #keyOf(String)}). Values must be changed
+	 * through {@link #setEntryValue(RegistryKey,Object)} (or the name version) for
+	 * subscribers to hear about it; setting a value equal to the current one is not a
+	 * change.
+	 * </p>
+	 * <h3>Batching</h3>
+	 * <p>
+	 * Changes are not sent out one by one. A change marks its entry dirty and the first
+	 * change of a tick schedules a {@link #flush()} {@code tickMillis} later, which
+	 * {@link AsyncService#SCHEDULER} hands to the {@link AsyncService.Tier#COMPUTE} tier.
+	 * The flush hands every subscriber a single map of the
+	 * entries it is interested in that changed during the tick, with their latest values.
+	 * A hundred writes to a slider's value in one tick is one notification. When nothing
+	 * changes, nothing runs. With a tick of 0 nothing is scheduled and the owner calls
+	 * {@link #flush()} itself, for example once per frame.
+	 * </p>
+	 * <h3>Delivery</h3>
+	 * <p>
+	 * Each subscription has an {@link Executor} that its notifications are handed to:
+	 * {@link #SYNCHRONOUS} calls it right away on the flushing thread (a compute thread for
+	 * ticked flushes, so it should be short), {@link #EDT} on the Swing event dispatch
+	 * thread, and any other executor (for example {@link AsyncService#WORKER2}) works
+	 * too. No lock of the registry is held while subscribers are called.
+	 * </p>
+	 *
+	 * @author Jack Meng
+	 * @see RegistryServices#registerBroadcastingRegistry(int,EphemeralRegistry.EphemeralRegistryConfig,long,Executor)
+	 */
 	public static final class BroadcastingRegistry
 		implements DebuggableMixin,
 				   NamedObjMixin
 	{
-	
+		/**
+		 * About one frame at 60 frames per second
+		 */
+		public static final long DEFAULT_TICK_MILLIS=16L;
+		/**
+		 * Calls subscribers right away on the thread that flushes
+		 */
+		public static final Executor SYNCHRONOUS=Runnable::run;
+		/**
+		 * Calls subscribers on the Swing event dispatch thread
+		 */
+		public static final Executor EDT=SwingUtilities::invokeLater;
+		private final EphemeralRegistry store;
+		private final long tickMillis;
+		private final Executor delivery;
+		// normalized name -> entry, of everything changed since the last flush
+		private final ConcurrentHashMap<String,RegistryEntry> dirty;
+		private final AtomicBoolean scheduled;
+		private final ConcurrentHashMap<String,CopyOnWriteArrayList<Subscription>> exact;
+		private final CopyOnWriteArrayList<Subscription> prefixed;
+		// notifications gathered by a flush that have not been handed out yet
+		private final ConcurrentLinkedQueue<Runnable> outbox;
+		private final AtomicBoolean delivering;
+		
+		BroadcastingRegistry(EphemeralRegistry store,long tickMillis,Executor delivery)
+		{
+			this.store     =store;
+			this.tickMillis=tickMillis;
+			this.delivery  =delivery;
+			this.dirty     =new ConcurrentHashMap<>();
+			this.scheduled =new AtomicBoolean();
+			this.exact     =new ConcurrentHashMap<>();
+			this.prefixed  =new CopyOnWriteArrayList<>();
+			this.outbox    =new ConcurrentLinkedQueue<>();
+			this.delivering=new AtomicBoolean();
+		}
+		
+		/**
+		 * @param name The name of the leaf
+		 * @param entry The entry
+		 *
+		 * @see EphemeralRegistry#registerEntry(String,RegistryEntry)
+		 */
+		@VolatileImpl(reason="The supplied leaf was already registered.") public void registerEntry(
+			String name,RegistryEntry entry
+		)
+		{
+			store.registerEntry(
+				name,
+				entry
+			);
+		}
+		
+		/**
+		 * @see EphemeralRegistry#keyOf(String)
+		 */
+		@VolatileImpl(reason="The supplied leaf was not found.") public RegistryKey keyOf(
+			String name
+		)
+		{
+			return store.keyOf(name);
+		}
+		
+		/**
+		 * @see EphemeralRegistry#hasEntry(String)
+		 */
+		public boolean hasEntry(String name)
+		{
+			return store.hasEntry(name);
+		}
+		
+		/**
+		 * @see EphemeralRegistry#acquireEntryValue(String)
+		 */
+		@VolatileImpl(reason="The supplied leaf was not found.") public Object acquireEntryValue(
+			String name
+		)
+		{
+			return store.acquireEntryValue(name);
+		}
+		
+		/**
+		 * @see EphemeralRegistry#acquireEntryValue(RegistryKey)
+		 */
+		@VolatileImpl(reason="The key belongs to another registry.") public Object acquireEntryValue(
+			RegistryKey key
+		)
+		{
+			return store.acquireEntryValue(key);
+		}
+		
+		/**
+		 * Sets the value of an entry, going through its check.
+		 *
+		 * @param name The name of the leaf
+		 * @param value The new value
+		 *
+		 * @return Whether the value changed, and so whether subscribers will hear about it
+		 */
+		@VolatileImpl(reason="The supplied leaf was not found.") public boolean setEntryValue(
+			String name,Object value
+		)
+		{
+			return setEntryValue(
+				store.keyOf(name),
+				value
+			);
+		}
+		
+		/**
+		 * Sets the value of an entry, going through its check.
+		 *
+		 * @param key A handle from {@link #keyOf(String)} of this registry
+		 * @param value The new value
+		 *
+		 * @return Whether the value changed, and so whether subscribers will hear about it
+		 */
+		@VolatileImpl(reason="The key belongs to another registry.") public boolean setEntryValue(
+			RegistryKey key,Object value
+		)
+		{
+			if(key.registry()!=store)
+				THROW_NOW("The key "+key+" does not belong to this registry!");
+			RegistryEntry entry=key.entry;
+			Object before=entry.currentValue;
+			entry.setCurrentValue(value);
+			if(Objects.equals(
+				before,
+				entry.currentValue
+			))
+				return false;
+			dirty.put(
+				key.name(),
+				entry
+			);
+			if(tickMillis>0L&&scheduled.compareAndSet(
+				false,
+				true
+			))
+				// the scheduler only hands the flush off, subscribers never run on it
+				AsyncService.SCHEDULER.schedule(
+					()->AsyncService.runAsync(
+						AsyncService.Tier.COMPUTE,
+						this::flush
+					),
+					tickMillis,
+					TimeUnit.MILLISECONDS
+				);
+			return true;
+		}
+		
+		/**
+		 * @see EphemeralRegistry#snapshotTo(SnapshotStore,String)
+		 */
+		public void snapshotTo(SnapshotStore store,String namespace)
+			throws IOException
+		{
+			this.store.snapshotTo(
+				store,
+				namespace
+			);
+		}
+		
+		/**
+		 * Like {@link EphemeralRegistry#restoreFrom(SnapshotStore,String)}, but every
+		 * restored value that differs goes through {@link #setEntryValue(RegistryKey,Object)}
+		 * so subscribers hear about it.
+		 *
+		 * @return How many leaves were found in the store
+		 */
+		public int restoreFrom(SnapshotStore store,String namespace)
+		{
+			int[] n={0};
+			this.store.forEach(k->{
+				String key=namespace+"/"+k;
+				if(store.contains(key))
+				{
+					setEntryValue(
+						this.store.keyOf((String)k),
+						store.get(key)
+					);
+					n[0]++;
+				}
+			});
+			return n[0];
+		}
+		
+		/**
+		 * Subscribes to the changes of one entry, delivered the default way of this
+		 * registry.
+		 *
+		 * @param name The name of the leaf, which must be registered
+		 * @param listener Gets the changes
+		 *
+		 * @return The subscription, dispose it to stop listening
+		 */
+		@VolatileImpl(reason="The supplied leaf was not found.") public Subscription subscribe(
+			String name,ChangeListener listener
+		)
+		{
+			return subscribe(
+				name,
+				listener,
+				delivery
+			);
+		}
+		
+		/**
+		 * Subscribes to the changes of one entry.
+		 *
+		 * @param name The name of the leaf, which must be registered
+		 * @param listener Gets the changes
+		 * @param delivery Where the listener is called
+		 *
+		 * @return The subscription, dispose it to stop listening
+		 */
+		@VolatileImpl(reason="The supplied leaf was not found.") public Subscription subscribe(
+			String name,ChangeListener listener,Executor delivery
+		)
+		{
+			THROW_NOW_IF(
+				listener==null||delivery==null,
+				"The listener and the delivery cannot be null"
+			);
+			String key=store
+				.keyOf(name)
+				.name();
+			Subscription s=new Subscription(
+				key,
+				false,
+				listener,
+				delivery
+			);
+			exact
+				.computeIfAbsent(
+					key,
+					k->new CopyOnWriteArrayList<>()
+				)
+				.add(s);
+			return s;
+		}
+		
+		/**
+		 * Subscribes to the changes of every entry whose name starts with the prefix (the
+		 * entries do not have to be registered yet), delivered the default way of this
+		 * registry.
+		 *
+		 * @param prefix The start of the names, where "" means every entry
+		 * @param listener Gets the changes
+		 *
+		 * @return The subscription, dispose it to stop listening
+		 */
+		public Subscription subscribePrefix(String prefix,ChangeListener listener)
+		{
+			return subscribePrefix(
+				prefix,
+				listener,
+				delivery
+			);
+		}
+		
+		/**
+		 * Subscribes to the changes of every entry whose name starts with the prefix (the
+		 * entries do not have to be registered yet).
+		 *
+		 * @param prefix The start of the names, where "" means every entry
+		 * @param listener Gets the changes
+		 * @param delivery Where the listener is called
+		 *
+		 * @return The subscription, dispose it to stop listening
+		 */
+		public Subscription subscribePrefix(
+			String prefix,ChangeListener listener,Executor delivery
+		)
+		{
+			THROW_NOW_IF(
+				prefix==null||listener==null||delivery==null,
+				"The prefix, the listener and the delivery cannot be null"
+			);
+			// names are lowercased when they are registered
+			Subscription s=new Subscription(
+				prefix.toLowerCase(),
+				true,
+				listener,
+				delivery
+			);
+			prefixed.add(s);
+			return s;
+		}
+		
+		/**
+		 * Sends out every change since the last flush, one notification per subscriber.
+		 * Called on its own every tick when the tick is not 0, but can be called at any
+		 * time (also from a subscriber).
+		 * <p>
+		 * The notifications are gathered under this registry's lock but handed out after it
+		 * is released, in the order they were gathered. When another flush is already
+		 * handing out notifications, that one hands out these as well and this returns
+		 * right away.
+		 *
+		 * @return How many subscribers were notified
+		 */
+		public int flush()
+		{
+			int n=gather();
+			// one thread hands out at a time so notifications keep their order
+			while(!outbox.isEmpty()&&delivering.compareAndSet(
+				false,
+				true
+			))
+			{
+				try
+				{
+					Runnable r;
+					while((r=outbox.poll())!=null)
+						r.run();
+				}finally
+				{
+					delivering.set(false);
+				}
+			}
+			return n;
+		}
+		
+		private synchronized int gather()
+		{
+			// anything changed from here on schedules the next tick
+			scheduled.set(false);
+			if(dirty.isEmpty())
+				return 0;
+			HashMap<String,Object> changed=new HashMap<>();
+			for(Iterator<Map.Entry<String,RegistryEntry>> it=dirty
+				.entrySet()
+				.iterator();it.hasNext();)
+			{
+				Map.Entry<String,RegistryEntry> e=it.next();
+				it.remove();
+				// read after the removal so a write racing with it is not lost
+				changed.put(
+					e.getKey(),
+					e.getValue().currentValue
+				);
+			}
+			IdentityHashMap<Subscription,HashMap<String,Object>> batches=new IdentityHashMap<>();
+			for(Map.Entry<String,Object> e: changed.entrySet())
+			{
+				CopyOnWriteArrayList<Subscription> subs=exact.get(e.getKey());
+				if(subs!=null)
+					for(Subscription s: subs)
+						batches
+							.computeIfAbsent(
+								s,
+								k->new HashMap<>()
+							)
+							.put(
+								e.getKey(),
+								e.getValue()
+							);
+				for(Subscription s: prefixed)
+					if(e
+						.getKey()
+						.startsWith(s.pattern))
+						batches
+							.computeIfAbsent(
+								s,
+								k->new HashMap<>()
+							)
+							.put(
+								e.getKey(),
+								e.getValue()
+							);
+			}
+			batches.forEach((s,m)->outbox.add(()->s.deliver(Collections.unmodifiableMap(m))));
+			return batches.size();
+		}
+		
+		/**
+		 * @return How long changes are gathered before they are sent out, 0 if only on
+		 * {@link #flush()}
+		 */
+		public long tickMillis()
+		{
+			return tickMillis;
+		}
+		
+		/**
+		 * Gets the changes of a tick
+		 *
+		 * @author Jack Meng
+		 */
+		@FunctionalInterface public interface ChangeListener
+		{
+			/**
+			 * @param changes The normalized names of the entries that changed mapped to
+			 * their latest values (which can be null)
+			 */
+			void onChanged(Map<String,Object> changes);
+		}
+		
+		/**
+		 * A listener attached to a {@link BroadcastingRegistry}. Disposing it detaches the
+		 * listener; a notification that was already handed to its executor is dropped.
+		 *
+		 * @author Jack Meng
+		 */
+		public final class Subscription
+			implements IDisposable
+		{
+			private final String pattern;
+			private final boolean prefix;
+			private final ChangeListener listener;
+			private final Executor delivery;
+			private volatile boolean active;
+			
+			private Subscription(
+				String pattern,boolean prefix,ChangeListener listener,Executor delivery
+			)
+			{
+				this.pattern =pattern;
+				this.prefix  =prefix;
+				this.listener=listener;
+				this.delivery=delivery;
+				this.active  =true;
+			}
+			
+			/**
+			 * @return Whether this still gets changes
+			 */
+			public boolean isActive()
+			{
+				return active;
+			}
+			
+			@Override public void dispose()
+			{
+				active=false;
+				if(prefix)
+					prefixed.remove(this);
+				else
+				{
+					CopyOnWriteArrayList<Subscription> subs=exact.get(pattern);
+					if(subs!=null)
+						subs.remove(this);
+				}
+			}
+			
+			private void deliver(Map<String,Object> changes)
+			{
+				delivery.execute(()->{
+					if(!active)
+						return;
+					try
+					{
+						listener.onChanged(changes);
+					}catch(RuntimeException e)
+					{
+						DebugService.log(
+							DebugService.LogLevel.WARN,
+							"A subscriber of "+pattern+(prefix?"*":"")+" threw "+e
+						);
+					}
+				});
+			}
+		}
 	}
 	
 	// TODO: Finish impl
@@ -113,7 +710,7 @@ public final class RegistryServices
 		implements DebuggableMixin,
 				   NamedObjMixin
 	{
-	
+		
 	}
 	
 	// TODO: Finish impl
@@ -1,12 +1,10 @@
 package pkg.exoad.poprock.core.registry;
+import pkg.exoad.poprock.core.WeakPool;
 import pkg.exoad.poprock.core.annotations.VolatileImpl;
 import pkg.exoad.poprock.core.debug.DebugService;
 import pkg.exoad.poprock.core.debug.DebuggableMixin;
 import pkg.exoad.poprock.core.mixins.NamedObjMixin;
 
-import java.lang.ref.WeakReference;
-import java.util.HashMap;
-import java.util.Objects;
 import java.util.UUID;
 import java.util.function.Consumer;
 /**
@@ -18,6 +16,10 @@ import java.util.function.Consumer;
  * If the entry has been accessed at least once, it is purely up to when the next GC phase
  * until that entry disappears.
  * </p>
+ * <p>
+ * Once an entry has been collected its leaf is forgotten as well (see {@link WeakPool}),
+ * so a registry that outlives many of its entries does not keep growing.
+ * </p>
  * <h2>THIS IS A WORK IN PROGRESS</h2>
  *
  * @author Jack Meng
@@ -27,12 +29,12 @@ public final class WeakRegistry
 	implements DebuggableMixin,
 			   NamedObjMixin
 {
-	private final transient HashMap<Long,WeakReference<RegistryEntry>> leafs;
+	private final transient WeakPool<RegistryEntry> leafs;
 	
 	public WeakRegistry(String rootName)
 	{
 		setObjectName(rootName);
-		leafs=new HashMap<>();
+		leafs=new WeakPool<>("WeakRegistry:"+rootName);
 	}
 	
 	@Override public synchronized void registerEntry(
@@ -42,18 +44,13 @@ public final class WeakRegistry
 		long id=UUID
 			.fromString(name)
 			.getLeastSignificantBits();
-		THROW_NOW_IF(leafs.containsKey(id)&&leafs
-						 .get(id)
-						 .refersTo(entry)
-			,"The supplied entry was found to be bound to the same object"+
-			 " reference ["+((entry.hashCode()<<31)&0xFF)+" clashes with "+((Objects
-																				 .requireNonNull(
-																					 leafs
-																						 .get(
-																							 id)
-																						 .get())
-																				 .hashCode())&0xFF)+"]");
-		leafs.put(id,new WeakReference<>(entry));
+		if(leafs.get(id)==entry)
+			THROW_NOW("The supplied entry was found to be bound to the same object"+
+					  " reference ["+((entry.hashCode()<<31)&0xFF)+"]");
+		leafs.put(
+			id,
+			entry
+		);
 	}
 	
 	@Override protected RegistryEntry acquireEntry(final String name)
@@ -66,30 +63,41 @@ public final class WeakRegistry
 	@VolatileImpl(
 		reason="The computed hash of the name can be "+
 			   "nonexistent"
-	) @Override public synchronized Object acquireEntryValue(String name)
+	) @Override public Object acquireEntryValue(String name)
 	{
-		long id=UUID
-			.fromString(name)
-			.getLeastSignificantBits();
-		THROW_NOW_IF(
-			!leafs.containsKey(id),
-			"The supplied name "+name+
-			"does not exist in this "+
-			"registry!"
-		);
-		return leafs
-			.get(id)
-			.get();
+		RegistryEntry entry=leafs.get(UUID
+										  .fromString(name)
+										  .getLeastSignificantBits());
+		if(entry==null)
+			THROW_NOW("The supplied name "+name+
+					  " does not exist in this "+
+					  "registry!");
+		return entry.currentValue;
 	}
 	
+	/**
+	 * Hands every entry that has not been collected yet to the consumer
+	 */
 	@Override protected void forEach(final Consumer<Object> e)
 	{
-	
+		leafs.forEach(e);
 	}
 	
+	/**
+	 * @param name The id of a leaf, the least significant bits of its UUID name
+	 *
+	 * @return Whether an entry that has not been collected yet is bound to it
+	 */
 	public boolean isBound(long name)
 	{
-		return true;
-		// no impl
+		return leafs.contains(name);
+	}
+	
+	/**
+	 * @return How big this registry is right now
+	 */
+	public WeakPool.Gauge gauge()
+	{
+		return leafs.gauge();
 	}
-}
\ No newline at end of file
+}
@@ -9,6 +9,11 @@ import java.util.zip.ZipFile;
 public final class Txfyr
 {
 	public static final long VERSION=2024_01_01L;
+	/**
+	 * The version of the compiled binary layout (".txfb"), see {@link TxfyrBinary}. This is
+	 * bumped whenever the layout changes, separately from {@link #VERSION}.
+	 */
+	public static final int BINARY_VERSION=1;
 	public static final String[] ALLOWED_FILE_TYPES_EXTENSIONS=new String[]{"png","jpg","jpeg"};
 	
 	private Txfyr(){}
@@ -49,6 +54,11 @@ public final class Txfyr
 		return ".txfyr";
 	}
 	
+	public static String getBinaryFileExtension()
+	{
+		return ".txfb";
+	}
+	
 	public enum TxfyrValidityReason
 	{
 		INCORRECT_FILE_EXTENSION,
@@ -0,0 +1,475 @@
+package pkg.exoad.poprock.core.txfyr;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import pkg.exoad.poprock.core.IDisposable;
+import pkg.exoad.poprock.core.debug.DebugService;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * An indexed, open Txfyr package. Opening one only reads the package's central directory
+ * and the cluster identifier; the texture the shards point into is not touched until a
+ * shard is actually needed.
+ * <p>
+ * Shards can be fetched in two ways:
+ * <ul>
+ *     <li>{@link #view(String)} - decodes the texture once and hands out
+ *     {@link BufferedImage#getSubimage(int,int,int,int)} views that share that single
+ *     raster. Best when many shards of the same cluster are drawn.</li>
+ *     <li>{@link #readRegion(String)} - decodes only the shard's sub-rectangle without
+ *     keeping the texture around. Best when only a few shards of a large texture are
+ *     needed.</li>
+ * </ul>
+ * An archive holds the package open until {@link #dispose()} is called.
+ *
+ * @author Jack Meng
+ * @see TxfyrReader#openIndexed(String)
+ */
+public final class TxfyrArchive
+	implements IDisposable,
+			   Iterable<TxfyrShard>
+{
+	private static final XMLInputFactory XML=XMLInputFactory.newFactory();
+	public final String path;
+	public final String name;
+	public final int width;
+	public final int height;
+	public final String target;
+	private final LinkedHashMap<String,TxfyrShard> shards;
+	private final ConcurrentHashMap<String,BufferedImage> views;
+	private final ZipFile zip;
+	private final long modified;
+	private final long length;
+	private volatile BufferedImage atlas;
+	private volatile boolean disposed;
+	
+	private TxfyrArchive(
+		String path,ZipFile zip,long modified,long length,String name,int width,int height,
+		String target,LinkedHashMap<String,TxfyrShard> shards
+	)
+	{
+		this.path    =path;
+		this.zip     =zip;
+		this.modified=modified;
+		this.length  =length;
+		this.name    =name;
+		this.width   =width;
+		this.height  =height;
+		this.target  =target;
+		this.shards  =shards;
+		views        =new ConcurrentHashMap<>();
+	}
+	
+	/**
+	 * Reads the central directory and the cluster identifier of a package. The package is
+	 * left open for the returned archive.
+	 */
+	static TxfyrArchive index(String path)
+		throws IOException, XMLStreamException
+	{
+		File file=new File(path);
+		long modified=file.lastModified();
+		long length=file.length();
+		ZipFile zip=new ZipFile(path);
+		try
+		{
+			Iterator<? extends ZipEntry> it=zip
+				.entries()
+				.asIterator();
+			while(it.hasNext())
+			{
+				ZipEntry entry=it.next();
+				if(!entry.isDirectory()&&entry
+					.getName()
+					.endsWith(Txfyr.getIdentifierFileExtension()))
+				{
+					try(InputStream in=zip.getInputStream(entry))
+					{
+						TxfyrArchive r=parse(
+							path,
+							zip,
+							modified,
+							length,
+							in
+						);
+						if(zip.getEntry(r.target)==null)
+							DebugService.panicWith(new FileNotFoundException(
+								"Could not find cluster texture target: "+r.target+" for cluster: "+r.name));
+						return r;
+					}
+				}
+			}
+			throw new FileNotFoundException("No txfyr identifier found in: "+path);
+		}catch(IOException|XMLStreamException|RuntimeException e)
+		{
+			zip.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Streams through the identifier instead of building a DOM as only a handful of
+	 * elements are ever looked at.
+	 */
+	private static TxfyrArchive parse(String path,ZipFile zip,long modified,long length,InputStream in)
+		throws XMLStreamException
+	{
+		XMLStreamReader xml=XML.createXMLStreamReader(in);
+		try
+		{
+			String name=null;
+			String target=null;
+			int width=-1;
+			int height=-1;
+			LinkedHashMap<String,TxfyrShard> shards=new LinkedHashMap<>();
+			while(xml.hasNext())
+			{
+				if(xml.next()!=XMLStreamConstants.START_ELEMENT)
+					continue;
+				switch(xml.getLocalName())
+				{
+					case "Cluster" -> DebugService.panicOn(
+						!Long
+							.toString(Txfyr.VERSION)
+							.equals(xml.getAttributeValue(
+								null,
+								"Version"
+							)),
+						"A txfyr cluster identifier was found to have an incompatible version! Got: "+xml.getAttributeValue(
+							null,
+							"Version"
+						)+" Required: "+Txfyr.VERSION
+					);
+					case "Name" -> name=xml
+						.getElementText()
+						.replaceAll(
+							"\\s+",
+							""
+						);
+					case "Width" -> width=Integer.parseInt(xml
+						.getElementText()
+						.trim());
+					case "Height" -> height=Integer.parseInt(xml
+						.getElementText()
+						.trim());
+					case "Target" -> target=xml
+						.getElementText()
+						.trim();
+					case "ShardEntry" ->
+					{
+						TxfyrShard shard=new TxfyrShard(
+							xml.getAttributeValue(
+								null,
+								"Name"
+							),
+							Integer.parseInt(xml.getAttributeValue(
+								null,
+								"X"
+							)),
+							Integer.parseInt(xml.getAttributeValue(
+								null,
+								"Y"
+							)),
+							Integer.parseInt(xml.getAttributeValue(
+								null,
+								"Width"
+							)),
+							Integer.parseInt(xml.getAttributeValue(
+								null,
+								"Height"
+							))
+						);
+						shards.put(
+							shard.key(),
+							shard
+						);
+					}
+					default ->
+					{
+					}
+				}
+			}
+			DebugService.panicOn(
+				name==null||target==null||width<=0||height<=0,
+				"The txfyr identifier in "+path+" is missing its Model (Name, Width, Height, Target)"
+			);
+			return new TxfyrArchive(
+				path,
+				zip,
+				modified,
+				length,
+				name,
+				width,
+				height,
+				target,
+				shards
+			);
+		}finally
+		{
+			xml.close();
+		}
+	}
+	
+	private void assertOpen()
+	{
+		DebugService.panicOn(
+			disposed,
+			"The txfyr archive "+path+" has already been disposed"
+		);
+	}
+	
+	/**
+	 * @return Whether this archive has been disposed or the package has been changed on
+	 * disk since it was indexed
+	 */
+	public boolean isStale()
+	{
+		if(disposed)
+			return true;
+		File file=new File(path);
+		return file.lastModified()!=modified||file.length()!=length;
+	}
+	
+	/**
+	 * @param key The name of the shard
+	 *
+	 * @return The shard if it is in this cluster
+	 */
+	public Optional<TxfyrShard> shard(String key)
+	{
+		return Optional.ofNullable(shards.get(key));
+	}
+	
+	/**
+	 * @return All of the shards in the order they were declared
+	 */
+	public Collection<TxfyrShard> shards()
+	{
+		return Collections.unmodifiableCollection(shards.values());
+	}
+	
+	public int shardCount()
+	{
+		return shards.size();
+	}
+	
+	/**
+	 * @return Whether the whole texture has been decoded and is being held
+	 */
+	public boolean isAtlasDecoded()
+	{
+		return atlas!=null;
+	}
+	
+	/**
+	 * Decodes the texture if it has not been already.
+	 *
+	 * @return The whole texture shared by all of the shard views
+	 */
+	public BufferedImage atlas()
+	{
+		BufferedImage r=atlas;
+		if(r==null)
+		{
+			synchronized(this)
+			{
+				r=atlas;
+				if(r==null)
+				{
+					assertOpen();
+					try(InputStream in=zip.getInputStream(zip.getEntry(target)))
+					{
+						r=ImageIO.read(in);
+					}catch(IOException e)
+					{
+						DebugService.panicWith(e);
+						return null;
+					}
+					DebugService.panicOn(
+						r==null,
+						"The target for cluster: "+name+" ("+target+") could not be decoded"
+					);
+					DebugService.panicOn(
+						height>r.getHeight(),
+						"The target for cluster: "+name+" has a height specification("+height+") that exceeds the target texture's height("+r.getHeight()+")"
+					);
+					DebugService.panicOn(
+						width>r.getWidth(),
+						"The target for cluster: "+name+" has a width specification("+width+") that exceeds the target texture's width("+r.getWidth()+")"
+					);
+					atlas=r;
+				}
+			}
+		}
+		return r;
+	}
+	
+	/**
+	 * Hands out a view of the shard that shares the raster of {@link #atlas()}, so
+	 * drawing to it draws to the atlas. Views are created once per shard.
+	 *
+	 * @param key The name of the shard
+	 *
+	 * @return The view or {@code null} if the shard does not exist
+	 */
+	public BufferedImage view(String key)
+	{
+		TxfyrShard s=shards.get(key);
+		if(s==null)
+			return null;
+		return views.computeIfAbsent(
+			key,
+			x->atlas().getSubimage(
+				s.x(),
+				s.y(),
+				s.width(),
+				s.height()
+			)
+		);
+	}
+	
+	/**
+	 * Decodes only the shard's sub-rectangle from the package. Nothing is cached and the
+	 * rest of the texture is never held in memory. If the texture has already been
+	 * decoded, this just copies out of it instead.
+	 *
+	 * @param key The name of the shard
+	 *
+	 * @return A new image of the shard or {@code null} if the shard does not exist
+	 */
+	public BufferedImage readRegion(String key)
+	{
+		TxfyrShard s=shards.get(key);
+		if(s==null)
+			return null;
+		Rectangle region=new Rectangle(
+			s.x(),
+			s.y(),
+			s.width(),
+			s.height()
+		);
+		BufferedImage decoded=atlas;
+		if(decoded!=null)
+		{
+			BufferedImage r=new BufferedImage(
+				s.width(),
+				s.height(),
+				BufferedImage.TYPE_INT_ARGB
+			);
+			Graphics2D g=r.createGraphics();
+			g.drawImage(
+				decoded.getSubimage(
+					region.x,
+					region.y,
+					region.width,
+					region.height
+				),
+				0,
+				0,
+				null
+			);
+			g.dispose();
+			return r;
+		}
+		assertOpen();
+		try(
+			InputStream in=zip.getInputStream(zip.getEntry(target));
+			ImageInputStream iis=ImageIO.createImageInputStream(in)
+		)
+		{
+			Iterator<ImageReader> readers=ImageIO.getImageReaders(iis);
+			DebugService.panicOn(
+				!readers.hasNext(),
+				"No image reader found for the target of cluster: "+name+" ("+target+")"
+			);
+			ImageReader reader=readers.next();
+			try
+			{
+				reader.setInput(
+					iis,
+					true,
+					true
+				);
+				ImageReadParam param=reader.getDefaultReadParam();
+				param.setSourceRegion(region);
+				return reader.read(
+					0,
+					param
+				);
+			}finally
+			{
+				reader.dispose();
+			}
+		}catch(IOException e)
+		{
+			DebugService.panicWith(e);
+			return null;
+		}
+	}
+	
+	/**
+	 * Decodes the texture and creates a regular cluster out of this archive.
+	 *
+	 * @return The cluster
+	 */
+	public TxfyrCluster toCluster()
+	{
+		return new TxfyrCluster(
+			name,
+			width,
+			height,
+			atlas(),
+			shards.values()
+		);
+	}
+	
+	@Override public Iterator<TxfyrShard> iterator()
+	{
+		return shards()
+			.iterator();
+	}
+	
+	/**
+	 * Closes the package. Views and the atlas that were already handed out stay valid.
+	 */
+	@Override public void dispose()
+	{
+		if(disposed)
+			return;
+		disposed=true;
+		views.clear();
+		TxfyrReader.forget(this);
+		try
+		{
+			zip.close();
+		}catch(IOException e)
+		{
+			DebugService.warn("Failed to close txfyr archive "+path+": "+e.getMessage());
+		}
+	}
+	
+	@Override public String toString()
+	{
+		return "TxfyrArchive[path="+path+",name="+name+",width="+width+",height="+height+",target="+target+",shards="+shards.size()+",atlasDecoded="+isAtlasDecoded()+"]";
+	}
+}
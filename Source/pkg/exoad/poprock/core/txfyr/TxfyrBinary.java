@@ -0,0 +1,368 @@
+package pkg.exoad.poprock.core.txfyr;
+
+import pkg.exoad.poprock.core.debug.DebugService;
+import pkg.exoad.poprock.core.io.image.PixelOps;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Optional;
+
+/**
+ * The compiled binary form of a Txfyr package (".txfb"). Loading one is just mapping the
+ * file and copying out of it; there is no XML to parse and no ImageIO decoding when the
+ * pixels are embedded.
+ * <p>
+ * <h3>Layout</h3>
+ * Everything is big endian. The header is {@link #HEADER_SIZE} bytes:
+ * <pre>
+ * 0   int  magic ("TXFB")
+ * 4   int  {@link Txfyr#BINARY_VERSION}
+ * 8   long {@link Txfyr#VERSION} of the package it was compiled from
+ * 16  int  flags ({@link #FLAG_PIXELS})
+ * 20  int  cluster width
+ * 24  int  cluster height
+ * 28  int  shard count
+ * 32  int  cluster name offset, 36 int cluster name length
+ * 40  int  target name offset,  44 int target name length
+ * 48  int  atlas width
+ * 52  int  atlas height
+ * 56  long pixel offset (0 if there are no pixels)
+ * </pre>
+ * Followed by the shard table of fixed width {@link #SHARD_RECORD_SIZE} byte records
+ * ({@code nameOffset, nameLength, x, y, width, height} as ints), the UTF-8 string table
+ * the offsets point into and finally, if {@link #FLAG_PIXELS} is set, the atlas as
+ * premultiplied ARGB ints aligned to 8 bytes.
+ * <p>
+ * When the pixels are not embedded, the texture is read from the package that sits next
+ * to the binary.
+ *
+ * @author Jack Meng
+ * @see TxfyrReader#exportAllShards(String)
+ */
+public final class TxfyrBinary
+{
+	public static final int MAGIC=0x54584642;
+	public static final int HEADER_SIZE=64;
+	public static final int SHARD_RECORD_SIZE=24;
+	/**
+	 * Set when the atlas is embedded as premultiplied ARGB
+	 */
+	public static final int FLAG_PIXELS=1;
+	
+	private TxfyrBinary(){}
+	
+	/**
+	 * @param packagePath The path to a ".txf" package
+	 *
+	 * @return Where the compiled binary of that package is expected to be
+	 */
+	public static String binaryPathOf(String packagePath)
+	{
+		String ext=Txfyr.getPackageFileExtension();
+		if(packagePath.endsWith(ext))
+			packagePath=packagePath.substring(
+				0,
+				packagePath.length()-ext.length()
+			);
+		return packagePath+Txfyr.getBinaryFileExtension();
+	}
+	
+	/**
+	 * @param packagePath The path to a ".txf" package
+	 *
+	 * @return Whether a binary exists for the package that is at least as new as it
+	 */
+	public static boolean hasFreshBinary(String packagePath)
+	{
+		File bin=new File(binaryPathOf(packagePath));
+		if(!bin.isFile()||!bin.canRead())
+			return false;
+		File pkg=new File(packagePath);
+		return !pkg.isFile()||bin.lastModified()>=pkg.lastModified();
+	}
+	
+	/**
+	 * Compiles a ".txf" package into a ".txfb" binary right next to it.
+	 *
+	 * @param packagePath The path to the package
+	 * @param embedPixels Whether to also store the decoded atlas
+	 *
+	 * @return The path of the binary or empty if the package could not be read
+	 */
+	public static Optional<String> compile(String packagePath,boolean embedPixels)
+	{
+		TxfyrArchive archive=TxfyrReader.index(packagePath);
+		if(archive==null)
+			return Optional.empty();
+		String out=binaryPathOf(packagePath);
+		try
+		{
+			write(
+				archive,
+				Path.of(out),
+				embedPixels
+			);
+			return Optional.of(out);
+		}catch(IOException e)
+		{
+			e.printStackTrace();
+			return Optional.empty();
+		}finally
+		{
+			archive.dispose();
+		}
+	}
+	
+	/**
+	 * Writes the binary form of an archive. The file is written to a temporary file first
+	 * and then moved over so readers never see a half written binary.
+	 *
+	 * @param archive The archive to compile
+	 * @param out Where to write to
+	 * @param embedPixels Whether to also store the decoded atlas
+	 */
+	public static void write(TxfyrArchive archive,Path out,boolean embedPixels)
+		throws IOException
+	{
+		Collection<TxfyrShard> shards=archive.shards();
+		byte[] name=archive.name.getBytes(StandardCharsets.UTF_8);
+		byte[] target=archive.target.getBytes(StandardCharsets.UTF_8);
+		ArrayList<byte[]> shardNames=new ArrayList<>(shards.size());
+		int strings=name.length+target.length;
+		for(TxfyrShard s: shards)
+		{
+			byte[] b=s
+				.key()
+				.getBytes(StandardCharsets.UTF_8);
+			shardNames.add(b);
+			strings+=b.length;
+		}
+		int stringsAt=HEADER_SIZE+shards.size()*SHARD_RECORD_SIZE;
+		int[] pixels=null;
+		int atlasWidth=0;
+		int atlasHeight=0;
+		if(embedPixels)
+		{
+			BufferedImage atlas=archive.atlas();
+			atlasWidth =atlas.getWidth();
+			atlasHeight=atlas.getHeight();
+			pixels     =toPremultiplied(atlas);
+		}
+		long pixelsAt=pixels==null?0L:(stringsAt+strings+7L)&~7L;
+		long size=pixels==null?stringsAt+strings:pixelsAt+pixels.length*4L;
+		DebugService.panicOn(
+			size>Integer.MAX_VALUE,
+			"The txfyr cluster "+archive.name+" is too large to be compiled ("+size+" bytes)"
+		);
+		ByteBuffer buf=ByteBuffer.allocate((int)size);
+		buf
+			.putInt(MAGIC)
+			.putInt(Txfyr.BINARY_VERSION)
+			.putLong(Txfyr.VERSION)
+			.putInt(pixels==null?0:FLAG_PIXELS)
+			.putInt(archive.width)
+			.putInt(archive.height)
+			.putInt(shards.size())
+			.putInt(stringsAt)
+			.putInt(name.length)
+			.putInt(stringsAt+name.length)
+			.putInt(target.length)
+			.putInt(atlasWidth)
+			.putInt(atlasHeight)
+			.putLong(pixelsAt);
+		int nameAt=stringsAt+name.length+target.length;
+		int i=0;
+		for(TxfyrShard s: shards)
+		{
+			int len=shardNames.get(i++).length;
+			buf
+				.putInt(nameAt)
+				.putInt(len)
+				.putInt(s.x())
+				.putInt(s.y())
+				.putInt(s.width())
+				.putInt(s.height());
+			nameAt+=len;
+		}
+		buf
+			.put(name)
+			.put(target);
+		for(byte[] b: shardNames)
+			buf.put(b);
+		if(pixels!=null)
+		{
+			buf.position((int)pixelsAt);
+			buf
+				.asIntBuffer()
+				.put(pixels);
+		}
+		buf.clear();
+		Path tmp=out.resolveSibling(out.getFileName()+".tmp");
+		try(FileChannel ch=FileChannel.open(
+			tmp,
+			StandardOpenOption.CREATE,
+			StandardOpenOption.WRITE,
+			StandardOpenOption.TRUNCATE_EXISTING
+		))
+		{
+			while(buf.hasRemaining())
+				ch.write(buf);
+		}
+		Files.move(
+			tmp,
+			out,
+			StandardCopyOption.REPLACE_EXISTING,
+			StandardCopyOption.ATOMIC_MOVE
+		);
+		TxfyrReader.invalidate(out.toString());
+	}
+	
+	private static int[] toPremultiplied(BufferedImage atlas)
+	{
+		int width=atlas.getWidth();
+		int[] px=atlas.getRGB(
+			0,
+			0,
+			width,
+			atlas.getHeight(),
+			null,
+			0,
+			width
+		);
+		PixelOps
+			.get()
+			.premultiply(
+				px,
+				0,
+				px.length
+			);
+		return px;
+	}
+	
+	private static String string(ByteBuffer buf,int at,int len)
+	{
+		byte[] b=new byte[len];
+		buf.get(
+			at,
+			b
+		);
+		return new String(
+			b,
+			StandardCharsets.UTF_8
+		);
+	}
+	
+	/**
+	 * Maps a ".txfb" binary and creates a cluster out of it. If the pixels are not
+	 * embedded, the atlas is decoded from the package next to the binary.
+	 *
+	 * @param path The path to the binary
+	 *
+	 * @return The cluster or empty if the binary is not readable or was compiled for a
+	 * different version
+	 */
+	public static Optional<TxfyrCluster> read(String path)
+	{
+		try(FileChannel ch=FileChannel.open(
+			Path.of(path),
+			StandardOpenOption.READ
+		))
+		{
+			if(ch.size()<HEADER_SIZE)
+				return Optional.empty();
+			MappedByteBuffer buf=ch.map(
+				FileChannel.MapMode.READ_ONLY,
+				0,
+				ch.size()
+			);
+			if(buf.getInt(0)!=MAGIC||buf.getInt(4)!=Txfyr.BINARY_VERSION||buf.getLong(8)!=Txfyr.VERSION)
+				return Optional.empty(); // stale, let the caller fall back to the package
+			int flags=buf.getInt(16);
+			int width=buf.getInt(20);
+			int height=buf.getInt(24);
+			int count=buf.getInt(28);
+			String name=string(
+				buf,
+				buf.getInt(32),
+				buf.getInt(36)
+			);
+			String target=string(
+				buf,
+				buf.getInt(40),
+				buf.getInt(44)
+			);
+			ArrayList<TxfyrShard> shards=new ArrayList<>(count);
+			for(int i=0, at=HEADER_SIZE;i<count;i++, at+=SHARD_RECORD_SIZE)
+				shards.add(new TxfyrShard(
+					string(
+						buf,
+						buf.getInt(at),
+						buf.getInt(at+4)
+					),
+					buf.getInt(at+8),
+					buf.getInt(at+12),
+					buf.getInt(at+16),
+					buf.getInt(at+20)
+				));
+			BufferedImage atlas;
+			if((flags&FLAG_PIXELS)!=0)
+			{
+				atlas=new BufferedImage(
+					buf.getInt(48),
+					buf.getInt(52),
+					BufferedImage.TYPE_INT_ARGB_PRE
+				);
+				buf
+					.position((int)buf.getLong(56))
+					.asIntBuffer()
+					.get(((DataBufferInt)atlas
+						.getRaster()
+						.getDataBuffer()).getData());
+			}
+			else
+			{
+				String pkg=path.substring(
+					0,
+					path.length()-Txfyr
+						.getBinaryFileExtension()
+						.length()
+				)+Txfyr.getPackageFileExtension();
+				TxfyrArchive archive=TxfyrReader.index(pkg);
+				DebugService.panicOn(
+					archive==null,
+					"The txfyr binary "+path+" does not embed its pixels and its package "+pkg+" could not be opened for the target: "+target
+				);
+				try
+				{
+					atlas=archive.atlas();
+				}finally
+				{
+					archive.dispose();
+				}
+			}
+			return Optional.of(new TxfyrCluster(
+				name,
+				width,
+				height,
+				atlas,
+				shards
+			));
+		}catch(IOException|IndexOutOfBoundsException e)
+		{
+			e.printStackTrace();
+			return Optional.empty();
+		}
+	}
+}
@@ -15,6 +15,7 @@ public class TxfyrCluster
 	public final int height;
 	public final BufferedImage source;
 	private final LinkedHashSet<TxfyrShard> shards;
+	private volatile TxfyrShardIndex index;
 	
 	public TxfyrCluster(
 		String key,int width,int height,
@@ -51,6 +52,41 @@ public class TxfyrCluster
 			});
 	}
 	
+	/**
+	 * The indexed view of the shards, built the first time it is asked for. Prefer this
+	 * over iterating when looking up shards by key or by position.
+	 *
+	 * @return The index
+	 */
+	public TxfyrShardIndex index()
+	{
+		TxfyrShardIndex r=index;
+		if(r==null)
+		{
+			synchronized(this)
+			{
+				r=index;
+				if(r==null)
+					index=r=new TxfyrShardIndex(
+						shards,
+						width,
+						height
+					);
+			}
+		}
+		return r;
+	}
+	
+	/**
+	 * @param key The key of the shard
+	 *
+	 * @return The shard or {@code null} if there is no such shard
+	 */
+	public TxfyrShard shard(String key)
+	{
+		return index().get(key);
+	}
+	
 	@Override public String toString()
 	{
 		return "TxfyrCluster[name="+name+",width="+width+",sourceType="+BufferedImageType.of(
@@ -0,0 +1,625 @@
+package pkg.exoad.poprock.core.txfyr;
+
+import javax.imageio.ImageIO;
+import pkg.exoad.poprock.core.AsyncService;
+import pkg.exoad.poprock.core.debug.DebugService;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Packs loose images into one or more atlas pages and creates a {@link TxfyrCluster} for
+ * each page. The pages can then be written out with {@link TxfyrWriter}.
+ * <p>
+ * Images are placed with a skyline packer (bottom-left, tallest first) which does well
+ * for UI icons that are mostly of similar sizes. Images that do not fit on a page go onto
+ * the next one. Once the layout is decided, the pages are drawn in parallel on
+ * {@link AsyncService.Tier#COMPUTE}.
+ * <p>
+ * <strong>Example Usage</strong>
+ * <p>
+ * <blockquote><pre>
+ * List&lt;TxfyrCluster&gt; pages=TxfyrPacker
+ *                .make()
+ *                .withName("icons")
+ *                .withPadding(1)
+ *                .withExtrusion(1)
+ *                .packDirectory(new File("assets/icons"));
+ * for(int i=0;i&lt;pages.size();i++)
+ *      TxfyrWriter.write(pages.get(i),"icons_"+i+".txf");
+ * </pre></blockquote>
+ *
+ * @author Jack Meng
+ */
+public final class TxfyrPacker
+{
+	private String name;
+	private int maxWidth;
+	private int maxHeight;
+	private int padding;
+	private int extrusion;
+	private boolean powerOfTwo;
+	
+	public static TxfyrPacker make()
+	{
+		return new TxfyrPacker();
+	}
+	
+	private TxfyrPacker()
+	{
+		name      ="atlas";
+		maxWidth  =2048;
+		maxHeight =2048;
+		padding   =0;
+		extrusion =0;
+		powerOfTwo=true;
+	}
+	
+	/**
+	 * @param name The base name of the clusters, pages after the first get "_n" appended
+	 */
+	public TxfyrPacker withName(String name)
+	{
+		DebugService.panicOn(
+			name==null||name.isBlank(),
+			"A txfyr atlas needs a name"
+		);
+		this.name=name.replaceAll(
+			"\\s+",
+			""
+		);
+		return this;
+	}
+	
+	/**
+	 * @param width The largest a page can be horizontally
+	 * @param height The largest a page can be vertically
+	 */
+	public TxfyrPacker withMaxPageSize(int width,int height)
+	{
+		DebugService.panicOn(
+			width<=0||height<=0,
+			"The max page size must be >0"
+		);
+		maxWidth =width;
+		maxHeight=height;
+		return this;
+	}
+	
+	/**
+	 * @param padding Empty pixels left between images
+	 */
+	public TxfyrPacker withPadding(int padding)
+	{
+		DebugService.panicOn(
+			padding<0,
+			"Padding must be >=0"
+		);
+		this.padding=padding;
+		return this;
+	}
+	
+	/**
+	 * @param extrusion How many pixels the edges of each image are repeated outwards by,
+	 * so filtering at the edges of a shard does not bleed in its neighbours
+	 */
+	public TxfyrPacker withExtrusion(int extrusion)
+	{
+		DebugService.panicOn(
+			extrusion<0,
+			"Extrusion must be >=0"
+		);
+		this.extrusion=extrusion;
+		return this;
+	}
+	
+	/**
+	 * @param powerOfTwo Whether the pages are sized to powers of two. The max page size
+	 * must then be a power of two as well.
+	 */
+	public TxfyrPacker withPowerOfTwo(boolean powerOfTwo)
+	{
+		this.powerOfTwo=powerOfTwo;
+		return this;
+	}
+	
+	/**
+	 * Packs all of the images in a directory that have one of
+	 * {@link Txfyr#ALLOWED_FILE_TYPES_EXTENSIONS}. The images are decoded in parallel on
+	 * {@link AsyncService.Tier#IO} and the file name without its extension becomes the
+	 * shard key.
+	 *
+	 * @param directory The directory (not searched recursively)
+	 *
+	 * @return The pages
+	 */
+	public List<TxfyrCluster> packDirectory(File directory)
+	{
+		File[] files=directory.listFiles(f->{
+			if(!f.isFile())
+				return false;
+			String n=f
+				.getName()
+				.toLowerCase(Locale.ROOT);
+			for(String ext: Txfyr.ALLOWED_FILE_TYPES_EXTENSIONS)
+				if(n.endsWith("."+ext))
+					return true;
+			return false;
+		});
+		DebugService.panicOn(
+			files==null,
+			"Could not list the directory: "+directory
+		);
+		Arrays.sort(files);
+		return packFiles(Arrays.asList(files));
+	}
+	
+	/**
+	 * Same as {@link #packDirectory(File)}, but with a list of files instead.
+	 *
+	 * @param files The images
+	 *
+	 * @return The pages
+	 */
+	public List<TxfyrCluster> packFiles(List<File> files)
+	{
+		ArrayList<CompletableFuture<BufferedImage>> decoding=new ArrayList<>(files.size());
+		for(File f: files)
+			decoding.add(AsyncService.supplyAsync(
+				AsyncService.Tier.IO,
+				()->{
+					try
+					{
+						return ImageIO.read(f);
+					}catch(IOException e)
+					{
+						return null;
+					}
+				}
+			));
+		LinkedHashMap<String,BufferedImage> images=new LinkedHashMap<>();
+		for(int i=0;i<files.size();i++)
+		{
+			BufferedImage img=decoding
+				.get(i)
+				.join();
+			String n=files
+				.get(i)
+				.getName();
+			DebugService.panicOn(
+				img==null,
+				"Could not decode the image: "+files.get(i)
+			);
+			images.put(
+				n.contains(".")?n.substring(
+					0,
+					n.lastIndexOf('.')
+				):n,
+				img
+			);
+		}
+		return pack(images);
+	}
+	
+	/**
+	 * Packs the images into pages.
+	 *
+	 * @param images The images keyed by what their shard keys should be
+	 *
+	 * @return The pages, at least one if there are any images
+	 */
+	public List<TxfyrCluster> pack(Map<String,BufferedImage> images)
+	{
+		DebugService.panicOn(
+			powerOfTwo&&(Integer.bitCount(maxWidth)!=1||Integer.bitCount(maxHeight)!=1),
+			"The max page size ("+maxWidth+"x"+maxHeight+") must be a power of two for power of two pages"
+		);
+		ArrayList<Map.Entry<String,BufferedImage>> pending=new ArrayList<>(images.entrySet());
+		int border=2*extrusion+padding;
+		for(Map.Entry<String,BufferedImage> e: pending)
+		{
+			BufferedImage img=e.getValue();
+			DebugService.panicOn(
+				img.getWidth()+2*extrusion>maxWidth||img.getHeight()+2*extrusion>maxHeight,
+				"The image "+e.getKey()+" does not fit on a "+maxWidth+"x"+maxHeight+" page"
+			);
+		}
+		// tallest first, then widest
+		pending.sort((a,b)->{
+			int c=Integer.compare(
+				b
+					.getValue()
+					.getHeight(),
+				a
+					.getValue()
+					.getHeight()
+			);
+			return c!=0?c:Integer.compare(
+				b
+					.getValue()
+					.getWidth(),
+				a
+					.getValue()
+					.getWidth()
+			);
+		});
+		// lay out every page first, this part is cheap and has to be sequential
+		ArrayList<Layout> layouts=new ArrayList<>();
+		while(!pending.isEmpty())
+		{
+			Layout layout=new Layout(
+				maxWidth+padding, // the padding after the last column/row is dropped
+				maxHeight+padding
+			);
+			ArrayList<Map.Entry<String,BufferedImage>> rest=new ArrayList<>();
+			for(Map.Entry<String,BufferedImage> e: pending)
+				if(!layout.place(
+					e.getKey(),
+					e.getValue(),
+					e
+						.getValue()
+						.getWidth()+border,
+					e
+						.getValue()
+						.getHeight()+border
+				))
+					rest.add(e);
+			layouts.add(layout);
+			pending=rest;
+		}
+		// then draw every page in parallel
+		ArrayList<CompletableFuture<TxfyrCluster>> pages=new ArrayList<>(layouts.size());
+		for(int i=0;i<layouts.size();i++)
+		{
+			Layout l=layouts.get(i);
+			String n=i==0?name:name+"_"+i;
+			pages.add(AsyncService.supplyAsync(
+				AsyncService.Tier.COMPUTE,
+				()->draw(
+					n,
+					l
+				)
+			));
+		}
+		ArrayList<TxfyrCluster> r=new ArrayList<>(pages.size());
+		for(CompletableFuture<TxfyrCluster> f: pages)
+			r.add(f.join());
+		return r;
+	}
+	
+	private static int pageSide(int used,int max,boolean powerOfTwo)
+	{
+		used=Math.max(
+			1,
+			used
+		);
+		if(!powerOfTwo)
+			return Math.min(
+				used,
+				max
+			);
+		int p=Integer.highestOneBit(used);
+		return Math.min(
+			p<used?p<<1:p,
+			max
+		);
+	}
+	
+	private TxfyrCluster draw(String clusterName,Layout l)
+	{
+		int w=pageSide(
+			l.usedWidth-padding,
+			maxWidth,
+			powerOfTwo
+		);
+		int h=pageSide(
+			l.usedHeight-padding,
+			maxHeight,
+			powerOfTwo
+		);
+		BufferedImage page=new BufferedImage(
+			w,
+			h,
+			BufferedImage.TYPE_INT_ARGB
+		);
+		Graphics2D g=page.createGraphics();
+		g.setComposite(AlphaComposite.Src);
+		ArrayList<TxfyrShard> shards=new ArrayList<>(l.keys.size());
+		for(int i=0;i<l.keys.size();i++)
+		{
+			BufferedImage img=l.images.get(i);
+			int x=l.xs.get(i)+extrusion;
+			int y=l.ys.get(i)+extrusion;
+			g.drawImage(
+				img,
+				x,
+				y,
+				null
+			);
+			if(extrusion>0)
+				extrude(
+					page,
+					x,
+					y,
+					img.getWidth(),
+					img.getHeight()
+				);
+			shards.add(new TxfyrShard(
+				l.keys.get(i),
+				x,
+				y,
+				img.getWidth(),
+				img.getHeight()
+			));
+		}
+		g.dispose();
+		return new TxfyrCluster(
+			clusterName,
+			w,
+			h,
+			page,
+			shards
+		);
+	}
+	
+	/**
+	 * Repeats the edge pixels of the rectangle outwards, corners included.
+	 */
+	private void extrude(BufferedImage page,int x,int y,int w,int h)
+	{
+		for(int e=1;e<=extrusion;e++)
+		{
+			for(int i=0;i<w;i++)
+			{
+				page.setRGB(
+					x+i,
+					y-e,
+					page.getRGB(
+						x+i,
+						y
+					)
+				);
+				page.setRGB(
+					x+i,
+					y+h-1+e,
+					page.getRGB(
+						x+i,
+						y+h-1
+					)
+				);
+			}
+		}
+		for(int e=1;e<=extrusion;e++)
+		{
+			// rows above and below are done, so the corners come along with the columns
+			for(int j=-extrusion;j<h+extrusion;j++)
+			{
+				page.setRGB(
+					x-e,
+					y+j,
+					page.getRGB(
+						x,
+						y+j
+					)
+				);
+				page.setRGB(
+					x+w-1+e,
+					y+j,
+					page.getRGB(
+						x+w-1,
+						y+j
+					)
+				);
+			}
+		}
+	}
+	
+	/**
+	 * The placement of images on a single page using a skyline. The skyline is the list of
+	 * segments {@code (x,y,width)} describing the top edge of everything placed so far.
+	 *
+	 * @author Jack Meng
+	 */
+	private static final class Layout
+	{
+		final int width;
+		final int height;
+		final ArrayList<String> keys;
+		final ArrayList<BufferedImage> images;
+		final ArrayList<Integer> xs;
+		final ArrayList<Integer> ys;
+		int usedWidth;
+		int usedHeight;
+		private int[] skyX;
+		private int[] skyY;
+		private int[] skyW;
+		private int segments;
+		
+		Layout(int width,int height)
+		{
+			this.width =width;
+			this.height=height;
+			keys       =new ArrayList<>();
+			images     =new ArrayList<>();
+			xs         =new ArrayList<>();
+			ys         =new ArrayList<>();
+			skyX       =new int[16];
+			skyY       =new int[16];
+			skyW       =new int[16];
+			skyW[0]    =width;
+			segments   =1;
+		}
+		
+		/**
+		 * @return the y the rectangle would sit at when starting at segment i or -1 if it
+		 * does not fit there
+		 */
+		private int fitAt(int i,int w,int h)
+		{
+			int x=skyX[i];
+			if(x+w>width)
+				return -1;
+			int y=0;
+			int left=w;
+			for(int j=i;left>0;j++)
+			{
+				y=Math.max(
+					y,
+					skyY[j]
+				);
+				if(y+h>height)
+					return -1;
+				left-=skyW[j];
+			}
+			return y;
+		}
+		
+		boolean place(String key,BufferedImage img,int w,int h)
+		{
+			int best=-1;
+			int bestY=Integer.MAX_VALUE;
+			int bestW=Integer.MAX_VALUE;
+			for(int i=0;i<segments;i++)
+			{
+				int y=fitAt(
+					i,
+					w,
+					h
+				);
+				// lowest bottom edge first, then the tightest segment
+				if(y>=0&&(y+h<bestY||y+h==bestY&&skyW[i]<bestW))
+				{
+					best =i;
+					bestY=y+h;
+					bestW=skyW[i];
+				}
+			}
+			if(best<0)
+				return false;
+			int x=skyX[best];
+			int y=bestY-h;
+			insert(
+				best,
+				x,
+				bestY,
+				w
+			);
+			keys.add(key);
+			images.add(img);
+			xs.add(x);
+			ys.add(y);
+			usedWidth =Math.max(
+				usedWidth,
+				x+w
+			);
+			usedHeight=Math.max(
+				usedHeight,
+				bestY
+			);
+			return true;
+		}
+		
+		private void insert(int at,int x,int y,int w)
+		{
+			if(segments==skyX.length)
+			{
+				skyX=Arrays.copyOf(
+					skyX,
+					segments*2
+				);
+				skyY=Arrays.copyOf(
+					skyY,
+					segments*2
+				);
+				skyW=Arrays.copyOf(
+					skyW,
+					segments*2
+				);
+			}
+			System.arraycopy(
+				skyX,
+				at,
+				skyX,
+				at+1,
+				segments-at
+			);
+			System.arraycopy(
+				skyY,
+				at,
+				skyY,
+				at+1,
+				segments-at
+			);
+			System.arraycopy(
+				skyW,
+				at,
+				skyW,
+				at+1,
+				segments-at
+			);
+			skyX[at]=x;
+			skyY[at]=y;
+			skyW[at]=w;
+			segments++;
+			// shrink or drop the segments now covered by the new one
+			int end=x+w;
+			int i=at+1;
+			while(i<segments&&skyX[i]<end)
+			{
+				int over=end-skyX[i];
+				if(over>=skyW[i])
+				{
+					remove(i);
+					continue;
+				}
+				skyX[i]=end;
+				skyW[i]-=over;
+				break;
+			}
+			// merge neighbours at the same height
+			for(int j=0;j<segments-1;)
+				if(skyY[j]==skyY[j+1])
+				{
+					skyW[j]+=skyW[j+1];
+					remove(j+1);
+				}
+				else
+					j++;
+		}
+		
+		private void remove(int i)
+		{
+			System.arraycopy(
+				skyX,
+				i+1,
+				skyX,
+				i,
+				segments-i-1
+			);
+			System.arraycopy(
+				skyY,
+				i+1,
+				skyY,
+				i,
+				segments-i-1
+			);
+			System.arraycopy(
+				skyW,
+				i+1,
+				skyW,
+				i,
+				segments-i-1
+			);
+			segments--;
+		}
+	}
+}
@@ -1,24 +1,26 @@
 package pkg.exoad.poprock.core.txfyr;
-import javax.imageio.ImageIO;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
-import pkg.exoad.poprock.core.debug.DebugService;
+import com.jackmeng.TinyLFUCache;
+
+import javax.xml.stream.XMLStreamException;
 
-import java.awt.image.BufferedImage;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 public final class TxfyrReader
 {
-	private static final WeakHashMap<String,TxfyrCluster> __cache=new WeakHashMap<>();
+	// keyed by path, weighted by the bytes of the atlas
+	private static final TinyLFUCache<String,Cached> __cache=TinyLFUCache
+		.<String,Cached>make()
+		.withMaximumWeight(256L*1024L*1024L)
+		.withWeigher((k,v)->Math.max(
+			1L,
+			(long)v.cluster.width*v.cluster.height*4L
+		))
+		.build();
+	private static final ConcurrentHashMap<String,TxfyrArchive> __archives=new ConcurrentHashMap<>();
 	
 	private TxfyrReader(){}
 	
@@ -49,124 +51,182 @@ public final class TxfyrReader
 		return Optional.empty();
 	}
 	
-	public static Optional<TxfyrCluster> exportAllShards(
-		String path
-	)
+	/**
+	 * Indexes a package once and keeps the index around until the archive is disposed or
+	 * the package changes on disk, in which case it is indexed again. The texture is not
+	 * decoded here, see {@link TxfyrArchive}.
+	 *
+	 * @param path The path to the package
+	 *
+	 * @return The archive or empty if the package could not be read
+	 */
+	public static Optional<TxfyrArchive> openIndexed(String path)
+	{
+		TxfyrArchive r=__archives.get(path);
+		if(r!=null&&!r.isStale())
+			return Optional.of(r);
+		synchronized(__archives)
+		{
+			r=__archives.get(path);
+			if(r!=null)
+			{
+				if(!r.isStale())
+					return Optional.of(r);
+				r.dispose();
+			}
+			r=index(path);
+			if(r==null)
+				return Optional.empty();
+			__archives.put(
+				path,
+				r
+			);
+			return Optional.of(r);
+		}
+	}
+	
+	/**
+	 * Indexes a package without remembering it, the caller has to dispose of it.
+	 *
+	 * @return The archive or null if the package could not be read
+	 */
+	static TxfyrArchive index(String path)
 	{
-		if(__cache.containsKey(path))
-			return Optional.of(__cache.get(path)); // prayge to not be null :(
 		File f=new File(path);
 		if(path.endsWith(Txfyr.getPackageFileExtension())&&f.canWrite()&&f.canRead()&&f.isFile()&&!f.isDirectory())
 		{
-			try(ZipFile zipFile=new ZipFile(path))
+			try
 			{
-				Enumeration<? extends ZipEntry> entries=zipFile.entries();
-				DocumentBuilderFactory builder=DocumentBuilderFactory.newInstance();
-				DocumentBuilder db=builder.newDocumentBuilder();
-				while(entries.hasMoreElements())
-				{
-					ZipEntry entry=entries.nextElement();
-					if(entry
-						   .getName()
-						   .endsWith(Txfyr.getIdentifierFileExtension())&&!entry.isDirectory())
-					{
-						Document doc=db.parse(zipFile.getInputStream(entry));
-						doc
-							.getDocumentElement()
-							.normalize();
-						Element clusterRoot=doc.getDocumentElement();
-						DebugService.panicOn(
-							!Long
-								.toString(Txfyr.VERSION)
-								.equals(clusterRoot.getAttribute("Version")),
-							"A txfyr cluster identifier was found to have an incompatible version! Got: "+clusterRoot.getAttribute(
-								"Version")+" Required: "+Txfyr.VERSION
-						);
-						Element modelElement=(Element)clusterRoot
-							.getElementsByTagName("Model")
-							.item(0);
-						String clusterName=modelElement
-							.getElementsByTagName(
-								"Name")
-							.item(0)
-							.getTextContent()
-							.replaceAll("\\s+","");
-						int clusterWidth=Integer.parseInt(modelElement
-															  .getElementsByTagName(
-																  "Width")
-															  .item(0)
-															  .getTextContent()
-															  .trim());
-						int clusterHeight=Integer.parseInt(modelElement
-															   .getElementsByTagName(
-																   "Height")
-															   .item(0)
-															   .getTextContent()
-															   .trim());
-						String clusterTarget=modelElement
-							.getElementsByTagName("Target")
-							.item(0)
-							.getTextContent()
-							.trim();
-						LinkedHashSet<TxfyrShard> shardsCollect=new LinkedHashSet<>();
-						// parse for all shards
-						ZipEntry targetEntry=zipFile.getEntry(clusterTarget);
-						if(targetEntry!=null) // according to the docs of ZipFile::getEntry
-						// oh yea, i think all of the debugging related things are not really worth it
-						{
-							BufferedImage image=ImageIO.read(zipFile.getInputStream(
-								targetEntry));
-							DebugService.panicOn(
-								clusterHeight>image.getHeight(),
-								"The target for cluster: "+clusterName+" has a height specification("+clusterHeight+") that exceeds the target texture's height("+image.getHeight()+")"
-							);
-							DebugService.panicOn(
-								clusterWidth>image.getWidth(),
-								"The target for cluster: "+clusterName+" has a width specification("+clusterWidth+") that exceeds the target texture's width("+image.getWidth()+")"
-							);
-							Element shardElement=(Element)clusterRoot
-								.getElementsByTagName("Shards")
-								.item(0);
-							NodeList shards=shardElement.getElementsByTagName("ShardEntry");
-							for(int i=0;i<shards.getLength();i++)
-							{
-								Element shardEntry=(Element)shards.item(i);
-								shardsCollect.add(new TxfyrShard(
-									shardEntry.getAttribute("Name"),
-									Integer.parseInt(shardEntry.getAttribute(
-										"X")),
-									Integer.parseInt(shardEntry.getAttribute(
-										"Y")),
-									Integer.parseInt(
-										shardEntry.getAttribute(
-											"Width")),
-									Integer.parseInt(
-										shardEntry.getAttribute(
-											"Height"))
-								));
-							}
-							TxfyrCluster res=new TxfyrCluster(
-								clusterName,
-								clusterWidth,
-								clusterHeight,
-								image,
-								shardsCollect
-							);
-							__cache.put(path,res);
-							return Optional.of(__cache.get(path));
-						}
-						else
-							DebugService.panicWith(new FileNotFoundException(
-								"Could not find cluster texture target: "+clusterTarget+" for cluster: "+clusterName));
-					}
-				}
-			}catch(IOException|ParserConfigurationException|SAXException|
-				   NumberFormatException e)
+				return TxfyrArchive.index(path);
+			}catch(IOException|XMLStreamException|NumberFormatException e)
 			{
 				e.printStackTrace();
-				return Optional.empty();
 			}
 		}
-		return Optional.empty();
+		return null;
+	}
+	
+	static void forget(TxfyrArchive archive)
+	{
+		__archives.remove(
+			archive.path,
+			archive
+		);
+	}
+	
+	/**
+	 * Drops everything that is remembered about a path, so the next read goes to the
+	 * file again. An archive handed out by {@link #openIndexed(String)} for the path is
+	 * disposed. Called whenever a package or binary is written.
+	 *
+	 * @param path The path to the package or binary
+	 */
+	public static void invalidate(String path)
+	{
+		__cache.remove(path);
+		TxfyrArchive r=__archives.get(path);
+		if(r!=null)
+			r.dispose();
+		if(path.endsWith(Txfyr.getBinaryFileExtension()))
+			__cache.remove(path.substring(
+				0,
+				path.length()-Txfyr
+					.getBinaryFileExtension()
+					.length()
+			)+Txfyr.getPackageFileExtension());
+	}
+	
+	/**
+	 * Loads a whole cluster. If a compiled binary (see {@link TxfyrBinary}) sits next to
+	 * the package and is not older than it, the binary is loaded instead. A binary can
+	 * also be passed directly. Clusters are cached by path, so asking again is cheap, and
+	 * read again once the package or its binary changes on disk. The package is only held
+	 * open while the cluster is read.
+	 *
+	 * @param path The path to the package or binary
+	 *
+	 * @return The cluster or empty if it could not be read
+	 */
+	public static Optional<TxfyrCluster> exportAllShards(
+		String path
+	)
+	{
+		Cached r=__cache.getIfPresent(path);
+		if(r!=null&&r.isStale(path))
+			__cache.remove(path);
+		r=__cache.computeIfAbsent(
+			path,
+			TxfyrReader::readCluster
+		);
+		return r==null?Optional.empty():Optional.of(r.cluster);
+	}
+	
+	/**
+	 * @return The binary that can stand in for a package, or the path itself if it already
+	 * is a binary
+	 */
+	private static String binaryOf(String path)
+	{
+		return path.endsWith(Txfyr.getBinaryFileExtension())
+			   ?path
+			   :TxfyrBinary.binaryPathOf(path);
+	}
+	
+	private static Cached readCluster(String path)
+	{
+		// taken before reading, so a change made while reading shows up as stale
+		File file=new File(path);
+		File binaryFile=new File(binaryOf(path));
+		long modified=file.lastModified();
+		long length=file.length();
+		long binaryModified=binaryFile.lastModified();
+		long binaryLength=binaryFile.length();
+		TxfyrCluster res;
+		Optional<TxfyrCluster> binary=Optional.empty();
+		if(path.endsWith(Txfyr.getBinaryFileExtension()))
+			binary=TxfyrBinary.read(path);
+		else if(TxfyrBinary.hasFreshBinary(path))
+			binary=TxfyrBinary.read(TxfyrBinary.binaryPathOf(path));
+		if(binary.isPresent())
+			res=binary.get();
+		else
+		{
+			// not through openIndexed, the cache above already holds on to the atlas
+			TxfyrArchive archive=index(path);
+			if(archive==null)
+				return null;
+			try
+			{
+				res=archive.toCluster();
+			}finally
+			{
+				archive.dispose();
+			}
+		}
+		return new Cached(
+			res,
+			modified,
+			length,
+			binaryModified,
+			binaryLength
+		);
+	}
+	
+	/**
+	 * A cluster along with how large and how old the package (or binary) and the binary
+	 * next to it were when it was read, the same check {@link TxfyrArchive#isStale()}
+	 * does for archives
+	 */
+	private record Cached(
+		TxfyrCluster cluster,long modified,long length,long binaryModified,long binaryLength
+	)
+	{
+		boolean isStale(String path)
+		{
+			File file=new File(path);
+			File binaryFile=new File(binaryOf(path));
+			return file.lastModified()!=modified||file.length()!=length
+				   ||binaryFile.lastModified()!=binaryModified||binaryFile.length()!=binaryLength;
+		}
 	}
 }
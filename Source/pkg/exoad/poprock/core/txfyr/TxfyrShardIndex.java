@@ -0,0 +1,369 @@
+package pkg.exoad.poprock.core.txfyr;
+
+import java.util.Collection;
+import java.util.function.IntConsumer;
+
+/**
+ * An immutable, indexed view of the shards of a cluster for when shards are looked up
+ * every frame (rendering, hit-testing, etc.).
+ * <p>
+ * Shards are referred to by their index (the order they were declared in) and their
+ * bounds are kept in parallel arrays so nothing has to be unboxed or dereferenced on a
+ * lookup:
+ * <ul>
+ *     <li>{@link #indexOf(String)} - an open addressing (linear probing) table from a
+ *     shard's key to its index</li>
+ *     <li>{@link #queryOverlapping(int,int,int,int,int[])} and
+ *     {@link #queryPoint(int,int,int[])} - a uniform grid over the cluster where each
+ *     cell lists the shards overlapping it</li>
+ * </ul>
+ * Bounds are half open, so a shard covers {@code [x,x+width)} and {@code [y,y+height)}.
+ * All of the queries are allocation free and can be called from any thread.
+ *
+ * @author Jack Meng
+ * @see TxfyrCluster#index()
+ */
+public final class TxfyrShardIndex
+{
+	private static final int MAX_GRID_SIDE=256;
+	private final TxfyrShard[] shards;
+	private final int[] xs;
+	private final int[] ys;
+	private final int[] widths;
+	private final int[] heights;
+	// index+1 of the shard, 0 is empty
+	private final int[] table;
+	private final int mask;
+	private final int cols;
+	private final int rows;
+	private final int cellWidth;
+	private final int cellHeight;
+	// compressed rows: the shards of cell c are cellItems[cellStart[c]..cellStart[c+1])
+	private final int[] cellStart;
+	private final int[] cellItems;
+	
+	/**
+	 * @param shards The shards to index in the order they should be numbered
+	 * @param width The width of the area the shards are in
+	 * @param height The height of the area the shards are in
+	 */
+	public TxfyrShardIndex(Collection<TxfyrShard> shards,int width,int height)
+	{
+		assert shards!=null;
+		assert width>0&&height>0;
+		int n=shards.size();
+		this.shards=shards.toArray(new TxfyrShard[0]);
+		xs         =new int[n];
+		ys         =new int[n];
+		widths     =new int[n];
+		heights    =new int[n];
+		long sumW=0L;
+		long sumH=0L;
+		for(int i=0;i<n;i++)
+		{
+			TxfyrShard s=this.shards[i];
+			xs[i]     =s.x();
+			ys[i]     =s.y();
+			widths[i] =s.width();
+			heights[i]=s.height();
+			sumW+=s.width();
+			sumH+=s.height();
+		}
+		// key table, at most half full so most lookups end on the first probe
+		int cap=Integer.highestOneBit(Math.max(
+			2,
+			n*2-1
+		))<<1;
+		table=new int[cap];
+		mask =cap-1;
+		for(int i=0;i<n;i++)
+		{
+			int slot=spread(this.shards[i]
+								.key()
+								.hashCode())&mask;
+			while(table[slot]!=0)
+				slot=(slot+1)&mask;
+			table[slot]=i+1;
+		}
+		// grid, with cells roughly the size of an average shard
+		int avgW=n==0?width:(int)Math.max(
+			1L,
+			sumW/n
+		);
+		int avgH=n==0?height:(int)Math.max(
+			1L,
+			sumH/n
+		);
+		cols      =Math.max(
+			1,
+			Math.min(
+				MAX_GRID_SIDE,
+				width/avgW
+			)
+		);
+		rows      =Math.max(
+			1,
+			Math.min(
+				MAX_GRID_SIDE,
+				height/avgH
+			)
+		);
+		cellWidth =(width+cols-1)/cols;
+		cellHeight=(height+rows-1)/rows;
+		cellStart =new int[cols*rows+1];
+		for(int i=0;i<n;i++)
+			for(int cy=cellY(ys[i]), ey=cellY(ys[i]+heights[i]-1);cy<=ey;cy++)
+				for(int cx=cellX(xs[i]), ex=cellX(xs[i]+widths[i]-1);cx<=ex;cx++)
+					cellStart[cy*cols+cx+1]++;
+		for(int c=0;c<cols*rows;c++)
+			cellStart[c+1]+=cellStart[c];
+		cellItems=new int[cellStart[cols*rows]];
+		int[] fill=new int[cols*rows];
+		for(int i=0;i<n;i++)
+			for(int cy=cellY(ys[i]), ey=cellY(ys[i]+heights[i]-1);cy<=ey;cy++)
+				for(int cx=cellX(xs[i]), ex=cellX(xs[i]+widths[i]-1);cx<=ex;cx++)
+				{
+					int c=cy*cols+cx;
+					cellItems[cellStart[c]+fill[c]++]=i;
+				}
+	}
+	
+	private static int spread(int h)
+	{
+		return h^(h>>>16);
+	}
+	
+	private int cellX(int x)
+	{
+		return Math.max(
+			0,
+			Math.min(
+				cols-1,
+				x/cellWidth
+			)
+		);
+	}
+	
+	private int cellY(int y)
+	{
+		return Math.max(
+			0,
+			Math.min(
+				rows-1,
+				y/cellHeight
+			)
+		);
+	}
+	
+	/**
+	 * @return How many shards are indexed
+	 */
+	public int count()
+	{
+		return shards.length;
+	}
+	
+	/**
+	 * @param key The key of the shard
+	 *
+	 * @return The index of the shard or -1 if there is no such shard
+	 */
+	public int indexOf(String key)
+	{
+		if(key==null)
+			return -1;
+		int slot=spread(key.hashCode())&mask;
+		for(int i;(i=table[slot])!=0;slot=(slot+1)&mask)
+			if(shards[i-1]
+				.key()
+				.equals(key))
+				return i-1;
+		return -1;
+	}
+	
+	/**
+	 * @param key The key of the shard
+	 *
+	 * @return The shard or {@code null} if there is no such shard
+	 */
+	public TxfyrShard get(String key)
+	{
+		int i=indexOf(key);
+		return i<0?null:shards[i];
+	}
+	
+	public TxfyrShard shard(int index)
+	{
+		return shards[index];
+	}
+	
+	public int x(int index)
+	{
+		return xs[index];
+	}
+	
+	public int y(int index)
+	{
+		return ys[index];
+	}
+	
+	public int width(int index)
+	{
+		return widths[index];
+	}
+	
+	public int height(int index)
+	{
+		return heights[index];
+	}
+	
+	/**
+	 * Calls the consumer with the index of every shard that overlaps the rectangle, each
+	 * shard exactly once.
+	 *
+	 * @param x The x of the rectangle
+	 * @param y The y of the rectangle
+	 * @param width The width of the rectangle
+	 * @param height The height of the rectangle
+	 * @param consumer What to call for each shard
+	 */
+	public void forEachOverlapping(int x,int y,int width,int height,IntConsumer consumer)
+	{
+		if(width<=0||height<=0)
+			return;
+		int x1=x+width;
+		int y1=y+height;
+		for(int cy=cellY(y), ey=cellY(y1-1);cy<=ey;cy++)
+			for(int cx=cellX(x), ex=cellX(x1-1);cx<=ex;cx++)
+			{
+				int c=cy*cols+cx;
+				for(int k=cellStart[c];k<cellStart[c+1];k++)
+				{
+					int i=cellItems[k];
+					if(reports(
+						i,
+						x,
+						y,
+						x1,
+						y1,
+						cx,
+						cy
+					))
+						consumer.accept(i);
+				}
+			}
+	}
+	
+	/**
+	 * Whether shard i overlaps the rectangle and cell (cx,cy) is the one that should
+	 * report it. A shard spanning many cells is only reported by the cell holding the top
+	 * left corner of the overlap.
+	 */
+	private boolean reports(int i,int x,int y,int x1,int y1,int cx,int cy)
+	{
+		int sx=xs[i];
+		int sy=ys[i];
+		return sx<x1&&x<sx+widths[i]&&sy<y1&&y<sy+heights[i]&&cellX(Math.max(
+			sx,
+			x
+		))==cx&&cellY(Math.max(
+			sy,
+			y
+		))==cy;
+	}
+	
+	/**
+	 * Writes the index of every shard overlapping the rectangle into the supplied buffer.
+	 *
+	 * @param x The x of the rectangle
+	 * @param y The y of the rectangle
+	 * @param width The width of the rectangle
+	 * @param height The height of the rectangle
+	 * @param out Where to write the indices to
+	 *
+	 * @return How many shards overlap, which can be more than what fit in {@code out}
+	 */
+	public int queryOverlapping(int x,int y,int width,int height,int[] out)
+	{
+		if(width<=0||height<=0)
+			return 0;
+		int x1=x+width;
+		int y1=y+height;
+		int n=0;
+		for(int cy=cellY(y), ey=cellY(y1-1);cy<=ey;cy++)
+			for(int cx=cellX(x), ex=cellX(x1-1);cx<=ex;cx++)
+			{
+				int c=cy*cols+cx;
+				for(int k=cellStart[c];k<cellStart[c+1];k++)
+				{
+					int i=cellItems[k];
+					if(reports(
+						i,
+						x,
+						y,
+						x1,
+						y1,
+						cx,
+						cy
+					))
+					{
+						if(n<out.length)
+							out[n]=i;
+						n++;
+					}
+				}
+			}
+		return n;
+	}
+	
+	/**
+	 * Writes the index of every shard containing the point into the supplied buffer.
+	 *
+	 * @param px The x of the point
+	 * @param py The y of the point
+	 * @param out Where to write the indices to
+	 *
+	 * @return How many shards contain the point, which can be more than what fit in
+	 * {@code out}
+	 */
+	public int queryPoint(int px,int py,int[] out)
+	{
+		int c=cellY(py)*cols+cellX(px);
+		int n=0;
+		for(int k=cellStart[c];k<cellStart[c+1];k++)
+		{
+			int i=cellItems[k];
+			if(px>=xs[i]&&px<xs[i]+widths[i]&&py>=ys[i]&&py<ys[i]+heights[i])
+			{
+				if(n<out.length)
+					out[n]=i;
+				n++;
+			}
+		}
+		return n;
+	}
+	
+	/**
+	 * @param px The x of the point
+	 * @param py The y of the point
+	 *
+	 * @return The first declared shard containing the point or -1 if there is none
+	 */
+	public int firstAt(int px,int py)
+	{
+		int c=cellY(py)*cols+cellX(px);
+		int r=-1;
+		for(int k=cellStart[c];k<cellStart[c+1];k++)
+		{
+			int i=cellItems[k];
+			if((r<0||i<r)&&px>=xs[i]&&px<xs[i]+widths[i]&&py>=ys[i]&&py<ys[i]+heights[i])
+				r=i;
+		}
+		return r;
+	}
+	
+	@Override public String toString()
+	{
+		return "TxfyrShardIndex[shards="+shards.length+",grid="+cols+"x"+rows+",cell="+cellWidth+"x"+cellHeight+"]";
+	}
+}
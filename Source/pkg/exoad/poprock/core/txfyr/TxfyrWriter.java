@@ -0,0 +1,151 @@
+package pkg.exoad.poprock.core.txfyr;
+
+import javax.imageio.ImageIO;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes clusters out as ".txf" packages that {@link TxfyrReader} can read back. A
+ * package holds the cluster identifier and the texture as a PNG.
+ *
+ * @author Jack Meng
+ * @see TxfyrPacker
+ */
+public final class TxfyrWriter
+{
+	private static final XMLOutputFactory XML=XMLOutputFactory.newFactory();
+	
+	private TxfyrWriter(){}
+	
+	/**
+	 * Writes a cluster to a package.
+	 *
+	 * @param cluster The cluster
+	 * @param path Where to write the package to, should end with
+	 * {@link Txfyr#getPackageFileExtension()}
+	 */
+	public static void write(TxfyrCluster cluster,String path)
+		throws IOException
+	{
+		String target=cluster.name+".png";
+		try(ZipOutputStream zip=new ZipOutputStream(new FileOutputStream(path)))
+		{
+			zip.putNextEntry(new ZipEntry(cluster.name+Txfyr.getIdentifierFileExtension()));
+			writeIdentifier(
+				cluster,
+				target,
+				zip
+			);
+			zip.closeEntry();
+			zip.putNextEntry(new ZipEntry(target));
+			ImageIO.write(
+				cluster.source,
+				"png",
+				zip
+			);
+			zip.closeEntry();
+		}
+		TxfyrReader.invalidate(path);
+	}
+	
+	/**
+	 * Writes the identifier (the XML descriptor) of a cluster.
+	 *
+	 * @param cluster The cluster
+	 * @param target The name of the texture inside of the package
+	 * @param out Where to write to, this is not closed
+	 */
+	public static void writeIdentifier(TxfyrCluster cluster,String target,OutputStream out)
+		throws IOException
+	{
+		try
+		{
+			OutputStreamWriter w=new OutputStreamWriter(
+				out,
+				StandardCharsets.UTF_8
+			);
+			XMLStreamWriter xml=XML.createXMLStreamWriter(w);
+			xml.writeStartDocument(
+				"UTF-8",
+				"1.0"
+			);
+			xml.writeStartElement("Cluster");
+			xml.writeAttribute(
+				"Version",
+				Long.toString(Txfyr.VERSION)
+			);
+			xml.writeStartElement("Model");
+			element(
+				xml,
+				"Name",
+				cluster.name
+			);
+			element(
+				xml,
+				"Width",
+				Integer.toString(cluster.width)
+			);
+			element(
+				xml,
+				"Height",
+				Integer.toString(cluster.height)
+			);
+			element(
+				xml,
+				"Target",
+				target
+			);
+			xml.writeEndElement();
+			xml.writeStartElement("Shards");
+			for(TxfyrShard s: cluster)
+			{
+				xml.writeEmptyElement("ShardEntry");
+				xml.writeAttribute(
+					"Name",
+					s.key()
+				);
+				xml.writeAttribute(
+					"X",
+					Integer.toString(s.x())
+				);
+				xml.writeAttribute(
+					"Y",
+					Integer.toString(s.y())
+				);
+				xml.writeAttribute(
+					"Width",
+					Integer.toString(s.width())
+				);
+				xml.writeAttribute(
+					"Height",
+					Integer.toString(s.height())
+				);
+			}
+			xml.writeEndElement();
+			xml.writeEndElement();
+			xml.writeEndDocument();
+			xml.flush();
+			w.flush();
+		}catch(XMLStreamException e)
+		{
+			throw new IOException(e);
+		}
+	}
+	
+	private static void element(XMLStreamWriter xml,String name,String text)
+		throws XMLStreamException
+	{
+		xml.writeStartElement(name);
+		xml.writeCharacters(text);
+		xml.writeEndElement();
+	}
+}
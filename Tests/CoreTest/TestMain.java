@@ -9,6 +9,13 @@ public class TestMain
 	static
 	{
 		TESTS.add(new Test_MemoryDiagnosticsModule());
+		TESTS.add(new Test_EventPoolService());
+		TESTS.add(new Test_RegistryServices());
+		TESTS.add(new Test_SnapshotStore());
+		TESTS.add(new Test_FFT());
+		TESTS.add(new Test_FlatKDTree());
+		TESTS.add(new Test_ByteRings());
+		TESTS.add(new Test_StreamingSTFT());
 	}
 	
 	public static void main(String[] args)
@@ -63,6 +70,7 @@ public class TestMain
 				}
 			}
 		}
+		invalidations+=INVALIDATIONS.size(); // the ones of the last test
 		System.out.println("[RESULT]\n - \tPassed: "+passed+"\n - \tFailed:"+
 						   " "+failed+" (Invalidations: +"+invalidations+")\n "+
 						   "- \tSkipped: "+skipped);
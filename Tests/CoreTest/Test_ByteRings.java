@@ -0,0 +1,175 @@
+import com.jackmeng.MpscByteRing;
+import com.jackmeng.SpscByteRing;
+
+import java.util.Random;
+@Section(name="SPSC and MPSC byte rings under concurrent use") public class Test_ByteRings
+	implements TestRoot,
+			   TestMixin
+{
+	@Override public void test()
+	{
+		spsc();
+		mpsc();
+	}
+	
+	/**
+	 * A stream of counting bytes through a small ring in chunks of random sizes
+	 */
+	private void spsc()
+	{
+		SpscByteRing ring=new SpscByteRing(64);
+		int total=1<<20;
+		Thread producer=new Thread(()->{
+			Random r=new Random(3);
+			byte[] chunk=new byte[48];
+			int sent=0;
+			while(sent<total)
+			{
+				int len=Math.min(
+					1+r.nextInt(chunk.length),
+					total-sent
+				);
+				for(int i=0;i<len;i++)
+					chunk[i]=(byte)(sent+i);
+				int off=0;
+				while(off<len)
+				{
+					int n=ring.write(
+						chunk,
+						off,
+						len-off
+					);
+					if(n==0)
+						Thread.yield();
+					off+=n;
+				}
+				sent+=len;
+			}
+		});
+		producer.start();
+		byte[] dst=new byte[40];
+		int received=0;
+		boolean ordered=true;
+		while(received<total)
+		{
+			int n=ring.read(
+				dst,
+				0,
+				dst.length
+			);
+			if(n==0)
+				Thread.yield();
+			for(int i=0;i<n;i++)
+				ordered&=dst[i]==(byte)(received+i);
+			received+=n;
+		}
+		join(producer);
+		$ASSERT(
+			ordered,
+			"The SPSC ring did not give the bytes back in order"
+		);
+		float[] floats={
+			1.5F,
+			-2F,
+			3.25F
+		};
+		float[] back=new float[3];
+		$ASSERT(
+			ring.writeFloats(
+				floats,
+				0,
+				3
+			)==3&&ring.readFloats(
+				back,
+				0,
+				3
+			)==3&&back[0]==1.5F&&back[1]==-2F&&back[2]==3.25F,
+			"Floats did not make it through the SPSC ring"
+		);
+	}
+	
+	/**
+	 * Records of different lengths from several producers, each of which must come out
+	 * whole and in the order its producer offered them
+	 */
+	private void mpsc()
+	{
+		MpscByteRing ring=new MpscByteRing(512);
+		int producers=3;
+		int perProducer=5000;
+		Thread[] threads=new Thread[producers];
+		for(int p=0;p<producers;p++)
+		{
+			byte id=(byte)p;
+			threads[p]=new Thread(()->{
+				byte[] record=new byte[32];
+				for(int seq=0;seq<perProducer;seq++)
+				{
+					int len=5+seq%20;
+					record[0]=id;
+					record[1]=(byte)(seq>>>24);
+					record[2]=(byte)(seq>>>16);
+					record[3]=(byte)(seq>>>8);
+					record[4]=(byte)seq;
+					for(int i=5;i<len;i++)
+						record[i]=(byte)seq;
+					while(!ring.offer(
+						record,
+						0,
+						len
+					))
+						Thread.yield();
+				}
+			});
+			threads[p].start();
+		}
+		int[] next=new int[producers];
+		byte[] dst=new byte[ring.maxPayload()];
+		int received=0;
+		boolean whole=true;
+		while(received<producers*perProducer)
+		{
+			int len=ring.poll(
+				dst,
+				0
+			);
+			if(len<0)
+			{
+				Thread.yield();
+				continue;
+			}
+			int p=dst[0];
+			int seq=(dst[1]&0xFF)<<24|(dst[2]&0xFF)<<16|(dst[3]&0xFF)<<8|dst[4]&0xFF;
+			whole&=p>=0&&p<producers&&seq==next[p]&&len==5+seq%20;
+			for(int i=5;i<len;i++)
+				whole&=dst[i]==(byte)seq;
+			if(p>=0&&p<producers)
+				next[p]++;
+			received++;
+		}
+		for(Thread t: threads)
+			join(t);
+		$ASSERT(
+			whole,
+			"A record of the MPSC ring came out torn or out of its producer's order"
+		);
+		$ASSERT(
+			ring.poll(
+				dst,
+				0
+			)==-1,
+			"The MPSC ring still had records after all of them were taken out"
+		);
+	}
+	
+	private void join(Thread t)
+	{
+		try
+		{
+			t.join();
+		}catch(InterruptedException e)
+		{
+			$INVALIDATE("Interrupted while waiting for "+t.getName());
+		}
+	}
+}
@@ -0,0 +1,92 @@
+import pkg.exoad.poprock.core.EventPoolService;
+
+import java.util.concurrent.atomic.AtomicInteger;
+@Section(name="Event pool typed dispatch and coalescing") public class Test_EventPoolService
+	implements TestRoot,
+			   TestMixin
+{
+	record FooPayload(int value)
+		implements EventPoolService.EventPayload
+	{}
+	
+	@Override public void test()
+	{
+		EventPoolService.registerEventPool(9001);
+		EventPoolService.EventPool pool=EventPoolService.getPool(9001);
+		pool.registerEvent(
+			FooPayload.class,
+			null
+		);
+		AtomicInteger runs=new AtomicInteger();
+		AtomicInteger last=new AtomicInteger(-1);
+		pool.attachListener(
+			FooPayload.class,
+			runs::incrementAndGet
+		);
+		EventPoolService.EventHandle<FooPayload> foo=pool.handleOf(FooPayload.class);
+		foo.attach(x->last.set(x.value()));
+		foo.dispatch(new FooPayload(1));
+		$ASSERT(
+			runs.get()==1&&last.get()==1,
+			"Synchronous dispatch did not reach both listeners"
+		);
+		$ASSERT(
+			foo
+				.get()
+				.value()==1,
+			"Handle did not see the dispatched payload"
+		);
+		pool.withAsyncDelivery(
+			EventPoolService.AsyncDeliveryPolicy.LATEST_WINS,
+			16
+		);
+		for(int i=2;i<=500;i++)
+			pool.dispatchEvent(
+				FooPayload.class,
+				new FooPayload(i)
+			);
+		EventPoolService.AsyncDeliveryStats stats=pool.getAsyncDeliveryStats();
+		pool.withSyncDelivery();
+		$ASSERT(
+			last.get()==500,
+			"Latest payload was not delivered, got "+last.get()
+		);
+		$ASSERT(
+			stats.dispatched()==499,
+			"Expected 499 dispatches, got "+stats.dispatched()
+		);
+		$PRINT("Async delivery: "+stats+" listener runs: "+runs.get());
+		// switching modes while another thread dispatches must not lose a payload
+		AtomicInteger kept=new AtomicInteger();
+		foo.attach(x->kept.incrementAndGet());
+		int total=20_000;
+		Thread producer=new Thread(()->{
+			for(int i=1;i<=total;i++)
+			{
+				foo.dispatch(new FooPayload(i));
+				if((i&63)==0)
+					Thread.yield();
+			}
+		});
+		pool.withAsyncDelivery(
+			EventPoolService.AsyncDeliveryPolicy.KEEP_ALL,
+			8
+		);
+		producer.start();
+		while(producer.isAlive())
+		{
+			pool.withSyncDelivery();
+			Thread.yield();
+			pool.withAsyncDelivery(
+				EventPoolService.AsyncDeliveryPolicy.KEEP_ALL,
+				8
+			);
+			Thread.yield();
+		}
+		pool.withSyncDelivery();
+		$ASSERT(
+			kept.get()==total&&last.get()==total,
+			"Payloads were lost while switching modes, got "+kept.get()+" of "+total
+		);
+	}
+}
@@ -0,0 +1,138 @@
+import com.jackmeng.FFT;
+
+import java.util.Random;
+@Section(name="FFT plans against a direct DFT") public class Test_FFT
+	implements TestRoot,
+			   TestMixin
+{
+	@Override public void test()
+	{
+		Random r=new Random(7);
+		for(int n=2;n<=1024;n<<=1)
+		{
+			FFT plan=FFT.of(n);
+			$ASSERT(
+				plan==FFT.of(n)&&plan.size()==n,
+				"Plans of the same size are not shared"
+			);
+			double[] input=new double[2*n];
+			for(int i=0;i<input.length;i++)
+				input[i]=r.nextDouble()*2D-1D;
+			double[] expected=dft(input,n);
+			double[] data=input.clone();
+			plan.forward(
+				data,
+				0
+			);
+			$ASSERT(
+				maxError(data,expected)<1e-9*n,
+				"Forward transform of "+n+" points is off by "+maxError(data,expected)
+			);
+			plan.inverse(
+				data,
+				0
+			);
+			$ASSERT(
+				maxError(data,input)<1e-12*n,
+				"Inverse transform of "+n+" points does not give back the input"
+			);
+			float[] floats=new float[2*n];
+			for(int i=0;i<floats.length;i++)
+				floats[i]=(float)input[i];
+			plan.forward(
+				floats,
+				0
+			);
+			double floatError=0D;
+			for(int i=0;i<floats.length;i++)
+				floatError=Math.max(
+					floatError,
+					Math.abs(floats[i]-expected[i])
+				);
+			$ASSERT(
+				floatError<1e-4*n,
+				"Float forward transform of "+n+" points is off by "+floatError
+			);
+			real(
+				plan,
+				r,
+				n
+			);
+		}
+	}
+	
+	/**
+	 * The packed half spectrum of real samples against the DFT of the same samples as
+	 * complex points
+	 */
+	private void real(FFT plan,Random r,int n)
+	{
+		double[] samples=new double[n];
+		double[] complex=new double[2*n];
+		for(int i=0;i<n;i++)
+		{
+			samples[i]   =r.nextDouble()*2D-1D;
+			complex[2*i]=samples[i];
+		}
+		double[] spectrum=dft(complex,n);
+		double[] data=samples.clone();
+		plan.realForward(
+			data,
+			0
+		);
+		double error=Math.max(
+			Math.abs(data[0]-spectrum[0]),
+			Math.abs(data[1]-spectrum[n])
+		);
+		for(int k=1;k<n/2;k++)
+			error=Math.max(
+				error,
+				Math.max(
+					Math.abs(data[2*k]-spectrum[2*k]),
+					Math.abs(data[2*k+1]-spectrum[2*k+1])
+				)
+			);
+		$ASSERT(
+			error<1e-9*n,
+			"Real forward transform of "+n+" samples is off by "+error
+		);
+		plan.realInverse(
+			data,
+			0
+		);
+		$ASSERT(
+			maxError(data,samples)<1e-12*n,
+			"Real inverse transform of "+n+" samples does not give back the input"
+		);
+	}
+	
+	private static double[] dft(double[] x,int n)
+	{
+		double[] r=new double[2*n];
+		for(int k=0;k<n;k++)
+		{
+			double re=0D;
+			double im=0D;
+			for(int t=0;t<n;t++)
+			{
+				double a=-2D*Math.PI*((long)k*t%n)/n;
+				re+=x[2*t]*Math.cos(a)-x[2*t+1]*Math.sin(a);
+				im+=x[2*t]*Math.sin(a)+x[2*t+1]*Math.cos(a);
+			}
+			r[2*k]  =re;
+			r[2*k+1]=im;
+		}
+		return r;
+	}
+	
+	private static double maxError(double[] a,double[] b)
+	{
+		double r=0D;
+		for(int i=0;i<a.length;i++)
+			r=Math.max(
+				r,
+				Math.abs(a[i]-b[i])
+			);
+		return r;
+	}
+}
@@ -0,0 +1,163 @@
+import com.jackmeng.FlatKDTree;
+
+import java.util.Arrays;
+import java.util.Random;
+@Section(name="FlatKDTree queries against a brute force scan") public class Test_FlatKDTree
+	implements TestRoot,
+			   TestMixin
+{
+	private static final int DIMS=3;
+	
+	@Override public void test()
+	{
+		Random r=new Random(11);
+		int count=20_000;
+		float[] points=new float[count*DIMS];
+		for(int i=0;i<points.length;i++)
+			points[i]=r.nextFloat();
+		FlatKDTree tree=new FlatKDTree(
+			points,
+			DIMS
+		);
+		$ASSERT(
+			tree.size()==count&&tree.dims()==DIMS,
+			"The tree does not hold every point"
+		);
+		FlatKDTree.Searcher searcher=tree.searcher();
+		int k=8;
+		int[] ids=new int[k];
+		float[] distances=new float[k];
+		int[] out=new int[count];
+		float[] q=new float[DIMS];
+		float[] min=new float[DIMS];
+		float[] max=new float[DIMS];
+		for(int n=0;n<200;n++)
+		{
+			for(int d=0;d<DIMS;d++)
+			{
+				q[d]  =r.nextFloat();
+				min[d]=q[d]-0.05F;
+				max[d]=q[d]+0.05F;
+			}
+			float[] all=new float[count];
+			for(int i=0;i<count;i++)
+				all[i]=distance(
+					points,
+					i,
+					q
+				);
+			float[] sorted=all.clone();
+			Arrays.sort(sorted);
+			int nearest=searcher.nearest(
+				q,
+				0
+			);
+			$ASSERT(
+				close(
+					all[nearest],
+					sorted[0]
+				),
+				"Nearest point is "+all[nearest]+" away instead of "+sorted[0]
+			);
+			int found=searcher.nearest(
+				q,
+				0,
+				k,
+				ids,
+				distances
+			);
+			$ASSERT(
+				found==k,
+				"Expected "+k+" nearest points, got "+found
+			);
+			for(int i=0;i<k;i++)
+				$ASSERT(
+					close(
+						distances[i],
+						sorted[i]
+					)&&close(
+						all[ids[i]],
+						sorted[i]
+					),
+					"The "+i+"th nearest point is "+distances[i]+" away instead of "+sorted[i]
+				);
+			float radius=0.1F;
+			int inRadius=searcher.withinRadius(
+				q,
+				0,
+				radius,
+				out
+			);
+			int expected=0;
+			for(float d: all)
+				if(d<=radius*radius)
+					expected++;
+			$ASSERT(
+				inRadius==expected,
+				"Expected "+expected+" points within the radius, got "+inRadius
+			);
+			for(int i=0;i<inRadius;i++)
+				$ASSERT(
+					all[out[i]]<=radius*radius*1.0001F,
+					"A point outside of the radius was found"
+				);
+			int inBox=searcher.withinBox(
+				min,
+				0,
+				max,
+				0,
+				out
+			);
+			expected=0;
+			for(int i=0;i<count;i++)
+				if(inside(
+					points,
+					i,
+					min,
+					max
+				))
+					expected++;
+			$ASSERT(
+				inBox==expected,
+				"Expected "+expected+" points inside the box, got "+inBox
+			);
+			for(int i=0;i<inBox;i++)
+				$ASSERT(
+					inside(
+						points,
+						out[i],
+						min,
+						max
+					),
+					"A point outside of the box was found"
+				);
+		}
+	}
+	
+	private static float distance(float[] points,int i,float[] q)
+	{
+		float r=0F;
+		for(int d=0;d<DIMS;d++)
+		{
+			float x=points[i*DIMS+d]-q[d];
+			r+=x*x;
+		}
+		return r;
+	}
+	
+	private static boolean inside(float[] points,int i,float[] min,float[] max)
+	{
+		for(int d=0;d<DIMS;d++)
+		{
+			float x=points[i*DIMS+d];
+			if(x<min[d]||x>max[d])
+				return false;
+		}
+		return true;
+	}
+	
+	private static boolean close(float a,float b)
+	{
+		return Math.abs(a-b)<=1e-6F+1e-5F*Math.abs(b);
+	}
+}
@@ -1,8 +1,18 @@
+import pkg.exoad.poprock.core.SnapshotStore;
 import pkg.exoad.poprock.core.registry.EphemeralRegistry;
+import pkg.exoad.poprock.core.registry.RegistryEntry;
 import pkg.exoad.poprock.core.registry.RegistryEntryFactory;
+import pkg.exoad.poprock.core.registry.RegistryKey;
 import pkg.exoad.poprock.core.registry.RegistryServices;
 
-@Section(name="Base Registry Entry Load Factor Test") public class Test_RegistryServices
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+@Section(name="Registry Services Test") public class Test_RegistryServices
 	implements TestRoot,
 			   TestMixin
 {
@@ -39,5 +49,190 @@ import pkg.exoad.poprock.core.registry.RegistryServices;
 					.getEphemeral(1)
 					.acquireEntryValue("entry#1")
 					.equals(ref),"Differing registry acquired value");
+		keys();
+		snapshot();
+		broadcasting();
+	}
+	
+	private static RegistryEntry entry(Object value)
+	{
+		return RegistryEntryFactory
+			.make()
+			.withCanonicalName("Test Entry")
+			.withCheck(e->true)
+			.withDefaultValue(value)
+			.collate();
+	}
+	
+	/**
+	 * Names are matched regardless of case and resolve to the same key
+	 */
+	private void keys()
+	{
+		EphemeralRegistry registry=RegistryServices.getEphemeral(1);
+		registry.registerEntry(
+			"Volume",
+			entry(10)
+		);
+		RegistryKey volume=registry.keyOf("VOLUME");
+		$ASSERT(
+			registry.hasEntry("volume")&&registry.hasEntry("Volume")&&!registry.hasEntry("missing"),
+			"Names are not looked up the way they were registered"
+		);
+		$ASSERT(
+			!registry.hasEntry("vol:ume")&&!registry.hasEntry(null),
+			"A name that can not be registered was reported as registered"
+		);
+		$ASSERT(
+			Integer
+				.valueOf(10)
+				.equals(registry.acquireEntryValue(volume)),
+			"A key did not read the value of its entry"
+		);
+	}
+	
+	private void snapshot()
+	{
+		// only values that can be kept in a snapshot store
+		RegistryServices.registerEphemeralRegistry(
+			3,
+			EphemeralRegistry.makeConfig("test_snapshot")
+		);
+		EphemeralRegistry registry=RegistryServices.getEphemeral(3);
+		RegistryEntry entry=entry(10);
+		registry.registerEntry(
+			"volume",
+			entry
+		);
+		registry.registerEntry(
+			"theme",
+			entry("dark")
+		);
+		RegistryKey key=registry.keyOf("volume");
+		Path file=null;
+		try
+		{
+			file=Files.createTempFile(
+				"poprock-registry",
+				".snapshot"
+			);
+			Files.delete(file);
+			SnapshotStore store=SnapshotStore.open(file);
+			try
+			{
+				registry.snapshotTo(
+					store,
+					"test"
+				);
+				entry.setCurrentValue(99);
+				int n=registry.restoreFrom(
+					store,
+					"test"
+				);
+				$ASSERT(
+					Integer
+						.valueOf(10)
+						.equals(key.value()),
+					"The snapshot was not restored, got "+key.value()
+				);
+				$ASSERT(
+					n==2,
+					"Expected 2 restored leaves, got "+n
+				);
+			}finally
+			{
+				store.dispose();
+			}
+		}catch(IOException e)
+		{
+			$INVALIDATE("The registry could not be snapshot: "+e);
+		}finally
+		{
+			if(file!=null)
+				file
+					.toFile()
+					.delete();
+		}
+	}
+	
+	/**
+	 * Changes within a tick are folded into one notification per subscriber
+	 */
+	private void broadcasting()
+	{
+		RegistryServices.registerBroadcastingRegistry(
+			2,
+			EphemeralRegistry.makeConfig("test_broadcast"),
+			0L,
+			RegistryServices.BroadcastingRegistry.SYNCHRONOUS
+		);
+		RegistryServices.BroadcastingRegistry registry=RegistryServices.getBroadcasting(2);
+		registry.registerEntry(
+			"slider.value",
+			entry(0)
+		);
+		registry.registerEntry(
+			"slider.max",
+			entry(100)
+		);
+		List<Map<String,Object>> exact=new ArrayList<>();
+		List<Map<String,Object>> prefixed=new ArrayList<>();
+		registry.subscribe(
+			"slider.value",
+			exact::add
+		);
+		RegistryServices.BroadcastingRegistry.Subscription all=registry.subscribePrefix(
+			"slider.",
+			prefixed::add
+		);
+		RegistryKey value=registry.keyOf("slider.value");
+		for(int i=1;i<=100;i++)
+			registry.setEntryValue(
+				value,
+				i
+			);
+		$ASSERT(
+			!registry.setEntryValue(
+				value,
+				100
+			),
+			"Setting an equal value was counted as a change"
+		);
+		registry.setEntryValue(
+			"slider.max",
+			200
+		);
+		$ASSERT(
+			registry.flush()==2,
+			"Expected both subscribers to be notified"
+		);
+		$ASSERT(
+			exact.size()==1&&exact
+				.get(0)
+				.equals(Map.of(
+					"slider.value",
+					100
+				)),
+			"A tick was not folded into one notification with the latest value: "+exact
+		);
+		$ASSERT(
+			prefixed.size()==1&&prefixed
+				.get(0)
+				.size()==2,
+			"The prefix subscriber did not get every change under it: "+prefixed
+		);
+		all.dispose();
+		registry.setEntryValue(
+			value,
+			5
+		);
+		$ASSERT(
+			registry.flush()==1&&prefixed.size()==1&&exact.size()==2,
+			"A disposed subscription was still notified"
+		);
+		$ASSERT(
+			registry.flush()==0,
+			"A flush without changes notified someone"
+		);
 	}
 }
@@ -0,0 +1,247 @@
+import pkg.exoad.poprock.core.SnapshotStore;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.stream.Stream;
+@Section(name="Snapshot store replay, torn tails and compaction") public class Test_SnapshotStore
+	implements TestRoot,
+			   TestMixin
+{
+	enum Mode
+	{
+		LIGHT,
+		DARK
+	}
+	
+	@Override public void test()
+	{
+		Path dir=null;
+		try
+		{
+			dir=Files.createTempDirectory("poprock-snapshot");
+			Path path=dir.resolve("store");
+			SnapshotStore store=SnapshotStore.open(path);
+			store.put(
+				"int",
+				42
+			);
+			store.put(
+				"string",
+				"hello"
+			);
+			store.put(
+				"null",
+				null
+			);
+			byte[] bytes={
+				1,
+				2,
+				3
+			};
+			store.put(
+				"bytes",
+				bytes
+			);
+			// neither the array that was put nor one that was read changes what is kept
+			bytes[0]=9;
+			store.get(
+				"bytes",
+				new byte[0]
+			)[1]=9;
+			$ASSERT(
+				Arrays.equals(
+					store.get(
+						"bytes",
+						new byte[0]
+					),
+					new byte[]{
+						1,
+						2,
+						3
+					}
+				),
+				"A byte array was changed through the store"
+			);
+			store.put(
+				"enum",
+				Mode.DARK
+			);
+			store.put(
+				"list",
+				new ArrayList<>(List.of(
+					"a",
+					"b"
+				))
+			);
+			store.put(
+				"gone",
+				1.5D
+			);
+			$ASSERT(
+				store.remove("gone")&&!store.contains("gone"),
+				"A removed key is still there"
+			);
+			$ASSERT(
+				store.contains("null")&&store.get(
+					"null",
+					"fallback"
+				)==null,
+				"A null value was not kept as null"
+			);
+			long log=store.logBytes();
+			HashMap<String,Object> same=new HashMap<>();
+			same.put(
+				"int",
+				42
+			);
+			same.put(
+				"string",
+				"hello"
+			);
+			$ASSERT(
+				store.putAll(same)==0&&store.logBytes()==log,
+				"Unchanged values were written again"
+			);
+			store.dispose();
+			// replayed from the log
+			store=SnapshotStore.open(path);
+			assertValues(store);
+			store.dispose();
+			// a record cut off in the middle of being written
+			try(FileChannel ch=FileChannel.open(
+				path,
+				StandardOpenOption.WRITE,
+				StandardOpenOption.APPEND
+			))
+			{
+				ch.write(ByteBuffer.wrap(new byte[]{
+					0,
+					0,
+					0,
+					64,
+					7,
+					7
+				}));
+			}
+			store=SnapshotStore.open(path);
+			assertValues(store);
+			$ASSERT(
+				store.logBytes()==log,
+				"The torn record was not dropped, the log is "+store.logBytes()+" bytes instead of "+log
+			);
+			for(int i=0;i<500;i++)
+				store.put(
+					"n"+i,
+					i
+				);
+			store.compact();
+			$ASSERT(
+				store.logBytes()==0L,
+				"The log was not folded into the index"
+			);
+			store.put(
+				"after",
+				"compaction"
+			);
+			store.dispose();
+			$ASSERT(
+				!Files.exists(path),
+				"The generation from before compaction was not deleted"
+			);
+			store=SnapshotStore.open(path);
+			assertValues(store);
+			$ASSERT(
+				store.get(
+					"n499",
+					-1
+				)==499&&"compaction".equals(store.get("after")),
+				"Values were lost across compaction"
+			);
+			$ASSERT(
+				store
+					.keys()
+					.size()==507,
+				"Expected 507 keys, got "+store
+					.keys()
+					.size()
+			);
+			store.dispose();
+		}catch(IOException e)
+		{
+			$INVALIDATE("The snapshot store could not be used: "+e);
+		}finally
+		{
+			if(dir!=null)
+				delete(dir);
+		}
+	}
+	
+	private void assertValues(SnapshotStore store)
+	{
+		$ASSERT(
+			store.get(
+				"int",
+				-1
+			)==42,
+			"Differing int"
+		);
+		$ASSERT(
+			"hello".equals(store.get("string")),
+			"Differing string"
+		);
+		$ASSERT(
+			Arrays.equals(
+				store.get(
+					"bytes",
+					new byte[0]
+				),
+				new byte[]{
+					1,
+					2,
+					3
+				}
+			),
+			"Differing bytes"
+		);
+		$ASSERT(
+			store.get("enum")==Mode.DARK,
+			"Differing enum"
+		);
+		$ASSERT(
+			List
+				.of(
+					"a",
+					"b"
+				)
+				.equals(store.get("list")),
+			"Differing serialized value"
+		);
+		$ASSERT(
+			!store.contains("gone"),
+			"A removed key came back"
+		);
+	}
+	
+	private static void delete(Path dir)
+	{
+		try(Stream<Path> files=Files.walk(dir))
+		{
+			files
+				.sorted(Comparator.reverseOrder())
+				.forEach(x->x
+					.toFile()
+					.delete());
+		}catch(IOException ignored)
+		{
+		}
+	}
+}
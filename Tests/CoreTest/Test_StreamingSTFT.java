@@ -0,0 +1,230 @@
+import com.jackmeng.SpscByteRing;
+import com.jackmeng.StreamingSTFT;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+@Section(name="StreamingSTFT frames against a direct windowed DFT") public class Test_StreamingSTFT
+	implements TestRoot,
+			   TestMixin
+{
+	@Override public void test()
+	{
+		alignment();
+		sine();
+		pull();
+	}
+	
+	/**
+	 * Noise pushed in chunks of random sizes, where frame {@code j} has to be the
+	 * transform of the samples from {@code j*hop} on
+	 */
+	private void alignment()
+	{
+		Random r=new Random(5);
+		int size=256;
+		for(int hop: new int[]{
+			1,
+			64,
+			100,
+			256
+		})
+		{
+			int length=size+hop*37+r.nextInt(hop);
+			float[] samples=new float[length];
+			for(int i=0;i<length;i++)
+				samples[i]=r.nextFloat()*2F-1F;
+			List<float[]> frames=new ArrayList<>();
+			StreamingSTFT stft=new StreamingSTFT(
+				size,
+				hop,
+				StreamingSTFT.Window.HANN,
+				(m,bins,frame)->frames.add(m.clone())
+			);
+			int made=0;
+			for(int off=0;off<length;)
+			{
+				int len=Math.min(
+					1+r.nextInt(3*hop),
+					length-off
+				);
+				made+=stft.push(
+					samples,
+					off,
+					len
+				);
+				off+=len;
+			}
+			int expected=1+(length-size)/hop;
+			$ASSERT(
+				made==expected&&frames.size()==expected&&stft.frames()==expected,
+				"Expected "+expected+" frames of "+length+" samples with a hop of "+hop+", got "+frames.size()
+			);
+			double error=0D;
+			for(int j=0;j<frames.size();j++)
+				error=Math.max(
+					error,
+					maxError(
+						frames.get(j),
+						dft(
+							samples,
+							j*hop,
+							size,
+							StreamingSTFT.Window.HANN
+						)
+					)
+				);
+			$ASSERT(
+				error<1e-4,
+				"Frames with a hop of "+hop+" are off from the windowed DFT of their samples by "+error
+			);
+		}
+	}
+	
+	/**
+	 * A sine right at the center of a bin peaks in that bin at its amplitude
+	 */
+	private void sine()
+	{
+		int size=1024;
+		int bin=37;
+		float amplitude=0.75F;
+		float sampleRate=48000F;
+		float[] samples=new float[size*4];
+		for(int i=0;i<samples.length;i++)
+			samples[i]=(float)(amplitude*Math.sin(2D*Math.PI*bin*i/size));
+		for(StreamingSTFT.Window window: StreamingSTFT.Window.values())
+		{
+			float[] last=new float[size/2+1];
+			StreamingSTFT stft=new StreamingSTFT(
+				size,
+				size/4,
+				window,
+				(m,bins,frame)->System.arraycopy(
+					m,
+					0,
+					last,
+					0,
+					bins
+				)
+			);
+			stft.push(
+				samples,
+				0,
+				samples.length
+			);
+			int peak=0;
+			for(int k=1;k<last.length;k++)
+				if(last[k]>last[peak])
+					peak=k;
+			$ASSERT(
+				peak==bin&&Math.abs(stft.frequencyOf(
+					peak,
+					sampleRate
+				)-bin*sampleRate/size)<1e-3F,
+				"The sine peaked in bin "+peak+" instead of "+bin+" with a "+window+" window"
+			);
+			$ASSERT(
+				Math.abs(last[bin]-amplitude)<1e-3F,
+				"The sine peaked at "+last[bin]+" instead of "+amplitude+" with a "+window+" window"
+			);
+			float[] expected=dft(
+				samples,
+				samples.length-size,
+				size,
+				window
+			);
+			$ASSERT(
+				maxError(
+					last,
+					expected
+				)<1e-4,
+				"The sine's last frame is off from the windowed DFT with a "+window+" window"
+			);
+		}
+	}
+	
+	/**
+	 * Pulling from a ring stops at the frame limit and leaves the rest in the ring
+	 */
+	private void pull()
+	{
+		SpscByteRing ring=new SpscByteRing(1<<14);
+		float[] samples=new float[1024];
+		for(int i=0;i<samples.length;i++)
+			samples[i]=(float)Math.sin(i*0.1D);
+		ring.writeFloats(
+			samples,
+			0,
+			samples.length
+		);
+		StreamingSTFT stft=new StreamingSTFT(
+			256,
+			128,
+			StreamingSTFT.Window.HAMMING,
+			(m,bins,frame)->{}
+		);
+		int first=stft.pull(
+			ring,
+			2
+		);
+		int rest=stft.pull(ring);
+		$ASSERT(
+			first==2&&rest==5&&stft.frames()==7,
+			"Pulling 1024 samples gave "+first+" and then "+rest+" frames instead of 2 and 5"
+		);
+		stft.reset();
+		$ASSERT(
+			stft.frames()==0L&&stft.push(
+				samples,
+				0,
+				255
+			)==0&&stft.push(
+				samples,
+				255,
+				1
+			)==1,
+			"A reset stream did not wait for a whole frame again"
+		);
+	}
+	
+	/**
+	 * @return The magnitudes of the windowed samples from {@code at}, scaled like
+	 * {@link StreamingSTFT} scales them
+	 */
+	private static float[] dft(float[] samples,int at,int size,StreamingSTFT.Window window)
+	{
+		float[] w=window.coefficients(size);
+		double sum=0D;
+		for(float c: w)
+			sum+=c;
+		double scale=2D/sum;
+		float[] r=new float[size/2+1];
+		for(int k=0;k<r.length;k++)
+		{
+			double re=0D;
+			double im=0D;
+			for(int t=0;t<size;t++)
+			{
+				double a=-2D*Math.PI*((long)k*t%size)/size;
+				double x=samples[at+t]*(double)w[t];
+				re+=x*Math.cos(a);
+				im+=x*Math.sin(a);
+			}
+			double m=Math.sqrt(re*re+im*im)*scale;
+			r[k]=(float)(k==0||k==size/2?m*0.5D:m);
+		}
+		return r;
+	}
+	
+	private static double maxError(float[] a,float[] b)
+	{
+		double r=0D;
+		for(int i=0;i<a.length;i++)
+			r=Math.max(
+				r,
+				Math.abs(a[i]-b[i])
+			);
+		return r;
+	}
+}
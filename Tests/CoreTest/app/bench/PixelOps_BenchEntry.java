@@ -0,0 +1,192 @@
+package app.bench;
+
+import static java.lang.System.out;
+
+import pkg.exoad.poprock.core.io.image.ConvolutionEngine;
+import pkg.exoad.poprock.core.io.image.EdgeMode;
+import pkg.exoad.poprock.core.io.image.KernelService;
+import pkg.exoad.poprock.core.io.image.PixelOps;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Times the scalar and the picked {@link PixelOps} against each other on 1080p and 4K
+ * frames and checks that they agree. Run with
+ * {@code --add-modules jdk.incubator.vector} to get the SIMD path, otherwise both
+ * columns are the scalar one.
+ */
+class PixelOps_BenchEntry
+{
+	static final int WARMUP=15;
+	static final int RUNS=30;
+	
+	interface Op
+	{
+		void run(PixelOps ops,int[] px,float[] planes);
+	}
+	
+	public static void main(String[] args)
+	{
+		out.println("PixelOps="+PixelOps.get());
+		bench(
+			1920,
+			1080
+		);
+		bench(
+			3840,
+			2160
+		);
+	}
+	
+	static void bench(int w,int h)
+	{
+		int n=w*h;
+		int[] source=new int[n];
+		Random r=new Random(7);
+		for(int i=0;i<n;i++)
+			source[i]=r.nextInt();
+		out.println("== "+w+"x"+h);
+		measure(
+			"unpack+pack",
+			source,
+			(ops,px,planes)->{
+				ops.unpack(
+					px,
+					0,
+					planes,
+					0,
+					n,
+					n
+				);
+				ops.pack(
+					planes,
+					0,
+					n,
+					px,
+					0,
+					n
+				);
+			}
+		);
+		measure(
+			"mac",
+			source,
+			(ops,px,planes)->ops.mac(
+				planes,
+				0,
+				0.25F,
+				planes,
+				n,
+				n
+			)
+		);
+		measure(
+			"premultiply",
+			source,
+			(ops,px,planes)->ops.premultiply(
+				px,
+				0,
+				n
+			)
+		);
+		float[][] kernel=new float[9][9];
+		for(int y=0;y<9;y++)
+			for(int x=0;x<9;x++)
+				kernel[y][x]=(float)Math.exp(-((x-4)*(x-4)+(y-4)*(y-4))/8.0);
+		KernelService.normalizeKernel(kernel);
+		int[] dst=new int[n];
+		long best=Long.MAX_VALUE;
+		for(int i=0;i<WARMUP+RUNS;i++)
+		{
+			long t=System.nanoTime();
+			ConvolutionEngine.convolve(
+				source,
+				dst,
+				w,
+				h,
+				kernel,
+				EdgeMode.CLAMP
+			);
+			t=System.nanoTime()-t;
+			if(i>=WARMUP)
+				best=Math.min(
+					best,
+					t
+				);
+		}
+		out.printf(
+			"  %-28s %10.3f ms (picked)%n",
+			"gaussian 9x9",
+			best/1e6
+		);
+	}
+	
+	static void measure(String name,int[] source,Op op)
+	{
+		int[] scalarOut=source.clone();
+		int[] pickedOut=source.clone();
+		float[] scalarPlanes=new float[source.length*4];
+		float[] pickedPlanes=new float[source.length*4];
+		long scalar=time(
+			PixelOps.scalar(),
+			op,
+			source,
+			scalarOut,
+			scalarPlanes
+		);
+		long picked=time(
+			PixelOps.get(),
+			op,
+			source,
+			pickedOut,
+			pickedPlanes
+		);
+		out.printf(
+			"  %-28s %10.3f ms (scalar) %10.3f ms (picked) x%.2f %s%n",
+			name,
+			scalar/1e6,
+			picked/1e6,
+			(double)scalar/picked,
+			Arrays.equals(
+				scalarOut,
+				pickedOut
+			)&&Arrays.equals(
+				scalarPlanes,
+				pickedPlanes
+			)?"same":"DIFFERENT"
+		);
+	}
+	
+	static long time(PixelOps ops,Op op,int[] source,int[] px,float[] planes)
+	{
+		long best=Long.MAX_VALUE;
+		for(int i=0;i<WARMUP+RUNS;i++)
+		{
+			System.arraycopy(
+				source,
+				0,
+				px,
+				0,
+				source.length
+			);
+			Arrays.fill(
+				planes,
+				0F
+			);
+			long t=System.nanoTime();
+			op.run(
+				ops,
+				px,
+				planes
+			);
+			t=System.nanoTime()-t;
+			if(i>=WARMUP)
+				best=Math.min(
+					best,
+					t
+				);
+		}
+		return best;
+	}
+}
@@ -12,13 +12,17 @@ class UIGradientDisplayChild
 	JPanel
 {
 	
+	// resolved once, paintComponent runs way too often to look this up every time
+	private final EventPoolService.EventHandle<GradientEventPayload> gradient;
+	
 	public UIGradientDisplayChild()
 	{
-		EventPoolService
+		gradient=EventPoolService
 			.getPool(1)
-			.attachListener(
-				GradientEventPayload.class,
-				this::repaint
+			.handleOf(GradientEventPayload.class);
+		gradient
+			.attach(
+				e->repaint()
 			);
 	}
 	
@@ -31,22 +35,9 @@ class UIGradientDisplayChild
 				RenderingHints.KEY_ANTIALIASING,
 				RenderingHints.VALUE_ANTIALIAS_ON
 			);
-		if(EventPoolService
-			   .getPool(1)
-			   .getPayload(
-				   GradientEventPayload.class
-			   )!=null&&!EventPoolService
-			.getPool(1)
-			.getPayload(
-				GradientEventPayload.class
-			)
-			.equals(
-				GradientEventPayload.EMPTY
-			))
+		GradientEventPayload e=gradient.get();
+		if(e!=null&&!e.equals(GradientEventPayload.EMPTY))
 		{
-			GradientEventPayload e=EventPoolService
-				.getPool(1)
-				.getPayload(GradientEventPayload.class);
 			g
 				.setColor(
 					e